@@ -10,28 +10,45 @@ public final class FValue {
 
     public enum Type { NULL, BOOLEAN, NUMBER, STRING, LIST, MAP }
 
-    public static final FValue NULL         = new FValue(Type.NULL,    null);
-    public static final FValue TRUE         = new FValue(Type.BOOLEAN, Boolean.TRUE);
-    public static final FValue FALSE        = new FValue(Type.BOOLEAN, Boolean.FALSE);
-    public static final FValue ZERO         = new FValue(Type.NUMBER,  0.0);
-    public static final FValue ONE          = new FValue(Type.NUMBER,  1.0);
-    public static final FValue EMPTY_STRING = new FValue(Type.STRING,  "");
+    // Integral numbers in this range are interned, so counters and loop
+    // indices never allocate.
+    private static final int      CACHE_LOW  = -128;
+    private static final int      CACHE_HIGH = 1024;
+    private static final FValue[] CACHE      = new FValue[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) CACHE[i] = new FValue(Type.NUMBER, CACHE_LOW + i, null);
+    }
+
+    public static final FValue NULL         = new FValue(Type.NULL,    0.0, null);
+    public static final FValue TRUE         = new FValue(Type.BOOLEAN, 1.0, null);
+    public static final FValue FALSE        = new FValue(Type.BOOLEAN, 0.0, null);
+    public static final FValue ZERO         = CACHE[-CACHE_LOW];
+    public static final FValue ONE          = CACHE[1 - CACHE_LOW];
+    public static final FValue EMPTY_STRING = new FValue(Type.STRING,  0.0, "");
 
+    // Numbers and booleans live unboxed in num; strings, lists and maps in ref.
     private final Type   type;
-    private final Object raw;
+    private final double num;
+    private final Object ref;
 
-    private FValue(Type type, Object raw) {
+    private FValue(Type type, double num, Object ref) {
         this.type = type;
-        this.raw  = raw;
+        this.num  = num;
+        this.ref  = ref;
     }
 
     public static FValue of(boolean b)           { return b ? TRUE : FALSE; }
-    public static FValue of(double d)            { return d == 0.0 ? ZERO : d == 1.0 ? ONE : new FValue(Type.NUMBER, d); }
+    public static FValue of(double d) {
+        int i = (int) d;
+        if (i == d && i >= CACHE_LOW && i <= CACHE_HIGH) return CACHE[i - CACHE_LOW];
+        return new FValue(Type.NUMBER, d, null);
+    }
     public static FValue of(long l)              { return of((double) l); }
-    public static FValue of(int i)               { return of((double) i); }
-    public static FValue of(String s)            { return s == null ? NULL : s.isEmpty() ? EMPTY_STRING : new FValue(Type.STRING, s); }
-    public static FValue ofList(List<FValue> l)  { return new FValue(Type.LIST, l); }
-    public static FValue ofMap(Map<String,FValue> m) { return new FValue(Type.MAP, m); }
+    public static FValue of(int i)               { return i >= CACHE_LOW && i <= CACHE_HIGH ? CACHE[i - CACHE_LOW] : new FValue(Type.NUMBER, i, null); }
+    public static FValue of(String s)            { return s == null ? NULL : s.isEmpty() ? EMPTY_STRING : new FValue(Type.STRING, 0.0, s); }
+    public static FValue ofList(List<FValue> l)  { return new FValue(Type.LIST, 0.0, l); }
+    public static FValue ofMap(Map<String,FValue> m) { return new FValue(Type.MAP, 0.0, m); }
     public static FValue newList()               { return ofList(new ArrayList<>()); }
     public static FValue newMap()                { return ofMap(new LinkedHashMap<>()); }
 
@@ -46,20 +63,18 @@ public final class FValue {
     public boolean asBoolean() {
         return switch (type) {
             case NULL    -> false;
-            case BOOLEAN -> (Boolean) raw;
-            case NUMBER  -> (Double) raw != 0.0;
-            case STRING  -> !((String) raw).isEmpty();
-            case LIST    -> !((List<?>) raw).isEmpty();
-            case MAP     -> !((Map<?,?>) raw).isEmpty();
+            case BOOLEAN, NUMBER -> num != 0.0;
+            case STRING  -> !((String) ref).isEmpty();
+            case LIST    -> !((List<?>) ref).isEmpty();
+            case MAP     -> !((Map<?,?>) ref).isEmpty();
         };
     }
 
     public double asNumber() {
+        if (type == Type.NUMBER) return num;
         return switch (type) {
-            case NULL    -> 0.0;
-            case BOOLEAN -> (Boolean) raw ? 1.0 : 0.0;
-            case NUMBER  -> (Double) raw;
-            case STRING  -> { try { yield Double.parseDouble((String) raw); } catch (NumberFormatException e) { yield 0.0; } }
+            case BOOLEAN -> num;
+            case STRING  -> { try { yield Double.parseDouble((String) ref); } catch (NumberFormatException e) { yield 0.0; } }
             default      -> 0.0;
         };
     }
@@ -69,25 +84,22 @@ public final class FValue {
 
     @SuppressWarnings("unchecked")
     public List<FValue> asList() {
-        return type == Type.LIST ? (List<FValue>) raw : new ArrayList<>();
+        return type == Type.LIST ? (List<FValue>) ref : new ArrayList<>();
     }
 
     @SuppressWarnings("unchecked")
     public Map<String, FValue> asMap() {
-        return type == Type.MAP ? (Map<String, FValue>) raw : new LinkedHashMap<>();
+        return type == Type.MAP ? (Map<String, FValue>) ref : new LinkedHashMap<>();
     }
 
     public String asString() {
         return switch (type) {
             case NULL    -> "";
-            case BOOLEAN -> raw.toString();
-            case NUMBER  -> {
-                double d = (Double) raw;
-                yield (d == Math.floor(d) && !Double.isInfinite(d))
-                    ? String.valueOf((long) d)
-                    : String.valueOf(d);
-            }
-            case STRING  -> (String) raw;
+            case BOOLEAN -> num != 0.0 ? "true" : "false";
+            case NUMBER  -> (num == Math.floor(num) && !Double.isInfinite(num))
+                    ? String.valueOf((long) num)
+                    : String.valueOf(num);
+            case STRING  -> (String) ref;
             case LIST    -> {
                 StringBuilder sb = new StringBuilder("[");
                 List<FValue> l = asList();
@@ -110,6 +122,7 @@ public final class FValue {
     }
 
     public FValue add(FValue o) {
+        if (type == Type.NUMBER && o.type == Type.NUMBER) return FValue.of(num + o.num);
         if (type == Type.STRING || o.type == Type.STRING) return FValue.of(asString() + o.asString());
         if (type == Type.LIST) {
             List<FValue> n = new ArrayList<>(asList());
@@ -119,7 +132,11 @@ public final class FValue {
         return FValue.of(asNumber() + o.asNumber());
     }
 
-    public FValue subtract(FValue o) { return FValue.of(asNumber() - o.asNumber()); }
+    public FValue subtract(FValue o) {
+        if (type == Type.NUMBER && o.type == Type.NUMBER) return FValue.of(num - o.num);
+        return FValue.of(asNumber() - o.asNumber());
+    }
+
     public FValue multiply(FValue o) { return FValue.of(asNumber() * o.asNumber()); }
     public FValue divide(FValue o)   { double d = o.asNumber(); return d == 0.0 ? FValue.of(Double.NaN) : FValue.of(asNumber() / d); }
     public FValue modulo(FValue o)   { double d = o.asNumber(); return d == 0.0 ? ZERO : FValue.of(asNumber() % d); }
@@ -127,11 +144,12 @@ public final class FValue {
     public FValue negate()           { return type == Type.BOOLEAN ? FValue.of(!asBoolean()) : FValue.of(-asNumber()); }
 
     public int compareTo(FValue o) {
-        if (type == Type.NUMBER && o.type == Type.NUMBER) return Double.compare(asNumber(), o.asNumber());
+        if (type == Type.NUMBER && o.type == Type.NUMBER) return Double.compare(num, o.num);
         return asString().compareTo(o.asString());
     }
 
     public boolean equalsValue(FValue o) {
+        if (type == Type.NUMBER && o.type == Type.NUMBER) return sameNumber(num, o.num);
         if (type == Type.NULL && o.type == Type.NULL) return true;
         if (type == Type.NULL || o.type == Type.NULL) return false;
         if (type != o.type) {
@@ -141,20 +159,31 @@ public final class FValue {
             }
             return false;
         }
-        if (type == Type.LIST || type == Type.MAP) return raw == o.raw;
-        return Objects.equals(raw, o.raw);
+        if (type == Type.LIST || type == Type.MAP) return ref == o.ref;
+        if (type == Type.BOOLEAN) return num == o.num;
+        return Objects.equals(ref, o.ref);
+    }
+
+    /** Same semantics as Double.equals: NaN equals NaN, 0.0 and -0.0 differ. */
+    private static boolean sameNumber(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
     }
 
     @Override public String  toString()  { return asString(); }
     @Override public boolean equals(Object o) { return o instanceof FValue f && equalsValue(f); }
-    @Override public int     hashCode()  { return Objects.hash(type, raw); }
+    @Override public int     hashCode()  {
+        return switch (type) {
+            case BOOLEAN, NUMBER -> 31 * type.hashCode() + Double.hashCode(num);
+            default              -> 31 * type.hashCode() + Objects.hashCode(ref);
+        };
+    }
 
     public Object toSerializable() {
         return switch (type) {
             case NULL    -> null;
-            case BOOLEAN -> (Boolean) raw;
-            case NUMBER  -> (Double) raw;
-            case STRING  -> (String) raw;
+            case BOOLEAN -> num != 0.0;
+            case NUMBER  -> num;
+            case STRING  -> (String) ref;
             case LIST    -> { List<Object> out = new ArrayList<>(); for (FValue v : asList()) out.add(v.toSerializable()); yield out; }
             case MAP     -> { Map<String,Object> out = new LinkedHashMap<>(); for (var e : asMap().entrySet()) out.put(e.getKey(), e.getValue().toSerializable()); yield out; }
         };
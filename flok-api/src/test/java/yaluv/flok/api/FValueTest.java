@@ -0,0 +1,47 @@
+package yaluv.flok.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Interned small integers, and number equality. */
+class FValueTest {
+
+    @Test
+    void integersFromMinus128To1024AreInterned() {
+        assertSame(FValue.of(-128), FValue.of(-128));
+        assertSame(FValue.of(1024), FValue.of(1024));
+        assertSame(FValue.ZERO, FValue.of(0));
+        assertSame(FValue.ONE, FValue.of(1L));
+        assertSame(FValue.of(7), FValue.of(7.0));
+
+        assertNotSame(FValue.of(-129), FValue.of(-129));
+        assertNotSame(FValue.of(1025), FValue.of(1025));
+        assertNotSame(FValue.of(2.5), FValue.of(2.5));
+        assertEquals(FValue.of(1025), FValue.of(1025.0));
+        assertEquals(1025, FValue.of(1025).asNumber());
+        assertEquals(-129, FValue.of(-129L).asNumber());
+    }
+
+    @Test
+    void nanEqualsItself() {
+        FValue nan = FValue.of(Double.NaN);
+        assertTrue(nan.equalsValue(FValue.of(0.0 / 0.0)));
+        assertEquals(nan.hashCode(), FValue.of(Double.NaN).hashCode());
+        assertNotEquals(FValue.ZERO, nan);
+    }
+
+    @Test
+    void negativeZeroIsZero() {
+        assertSame(FValue.ZERO, FValue.of(-0.0));
+        assertEquals(FValue.of(0.0), FValue.of(-0.0));
+        assertEquals("0", FValue.of(-0.0).asString());
+    }
+
+    @Test
+    void numbersAndNumericStringsCompareByValue() {
+        assertEquals(FValue.of(3), FValue.of("3"));
+        assertEquals(FValue.of(2000), FValue.of("2000.0"));
+        assertNotEquals(FValue.of(3), FValue.of("three"));
+    }
+}
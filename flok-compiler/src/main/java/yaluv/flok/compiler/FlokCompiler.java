@@ -0,0 +1,120 @@
+package yaluv.flok.compiler;
+
+import yaluv.flok.engine.CompiledScript;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.cache.ScriptArchive;
+import yaluv.flok.engine.optimizer.ASTOptimizer;
+import yaluv.flok.engine.runtime.Linkage;
+import yaluv.flok.parser.Lexer;
+import yaluv.flok.parser.ParseException;
+import yaluv.flok.parser.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ahead-of-time compiler for a scripts folder. Every .fk file is lexed,
+ * parsed, optimised and lowered to bytecode exactly as the engine would at
+ * load time, and the trees are written to a jar the engine loads with
+ * engine.precompiled. Any error fails the whole run and no jar is written.
+ *
+ * Only the plugin's parser, optimiser and compiler classes are used, so this
+ * runs offline with no server on the classpath.
+ *
+ * Usage: {@code FlokCompiler [--no-optimize] <scripts-folder> <output.jar>}
+ */
+public final class FlokCompiler {
+
+    private final boolean     optimize;
+    private final PrintStream err;
+    private int               errors;
+    private int               warnings;
+
+    public FlokCompiler(boolean optimize, PrintStream err) {
+        this.optimize = optimize;
+        this.err      = err;
+    }
+
+    public static void main(String[] args) {
+        boolean optimize = true;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--no-optimize")) optimize = false;
+            else                             paths.add(arg);
+        }
+        if (paths.size() != 2) {
+            System.err.println("Usage: FlokCompiler [--no-optimize] <scripts-folder> <output.jar>");
+            System.exit(2);
+        }
+
+        FlokCompiler compiler = new FlokCompiler(optimize, System.err);
+        try {
+            int n = compiler.compile(new File(paths.get(0)), Path.of(paths.get(1)));
+            if (n < 0) System.exit(1);
+            System.out.println("Compiled " + n + " script(s) into " + paths.get(1)
+                    + (compiler.warnings > 0 ? " with " + compiler.warnings + " warning(s)" : ""));
+        } catch (IOException e) {
+            System.err.println("error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compile every .fk file in {@code folder} into {@code jar}. Returns the
+     * number of scripts written, or -1 if any had errors; they are all
+     * reported to the error stream either way.
+     */
+    public int compile(File folder, Path jar) throws IOException {
+        File[] files = folder.listFiles(f -> f.isFile() && f.getName().endsWith(".fk"));
+        if (files == null) throw new IOException("not a folder: " + folder.getPath());
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        List<ScriptArchive.Entry> entries = new ArrayList<>(files.length);
+        for (File file : files) {
+            ASTNode.Program program = compile(file.getName(), Files.readString(file.toPath(), StandardCharsets.UTF_8));
+            if (program != null) entries.add(new ScriptArchive.Entry(file.getName(), program, optimize));
+        }
+        if (errors > 0) {
+            err.println(errors + " error(s); " + jar + " was not written");
+            return -1;
+        }
+        ScriptArchive.write(jar, entries);
+        return entries.size();
+    }
+
+    /** The checked tree of one script, or null after reporting its error. */
+    ASTNode.Program compile(String name, String source) {
+        try {
+            List<Lexer.Token> tokens = new Lexer(source, name).tokenize();
+            ASTNode.Program ast = new Parser(tokens, name).parse();
+            if (optimize) ast = ASTOptimizer.optimize(ast);
+
+            // Lowering rejects constructs the bytecode compiler cannot handle.
+            CompiledScript script = new CompiledScript(name, ast);
+            script.compileBytecode();
+
+            // Effects come from addons and are only known on the server; functions are known now.
+            List<String> unresolved = new ArrayList<>();
+            Linkage.linkAll(script, null, false, unresolved);
+            for (String msg : unresolved) {
+                err.println(name + ": warning: " + msg);
+                warnings++;
+            }
+            return ast;
+        } catch (ParseException e) {
+            err.println(name + (e.getLine() > 0 ? ":" + e.getLine() : "") + ": error: " + e.getRawMessage());
+        } catch (RuntimeException e) {
+            err.println(name + ": error: " + e);
+        }
+        errors++;
+        return null;
+    }
+}
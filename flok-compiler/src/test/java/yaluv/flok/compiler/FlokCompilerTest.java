@@ -0,0 +1,124 @@
+package yaluv.flok.compiler;
+
+import yaluv.flok.engine.cache.ScriptArchive;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlokCompilerTest {
+
+    static final String GREET = """
+            on join:
+                send "Welcome, %player%!"
+
+            command hello:
+                send greeting(%player%)
+
+            function greeting(name):
+                return "Hello " + %name% + "!"
+            """;
+
+    static final String COUNT = """
+            on block-break type: diamond_ore:
+                %found% = 2 * 3
+                record "found %found%"
+            """;
+
+    @TempDir Path dir;
+
+    private final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+
+    private FlokCompiler compiler() {
+        return new FlokCompiler(true, new PrintStream(errors, true, StandardCharsets.UTF_8));
+    }
+
+    private Path scripts(String... nameAndSource) throws IOException {
+        Path folder = Files.createDirectories(dir.resolve("scripts"));
+        for (int i = 0; i < nameAndSource.length; i += 2) {
+            Files.writeString(folder.resolve(nameAndSource[i]), nameAndSource[i + 1]);
+        }
+        return folder;
+    }
+
+    @Test
+    void compilesEveryScriptInTheFolder() throws IOException {
+        Path folder = scripts("greet.fk", GREET, "count.fk", COUNT, "notes.txt", "not a script");
+        Path jar = dir.resolve("out/scripts.jar");
+
+        assertEquals(2, compiler().compile(folder.toFile(), jar));
+        assertEquals("", errors.toString(StandardCharsets.UTF_8));
+
+        List<ScriptArchive.Entry> entries = ScriptArchive.read(jar.toFile());
+        assertEquals(List.of("count.fk", "greet.fk"), entries.stream().map(ScriptArchive.Entry::name).toList());
+        assertTrue(entries.stream().allMatch(ScriptArchive.Entry::optimized));
+    }
+
+    @Test
+    void brokenScriptFailsTheRunAndWritesNoJar() throws IOException {
+        Path folder = scripts("greet.fk", GREET, "broken.fk", "on join:\n    %x% = (1 +\n");
+        Path jar = dir.resolve("scripts.jar");
+
+        assertEquals(-1, compiler().compile(folder.toFile(), jar));
+        assertFalse(Files.exists(jar));
+        String report = errors.toString(StandardCharsets.UTF_8);
+        assertTrue(report.contains("broken.fk:2: error:"), report);
+        assertTrue(report.contains("1 error(s)"), report);
+    }
+
+    @Test
+    void sameSourcesGiveTheSameJar() throws IOException {
+        Path folder = scripts("greet.fk", GREET, "count.fk", COUNT);
+        Path first  = dir.resolve("first.jar");
+        Path second = dir.resolve("second.jar");
+
+        compiler().compile(folder.toFile(), first);
+        compiler().compile(folder.toFile(), second);
+
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+
+    /** A jar holding one entry that starts like a precompiled script, with the given manifest format. */
+    private Path jar(String manifestFormat, int entryFormat) throws IOException {
+        Path jar = dir.resolve("other.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (manifestFormat != null) manifest.getMainAttributes().putValue("Flok-Format", manifestFormat);
+        try (OutputStream file = Files.newOutputStream(jar);
+             JarOutputStream out = new JarOutputStream(file, manifest)) {
+            out.putNextEntry(new JarEntry("flok-scripts/greet.fk.fkc"));
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(0x464C4B41);
+            data.writeInt(entryFormat);
+            data.flush();
+            out.closeEntry();
+        }
+        return jar;
+    }
+
+    @Test
+    void readRejectsAJarInAnotherFormat() throws IOException {
+        IOException e = assertThrows(IOException.class, () -> ScriptArchive.read(jar("2", 2).toFile()));
+        assertTrue(e.getMessage().contains("written in format 2"), e.getMessage());
+    }
+
+    @Test
+    void readRejectsAJarThatIsNotPrecompiledScripts() throws IOException {
+        IOException e = assertThrows(IOException.class, () -> ScriptArchive.read(jar(null, 2).toFile()));
+        assertTrue(e.getMessage().contains("not a precompiled scripts jar"), e.getMessage());
+    }
+}
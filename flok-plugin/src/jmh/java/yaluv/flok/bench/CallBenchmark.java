@@ -0,0 +1,85 @@
+package yaluv.flok.bench;
+
+import com.sun.management.ThreadMXBean;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Script function calls: recursive fib(15), about 2,000 calls, and a loop
+ * making 200 calls to a two-argument helper, each run as one event dispatch.
+ * All values stay in FValue's interned integer range, so anything a run
+ * allocates comes from the dispatch or the calls.
+ *
+ * In the bytecode and jit modes setup fails if a warmed-up dispatch allocates
+ * at all, per the thread's allocation counter. Allocation in every mode shows
+ * up as gc.alloc.rate.norm, since the gc profiler is on for the jmh task.
+ *
+ * Run with {@code ./gradlew :flok-plugin:jmh -PjmhIncludes=CallBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallBenchmark {
+
+    static final String SOURCE = """
+            function fib(n):
+                if %n% < 2:
+                    return %n%
+                return fib(%n% - 1) + fib(%n% - 2)
+
+            function clamp(v, hi):
+                if %v% > %hi%:
+                    return %hi%
+                return %v%
+
+            on fib:
+                %r% = fib(15)
+
+            on helper:
+                %i% = 0
+                %r% = 0
+                while %i% < 200:
+                    %r% = clamp(%r% + %i%, 500)
+                    %i% += 1
+            """;
+
+    @Param({"tree", "nodes", "bytecode", "jit"})
+    public String mode;
+
+    private ScriptRunner fib, helper;
+
+    @Setup
+    public void setUp() {
+        fib    = new ScriptRunner(mode, SOURCE, "fib");
+        helper = new ScriptRunner(mode, SOURCE, "helper");
+        if (mode.equals("bytecode") || mode.equals("jit")) {
+            assertNoAllocation("fib", fib);
+            assertNoAllocation("helper", helper);
+        }
+    }
+
+    private static void assertNoAllocation(String name, ScriptRunner runner) {
+        for (int i = 0; i < 10_000; i++) runner.run();
+        ThreadMXBean mx = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        long before = mx.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1_000; i++) runner.run();
+        long bytes = mx.getThreadAllocatedBytes(thread) - before;
+        if (bytes > 0) throw new IllegalStateException(name + " allocated " + bytes + " bytes in 1000 warm runs");
+    }
+
+    @Benchmark
+    public void fib() {
+        fib.run();
+    }
+
+    @Benchmark
+    public void helper() {
+        helper.run();
+    }
+}
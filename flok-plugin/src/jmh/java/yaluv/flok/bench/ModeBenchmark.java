@@ -0,0 +1,93 @@
+package yaluv.flok.bench;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.runtime.EventParams;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One event dispatch per invocation in each engine.mode, for three kinds of
+ * handler: a short one that checks its event params and returns early, as
+ * most player-move and block-break handlers do; an arithmetic loop; and one
+ * that builds and walks lists, maps and text.
+ *
+ * Run with {@code ./gradlew :flok-plugin:jmh -PjmhIncludes=ModeBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModeBenchmark {
+
+    static final String SOURCE = """
+            on handler:
+                %r% = 0
+                if %to-y% < 0:
+                    %r% = 1
+                    return
+                if %block% == "DIAMOND_ORE" and %to-y% < 16:
+                    %r% = %to-y% * 2 + 1
+                    record "found %block% at %to-y%"
+                    return
+                if %block% contains "ORE":
+                    %r% = 2
+
+            on arith:
+                %i% = 0
+                %r% = 0
+                while %i% < 1000:
+                    %r% = (%r% + %i% * 7) % 10007
+                    %i% += 1
+
+            on collections:
+                %l% = []
+                for i in range(0, 100):
+                    %l% = %l% + %i% * 2
+                %total% = 0
+                %names% = ""
+                for v in %l%:
+                    if %v% % 3 == 0:
+                        %total% += %v%
+                    %names% = %names% + str(%v% % 10)
+                %m% = {"total": %total%, "names": %names%}
+                %r% = length(%m%["names"]) + %m%.total
+            """;
+
+    @Param({"tree", "nodes", "bytecode", "jit"})
+    public String mode;
+
+    private ScriptRunner handler, arith, collections;
+
+    private final FValue      toY    = FValue.of(64);
+    private final FValue      block  = FValue.of("COPPER_ORE");
+    private final EventParams params = name -> switch (name) {
+        case "to-y"  -> toY;
+        case "block" -> block;
+        default      -> null;
+    };
+
+    @Setup
+    public void setUp() {
+        handler     = new ScriptRunner(mode, SOURCE, "handler");
+        arith       = new ScriptRunner(mode, SOURCE, "arith");
+        collections = new ScriptRunner(mode, SOURCE, "collections");
+    }
+
+    @Benchmark
+    public void handler() {
+        handler.run(params);
+    }
+
+    @Benchmark
+    public void arith() {
+        arith.run();
+    }
+
+    @Benchmark
+    public void collections() {
+        collections.run();
+    }
+}
@@ -0,0 +1,77 @@
+package yaluv.flok.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What charging the op budget costs, on handlers that charge it a lot: a
+ * loop whose body branches three ways, a loop making 1,000 calls to a
+ * one-line function, and 40 straight-line statements that are charged once.
+ *
+ * Run it on a tree that charges at loop back-edges and calls and on one that
+ * charges per basic block to compare the two.
+ *
+ * Run with {@code ./gradlew :flok-plugin:jmh -PjmhIncludes=OpCountBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpCountBenchmark {
+
+    static final String SOURCE = """
+            function bump(v):
+                return %v% + 1
+
+            on branches:
+                %i% = 0
+                %r% = 0
+                while %i% < 1000:
+                    if %i% % 3 == 0:
+                        %r% += 1
+                    else if %i% % 3 == 1:
+                        %r% += 2
+                    else:
+                        %r% -= 1
+                    %i% += 1
+
+            on calls:
+                %i% = 0
+                %r% = 0
+                while %i% < 1000:
+                    %r% = bump(%r%)
+                    %i% += 1
+
+            on straight:
+            """ + "    %r% = 1\n" + "    %r% = (%r% * 3 + 1) % 1000\n".repeat(39);
+
+    @Param({"tree", "nodes", "bytecode", "jit"})
+    public String mode;
+
+    private ScriptRunner branches, calls, straight;
+
+    @Setup
+    public void setUp() {
+        branches = new ScriptRunner(mode, SOURCE, "branches");
+        calls    = new ScriptRunner(mode, SOURCE, "calls");
+        straight = new ScriptRunner(mode, SOURCE, "straight");
+    }
+
+    @Benchmark
+    public void branches() {
+        branches.run();
+    }
+
+    @Benchmark
+    public void calls() {
+        calls.run();
+    }
+
+    @Benchmark
+    public void straight() {
+        straight.run();
+    }
+}
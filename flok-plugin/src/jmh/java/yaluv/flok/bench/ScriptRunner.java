@@ -0,0 +1,83 @@
+package yaluv.flok.bench;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.effects.EffectRegistry;
+import yaluv.flok.engine.ScriptEngine;
+import yaluv.flok.engine.runtime.EventParams;
+import yaluv.flok.storage.PersistentStorage;
+import yaluv.flok.util.ScriptLoadResult;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * One event handler of a script, loaded by a real ScriptEngine for a given
+ * engine.mode and run through {@link ScriptEngine#dispatchEvent}, so a run
+ * costs what a dispatch on a server costs: the event lookup, the pooled
+ * context and the script's executor as well as the handler itself.
+ *
+ * Modes are the engine.mode values plus {@code jit}: bytecode with every
+ * chunk promoted to a JVM class up front (engine.jit.scripts: always). The
+ * plugin is a mock with no server behind it; effects are no-ops, there is no
+ * player, and the scripts benchmarked here must not use persistent variables.
+ */
+final class ScriptRunner {
+
+    private final ScriptEngine engine;
+    private final String       event;
+
+    ScriptRunner(String mode, String source, String event) {
+        this.event = event;
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("engine.cache.enabled", false);
+        config.set("safety.max-ops", Long.MAX_VALUE);
+        if (mode.equals("jit")) {
+            config.set("engine.mode", "bytecode");
+            config.set("engine.jit.scripts.bench", "always");
+        } else {
+            config.set("engine.mode", mode);
+            config.set("engine.jit.enabled", false);
+        }
+        try {
+            Path folder  = Files.createTempDirectory("flok-bench");
+            Path scripts = Files.createDirectories(folder.resolve("scripts"));
+            Files.writeString(scripts.resolve("bench.fk"), source);
+
+            JavaPlugin plugin = mock(JavaPlugin.class);
+            when(plugin.getConfig()).thenReturn(config);
+            when(plugin.getServer()).thenReturn(mock(Server.class));
+            when(plugin.getDataFolder()).thenReturn(folder.toFile());
+            when(plugin.getDescription()).thenReturn(new PluginDescriptionFile("Flok", "bench", "yaluv.flok.FlokPlugin"));
+
+            EffectRegistry effects = new EffectRegistry();
+            effects.register("record", (p, args, c) -> {});
+            engine = new ScriptEngine(plugin, new PersistentStorage(plugin), effects);
+            List<ScriptLoadResult> results = engine.loadAll(scripts.toFile());
+            for (ScriptLoadResult r : results) {
+                if (!r.isOk()) throw new IllegalArgumentException(r.getErrorMessage());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!engine.hasHandlers(event)) throw new IllegalArgumentException("No handler for " + event);
+        if (mode.equals("jit") && engine.getJitCompiledCount() == 0) throw new IllegalStateException("nothing promoted");
+    }
+
+    /** Dispatch the event once with {@code params}, as an event source would. */
+    void run(EventParams params) {
+        engine.dispatchEvent(event, null, params);
+    }
+
+    void run() {
+        run(EventParams.NONE);
+    }
+}
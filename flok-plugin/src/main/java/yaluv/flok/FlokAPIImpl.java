@@ -28,11 +28,13 @@ final class FlokAPIImpl implements FlokAPI {
     @Override
     public void registerEffect(String name, FlokEffect effect) {
         engine.getEffectRegistry().register(name, effect);
+        engine.relinkEffects();
     }
 
     @Override
     public void unregisterEffect(String name) {
         engine.getEffectRegistry().unregister(name);
+        engine.relinkEffects();
     }
 
     @Override
@@ -5,6 +5,7 @@ import yaluv.flok.commands.DynamicCommandRegistrar;
 import yaluv.flok.commands.FlokCommand;
 import yaluv.flok.effects.EffectRegistry;
 import yaluv.flok.engine.ScriptEngine;
+import yaluv.flok.engine.ScriptWatcher;
 import yaluv.flok.events.EventAdapter;
 import yaluv.flok.storage.PersistentStorage;
 import yaluv.flok.util.FLogger;
@@ -12,6 +13,7 @@ import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Flok Lightweight Minecraft scripting plugin.
@@ -24,9 +26,11 @@ import java.io.File;
  *  5. ScriptEngine
  *  6. Load scripts
  *  7. Register commands
- *  8. Register event listener
+ *  8. Register event listeners for the events scripts handle
  *  9. Register FlokAPI with Bukkit ServiceManager
  * 10. Schedule auto-save (every 5 min)
+ * 11. Next tick: report effects no addon has registered
+ * 12. Optionally watch the scripts folder for hot reload
  */
 public final class FlokPlugin extends JavaPlugin {
 
@@ -34,6 +38,8 @@ public final class FlokPlugin extends JavaPlugin {
     private EffectRegistry       effectRegistry;
     private ScriptEngine         engine;
     private DynamicCommandRegistrar commandRegistrar;
+    private EventAdapter         eventAdapter;
+    private ScriptWatcher        watcher;
 
     @Override
     public void onEnable() {
@@ -66,7 +72,8 @@ public final class FlokPlugin extends JavaPlugin {
             flokCmd.setTabCompleter(handler);
         }
 
-        getServer().getPluginManager().registerEvents(new EventAdapter(engine, this), this);
+        eventAdapter = new EventAdapter(engine, this);
+        eventAdapter.update();
 
         getServer().getServicesManager().register(
                 FlokAPI.class,
@@ -76,12 +83,30 @@ public final class FlokPlugin extends JavaPlugin {
         );
 
         getServer().getScheduler().runTaskTimerAsynchronously(this, storage::save, 6000L, 6000L);
+        getServer().getScheduler().runTask(this, engine::reportUnresolvedEffects);
+
+        if (getConfig().getBoolean("engine.watch.enabled", false) && engine.isPrecompiled()) {
+            FLogger.warn("engine.watch is ignored while engine.precompiled is enabled.");
+        } else if (getConfig().getBoolean("engine.watch.enabled", false)) {
+            watcher = new ScriptWatcher(this, engine, scriptsFolder, getConfig().getLong("engine.watch.debounce-ms", 500L),
+                    applied -> {
+                        commandRegistrar.update(applied.commands());
+                        eventAdapter.update();
+                    });
+            try {
+                watcher.start();
+            } catch (IOException e) {
+                FLogger.warn("Could not watch the scripts folder: " + e.getMessage());
+                watcher = null;
+            }
+        }
 
         FLogger.info("Flok enabled. " + engine.getLoadedScriptCount() + " script(s) loaded. !WARNING PLUGIN IN BETA EXPECT ERRORS!");
     }
 
     @Override
     public void onDisable() {
+        if (watcher != null) watcher.stop();
         storage.forceSave();
         engine.shutdown();
         FLogger.info("Flok disabled.");
@@ -91,4 +116,5 @@ public final class FlokPlugin extends JavaPlugin {
     public ScriptEngine             getEngine()            { return engine; }
     public PersistentStorage        getStorage()           { return storage; }
     public DynamicCommandRegistrar  getCommandRegistrar()  { return commandRegistrar; }
+    public EventAdapter             getEventAdapter()      { return eventAdapter; }
 }
\ No newline at end of file
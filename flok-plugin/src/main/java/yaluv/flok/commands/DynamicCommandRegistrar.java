@@ -1,6 +1,7 @@
 package yaluv.flok.commands;
 
 import yaluv.flok.engine.ScriptEngine;
+import yaluv.flok.engine.ast.ASTNode;
 import yaluv.flok.util.FLogger;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
@@ -10,6 +11,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,24 +37,45 @@ public final class DynamicCommandRegistrar {
         for (ScriptCommand cmd : registered.values()) cmd.unregister(map);
         registered.clear();
 
-        for (var entry : engine.getCommandIndex().entrySet()) {
-            String name = entry.getKey();
-            var block = entry.getValue().block();
-            ScriptCommand cmd = new ScriptCommand(name, engine);
-            if (block.description() != null && !block.description().isEmpty())
-                cmd.setDescription(block.description());
-            if (!block.aliases().isEmpty())
-                cmd.setAliases(block.aliases());
-            map.register(plugin.getName().toLowerCase(), cmd);
-            registered.put(name, cmd);
-            FLogger.debug("Registered command: /" + name);
+        for (var entry : engine.getCommandIndex().entrySet()) register(map, entry.getKey(), entry.getValue().block());
+        syncCommands();
+
+        FLogger.info("Registered " + registered.size() + " script command(s).");
+    }
+
+    /**
+     * Re-register only these commands after an incremental reload: each is
+     * dropped, then registered again if a script still defines it.
+     */
+    public void update(Collection<String> names) {
+        if (names.isEmpty()) return;
+        CommandMap map = getCommandMap();
+        if (map == null) return;
+
+        for (String name : names) {
+            ScriptCommand old = registered.remove(name);
+            if (old != null) old.unregister(map);
+            var entry = engine.getCommandIndex().get(name);
+            if (entry != null) register(map, name, entry.block());
         }
+        syncCommands();
+    }
+
+    private void register(CommandMap map, String name, ASTNode.CommandBlock block) {
+        ScriptCommand cmd = new ScriptCommand(name, engine);
+        if (block.description() != null && !block.description().isEmpty())
+            cmd.setDescription(block.description());
+        if (!block.aliases().isEmpty())
+            cmd.setAliases(block.aliases());
+        map.register(plugin.getName().toLowerCase(), cmd);
+        registered.put(name, cmd);
+        FLogger.debug("Registered command: /" + name);
+    }
 
+    private static void syncCommands() {
         try {
             Bukkit.getServer().getClass().getMethod("syncCommands").invoke(Bukkit.getServer());
         } catch (Exception ignored) {}
-
-        FLogger.info("Registered " + registered.size() + " script command(s).");
     }
 
     private CommandMap getCommandMap() {
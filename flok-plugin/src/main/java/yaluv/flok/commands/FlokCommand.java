@@ -3,6 +3,7 @@ package yaluv.flok.commands;
 import yaluv.flok.FlokPlugin;
 import yaluv.flok.api.FValue;
 import yaluv.flok.engine.CompiledScript;
+import yaluv.flok.engine.ExecutionMode;
 import yaluv.flok.util.FLogger;
 import yaluv.flok.util.ScriptLoadResult;
 import org.bukkit.command.Command;
@@ -54,6 +55,17 @@ public final class FlokCommand implements CommandExecutor, TabCompleter {
                 sender.sendMessage(DIM + "Scripts:   " + VAL + plugin.getEngine().getLoadedScriptCount());
                 sender.sendMessage(DIM + "Events:    " + VAL + plugin.getEngine().getEventIndex().size());
                 sender.sendMessage(DIM + "Commands:  " + VAL + plugin.getEngine().getCommandIndex().size());
+                sender.sendMessage(DIM + "Mode:      " + VAL + plugin.getEngine().getMode().name().toLowerCase());
+                sender.sendMessage(DIM + "JIT:       " + VAL + plugin.getEngine().getJitCompiledCount() + " chunk(s) compiled");
+                if (plugin.getEngine().isVirtualThreadsEnabled()) {
+                    sender.sendMessage(DIM + "Parked:    " + VAL + plugin.getEngine().getParkedScriptCount() + " script(s) waiting");
+                }
+                if (plugin.getEngine().getDeferredScriptCount() > 0) {
+                    sender.sendMessage(DIM + "Deferred:  " + VAL + plugin.getEngine().getDeferredScriptCount() + " script(s) not compiled yet");
+                }
+                if (plugin.getEngine().isTimeSlicingEnabled()) {
+                    sender.sendMessage(DIM + "Sliced:    " + VAL + plugin.getEngine().getSlicedScriptCount() + " script(s) queued");
+                }
                 sender.sendMessage(DIM + "Debug:     " + VAL + (FLogger.isDebugMode() ? "ON" : "OFF"));
                 long used = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024;
                 sender.sendMessage(DIM + "JVM Heap:  " + VAL + used + " MB used");
@@ -68,8 +80,10 @@ public final class FlokCommand implements CommandExecutor, TabCompleter {
                 }
                 if (plugin.getEngine().getScripts().isEmpty())
                     sender.sendMessage(DIM + "  (no scripts loaded)");
+                for (ScriptLoadResult r : plugin.getEngine().getDeferredErrors()) sendError(sender, r);
             }
             case "storage" -> handleStorage(sender, args);
+            case "nodes"   -> showNodes(sender, args);
             default -> sendHelp(sender);
         }
         return true;
@@ -79,23 +93,34 @@ public final class FlokCommand implements CommandExecutor, TabCompleter {
         plugin.reloadConfig();
         FLogger.setDebugMode(plugin.getConfig().getBoolean("debug", false));
         sender.sendMessage(HEAD + "Reloading all scripts...");
+        long start = System.nanoTime();
         var results = plugin.getEngine().loadAll(scriptsFolder());
         plugin.getCommandRegistrar().registerAll();
+        plugin.getEventAdapter().update();
+        long ms = (System.nanoTime() - start) / 1_000_000L;
 
         long ok = 0, err = 0;
         for (var r : results) {
-            if (r.isOk()) { ok++; sender.sendMessage(OK + "  ✓ " + VAL + r.getFileName()); }
+            if (r.isOk()) { ok++; sender.sendMessage(OK + "  ✓ " + VAL + r.getFileName() + (r.isDeferred() ? DIM + " (deferred)" : "")); }
             else           { err++; sendError(sender, r); }
         }
         if (results.isEmpty()) sender.sendMessage(WARN + "  No .fk files found in " + scriptsFolder().getPath());
-        else sender.sendMessage(ok + " loaded" + (err > 0 ? ", " + ERR + err + " failed" : OK + " — all OK") + ".");
+        else sender.sendMessage(ok + " loaded" + (err > 0 ? ", " + ERR + err + " failed" : OK + " — all OK")
+                + DIM + " (" + ms + " ms).");
     }
 
     private void reloadSingle(CommandSender sender, String rawName) {
         String name = rawName.endsWith(".fk") ? rawName : rawName + ".fk";
+        var engine  = plugin.getEngine();
+        if (engine.isPrecompiled()) {
+            sender.sendMessage(ERR + "Scripts are precompiled (engine.precompiled); use /flok reload to reload the jar.");
+            return;
+        }
         sender.sendMessage(WARN + "Reloading " + name + "...");
-        var r = plugin.getEngine().loadSingle(scriptsFolder(), name);
-        plugin.getCommandRegistrar().registerAll();
+        var applied = engine.apply(engine.rebuild(scriptsFolder(), List.of(name)));
+        plugin.getCommandRegistrar().update(applied.commands());
+        plugin.getEventAdapter().update();
+        var r = applied.results().get(0);
         if (r.isOk()) sender.sendMessage(OK + "✓ " + name + " reloaded.");
         else          sendError(sender, r);
     }
@@ -149,6 +174,20 @@ public final class FlokCommand implements CommandExecutor, TabCompleter {
         }
     }
 
+    private void showNodes(CommandSender sender, String[] args) {
+        if (args.length < 2) { sender.sendMessage(WARN + "Usage: /flok nodes <script>"); return; }
+        CompiledScript script = plugin.getEngine().getScripts().stream()
+            .filter(s -> s.getName().equalsIgnoreCase(args[1]))
+            .findFirst().orElse(null);
+        if (script == null) { sender.sendMessage(ERR + "No loaded script named " + args[1]); return; }
+        if (plugin.getEngine().getMode() != ExecutionMode.NODES)
+            sender.sendMessage(WARN + "engine.mode is not nodes; nothing is specialized.");
+        sender.sendMessage(HEAD + "Nodes of " + script.getName());
+        List<String> lines = script.getNodeTree().dump();
+        if (lines.isEmpty()) sender.sendMessage(DIM + "  (nothing has run yet)");
+        for (String line : lines) sender.sendMessage(DIM + line);
+    }
+
     private File scriptsFolder() {
         return new File(plugin.getDataFolder(),
             plugin.getConfig().getString("scripts.folder", "scripts"));
@@ -161,13 +200,14 @@ public final class FlokCommand implements CommandExecutor, TabCompleter {
         sender.sendMessage(DIM + "/flok info");
         sender.sendMessage(DIM + "/flok list");
         sender.sendMessage(DIM + "/flok storage " + WARN + "[save|reset|list|get|set]");
+        sender.sendMessage(DIM + "/flok nodes " + WARN + "<script>");
     }
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command cmd, String alias, String[] args) {
         if (!sender.hasPermission("flok.admin")) return List.of();
         if (args.length == 1)
-            return filter(List.of("reload", "debug", "info", "list", "storage"), args[0]);
+            return filter(List.of("reload", "debug", "info", "list", "storage", "nodes"), args[0]);
         if (args.length == 2 && args[0].equalsIgnoreCase("reload")) {
             List<String> files = new ArrayList<>();
             File folder = scriptsFolder();
@@ -177,6 +217,8 @@ public final class FlokCommand implements CommandExecutor, TabCompleter {
             }
             return filter(files, args[1]);
         }
+        if (args.length == 2 && args[0].equalsIgnoreCase("nodes"))
+            return filter(plugin.getEngine().getScripts().stream().map(CompiledScript::getName).collect(Collectors.toList()), args[1]);
         if (args.length == 2 && args[0].equalsIgnoreCase("storage"))
             return filter(List.of("save", "reset", "list", "get", "set"), args[1]);
         if (args.length == 3 && args[0].equalsIgnoreCase("storage") && args[1].equalsIgnoreCase("get"))
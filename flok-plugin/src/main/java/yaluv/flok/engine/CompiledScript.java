@@ -1,53 +1,156 @@
 package yaluv.flok.engine;
 
 import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.bytecode.BytecodeCompiler;
+import yaluv.flok.engine.bytecode.Chunk;
+import yaluv.flok.engine.bytecode.FrameLayout;
+import yaluv.flok.engine.nodes.NodeTree;
+import yaluv.flok.engine.runtime.Interpreter;
+import yaluv.flok.engine.runtime.OpCosts;
+import yaluv.flok.engine.runtime.VirtualMachine;
+import yaluv.flok.engine.runtime.WaitSites;
+import yaluv.flok.parser.ParseException;
+import yaluv.flok.util.Rate;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * A compiled Flok script holds the AST and pre-built dispatch indexes.
  * Indexing is done once at compile time so dispatch is O(1) at runtime.
+ * In bytecode mode every event, command and function body is also lowered
+ * to a {@link Chunk}, keyed by the identity of its AST block.
+ *
+ * With engine.lazy-compile a script first loads {@link #deferred}: only its
+ * headers are parsed (the whole tree with parse-at-load), nothing is
+ * optimised or lowered, and the source is kept until the engine compiles it
+ * for real on first use.
  */
 public final class CompiledScript {
 
     private final String name;
     private final ASTNode.Program ast;
 
-    private final Map<String, ASTNode.EventBlock>   eventIndex    = new HashMap<>();
+    private final Map<String, List<ASTNode.EventBlock>> eventIndex = new HashMap<>();
     private final Map<String, ASTNode.CommandBlock> commandIndex  = new HashMap<>();
     private final Map<String, ASTNode.FunctionDef>  functionIndex = new HashMap<>();
+    private final Map<ASTNode.Block, Chunk>         chunks        = new IdentityHashMap<>();
+    private final Map<ASTNode.FunctionDef, FrameLayout> layouts   = new IdentityHashMap<>();
+    private final Map<ASTNode, Rate>                rates         = new IdentityHashMap<>();
+    private final OpCosts                           opCosts;
+    private final WaitSites                         waitSites;
+    private final String                            source;
+    private NodeTree nodeTree;
+
+    // The engine's executors for this script, made on first run (ScriptEngine#vm).
+    VirtualMachine vm;
+    Interpreter    interpreter;
 
     public CompiledScript(String name, ASTNode.Program ast) {
-        this.name = name;
-        this.ast  = ast;
+        this(name, ast, null);
+    }
+
+    private CompiledScript(String name, ASTNode.Program ast, String source) {
+        this.name   = name;
+        this.ast    = ast;
+        this.source = source;
         buildIndices();
+        this.opCosts = OpCosts.compute(ast);
+        this.waitSites = WaitSites.compute(ast);
+    }
+
+    /** A header-only or unoptimised script that the engine compiles later from {@code source}. */
+    public static CompiledScript deferred(String name, ASTNode.Program parsed, String source) {
+        return new CompiledScript(name, parsed, source);
     }
 
     private void buildIndices() {
         for (ASTNode node : ast.children()) {
             switch (node) {
-                case ASTNode.EventBlock   eb -> eventIndex.put(normalizeEventName(eb.eventName()), eb);
+                case ASTNode.EventBlock   eb -> eventIndex.computeIfAbsent(normalizeEventName(eb.eventName()), k -> new ArrayList<>()).add(eb);
                 case ASTNode.CommandBlock cb -> commandIndex.put(cb.commandName().toLowerCase(), cb);
-                case ASTNode.FunctionDef  fd -> functionIndex.put(fd.name().toLowerCase(), fd);
+                case ASTNode.FunctionDef  fd -> {
+                    functionIndex.put(fd.name().toLowerCase(), fd);
+                    layouts.put(fd, FrameLayout.forFunction(fd.params(), fd.body()));
+                }
                 default -> {} // top-level statements not supported outside blocks
             }
         }
     }
 
+    /** Lower every handler and function body to bytecode. */
+    public void compileBytecode() throws ParseException {
+        for (var e : eventIndex.entrySet()) {
+            for (ASTNode.EventBlock eb : e.getValue())
+                chunks.put(eb.body(), BytecodeCompiler.compile("on " + e.getKey(), List.of(), eb.body(), name));
+        }
+        for (var e : commandIndex.entrySet())
+            chunks.put(e.getValue().body(), BytecodeCompiler.compile("command " + e.getKey(), List.of(), e.getValue().body(), name));
+        for (var e : functionIndex.entrySet())
+            chunks.put(e.getValue().body(), BytecodeCompiler.compile("function " + e.getKey(), e.getValue().params(), e.getValue().body(), name));
+    }
+
+    /**
+     * Parse every handler's {@code limit:} and command's {@code cooldown:},
+     * so a bad rate fails the load rather than the dispatch table built from
+     * it. Trees from the cache or a precompiled jar skipped the parser's check.
+     */
+    public void parseRates() throws ParseException {
+        for (ASTNode node : ast.children()) {
+            try {
+                switch (node) {
+                    case ASTNode.EventBlock eb -> {
+                        for (ASTNode.EventBlock.Filter f : eb.filters())
+                            if (f.key().equals("limit")) rates.put(eb, Rate.parse(f.values().get(0)));
+                    }
+                    case ASTNode.CommandBlock cb -> {
+                        if (!cb.cooldown().isEmpty()) rates.put(cb, Rate.parse(cb.cooldown()));
+                    }
+                    default -> {}
+                }
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(e.getMessage(), name, node.line());
+            }
+        }
+    }
+
     /** Normalize event names: lowercase, trim, spaces → hyphens. */
     public static String normalizeEventName(String name) {
         return name.toLowerCase().trim().replace(' ', '-');
     }
 
     public String               getName()         { return name; }
+    /** True until the engine has compiled a lazily loaded script. */
+    public boolean              isDeferred()      { return source != null; }
+    /** Source of a deferred script; null once compiled. */
+    public String               getSource()       { return source; }
     public ASTNode.Program      getAst()          { return ast; }
     public ASTNode.FunctionDef  getFunction(String n) { return functionIndex.get(n.toLowerCase()); }
-    public ASTNode.EventBlock   getEvent(String n)    { return eventIndex.get(normalizeEventName(n)); }
+    /** Every block handling event {@code n}, in file order; empty if none. */
+    public List<ASTNode.EventBlock> getEvents(String n) { return eventIndex.getOrDefault(normalizeEventName(n), List.of()); }
     public ASTNode.CommandBlock getCommand(String n)  { return commandIndex.get(n.toLowerCase()); }
+    public Chunk                getChunk(ASTNode.Block body) { return chunks.get(body); }
+    /** A handler's {@code limit:} or a command's {@code cooldown:}; null if it has none. */
+    public Rate                 getRate(ASTNode block) { return rates.get(block); }
+    /** Op costs of every block and loop for the tree interpreter. */
+    public OpCosts              getOpCosts()      { return opCosts; }
+    public WaitSites            getWaitSites()    { return waitSites; }
+    /** Slot layout the tree interpreter uses for a function's locals. */
+    public FrameLayout          getLayout(ASTNode.FunctionDef fd) { return layouts.get(fd); }
+    public Collection<Chunk>    getChunks()       { return chunks.values(); }
+
+    /** Self-specializing expression nodes, created on first use (engine.mode: nodes). */
+    public NodeTree getNodeTree() {
+        if (nodeTree == null) nodeTree = new NodeTree(this);
+        return nodeTree;
+    }
 
-    public Map<String, ASTNode.EventBlock>   getEventIndex()    { return Collections.unmodifiableMap(eventIndex); }
+    public Map<String, List<ASTNode.EventBlock>> getEventIndex() { return Collections.unmodifiableMap(eventIndex); }
     public Map<String, ASTNode.CommandBlock> getCommandIndex()  { return Collections.unmodifiableMap(commandIndex); }
     public Map<String, ASTNode.FunctionDef>  getFunctionIndex() { return Collections.unmodifiableMap(functionIndex); }
 
@@ -0,0 +1,325 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ScriptEngine.CommandEntry;
+import yaluv.flok.engine.ScriptEngine.EventEntry;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.bytecode.Chunk;
+import yaluv.flok.engine.bytecode.FrameLayout;
+import yaluv.flok.engine.runtime.EventParams;
+import yaluv.flok.engine.runtime.JitCompiler;
+import yaluv.flok.util.Rate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Everything dispatch reads, as one immutable snapshot: the loaded scripts,
+ * each event's handlers as a pre-resolved array, and the command entries.
+ * Events with handlers filtered by {@code type:} also get a hash index from
+ * type to the handlers that run for it, unfiltered ones included.
+ * ScriptEngine publishes it through a single volatile field and replaces it
+ * wholesale on every load or patch, so a reader on any thread sees either
+ * the old table or the new one and never takes a lock.
+ *
+ * Nothing here is mutated after construction; the handler arrays must not
+ * be written to by callers.
+ */
+public final class DispatchTable {
+
+    private static final EventEntry[] NO_HANDLERS = new EventEntry[0];
+
+    static final DispatchTable EMPTY = new DispatchTable(Map.of(), Map.of(), Map.of(), Map.of(), 0);
+
+    /**
+     * Handlers of one event split by type: {@code byType} holds, for every
+     * type some handler filters on, the handlers that run for it in load
+     * order; {@code other} the handlers that run for any other type.
+     */
+    private record TypeIndex(String param, Map<String, EventEntry[]> byType, EventEntry[] other) {}
+
+    private final Map<String, CompiledScript> scripts;
+    private final Map<String, EventEntry[]>   events;
+    private final Map<String, TypeIndex>      typed;
+    private final Map<String, CommandEntry>   commands;
+    private final int                         deferred;
+
+    private DispatchTable(Map<String, CompiledScript> scripts, Map<String, EventEntry[]> events,
+                          Map<String, TypeIndex> typed, Map<String, CommandEntry> commands, int deferred) {
+        this.scripts  = scripts;
+        this.events   = events;
+        this.typed    = typed;
+        this.commands = commands;
+        this.deferred = deferred;
+    }
+
+    /**
+     * Index a full set of scripts; handlers run in the map's iteration order.
+     * Limits and cooldowns get their slots from {@code limiter}.
+     */
+    static DispatchTable of(Map<String, CompiledScript> scripts, RateLimiter limiter) {
+        Map<String, List<EventEntry>> events   = new HashMap<>();
+        Map<String, CommandEntry>     commands = new HashMap<>();
+        int deferred = 0;
+        for (CompiledScript cs : scripts.values()) {
+            if (cs.isDeferred()) deferred++;
+            cs.getEventIndex().forEach((k, v) -> {
+                List<EventEntry> handlers = events.computeIfAbsent(k, x -> new ArrayList<>());
+                for (int i = 0; i < v.size(); i++) handlers.add(eventEntry(cs, k, v.get(i), i, limiter));
+            });
+            cs.getCommandIndex().forEach((k, v) -> commands.put(k, commandEntry(cs, v, limiter)));
+        }
+        Map<String, EventEntry[]> arrays = new HashMap<>(events.size() * 2);
+        Map<String, TypeIndex>    typed  = new HashMap<>();
+        events.forEach((k, v) -> {
+            EventEntry[] handlers = v.toArray(NO_HANDLERS);
+            arrays.put(k, handlers);
+            TypeIndex index = typeIndex(k, handlers);
+            if (index != null) typed.put(k, index);
+        });
+        return new DispatchTable(Collections.unmodifiableMap(new LinkedHashMap<>(scripts)),
+                Map.copyOf(arrays), Map.copyOf(typed), Map.copyOf(commands), deferred);
+    }
+
+    /**
+     * A copy with script {@code name} replaced by {@code now}, or removed if
+     * {@code now} is null. Only that script's entries are rebuilt, and
+     * handlers keep running in file-name order, as after a full load.
+     */
+    DispatchTable with(String name, CompiledScript now, RateLimiter limiter) {
+        CompiledScript old = scripts.get(name);
+
+        Map<String, CompiledScript> sorted = new TreeMap<>(scripts);
+        if (now != null) sorted.put(name, now);
+        else             sorted.remove(name);
+        Map<String, CompiledScript> nextScripts = new LinkedHashMap<>(sorted);
+
+        Set<String> touched = new HashSet<>();
+        if (old != null) touched.addAll(old.getEventIndex().keySet());
+        if (now != null) touched.addAll(now.getEventIndex().keySet());
+        Map<String, EventEntry[]> nextEvents = new HashMap<>(events);
+        Map<String, TypeIndex>    nextTyped  = new HashMap<>(typed);
+        for (String event : touched) {
+            Map<CompiledScript, List<EventEntry>> kept = new IdentityHashMap<>();
+            for (EventEntry e : events.getOrDefault(event, NO_HANDLERS)) {
+                kept.computeIfAbsent(e.script(), k -> new ArrayList<>()).add(e);
+            }
+            List<EventEntry> handlers = new ArrayList<>();
+            for (CompiledScript cs : nextScripts.values()) {
+                if (cs != now) {
+                    handlers.addAll(kept.getOrDefault(cs, List.of()));
+                    continue;
+                }
+                List<ASTNode.EventBlock> blocks = now.getEvents(event);
+                for (int i = 0; i < blocks.size(); i++) handlers.add(eventEntry(now, event, blocks.get(i), i, limiter));
+            }
+            EventEntry[] array = handlers.toArray(NO_HANDLERS);
+            TypeIndex index = typeIndex(event, array);
+            if (array.length == 0) nextEvents.remove(event);
+            else                   nextEvents.put(event, array);
+            if (index == null) nextTyped.remove(event);
+            else               nextTyped.put(event, index);
+        }
+
+        Map<String, CommandEntry> nextCommands = new HashMap<>(commands);
+        if (old != null) {
+            for (String cmd : old.getCommandIndex().keySet()) {
+                CommandEntry entry = nextCommands.get(cmd);
+                if (entry != null && entry.script() == old) nextCommands.remove(cmd);
+            }
+        }
+        if (now != null) now.getCommandIndex().forEach((k, v) -> nextCommands.put(k, commandEntry(now, v, limiter)));
+
+        int nextDeferred = deferred - (old != null && old.isDeferred() ? 1 : 0) + (now != null && now.isDeferred() ? 1 : 0);
+        return new DispatchTable(Collections.unmodifiableMap(nextScripts),
+                Map.copyOf(nextEvents), Map.copyOf(nextTyped), Map.copyOf(nextCommands), nextDeferred);
+    }
+
+    /** Names of the limits and cooldowns held by this table's entries. */
+    Set<String> limitNames() {
+        Set<String> names = new HashSet<>();
+        for (EventEntry[] handlers : events.values()) {
+            for (EventEntry e : handlers) if (e.filter().limit() != null) names.add(e.filter().limit().name());
+        }
+        for (CommandEntry c : commands.values()) if (c.cooldown() != null) names.add(c.cooldown().name());
+        return names;
+    }
+
+    /** Whether any script handles a normalized event name. */
+    public boolean handles(String event) {
+        return events.containsKey(event);
+    }
+
+    /** Handlers of a normalized event name; an empty array if there are none. */
+    public EventEntry[] handlers(String event) {
+        return events.getOrDefault(event, NO_HANDLERS);
+    }
+
+    /**
+     * The handlers of {@code event} whose {@code type:} filter admits this
+     * occurrence, found with one hash lookup on the type param. Same as
+     * {@link #handlers} for events no handler filters by type. Other filters
+     * are left to {@link EventFilter#matches}. The type param must already be
+     * lower case, as EventAdapter's cached material names are.
+     */
+    public EventEntry[] handlers(String event, EventParams params) {
+        TypeIndex index = typed.get(event);
+        if (index == null) return handlers(event);
+        FValue type = params.get(index.param());
+        if (type == null) return index.other();
+        return index.byType().getOrDefault(type.asString(), index.other());
+    }
+
+    public CommandEntry                command(String name) { return commands.get(name); }
+    public Map<String, CompiledScript> scripts()            { return scripts; }
+    public Map<String, EventEntry[]>   events()             { return events; }
+    public Map<String, CommandEntry>   commands()           { return commands; }
+    /** Scripts loaded with engine.lazy-compile whose bodies are not compiled yet. */
+    public int                         deferredCount()      { return deferred; }
+
+
+    // ── Entry resolution ─────────────────────────────────────────────────────
+
+    private static TypeIndex typeIndex(String event, EventEntry[] handlers) {
+        Set<String> types = new HashSet<>();
+        for (EventEntry e : handlers) if (e.filter().types() != null) types.addAll(e.filter().types());
+        if (types.isEmpty()) return null;
+        Map<String, EventEntry[]> byType = new HashMap<>(types.size() * 2);
+        for (String type : types) {
+            byType.put(type, Arrays.stream(handlers)
+                    .filter(e -> e.filter().types() == null || e.filter().types().contains(type))
+                    .toArray(EventEntry[]::new));
+        }
+        EventEntry[] other = Arrays.stream(handlers).filter(e -> e.filter().types() == null).toArray(EventEntry[]::new);
+        return new TypeIndex(EventFilter.typeParam(event), Map.copyOf(byType), other);
+    }
+
+    /**
+     * {@code index}: the block's position among the script's blocks for this
+     * event, which with the script and event names keys its {@code limit:}.
+     */
+    private static EventEntry eventEntry(CompiledScript cs, String event, ASTNode.EventBlock block, int index,
+                                         RateLimiter limiter) {
+        Chunk chunk = cs.getChunk(block.body());
+        String[] names;
+        int[]    slots;
+        if (chunk != null) {
+            FrameLayout layout = chunk.layout();
+            names = new String[layout.size()];
+            slots = new int[layout.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = layout.nameAt(i);
+                slots[i] = i;
+            }
+        } else {
+            Set<String> referenced = new LinkedHashSet<>();
+            collectNames(block.body(), referenced);
+            names = referenced.toArray(new String[0]);
+            slots = new int[names.length];
+            Arrays.fill(slots, -1);
+        }
+        Rate rate = cs.getRate(block);
+        RateLimiter.Limit limit = rate == null ? null
+                : limiter.limit("handler:" + cs.getName() + ":" + event + ":" + index, rate);
+        return new EventEntry(cs, block, chunk, suspends(cs, block.body()), names, slots,
+                EventFilter.of(event, block.filters(), limit));
+    }
+
+    private static CommandEntry commandEntry(CompiledScript cs, ASTNode.CommandBlock block, RateLimiter limiter) {
+        Chunk chunk = cs.getChunk(block.body());
+        Rate rate = cs.getRate(block);
+        RateLimiter.Limit cooldown = rate == null ? null
+                : limiter.limit("command:" + block.commandName().toLowerCase(), rate);
+        return new CommandEntry(cs, block, chunk, commandSlots(block, chunk), suspends(cs, block.body()), cooldown);
+    }
+
+    private static int[] commandSlots(ASTNode.CommandBlock block, Chunk chunk) {
+        List<String> names = block.paramNames();
+        int[] slots = new int[2 + names.size()];
+        FrameLayout layout = chunk != null ? chunk.layout() : FrameLayout.EMPTY;
+        slots[0] = layout.slotOf("args");
+        slots[1] = layout.slotOf("args-count");
+        for (int i = 0; i < names.size(); i++) slots[2 + i] = layout.slotOf(names.get(i));
+        return slots;
+    }
+
+    /** Whether a handler body can reach a wait, directly or through the functions it calls. */
+    private static boolean suspends(CompiledScript script, ASTNode.Block body) {
+        Chunk chunk = script.getChunk(body);
+        if (chunk != null) return JitCompiler.mayWait(chunk, script);
+        for (ASTNode node : script.getAst().children()) {
+            ASTNode.Block b = switch (node) {
+                case ASTNode.EventBlock   eb -> eb.body();
+                case ASTNode.CommandBlock cb -> cb.body();
+                case ASTNode.FunctionDef  fd -> fd.body();
+                default -> null;
+            };
+            // Tree mode has no call graph at hand: any wait in the script counts.
+            if (b != null && containsWait(b)) return true;
+        }
+        return false;
+    }
+
+    /** Every variable name {@code node} refers to. Function bodies are not entered: callees can't see these. */
+    private static void collectNames(ASTNode node, Set<String> out) {
+        switch (node) {
+            case ASTNode.VarRef vr          -> out.add(vr.name());
+            case ASTNode.VarAssign va       -> { out.add(va.name()); collectNames(va.value(), out); }
+            case ASTNode.AugAssign aa       -> { out.add(aa.name()); collectNames(aa.value(), out); }
+            case ASTNode.ForEachStmt fe     -> { out.add(fe.varName()); collectNames(fe.iterable(), out); collectNames(fe.body(), out); }
+            case ASTNode.Block b            -> { for (ASTNode s : b.statements()) collectNames(s, out); }
+            case ASTNode.PersistAssign pa   -> { collectNames(pa.keyExpr(), out); collectNames(pa.value(), out); }
+            case ASTNode.PersistAugAssign p -> { collectNames(p.keyExpr(), out); collectNames(p.value(), out); }
+            case ASTNode.EffectStmt es      -> { for (ASTNode a : es.args()) collectNames(a, out); }
+            case ASTNode.ExprStmt es        -> collectNames(es.expr(), out);
+            case ASTNode.WaitStmt ws        -> collectNames(ws.ticks(), out);
+            case ASTNode.ReturnStmt rs      -> { if (rs.value() != null) collectNames(rs.value(), out); }
+            case ASTNode.IfStmt is          -> {
+                collectNames(is.condition(), out);
+                collectNames(is.thenBlock(), out);
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) {
+                    collectNames(br.condition(), out);
+                    collectNames(br.body(), out);
+                }
+                if (is.elseBlock() != null) collectNames(is.elseBlock(), out);
+            }
+            case ASTNode.WhileStmt ws       -> { collectNames(ws.condition(), out); collectNames(ws.body(), out); }
+            case ASTNode.RepeatStmt rs      -> { collectNames(rs.count(), out); collectNames(rs.body(), out); }
+            case ASTNode.BinaryOp bo        -> { collectNames(bo.left(), out); collectNames(bo.right(), out); }
+            case ASTNode.UnaryOp uo         -> collectNames(uo.operand(), out);
+            case ASTNode.Conditional c      -> { collectNames(c.condition(), out); collectNames(c.ifTrue(), out); collectNames(c.ifFalse(), out); }
+            case ASTNode.FunctionCall fc    -> { for (ASTNode a : fc.args()) collectNames(a, out); }
+            case ASTNode.PersistRef pr      -> collectNames(pr.keyExpr(), out);
+            case ASTNode.PropertyAccess pa  -> collectNames(pa.target(), out);
+            case ASTNode.IndexAccess ia     -> { collectNames(ia.target(), out); collectNames(ia.index(), out); }
+            case ASTNode.ListLiteral ll     -> { for (ASTNode e : ll.elements()) collectNames(e, out); }
+            case ASTNode.MapLiteral ml      -> ml.entries().forEach(e -> { collectNames(e.getKey(), out); collectNames(e.getValue(), out); });
+            case ASTNode.StringTemplate st  -> { for (Object p : st.parts()) if (p instanceof ASTNode n) collectNames(n, out); }
+            default -> {}
+        }
+    }
+
+    private static boolean containsWait(ASTNode node) {
+        return switch (node) {
+            case ASTNode.WaitStmt ignored -> true;
+            case ASTNode.Block b          -> b.statements().stream().anyMatch(DispatchTable::containsWait);
+            case ASTNode.WhileStmt ws     -> containsWait(ws.body());
+            case ASTNode.RepeatStmt rs    -> containsWait(rs.body());
+            case ASTNode.ForEachStmt fe   -> containsWait(fe.body());
+            case ASTNode.IfStmt is        -> containsWait(is.thenBlock())
+                    || is.elseBranches().stream().anyMatch(br -> containsWait(br.body()))
+                    || (is.elseBlock() != null && containsWait(is.elseBlock()));
+            default -> false;
+        };
+    }
+}
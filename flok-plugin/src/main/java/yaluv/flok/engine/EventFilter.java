@@ -0,0 +1,96 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.runtime.EventParams;
+import org.bukkit.entity.Player;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The header filters of one event handler, e.g.
+ * {@code on block-break type: diamond_ore world: mining permission: vip.mine:}.
+ *
+ * {@code type:} is not checked here: DispatchTable indexes handlers by type,
+ * so dispatch only ever sees handlers whose type already matches. The other
+ * filters are checked per handler before it gets a context, and
+ * {@code limit:} last, so a handler turned away by another filter does not
+ * use up the player's bucket.
+ */
+public final class EventFilter {
+
+    static final EventFilter NONE = new EventFilter(null, null, null, null, null);
+
+    private final Set<String>       types;      // null: any
+    private final Set<String>       worlds;     // null: any
+    private final String            permission; // null: none
+    private final String            worldParam; // null: the player's world
+    private final RateLimiter.Limit limit;      // null: none
+
+    private EventFilter(Set<String> types, Set<String> worlds, String permission, String worldParam,
+                        RateLimiter.Limit limit) {
+        this.types      = types;
+        this.worlds     = worlds;
+        this.permission = permission;
+        this.worldParam = worldParam;
+        this.limit      = limit;
+    }
+
+    /** {@code limit}: the block's {@code limit:} filter, already given its slot; null if it has none. */
+    static EventFilter of(String event, List<ASTNode.EventBlock.Filter> filters, RateLimiter.Limit limit) {
+        if (filters.isEmpty()) return NONE;
+        Set<String> types  = null;
+        Set<String> worlds = null;
+        String permission  = null;
+        for (ASTNode.EventBlock.Filter f : filters) {
+            switch (f.key()) {
+                case "type"       -> { if (types == null) types = new HashSet<>(); types.addAll(f.values()); }
+                case "world"      -> { if (worlds == null) worlds = new HashSet<>(); worlds.addAll(f.values()); }
+                case "permission" -> permission = f.values().get(0);
+                default -> {}
+            }
+        }
+        return new EventFilter(types != null ? Set.copyOf(types) : null, worlds != null ? Set.copyOf(worlds) : null,
+                permission, worldParam(event), limit);
+    }
+
+    /** The param {@code type:} filters on: the block type for block events. */
+    static String typeParam(String event) {
+        return switch (event) {
+            case "block-break", "block-place" -> "block-type";
+            case "player-gamemode-change"     -> "new-gamemode";
+            default                           -> "type";   // events fired through FlokAPI
+        };
+    }
+
+    /** The param {@code world:} filters on, or null to use the player's world. */
+    private static String worldParam(String event) {
+        return switch (event) {
+            case "block-break", "block-place" -> "block-world";
+            default                           -> null;
+        };
+    }
+
+    /** Types this handler is limited to, lowercase; null if it runs for any type. */
+    Set<String> types() { return types; }
+
+    /** The handler's {@code limit:}, applied per player after {@link #matches}; null if it has none. */
+    RateLimiter.Limit limit() { return limit; }
+
+    /** Whether the world and permission filters admit this event. */
+    public boolean matches(Player player, EventParams params) {
+        if (permission != null && (player == null || !player.hasPermission(permission))) return false;
+        if (worlds != null) {
+            String world = null;
+            if (worldParam != null) {
+                FValue v = params.get(worldParam);
+                if (v != null) world = v.asString();
+            }
+            if (world == null && player != null) world = player.getWorld().getName();
+            if (world == null || !worlds.contains(world.toLowerCase())) return false;
+        }
+        return true;
+    }
+}
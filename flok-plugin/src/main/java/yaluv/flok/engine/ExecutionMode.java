@@ -0,0 +1,22 @@
+package yaluv.flok.engine;
+
+/**
+ * How compiled handlers are executed. Selected with {@code engine.mode} in config.yml.
+ */
+public enum ExecutionMode {
+    /** Register bytecode run by the VirtualMachine dispatch loop (default). */
+    BYTECODE,
+    /** Recursive AST walking via the Interpreter. Kept as a fallback. */
+    TREE,
+    /** The Interpreter with expressions run as self-specializing nodes. */
+    NODES;
+
+    public static ExecutionMode parse(String raw) {
+        if (raw == null) return BYTECODE;
+        return switch (raw.trim().toLowerCase()) {
+            case "tree", "ast", "interpreter" -> TREE;
+            case "nodes", "specializing"      -> NODES;
+            default                           -> BYTECODE;
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package yaluv.flok.engine;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * When bytecode chunks are promoted to JVM classes. Read from {@code engine.jit}
+ * in config.yml; individual scripts can be forced or excluded by file name.
+ */
+public final class JitPolicy {
+
+    public enum Mode {
+        /** Promote once the chunk has run {@code threshold} times. */
+        AUTO,
+        /** Promote at load time. */
+        ALWAYS,
+        /** Never promote. */
+        NEVER
+    }
+
+    private final boolean           enabled;
+    private final int               threshold;
+    private final Map<String, Mode> overrides = new HashMap<>();
+
+    public JitPolicy(boolean enabled, int threshold) {
+        this.enabled   = enabled;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    public static JitPolicy fromConfig(ConfigurationSection section) {
+        if (section == null) return new JitPolicy(true, 500);
+        JitPolicy policy = new JitPolicy(section.getBoolean("enabled", true), section.getInt("threshold", 500));
+        ConfigurationSection scripts = section.getConfigurationSection("scripts");
+        if (scripts != null) {
+            for (String key : scripts.getKeys(false)) {
+                policy.overrides.put(key.toLowerCase(), parseMode(scripts.getString(key)));
+            }
+        }
+        return policy;
+    }
+
+    private static Mode parseMode(String raw) {
+        if (raw == null) return Mode.AUTO;
+        return switch (raw.trim().toLowerCase()) {
+            case "always", "force", "true" -> Mode.ALWAYS;
+            case "never", "off", "false"   -> Mode.NEVER;
+            default                        -> Mode.AUTO;
+        };
+    }
+
+    /** Mode for a script file; per-script overrides win over {@code engine.jit.enabled}. */
+    public Mode modeFor(String scriptName) {
+        String key = scriptName.toLowerCase();
+        Mode mode = overrides.get(key);
+        if (mode == null && key.endsWith(".fk")) mode = overrides.get(key.substring(0, key.length() - 3));
+        if (mode != null) return mode;
+        return enabled ? Mode.AUTO : Mode.NEVER;
+    }
+
+    public int threshold() { return threshold; }
+}
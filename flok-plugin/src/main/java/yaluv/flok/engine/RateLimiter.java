@@ -0,0 +1,172 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.util.Rate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-player token buckets for event, handler and command limits.
+ *
+ * Every limit gets a slot number when it is created, keyed by a stable name
+ * such as {@code event:player-move} or {@code command:warp}, so reloading a
+ * script reuses its slots instead of adding new ones. Slots of limits that go
+ * away, such as those of an unloaded script, are {@link #release released}
+ * and handed to the next new limit. Each player holds one {@code long[]}
+ * indexed by slot; nothing is allocated per check. Buckets outlive reloads
+ * and a player leaving, so rejoining does not reset a cooldown;
+ * {@link #prune} drops a leaving player's buckets that have refilled.
+ *
+ * The buckets are kept as a theoretical arrival time (GCRA): a check passes
+ * if the player's next allowed time is within the limit's burst tolerance of
+ * now, and moves it on by one interval. That is the same as a bucket of
+ * {@code count} tokens refilled evenly over the period.
+ */
+public final class RateLimiter {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /** One named limit: a slot in every player's state and the bucket shape for it. */
+    public static final class Limit {
+        private final String name;
+        private final int    slot;
+        private final long   interval;  // nanos between runs at the sustained rate
+        private final long   tolerance; // how far ahead of now the next allowed time may be
+
+        private Limit(String name, int slot, Rate rate) {
+            this.name      = name;
+            this.slot      = slot;
+            this.interval  = Math.max(1, rate.periodNanos() / rate.count());
+            this.tolerance = rate.periodNanos() - interval;
+        }
+
+        public String name() { return name; }
+    }
+
+    /** Slot numbers by limit name, and the released ones free for reuse; guarded by {@code slots}. */
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final BitSet               free  = new BitSet();
+    private volatile int               slotCount;
+
+    private final Map<UUID, long[]> players = new ConcurrentHashMap<>();
+
+    /** The limit called {@code name} with this rate; the same name maps to the same slot until it is released. */
+    public Limit limit(String name, Rate rate) {
+        synchronized (slots) {
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                slot = free.nextSetBit(0);
+                if (slot >= 0) {
+                    free.clear(slot);
+                    clearSlot(slot);
+                } else {
+                    slot = slotCount++;
+                }
+                slots.put(name, slot);
+            }
+            return new Limit(name, slot, rate);
+        }
+    }
+
+    /**
+     * Give up the slots of limits nothing uses any more, such as those of an
+     * unloaded script. The next new limit takes one over with empty buckets.
+     */
+    public void release(Collection<String> names) {
+        synchronized (slots) {
+            for (String name : names) {
+                Integer slot = slots.remove(name);
+                if (slot != null) free.set(slot);
+            }
+        }
+    }
+
+    /** A reused slot starts with every player's bucket full. */
+    private void clearSlot(int slot) {
+        for (long[] state : players.values()) {
+            synchronized (state) {
+                if (slot < state.length) state[slot] = EMPTY;
+            }
+        }
+    }
+
+    /**
+     * Take one run from {@code player}'s bucket for {@code limit}. Returns 0
+     * if it was allowed, or else the nanoseconds until it would be.
+     */
+    public long acquire(UUID player, Limit limit) {
+        return acquire(player, limit, System.nanoTime());
+    }
+
+    long acquire(UUID player, Limit limit, long now) {
+        while (true) {
+            long[] state = players.computeIfAbsent(player, k -> empty(slotCount));
+            synchronized (state) {
+                if (players.get(player) != state) continue; // grown or pruned while we waited
+                if (limit.slot >= state.length) {
+                    // A limit created after this player's first check.
+                    long[] grown = Arrays.copyOf(state, Math.max(limit.slot + 1, slotCount));
+                    Arrays.fill(grown, state.length, grown.length, EMPTY);
+                    players.put(player, grown);
+                    continue;
+                }
+                long tat  = state[limit.slot];
+                long next = tat == EMPTY || tat - now < 0 ? now : tat;
+                long wait = next - now - limit.tolerance;
+                if (wait > 0) return wait;
+                state[limit.slot] = next + limit.interval;
+                return 0;
+            }
+        }
+    }
+
+    private static long[] empty(int size) {
+        long[] state = new long[Math.max(size, 1)];
+        Arrays.fill(state, EMPTY);
+        return state;
+    }
+
+    /**
+     * Empty {@code player}'s buckets that have refilled, and drop the player
+     * if none are left. Run when they leave, so state is only kept for
+     * cooldowns still running.
+     */
+    public void prune(UUID player) {
+        prune(player, System.nanoTime());
+    }
+
+    void prune(UUID player, long now) {
+        long[] state = players.get(player);
+        if (state == null) return;
+        synchronized (state) {
+            boolean pending = false;
+            for (int i = 0; i < state.length; i++) {
+                if (state[i] == EMPTY) continue;
+                if (state[i] - now <= 0) state[i] = EMPTY;
+                else pending = true;
+            }
+            if (!pending) players.remove(player, state);
+        }
+    }
+
+    public void clear() {
+        players.clear();
+    }
+
+    /** Players currently holding state. */
+    public int size() {
+        return players.size();
+    }
+
+    /** Limits currently holding a slot. */
+    int limitCount() {
+        synchronized (slots) {
+            return slots.size();
+        }
+    }
+}
@@ -3,196 +3,769 @@ package yaluv.flok.engine;
 import yaluv.flok.api.FValue;
 import yaluv.flok.effects.EffectRegistry;
 import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.bytecode.Chunk;
+import yaluv.flok.engine.cache.ScriptArchive;
+import yaluv.flok.engine.cache.ScriptCache;
+import yaluv.flok.engine.optimizer.ASTOptimizer;
+import yaluv.flok.engine.optimizer.ASTPrinter;
 import yaluv.flok.engine.runtime.ContextPool;
+import yaluv.flok.engine.runtime.EventParams;
+import yaluv.flok.engine.runtime.Continuation;
 import yaluv.flok.engine.runtime.ExecutionContext;
 import yaluv.flok.engine.runtime.Interpreter;
+import yaluv.flok.engine.runtime.JitCompiler;
+import yaluv.flok.engine.runtime.Linkage;
 import yaluv.flok.engine.runtime.ScriptException;
+import yaluv.flok.engine.runtime.ScriptThread;
+import yaluv.flok.engine.runtime.ScriptThreads;
+import yaluv.flok.engine.runtime.SliceQueue;
+import yaluv.flok.engine.runtime.VirtualMachine;
 import yaluv.flok.engine.runtime.WaitSignal;
 import yaluv.flok.parser.Lexer;
 import yaluv.flok.parser.ParseException;
 import yaluv.flok.parser.Parser;
 import yaluv.flok.storage.PersistentStorage;
 import yaluv.flok.util.FLogger;
+import yaluv.flok.util.Rate;
 import yaluv.flok.util.ScriptLoadResult;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Cancellable;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Central script engine for flok.
  *
  * PERFORMANCE DESIGN:
  * - Event dispatch is O(1) via pre-built index (no per event script scan).
+ *   Scripts, handler arrays and command entries form one immutable
+ *   DispatchTable published through a volatile field; loads and patches build
+ *   a new table and swap it in, so dispatch reads it from any thread unlocked.
  * - ExecutionContext is pooled via ContextPool zero HashMap allocation per dispatch.
+ * - loadAll lexes, parses and lowers files on a ForkJoinPool
+ *   (engine.parallel-load); linking and indexing stay on the server thread,
+ *   in file order.
+ * - Parsed trees are cached on disk keyed by a hash of the source
+ *   (engine.cache), so unchanged scripts skip the lexer and parser.
+ * - Optionally (engine.precompiled) scripts are loaded from a jar built by
+ *   flok-compiler, with no .fk sources and no parsing at all.
+ * - Optionally (engine.lazy-compile) loading only parses the on/command/function
+ *   headers, or the whole file with parse-at-load; a script is compiled on its
+ *   first dispatch, or one script per tick in the background once the server
+ *   is up. Errors found then are kept for /flok list.
+ * - Parsed scripts go through ASTOptimizer first: constant expressions, pure
+ *   builtin calls and dead branches are resolved once at load time.
+ * - In bytecode mode locals live in slots resolved at compile time; command
+ *   params are bound straight into their pre-resolved slots.
  * - Player variables are injected lazily by the Interpreter, not eagerly on every call.
- * - High-frequency events (player move, player tick) are throttled at this layer
- *   to a minimum of 1 second per player enforced unconditionally, not configurable
- *   per script, because a script author should never be able to cause per tick execution :D.
+ * - Handlers run as register bytecode in the VirtualMachine by default; the
+ *   recursive AST Interpreter stays available via engine.mode: tree, and
+ *   engine.mode: nodes runs it with self-specializing expression nodes.
+ * - Function calls, builtins and effects are bound once at load time (Linkage);
+ *   effect bindings are refreshed when addons change the EffectRegistry.
+ * - Optionally (engine.virtual-threads) handlers that can wait run on a
+ *   virtual thread that parks in wait; Bukkit work hops back to the server
+ *   thread and parked scripts share one tick task.
+ * - Optionally (engine.time-slicing) long bytecode runs yield at a safepoint
+ *   after a slice of ops and take turns on a run queue with a per-tick time
+ *   budget, instead of being halted at safety.max-ops.
+ * - Hot chunks are promoted to hidden JVM classes (engine.jit) so HotSpot can
+ *   optimise them like plain Java.
+ * - Per-player rate limits are enforced at this layer: per event from
+ *   limits.events, per handler from a limit: header filter, and per command
+ *   from a cooldown: header. High-frequency events (player move, player tick)
+ *   are limited to once a second by default, because a script author should
+ *   never be able to cause per tick execution by accident :D.
  */
 public final class ScriptEngine {
 
-    private static final Set<String> THROTTLED_EVENTS = Set.of(
-            "player-move", "player-tick", "player-step"
+    /** limits.events when config.yml has no limits section. */
+    private static final Map<String, String> DEFAULT_EVENT_LIMITS = Map.of(
+            "player-move", "1/1s", "player-tick", "1/1s", "player-step", "1/1s"
     );
-    private static final long THROTTLE_MS = 1000L; // 1 second
 
-    private final HashMap<String, Long> throttleTable = new HashMap<>();
+    private final RateLimiter limiter = new RateLimiter();
+    private volatile Map<String, RateLimiter.Limit> eventLimits = Map.of();
 
-    private final Map<String, CompiledScript>         scripts      = new HashMap<>();
-    private final Map<String, List<EventEntry>>       eventIndex   = new HashMap<>();
-    private final Map<String, CommandEntry>           commandIndex = new HashMap<>();
+    private volatile DispatchTable table = DispatchTable.EMPTY;
 
-    public record EventEntry  (CompiledScript script, ASTNode.EventBlock   block) {}
-    public record CommandEntry(CompiledScript script, ASTNode.CommandBlock block) {}
+    /**
+     * suspends: the handler can reach a wait, so it runs on a script thread when those are enabled.
+     * names: every variable the handler refers to, the only event params dispatch computes for it;
+     * slots: their slots, -1 where the handler has no chunk. filter: its header filters.
+     */
+    public record EventEntry  (CompiledScript script, ASTNode.EventBlock   block, Chunk chunk, boolean suspends,
+                               String[] names, int[] slots, EventFilter filter) {}
+    /**
+     * paramSlots: slot of args, args-count, then each declared param; -1 where unused.
+     * cooldown: the command's cooldown: header as a limit, or null if it has none.
+     */
+    public record CommandEntry(CompiledScript script, ASTNode.CommandBlock block, Chunk chunk, int[] paramSlots,
+                               boolean suspends, RateLimiter.Limit cooldown) {}
 
     private final PersistentStorage storage;
     private final EffectRegistry    effectRegistry;
     private final long              maxOps;
     private final JavaPlugin        plugin;
+    private final ExecutionMode     mode;
+    private final JitPolicy         jitPolicy;
+    private final boolean           optimize;
+    private final ScriptThreads     threads;
+    private final BukkitTask        threadTicker;
+    private final long              sliceOps;
+    private final long              lifetimeOps;
+    private final SliceQueue        sliced;
+    private final BukkitTask        sliceTicker;
+    private final int               loadThreads;
+    private final ScriptCache       cache;
+    private final File              archive;
+    private final boolean           lazy;
+    private final boolean           parseAtLoad;
+    private final boolean           compileInBackground;
+    private BukkitTask              backgroundCompile;
+
+    // Deferred scripts that failed to compile on first use, by file name,
+    // until a reload of that file. Server thread only.
+    private final Map<String, ScriptLoadResult> deferredErrors = new TreeMap<>();
+
+    // Addon effects register after scripts load on startup, so unknown effects
+    // are only reported once the server has finished enabling plugins.
+    private boolean reportUnknownEffects;
 
     public ScriptEngine(JavaPlugin plugin, PersistentStorage storage, EffectRegistry effectRegistry) {
         this.storage        = storage;
         this.effectRegistry = effectRegistry;
-        this.maxOps         = plugin.getConfig().getLong("safety.max-ops", 50_000L);
         this.plugin         = plugin;
+        this.mode           = ExecutionMode.parse(plugin.getConfig().getString("engine.mode", "bytecode"));
+        this.jitPolicy      = JitPolicy.fromConfig(plugin.getConfig().getConfigurationSection("engine.jit"));
+        this.optimize       = plugin.getConfig().getBoolean("engine.optimize", true);
+        this.loadThreads    = loadThreads(plugin.getConfig().getConfigurationSection("engine.parallel-load"));
+        this.cache          = plugin.getConfig().getBoolean("engine.cache.enabled", true)
+                ? new ScriptCache(new File(plugin.getDataFolder(), "cache"),
+                                  plugin.getDescription().getVersion() + (optimize ? "/optimized" : ""))
+                : null;
+        this.archive        = plugin.getConfig().getBoolean("engine.precompiled.enabled", false)
+                ? archiveFile(plugin, plugin.getConfig().getString("engine.precompiled.file", "scripts.jar"))
+                : null;
+        this.lazy           = plugin.getConfig().getBoolean("engine.lazy-compile.enabled", false);
+        this.parseAtLoad    = plugin.getConfig().getBoolean("engine.lazy-compile.parse-at-load", false);
+        this.compileInBackground = plugin.getConfig().getBoolean("engine.lazy-compile.background", true);
+
+        ConfigurationSection vt = plugin.getConfig().getConfigurationSection("engine.virtual-threads");
+        if (vt != null && vt.getBoolean("enabled", false)) {
+            this.threads      = new ScriptThreads(vt.getInt("max-parked", 10_000));
+            this.threadTicker = plugin.getServer().getScheduler().runTaskTimer(plugin, threads::tick, 1L, 1L);
+        } else {
+            this.threads      = null;
+            this.threadTicker = null;
+        }
+
+        ConfigurationSection ts = plugin.getConfig().getConfigurationSection("engine.time-slicing");
+        boolean slicing = ts != null && ts.getBoolean("enabled", false);
+        if (slicing && mode != ExecutionMode.BYTECODE) {
+            FLogger.warn("engine.time-slicing needs engine.mode: bytecode; scripts are halted at safety.max-ops instead.");
+            slicing = false;
+        }
+        this.maxOps = plugin.getConfig().getLong("safety.max-ops", 50_000L);
+        if (slicing) {
+            // A run is held to safety.max-ops until it first yields; from then
+            // on each tick's budget bounds it, and max-lifetime-ops overall.
+            this.sliceOps    = Math.max(1, ts.getLong("slice-ops", 20_000L));
+            this.lifetimeOps = Math.max(maxOps, ts.getLong("max-lifetime-ops", 10_000_000L));
+            this.sliced      = new SliceQueue((long) (ts.getDouble("tick-budget-ms", 5.0) * 1_000_000L));
+            this.sliceTicker = plugin.getServer().getScheduler().runTaskTimer(plugin, sliced::tick, 1L, 1L);
+            if (sliceOps >= maxOps) {
+                FLogger.warn("engine.time-slicing.slice-ops is not below safety.max-ops; runs are halted before they can yield.");
+            }
+        } else {
+            this.sliceOps    = 0;
+            this.lifetimeOps = maxOps;
+            this.sliced      = null;
+            this.sliceTicker = null;
+        }
+    }
+
+    /**
+     * Read limits.events again, as config.yml may have changed. Players keep
+     * their buckets: limits are matched to them by name.
+     */
+    private void loadLimits() {
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("limits.events");
+        Map<String, String> specs = new HashMap<>(DEFAULT_EVENT_LIMITS);
+        // Coalesced moves already arrive at most once per interval.
+        if (plugin.getConfig().getBoolean("events.coalesce-move.enabled", false)) specs.remove("player-move");
+        if (section != null) {
+            specs.clear();
+            for (String key : section.getKeys(false)) specs.put(key, section.getString(key, ""));
+        }
+        Map<String, RateLimiter.Limit> limits = new HashMap<>();
+        specs.forEach((event, spec) -> {
+            if (spec.isBlank() || spec.equalsIgnoreCase("none")) return;
+            String normalized = CompiledScript.normalizeEventName(event);
+            try {
+                limits.put(normalized, limiter.limit("event:" + normalized, Rate.parse(spec)));
+            } catch (IllegalArgumentException e) {
+                FLogger.warn("limits.events." + event + ": " + e.getMessage() + "; not limited.");
+            }
+        });
+        Set<String> gone = new HashSet<>();
+        for (RateLimiter.Limit l : eventLimits.values()) gone.add(l.name());
+        for (RateLimiter.Limit l : limits.values()) gone.remove(l.name());
+        eventLimits = Map.copyOf(limits);
+        limiter.release(gone);
+    }
+
+    /** engine.precompiled.file, relative to the plugin folder unless absolute. */
+    private static File archiveFile(JavaPlugin plugin, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(plugin.getDataFolder(), path);
+    }
+
+    /** Worker threads for loadAll; 1 loads on the calling thread. */
+    private static int loadThreads(ConfigurationSection section) {
+        if (section != null && !section.getBoolean("enabled", true)) return 1;
+        int threads = section != null ? section.getInt("threads", 0) : 0;
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     public List<ScriptLoadResult> loadAll(File folder) {
+        if (archive != null) return loadArchive();
+
         List<ScriptLoadResult> results = new ArrayList<>();
         if (!folder.exists() || !folder.isDirectory()) {
             FLogger.warn("Scripts folder not found: " + folder.getPath());
             return results;
         }
 
-        scripts.clear();
-        eventIndex.clear();
-        commandIndex.clear();
-        throttleTable.clear();
+        long start = System.nanoTime();
+        loadLimits();
 
         File[] files = folder.listFiles(f -> f.getName().endsWith(".fk"));
-        if (files == null) return results;
+        if (files == null) {
+            publish(DispatchTable.EMPTY);
+            return results;
+        }
 
         Arrays.sort(files, Comparator.comparing(File::getName));
+        return installAll(buildAll(files, lazy), start);
+    }
+
+    /**
+     * Load every script from the jar written by flok-compiler (engine.precompiled).
+     * The trees are already parsed and checked, so they are only lowered and linked.
+     */
+    private List<ScriptLoadResult> loadArchive() {
+        long start = System.nanoTime();
+        loadLimits();
+        FLogger.info("Loading precompiled scripts from " + archive.getName());
+
+        List<ScriptArchive.Entry> entries;
+        try {
+            entries = ScriptArchive.read(archive);
+        } catch (IOException e) {
+            FLogger.error("Could not read " + archive.getPath() + ": " + e.getMessage());
+            publish(DispatchTable.EMPTY);
+            return List.of(ScriptLoadResult.ioError(archive.getName(), e.getMessage()));
+        }
+
+        List<Built> built = new ArrayList<>(entries.size());
+        for (ScriptArchive.Entry entry : entries) built.add(build(entry));
+        return installAll(built, start);
+    }
 
-        for (File file : files) {
-            ScriptLoadResult r = loadScriptInternal(file);
+    /** Link a full set of built scripts, in order, and publish them as the new dispatch table. */
+    private List<ScriptLoadResult> installAll(List<Built> builts, long start) {
+        List<ScriptLoadResult>      results = new ArrayList<>(builts.size());
+        Map<String, CompiledScript> loaded  = new LinkedHashMap<>();
+        deferredErrors.clear();
+        for (Built built : builts) {
+            CompiledScript cs = install(built);
+            if (cs != null) loaded.put(built.name(), cs);
+            ScriptLoadResult r = built.result();
             results.add(r);
-            FLogger.info((r.isOk() ? "  ✓ " : "  ✗ ") + file.getName()
+            FLogger.info((r.isOk() ? "  ✓ " : "  ✗ ") + r.getFileName()
                     + (r.isOk() ? "" : ": " + r.getErrorMessage()));
         }
 
-        rebuildIndices();
+        DispatchTable t = DispatchTable.of(loaded, limiter);
+        publish(t);
+        if (cache != null && archive == null) cache.retain(t.scripts().keySet());
         long ok = results.stream().filter(ScriptLoadResult::isOk).count();
-        FLogger.info("Loaded " + ok + "/" + results.size() + " script(s).");
+        long ms = (System.nanoTime() - start) / 1_000_000L;
+        int deferred = t.deferredCount();
+        FLogger.info("Loaded " + ok + "/" + results.size() + " script(s) in " + ms + " ms"
+                + (deferred > 0 ? ", " + deferred + " deferred" : "") + ".");
+        if (deferred > 0 && compileInBackground) startBackgroundCompile();
         return results;
     }
 
-    public ScriptLoadResult loadSingle(File scriptsFolder, String fileName) {
-        String name = fileName.endsWith(".fk") ? fileName : fileName + ".fk";
-        File file   = new File(scriptsFolder, name);
-        if (!file.exists()) return ScriptLoadResult.ioError(name, "File not found");
-        ScriptLoadResult r = loadScriptInternal(file);
-        rebuildIndices();
-        return r;
+    /**
+     * Changed script files, rebuilt and waiting for {@link #apply}. Made by
+     * {@link #rebuild}, which touches no engine state and may run on any thread.
+     */
+    public static final class Patch {
+        private final List<Built>  built   = new ArrayList<>();
+        private final List<String> deleted = new ArrayList<>();
     }
 
-    private ScriptLoadResult loadScriptInternal(File file) {
-        String name = file.getName();
+    /** Result of {@link #apply}: one entry per rebuilt file, and every command name whose entry changed. */
+    public record Applied(List<ScriptLoadResult> results, Set<String> commands) {}
+
+    /**
+     * Rebuild just these files of the scripts folder. A file that no longer
+     * exists unloads its script. Files are always compiled in full, so their
+     * errors are reported right away even with engine.lazy-compile.
+     */
+    public Patch rebuild(File folder, Collection<String> fileNames) {
+        Patch patch = new Patch();
+        for (String fileName : fileNames) {
+            File file = new File(folder, fileName);
+            if (file.isFile()) patch.built.add(build(file, false));
+            else               patch.deleted.add(fileName);
+        }
+        return patch;
+    }
+
+    /**
+     * Install a rebuilt set of files, patching only their entries into a new
+     * dispatch table that is published once every file is in. A file that
+     * failed to compile keeps its previous version running. Server thread only.
+     */
+    public Applied apply(Patch patch) {
+        List<ScriptLoadResult> results  = new ArrayList<>();
+        Set<String>            commands = new TreeSet<>();
+        DispatchTable t = table;
+        for (Built built : patch.built) {
+            deferredErrors.remove(built.name());
+            CompiledScript old = t.scripts().get(built.name());
+            CompiledScript now = install(built);
+            results.add(built.result());
+            if (now == null) continue;
+            t = t.with(built.name(), now, limiter);
+            commands.addAll(commandNames(old));
+            commands.addAll(commandNames(now));
+        }
+        for (String name : patch.deleted) {
+            deferredErrors.remove(name);
+            CompiledScript old = t.scripts().get(name);
+            if (old != null) {
+                t = t.with(name, null, limiter);
+                commands.addAll(commandNames(old));
+                results.add(ScriptLoadResult.ioError(name, "File deleted; script unloaded"));
+            } else {
+                results.add(ScriptLoadResult.ioError(name, "File not found"));
+            }
+        }
+        publish(t);
+        if (cache != null) cache.retain(t.scripts().keySet());
+        return new Applied(results, commands);
+    }
+
+    private static Set<String> commandNames(CompiledScript cs) {
+        return cs != null ? cs.getCommandIndex().keySet() : Set.of();
+    }
+
+    /**
+     * Make {@code next} the dispatch table, and release the slots of limits
+     * and cooldowns only the old one held, such as those of unloaded scripts.
+     */
+    private void publish(DispatchTable next) {
+        Set<String> gone = table.limitNames();
+        table = next;
+        gone.removeAll(next.limitNames());
+        limiter.release(gone);
+    }
+
+    /** A script built off the server thread, waiting to be installed; script is null if it failed. */
+    private record Built(String name, CompiledScript script, ScriptLoadResult result) {}
+
+    /** Read and build one file. Touches no engine state, so it can run on any thread. */
+    private Built build(File file, boolean defer) {
+        String source;
         try {
-            String source    = Files.readString(file.toPath(), StandardCharsets.UTF_8);
-            CompiledScript cs = compile(source, name);
-            scripts.put(name, cs);
-            return ScriptLoadResult.ok(name);
+            source = Files.readString(file.toPath(), StandardCharsets.UTF_8);
         } catch (IOException e) {
-            return ScriptLoadResult.ioError(name, e.getMessage());
+            return new Built(file.getName(), null, ScriptLoadResult.ioError(file.getName(), e.getMessage()));
+        }
+        return build(file.getName(), source, defer);
+    }
+
+    private Built build(String name, String source, boolean defer) {
+        try {
+            // A cached tree is cheap enough to lower right away, even when deferring.
+            ASTNode.Program cached = cache != null ? cache.load(name, source) : null;
+            if (cached != null) return new Built(name, lower(cached, name), ScriptLoadResult.ok(name));
+            if (defer) {
+                // Headers are enough to register events and commands; parse-at-load also reports body errors now.
+                ASTNode.Program ast = parseAtLoad ? parse(source, name) : Parser.parseHeaders(source, name);
+                CompiledScript cs = CompiledScript.deferred(name, ast, source);
+                cs.parseRates();
+                return new Built(name, cs, ScriptLoadResult.deferred(name));
+            }
+            return build(name, parse(source, name), source);
         } catch (ParseException e) {
-            return ScriptLoadResult.parseError(name, e.getRawMessage(), e.getLine());
+            return new Built(name, null, ScriptLoadResult.parseError(name, e.getRawMessage(), e.getLine()));
         } catch (Exception e) {
-            return ScriptLoadResult.runtimeError(name, e.getMessage());
+            return new Built(name, null, ScriptLoadResult.runtimeError(name, e.getMessage()));
         }
     }
 
+    /** Optimise and lower a freshly parsed tree, caching it for the next load. */
+    private Built build(String name, ASTNode.Program parsed, String source) {
+        try {
+            CompiledScript cs = lower(optimize ? ASTOptimizer.optimize(parsed) : parsed, name);
+            if (cache != null) cache.store(name, source, cs.getAst());
+            return new Built(name, cs, ScriptLoadResult.ok(name));
+        } catch (ParseException e) {
+            return new Built(name, null, ScriptLoadResult.parseError(name, e.getRawMessage(), e.getLine()));
+        } catch (Exception e) {
+            return new Built(name, null, ScriptLoadResult.runtimeError(name, e.getMessage()));
+        }
+    }
+
+    /** Lower a tree read from a precompiled jar; nothing is lexed or parsed. */
+    private Built build(ScriptArchive.Entry entry) {
+        String name = entry.name();
+        try {
+            ASTNode.Program ast = optimize && !entry.optimized() ? ASTOptimizer.optimize(entry.program()) : entry.program();
+            return new Built(name, lower(ast, name), ScriptLoadResult.ok(name));
+        } catch (ParseException e) {
+            return new Built(name, null, ScriptLoadResult.parseError(name, e.getRawMessage(), e.getLine()));
+        } catch (Exception e) {
+            return new Built(name, null, ScriptLoadResult.runtimeError(name, e.getMessage()));
+        }
+    }
+
+    /**
+     * Build every file, on {@code loadThreads} worker threads when parallel
+     * loading is on. Results keep the order of {@code files}.
+     */
+    private List<Built> buildAll(File[] files, boolean defer) {
+        if (loadThreads <= 1 || files.length < 2) {
+            List<Built> built = new ArrayList<>(files.length);
+            for (File file : files) built.add(build(file, defer));
+            return built;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(loadThreads, files.length));
+        try {
+            return pool.submit(() -> Arrays.stream(files).parallel().map(f -> build(f, defer)).toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Link a built script, ready to go into a dispatch table; null if it failed. Server thread only. */
+    private CompiledScript install(Built built) {
+        CompiledScript cs = built.script();
+        if (cs == null) return null;
+        return cs.isDeferred() ? cs : finish(cs);
+    }
+
+    /**
+     * Compile a deferred script and swap it in. If that fails, usually on an
+     * error in a body the header scan skipped, the script is dropped as if it
+     * had failed to load and the error is kept for {@link #getDeferredErrors}.
+     */
+    private ScriptLoadResult compileDeferred(CompiledScript deferred) {
+        String name = deferred.getName();
+        long start = System.nanoTime();
+        Built built = parseAtLoad
+                ? build(name, deferred.getAst(), deferred.getSource())
+                : build(name, deferred.getSource(), false);
+        CompiledScript cs = install(built);
+        ScriptLoadResult r = built.result();
+        if (r.isOk()) {
+            FLogger.debug("Compiled deferred " + name + " in " + (System.nanoTime() - start) / 1000 + " µs");
+        } else {
+            FLogger.warn("  ✗ " + name + ": " + (r.hasLine() ? "line " + r.getErrorLine() + ": " : "") + r.getErrorMessage());
+            deferredErrors.put(name, r);
+        }
+        publish(table.with(name, cs, limiter));
+        return r;
+    }
+
+    private static boolean hasDeferred(EventEntry[] handlers) {
+        for (EventEntry entry : handlers) if (entry.script().isDeferred()) return true;
+        return false;
+    }
+
+    /** Compile every deferred script behind these handlers. */
+    private void compileDeferred(EventEntry[] handlers) {
+        for (EventEntry entry : handlers) {
+            if (entry.script().isDeferred()) compileDeferred(entry.script());
+        }
+    }
+
+    /** Compile the remaining deferred scripts one per tick until none are left. */
+    private void startBackgroundCompile() {
+        if (backgroundCompile != null) return;
+        backgroundCompile = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+            for (CompiledScript cs : table.scripts().values()) {
+                if (cs.isDeferred()) {
+                    compileDeferred(cs);
+                    return;
+                }
+            }
+            backgroundCompile.cancel();
+            backgroundCompile = null;
+        }, 1L, 1L);
+    }
+
     public CompiledScript compile(String source, String name) throws ParseException {
+        return finish(lower(source, name));
+    }
+
+    /**
+     * Lex, parse, optimise and lower one script. Pure per file — no engine
+     * state or registries — so loadAll runs it on worker threads.
+     */
+    private CompiledScript lower(String source, String name) throws ParseException {
+        ASTNode.Program ast = parse(source, name);
+        if (optimize) ast = ASTOptimizer.optimize(ast);
+        return lower(ast, name);
+    }
+
+    private static ASTNode.Program parse(String source, String name) throws ParseException {
         Lexer lexer        = new Lexer(source, name);
         List<Lexer.Token> tokens = lexer.tokenize();
-        Parser parser      = new Parser(tokens, name);
-        ASTNode.Program ast = parser.parse();
-        return new CompiledScript(name, ast);
+        return new Parser(tokens, name).parse();
+    }
+
+    private CompiledScript lower(ASTNode.Program ast, String name) throws ParseException {
+        CompiledScript script = new CompiledScript(name, ast);
+        script.parseRates();
+        if (mode == ExecutionMode.BYTECODE) script.compileBytecode();
+        return script;
     }
 
-    private void rebuildIndices() {
-        eventIndex.clear();
-        commandIndex.clear();
-        for (CompiledScript cs : scripts.values()) {
-            cs.getEventIndex().forEach((k, v) ->
-                    eventIndex.computeIfAbsent(k, x -> new ArrayList<>())
-                            .add(new EventEntry(cs, v)));
-            cs.getCommandIndex().forEach((k, v) ->
-                    commandIndex.put(k, new CommandEntry(cs, v)));
+    /** Bind a built script to the effect registry and JIT policy. Server thread only. */
+    private CompiledScript finish(CompiledScript script) {
+        if (optimize && FLogger.isDebugMode()) FLogger.debug(script.getName() + " (optimised)\n" + ASTPrinter.print(script.getAst()));
+        if (mode == ExecutionMode.BYTECODE) {
+            link(script);
+            if (FLogger.isDebugMode()) logBytecode(script);
+            applyJitPolicy(script);
         }
+        return script;
+    }
+
+    private void link(CompiledScript script) {
+        List<String> unresolved = new ArrayList<>();
+        Linkage.linkAll(script, effectRegistry, reportUnknownEffects, unresolved);
+        for (String msg : unresolved) FLogger.warn("[" + script.getName() + "] " + msg);
+    }
+
+    /** Re-bind effect handlers after an addon registered or unregistered one. */
+    public void relinkEffects() {
+        for (CompiledScript cs : table.scripts().values()) Linkage.relinkEffects(cs, effectRegistry);
+    }
+
+    /** Called one tick after enable, when every addon has had a chance to register effects. */
+    public void reportUnresolvedEffects() {
+        reportUnknownEffects = true;
+        for (CompiledScript cs : table.scripts().values()) {
+            List<String> unresolved = new ArrayList<>();
+            Linkage.reportUnresolvedEffects(cs, unresolved);
+            for (String msg : unresolved) FLogger.warn("[" + cs.getName() + "] " + msg);
+        }
+    }
+
+    private void applyJitPolicy(CompiledScript script) {
+        JitPolicy.Mode jit = jitPolicy.modeFor(script.getName());
+        for (Chunk chunk : script.getChunks()) {
+            // A sliced run can only yield in the VM, so loops and calls stay there.
+            if (sliceOps > 0 && JitCompiler.mayRunLong(chunk)) {
+                chunk.setJitThreshold(-1);
+                continue;
+            }
+            switch (jit) {
+                case AUTO   -> chunk.setJitThreshold(jitPolicy.threshold());
+                case ALWAYS -> JitCompiler.promote(chunk, script);
+                case NEVER  -> chunk.setJitThreshold(-1);
+            }
+        }
+    }
+
+    /** Number of chunks currently running as JIT-compiled classes. */
+    public int getJitCompiledCount() {
+        int n = 0;
+        for (CompiledScript cs : table.scripts().values()) {
+            for (Chunk chunk : cs.getChunks()) if (chunk.jitCode() != null) n++;
+        }
+        return n;
+    }
+
+    /** Scripts parked in a wait on their own virtual thread; 0 when that mode is off. */
+    public int getParkedScriptCount() {
+        return threads != null ? threads.parkedCount() : 0;
+    }
+
+    public boolean isVirtualThreadsEnabled() { return threads != null; }
+
+    /** Time-sliced runs waiting for their next slice; 0 when that mode is off. */
+    public int getSlicedScriptCount() {
+        return sliced != null ? sliced.size() : 0;
+    }
+
+    public boolean isTimeSlicingEnabled() { return sliced != null; }
+
+    /** True when scripts come from a flok-compiler jar (engine.precompiled) rather than .fk files. */
+    public boolean isPrecompiled() { return archive != null; }
+
+    /** Scripts loaded with engine.lazy-compile whose bodies are not compiled yet. */
+    public int getDeferredScriptCount() { return table.deferredCount(); }
+
+    /** Lazily loaded scripts that failed to compile on first use, by file name; a reload of the file clears its entry. */
+    public Collection<ScriptLoadResult> getDeferredErrors() { return List.copyOf(deferredErrors.values()); }
+
+    private void logBytecode(CompiledScript script) {
+        for (ASTNode node : script.getAst().children()) {
+            ASTNode.Block body = switch (node) {
+                case ASTNode.EventBlock   eb -> eb.body();
+                case ASTNode.CommandBlock cb -> cb.body();
+                case ASTNode.FunctionDef  fd -> fd.body();
+                default -> null;
+            };
+            Chunk chunk = body != null ? script.getChunk(body) : null;
+            if (chunk != null) FLogger.debug(script.getName() + "\n" + chunk.disassemble());
+        }
+    }
+
+
+    /**
+     * Whether any loaded script handles {@code event}, a normalized event name.
+     * Event sources check this before building anything for dispatch.
+     */
+    public boolean hasHandlers(String event) {
+        return table.handles(event);
     }
 
     public void dispatchEvent(String eventName, Player player, Map<String, FValue> params) {
+        dispatchEvent(eventName, player, EventParams.of(params), null);
+    }
+
+    public void dispatchEvent(String eventName, Player player, EventParams params) {
         dispatchEvent(eventName, player, params, null);
     }
 
-    public void dispatchEvent(String eventName, Player player, Map<String, FValue> params, Cancellable cancellable) {
+    public void dispatchEvent(String eventName, Player player, EventParams params, Cancellable cancellable) {
         String normalized = CompiledScript.normalizeEventName(eventName);
 
-        if (player != null && THROTTLED_EVENTS.contains(normalized)) {
-            String key   = normalized + ":" + player.getUniqueId();
-            long   now   = System.currentTimeMillis();
-            Long   last  = throttleTable.get(key);
-            if (last != null && now - last < THROTTLE_MS) return;
-            throttleTable.put(key, now);
+        DispatchTable t = table;
+        EventEntry[] all = t.handlers(normalized);
+        if (all.length == 0) return;
+        EventParams values = all.length > 1 ? params.memoized() : params;
+        EventEntry[] handlers = t.handlers(normalized, values);
+        if (t.deferredCount() > 0 && hasDeferred(handlers)) {
+            // Compiling links against the effect registry, which is server-thread state.
+            if (!Bukkit.isPrimaryThread()) {
+                plugin.getServer().getScheduler().runTask(plugin,
+                        () -> dispatchEvent(eventName, player, params, cancellable));
+                return;
+            }
+            compileDeferred(handlers);
+            handlers = table.handlers(normalized, values);
+        }
+        // Only past the hand-over above, so a re-dispatched event is charged once.
+        if (player != null) {
+            RateLimiter.Limit limit = eventLimits.get(normalized);
+            if (limit != null && limiter.acquire(player.getUniqueId(), limit) > 0) return;
         }
-
-        List<EventEntry> handlers = eventIndex.get(normalized);
-        if (handlers == null || handlers.isEmpty()) return;
 
         for (EventEntry entry : handlers) {
-            run(entry.script(), entry.block().body(), player, params, cancellable);
+            if (!entry.filter().matches(player, values)) continue;
+            RateLimiter.Limit limit = entry.filter().limit();
+            if (limit != null && player != null && limiter.acquire(player.getUniqueId(), limit) > 0) continue;
+            ExecutionContext ctx = acquire(entry.chunk(), player, cancellable);
+            String[] names = entry.names();
+            int[]    slots = entry.slots();
+            for (int i = 0; i < names.length; i++) {
+                FValue v = values.get(names[i]);
+                if (v != null) bind(ctx, slots[i], names[i], v);
+            }
+            ctx.setEventParams(values);
+            run(entry.script(), entry.block().body(), entry.chunk(), entry.suspends(), ctx);
         }
     }
 
     public boolean dispatchCommand(String commandName, Player player, String[] args) {
-        CommandEntry entry = commandIndex.get(commandName.toLowerCase());
+        String key = commandName.toLowerCase();
+        CommandEntry entry = table.command(key);
         if (entry == null) return false;
+        if (entry.cooldown() != null && player != null) {
+            long wait = limiter.acquire(player.getUniqueId(), entry.cooldown());
+            if (wait > 0) {
+                long seconds = (wait + 999_999_999L) / 1_000_000_000L;
+                player.sendMessage("§cPlease wait " + seconds + "s before using /" + commandName + " again.");
+                return true;
+            }
+        }
+        if (entry.script().isDeferred()) {
+            compileDeferred(entry.script());
+            entry = table.command(key);
+            if (entry == null) return false;
+        }
 
-        Map<String, FValue> params = new HashMap<>(8);
-        params.put("args",       buildArgsList(args));
-        params.put("args-count", FValue.of(args.length));
+        ExecutionContext ctx = acquire(entry.chunk(), player, null);
+        int[] slots = entry.paramSlots();
+        bind(ctx, slots[0], "args",       buildArgsList(args));
+        bind(ctx, slots[1], "args-count", FValue.of(args.length));
 
         List<String> paramNames = entry.block().paramNames();
         for (int i = 0; i < paramNames.size(); i++) {
-            params.put(paramNames.get(i), i < args.length ? FValue.of(args[i]) : FValue.EMPTY_STRING);
+            bind(ctx, slots[2 + i], paramNames.get(i), i < args.length ? FValue.of(args[i]) : FValue.EMPTY_STRING);
         }
 
-        run(entry.script(), entry.block().body(), player, params, null);
+        run(entry.script(), entry.block().body(), entry.chunk(), entry.suspends(), ctx);
         return true;
     }
 
-    private void run(CompiledScript script, ASTNode.Block block,
-                     Player player, Map<String, FValue> params, Cancellable cancellable) {
+    private ExecutionContext acquire(Chunk chunk, Player player, Cancellable cancellable) {
         ExecutionContext ctx = ContextPool.acquire(player, maxOps);
         if (cancellable != null) ctx.setCancellableEvent(cancellable);
+        if (chunk != null) ctx.bindLayout(chunk.layout());
+        return ctx;
+    }
+
+    private static void bind(ExecutionContext ctx, int slot, String name, FValue value) {
+        if (slot >= 0) ctx.setSlot(slot, value);
+        else           ctx.setLocal(name, value);
+    }
+
+    private void run(CompiledScript script, ASTNode.Block block, Chunk chunk, boolean suspends, ExecutionContext ctx) {
+        if (suspends && threads != null && threads.hasCapacity()) {
+            try {
+                runOnThread(script, block, chunk, ctx);
+            } finally {
+                ContextPool.release(ctx);
+            }
+            return;
+        }
         try {
-            params.forEach(ctx::setLocal);
-            Interpreter interp = new Interpreter(script, storage, effectRegistry);
-            interp.executeBlock(block, ctx);
+            if (chunk != null) {
+                VirtualMachine vm = vm(script);
+                vm.execute(chunk, ctx);
+                Continuation k = vm.suspended(ctx);
+                if (k != null) {
+                    ContextPool.detach(ctx);
+                    scheduleResume(script, k);
+                }
+            } else {
+                interpreter(script).execute(block, ctx);
+            }
 
         } catch (WaitSignal w) {
-            WaitSignal detached = new WaitSignal(w.delayTicks(), w.remaining(),
-                    ContextPool.detach(w.ctx()));
-            ContextPool.release(ctx);
-            scheduleResume(script, detached);
-            return;
+            ContextPool.detach(w.ctx());
+            scheduleResume(script, w);
         } catch (ScriptException e) {
             FLogger.scriptError(script.getName(), e.getLine(), e.getMessage());
         } catch (ExecutionContext.OpLimitExceededException e) {
@@ -207,43 +780,115 @@ public final class ScriptEngine {
         }
     }
 
+    /** The script's VM, made on first use; per-run state lives in the ExecutionContext. */
+    private VirtualMachine vm(CompiledScript script) {
+        VirtualMachine vm = script.vm;
+        if (vm == null) vm = script.vm = new VirtualMachine(script, storage).slice(sliceOps, lifetimeOps - maxOps);
+        return vm;
+    }
+
+    private Interpreter interpreter(CompiledScript script) {
+        Interpreter in = script.interpreter;
+        if (in == null) in = script.interpreter = new Interpreter(script, storage, effectRegistry,
+                mode == ExecutionMode.NODES ? script.getNodeTree() : null);
+        return in;
+    }
+
+    /**
+     * Run a handler that may wait on its own virtual thread. A wait then just
+     * parks the thread — loops, function calls and tree-mode blocks all keep
+     * their state on its stack — and ScriptThreads wakes it from the tick task.
+     */
+    private void runOnThread(CompiledScript script, ASTNode.Block block, Chunk chunk, ExecutionContext ctx) {
+        ScriptThread thread = threads.start(script.getName(), t -> {
+            try {
+                if (chunk != null) vm(script).execute(chunk, ctx);
+                else               interpreter(script).execute(block, ctx);
+            } catch (ScriptException e) {
+                FLogger.scriptError(script.getName(), e.getLine(), e.getMessage());
+            } catch (ExecutionContext.OpLimitExceededException e) {
+                FLogger.warn("[" + script.getName() + "] Script exceeded op limit and was halted.");
+            } catch (ExecutionContext.CallDepthExceededException e) {
+                FLogger.warn("[" + script.getName() + "] Script exceeded max call depth (infinite recursion?).");
+            }
+        });
+        if (thread.isParked()) ContextPool.detach(ctx);
+    }
+
+    /**
+     * Schedule a VM continuation. The frames own their contexts (detached from
+     * the pool), so resuming is just continuing the loop; a further wait
+     * schedules again. Runs that used up their time slice go on the run
+     * queue instead.
+     */
+    private void scheduleResume(CompiledScript script, Continuation k) {
+        Runnable resume = () -> {
+            VirtualMachine vm = vm(script);
+            vm.resume(k);
+            Continuation next = vm.suspended(k.ctx());
+            if (next != null) scheduleResume(script, next);
+        };
+        if (k.isYield()) sliced.add(guarded(script, resume));
+        else             resumeLater(script, k.delayTicks(), resume);
+    }
+
     /**
-     * Schedule a wait continuation via Bukkit's scheduler.
+     * Schedule a tree-mode wait continuation via Bukkit's scheduler.
      * The context is NOT pooled here — it must remain live until the task fires.
      * Nested waits re-schedule recursively.
      */
     private void scheduleResume(CompiledScript script, WaitSignal w) {
-        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-            ExecutionContext ctx = w.ctx();
-            Interpreter interp  = new Interpreter(script, storage, effectRegistry);
+        resumeLater(script, w.delayTicks(), () -> {
             try {
-                interp.resumeBlock(w.remaining(), ctx);
+                interpreter(script).resume(w);
             } catch (WaitSignal w2) {
                 scheduleResume(script, w2);
+            }
+        });
+    }
+
+    private void resumeLater(CompiledScript script, long delayTicks, Runnable resume) {
+        plugin.getServer().getScheduler().runTaskLater(plugin, guarded(script, resume), delayTicks);
+    }
+
+    private static Runnable guarded(CompiledScript script, Runnable resume) {
+        return () -> {
+            try {
+                resume.run();
             } catch (ScriptException e) {
                 FLogger.scriptError(script.getName(), e.getLine(), e.getMessage());
             } catch (ExecutionContext.OpLimitExceededException e) {
                 FLogger.warn("[" + script.getName() + "] Script exceeded op limit in wait continuation.");
+            } catch (ExecutionContext.CallDepthExceededException e) {
+                FLogger.warn("[" + script.getName() + "] Script exceeded max call depth (infinite recursion?).");
             } catch (Exception e) {
                 FLogger.error("[" + script.getName() + "] Error in wait continuation: " + e.getMessage());
                 if (FLogger.isDebugMode()) e.printStackTrace();
             }
-        }, w.delayTicks());
+        };
     }
 
 
+    public ExecutionMode                         getMode()            { return mode; }
     public EffectRegistry                        getEffectRegistry()  { return effectRegistry; }
     public PersistentStorage                     getStorage()         { return storage; }
-    public Collection<CompiledScript>            getScripts()         { return scripts.values(); }
-    public int                                   getLoadedScriptCount(){ return scripts.size(); }
-    public Map<String, List<EventEntry>>         getEventIndex()      { return eventIndex; }
-    public Map<String, CommandEntry>             getCommandIndex()    { return commandIndex; }
+    public RateLimiter                           getRateLimiter()     { return limiter; }
+    public Collection<CompiledScript>            getScripts()         { return table.scripts().values(); }
+    public int                                   getLoadedScriptCount(){ return table.scripts().size(); }
+    public Map<String, EventEntry[]>             getEventIndex()      { return table.events(); }
+    public Map<String, CommandEntry>             getCommandIndex()    { return table.commands(); }
+    /** The current dispatch snapshot; safe to read from any thread. */
+    public DispatchTable                         getDispatchTable()   { return table; }
 
     public void shutdown() {
-        scripts.clear();
-        eventIndex.clear();
-        commandIndex.clear();
-        throttleTable.clear();
+        if (threadTicker != null) threadTicker.cancel();
+        if (threads != null) threads.shutdown();
+        if (sliceTicker != null) sliceTicker.cancel();
+        if (sliced != null) sliced.shutdown();
+        if (backgroundCompile != null) backgroundCompile.cancel();
+        backgroundCompile = null;
+        table = DispatchTable.EMPTY;
+        limiter.clear();
     }
 
     private FValue buildArgsList(String[] args) {
@@ -0,0 +1,109 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.util.FLogger;
+import yaluv.flok.util.ScriptLoadResult;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hot reload (engine.watch). A daemon thread watches the scripts folder and
+ * collects changed {@code .fk} files until nothing has changed for the
+ * debounce period, so an editor's save-rename-touch sequence is one reload.
+ * The changed files are rebuilt on the watcher thread; only installing them
+ * and patching their index entries runs on the server thread.
+ */
+public final class ScriptWatcher {
+
+    private final JavaPlugin                         plugin;
+    private final ScriptEngine                       engine;
+    private final File                               folder;
+    private final long                               debounceMs;
+    private final Consumer<ScriptEngine.Applied>     onApplied;
+
+    private WatchService    watch;
+    private Thread          thread;
+    private volatile boolean running;
+
+    /** {@code onApplied} runs on the server thread after each reload, e.g. to update commands. */
+    public ScriptWatcher(JavaPlugin plugin, ScriptEngine engine, File folder, long debounceMs,
+                         Consumer<ScriptEngine.Applied> onApplied) {
+        this.plugin     = plugin;
+        this.engine     = engine;
+        this.folder     = folder;
+        this.debounceMs = Math.max(50, debounceMs);
+        this.onApplied  = onApplied;
+    }
+
+    public void start() throws IOException {
+        Path dir = folder.toPath();
+        watch = dir.getFileSystem().newWatchService();
+        dir.register(watch, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        running = true;
+        thread  = Thread.ofPlatform().name("flok-watcher").daemon().start(this::run);
+        FLogger.info("Watching " + folder.getPath() + " for script changes.");
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+        try {
+            if (watch != null) watch.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void run() {
+        Set<String> changed = new TreeSet<>();
+        try {
+            while (running) {
+                WatchKey key = changed.isEmpty() ? watch.take() : watch.poll(debounceMs, TimeUnit.MILLISECONDS);
+                if (key == null) {                     // quiet for a whole debounce period
+                    reload(changed);
+                    changed = new TreeSet<>();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        String[] all = folder.list((d, n) -> n.endsWith(".fk"));
+                        if (all != null) changed.addAll(Set.of(all));
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (name.endsWith(".fk")) changed.add(name);
+                }
+                if (!key.reset()) break;               // folder itself is gone
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // stopped
+        }
+    }
+
+    private void reload(Set<String> names) {
+        long start = System.nanoTime();
+        ScriptEngine.Patch patch = engine.rebuild(folder, names);
+        if (!running) return;
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            ScriptEngine.Applied applied = engine.apply(patch);
+            onApplied.accept(applied);
+            for (ScriptLoadResult r : applied.results()) {
+                if (r.isOk()) FLogger.info("  ✓ " + r.getFileName() + " reloaded");
+                else          FLogger.warn("  ✗ " + r.getFileName() + ": "
+                        + (r.hasLine() ? "line " + r.getErrorLine() + ": " : "") + r.getErrorMessage());
+            }
+            FLogger.debug("Hot reload of " + names.size() + " file(s) took "
+                    + (System.nanoTime() - start) / 1_000_000L + " ms");
+        });
+    }
+}
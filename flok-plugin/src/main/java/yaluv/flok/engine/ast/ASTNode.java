@@ -42,10 +42,14 @@ public sealed interface ASTNode permits
 
     record Program(List<ASTNode> children, int line) implements ASTNode {}
 
-    record EventBlock(String eventName, List<String> params, Block body, int line) implements ASTNode {}
+    record EventBlock(String eventName, List<String> params, List<Filter> filters, Block body, int line) implements ASTNode {
+        /** A header filter such as {@code type: diamond_ore, emerald_ore}; key and values are lowercase. */
+        public record Filter(String key, List<String> values) {}
+    }
 
-    record CommandBlock(String commandName, List<String> aliases, String permission,
-                        String description, List<String> paramNames, Block body, int line) implements ASTNode {}
+    /** {@code cooldown} is a rate such as {@code 5s} or {@code 3/1m}, or empty for none. */
+    record CommandBlock(String commandName, List<String> aliases, String permission, String description,
+                        String cooldown, List<String> paramNames, Block body, int line) implements ASTNode {}
 
     record FunctionDef(String name, List<String> params, Block body, int line) implements ASTNode {}
 
@@ -0,0 +1,445 @@
+package yaluv.flok.engine.bytecode;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.parser.ParseException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lowers the body of one event, command or function into a {@link Chunk}.
+ *
+ * Registers are allocated stack-style: every expression is compiled into a
+ * destination register chosen by its parent, and temporaries above it are
+ * released as soon as the parent instruction has been emitted. Loops get a
+ * dedicated counter slot so iteration state never has to be boxed.
+ *
+ * Variable names are resolved to frame slots as they are encountered, with
+ * parameters pre-assigned to the first slots; the resulting {@link FrameLayout}
+ * travels with the chunk so nothing hashes a name at run time.
+ */
+public final class BytecodeCompiler {
+
+    private final String fileName;
+    private final String chunkName;
+
+    private int[] code  = new int[64];
+    private int[] lines = new int[64];
+    private int   size;
+
+    private final List<FValue>         constants     = new ArrayList<>();
+    private final Map<String, Integer> constantIndex = new HashMap<>();
+    private final List<String>         names         = new ArrayList<>();
+    private final Map<String, Integer> nameIndex     = new HashMap<>();
+    private final List<String>         slots         = new ArrayList<>();
+    private final Map<String, Integer> slotIndex     = new HashMap<>();
+
+    private int nextReg, maxReg;
+    private int nextCounter, maxCounter;
+
+    private final ArrayDeque<Loop> loops = new ArrayDeque<>();
+
+    private static final class Loop {
+        final int continueTarget;
+        final List<Integer> breakJumps = new ArrayList<>();
+        Loop(int continueTarget) { this.continueTarget = continueTarget; }
+    }
+
+    private BytecodeCompiler(String fileName, String chunkName) {
+        this.fileName  = fileName;
+        this.chunkName = chunkName;
+    }
+
+    public static Chunk compile(String chunkName, List<String> params, ASTNode.Block body,
+                                String fileName) throws ParseException {
+        BytecodeCompiler c = new BytecodeCompiler(fileName, chunkName);
+        for (String p : params) c.slot(p);
+        c.block(body);
+        c.emit(body.line(), Opcode.RETURN_NULL);
+        return new Chunk(chunkName,
+                Arrays.copyOf(c.code, c.size), Arrays.copyOf(c.lines, c.size),
+                c.constants.toArray(new FValue[0]), c.names.toArray(new String[0]),
+                params.toArray(new String[0]), new FrameLayout(c.slots.toArray(new String[0])),
+                c.maxReg, c.maxCounter);
+    }
+
+
+    private void block(ASTNode.Block block) throws ParseException {
+        for (ASTNode stmt : block.statements()) statement(stmt);
+    }
+
+    private void statement(ASTNode node) throws ParseException {
+        int mark = nextReg;
+        switch (node) {
+
+            case ASTNode.VarAssign va -> {
+                int r = alloc();
+                expr(va.value(), r);
+                emit(va.line(), Opcode.STORE_SLOT, slot(va.name()), r);
+            }
+
+            case ASTNode.AugAssign aa -> {
+                int r = alloc();
+                load(aa.line(), aa.name(), r);
+                int d = alloc();
+                expr(aa.value(), d);
+                emitAug(aa.line(), aa.op(), r, d);
+                emit(aa.line(), Opcode.STORE_SLOT, slot(aa.name()), r);
+            }
+
+            case ASTNode.PersistAssign pa -> {
+                int k = alloc();
+                expr(pa.keyExpr(), k);
+                int v = alloc();
+                expr(pa.value(), v);
+                emit(pa.line(), Opcode.STORE_PERSIST, k, v);
+            }
+
+            case ASTNode.PersistAugAssign paa -> {
+                int k = alloc();
+                expr(paa.keyExpr(), k);
+                int d = alloc();
+                expr(paa.value(), d);
+                if ("+=".equals(paa.op())) {
+                    emit(paa.line(), Opcode.PERSIST_INCR, k, d);
+                } else {
+                    int cur = alloc();
+                    emit(paa.line(), Opcode.LOAD_PERSIST, cur, k);
+                    emitAug(paa.line(), paa.op(), cur, d);
+                    emit(paa.line(), Opcode.STORE_PERSIST, k, cur);
+                }
+            }
+
+            case ASTNode.EffectStmt es -> {
+                int start = args(es.args());
+                emit(es.line(), Opcode.EFFECT, name(es.effectName()), start, es.args().size());
+            }
+
+            case ASTNode.IfStmt is -> ifStmt(is);
+
+            case ASTNode.WhileStmt ws -> {
+                int top = size;
+                int c = alloc();
+                expr(ws.condition(), c);
+                int exit = emitJump(ws.line(), Opcode.JMP_FALSE, c);
+                nextReg = mark;
+                loopBody(ws.body(), top, ws.line());
+                patch(exit);
+            }
+
+            case ASTNode.ForEachStmt fe -> {
+                int list = alloc();
+                int ctr  = allocCounter();
+                expr(fe.iterable(), list);
+                emit(fe.line(), Opcode.ITER_INIT, list, list, ctr);
+                int top  = size;
+                int item = alloc();
+                int exit = emitJump(fe.line(), Opcode.ITER_NEXT, item, list, ctr);
+                emit(fe.line(), Opcode.STORE_SLOT, slot(fe.varName()), item);
+                nextReg = list + 1;
+                loopBody(fe.body(), top, fe.line());
+                patch(exit);
+                nextCounter--;
+            }
+
+            case ASTNode.RepeatStmt rs -> {
+                int ctr = allocCounter();
+                int n   = alloc();
+                expr(rs.count(), n);
+                emit(rs.line(), Opcode.REPEAT_INIT, ctr, n);
+                nextReg = mark;
+                int top  = size;
+                int exit = emitJump(rs.line(), Opcode.REPEAT_NEXT, ctr);
+                loopBody(rs.body(), top, rs.line());
+                patch(exit);
+                nextCounter--;
+            }
+
+            case ASTNode.ReturnStmt rs -> {
+                if (rs.value() == null) {
+                    emit(rs.line(), Opcode.RETURN_NULL);
+                } else {
+                    int r = alloc();
+                    expr(rs.value(), r);
+                    emit(rs.line(), Opcode.RETURN, r);
+                }
+            }
+
+            // Outside a loop, break/continue end the whole block — same as the tree-walker.
+            case ASTNode.BreakStmt bs -> {
+                if (loops.isEmpty()) emit(bs.line(), Opcode.RETURN_NULL);
+                else loops.peek().breakJumps.add(emitJump(bs.line(), Opcode.JMP));
+            }
+
+            case ASTNode.ContinueStmt cs -> {
+                if (loops.isEmpty()) emit(cs.line(), Opcode.RETURN_NULL);
+                else emit(cs.line(), Opcode.JMP, loops.peek().continueTarget);
+            }
+
+            case ASTNode.ExprStmt es -> expr(es.expr(), alloc());
+
+            case ASTNode.Block b -> block(b);
+
+            case ASTNode.WaitStmt ws -> {
+                int r = alloc();
+                expr(ws.ticks(), r);
+                emit(ws.line(), Opcode.WAIT, r);
+            }
+
+            default -> throw new ParseException("Unsupported statement: "
+                    + node.getClass().getSimpleName(), fileName, node.line());
+        }
+        nextReg = mark;
+    }
+
+    private void ifStmt(ASTNode.IfStmt is) throws ParseException {
+        List<Integer> endJumps = new ArrayList<>();
+        int mark = nextReg;
+
+        int c = alloc();
+        expr(is.condition(), c);
+        int next = emitJump(is.line(), Opcode.JMP_FALSE, c);
+        nextReg = mark;
+        block(is.thenBlock());
+
+        for (ASTNode.IfStmt.ElseBranch branch : is.elseBranches()) {
+            endJumps.add(emitJump(is.line(), Opcode.JMP));
+            patch(next);
+            c = alloc();
+            expr(branch.condition(), c);
+            next = emitJump(branch.condition().line(), Opcode.JMP_FALSE, c);
+            nextReg = mark;
+            block(branch.body());
+        }
+
+        if (is.elseBlock() != null) {
+            endJumps.add(emitJump(is.line(), Opcode.JMP));
+            patch(next);
+            block(is.elseBlock());
+        } else {
+            patch(next);
+        }
+        for (int j : endJumps) patch(j);
+    }
+
+    private void loopBody(ASTNode.Block body, int top, int line) throws ParseException {
+        Loop loop = new Loop(top);
+        loops.push(loop);
+        block(body);
+        loops.pop();
+        emit(line, Opcode.JMP, top);
+        for (int j : loop.breakJumps) patch(j);
+    }
+
+
+    private void expr(ASTNode node, int dst) throws ParseException {
+        int mark = nextReg;
+        switch (node) {
+
+            case ASTNode.Literal lit ->
+                    emit(lit.line(), lit.value().isList() ? Opcode.LOADK_LIST : Opcode.LOADK,
+                            dst, constant(lit.value()));
+
+            case ASTNode.VarRef vr -> load(vr.line(), vr.name(), dst);
+
+            case ASTNode.PersistRef pr -> {
+                expr(pr.keyExpr(), dst);
+                emit(pr.line(), Opcode.LOAD_PERSIST, dst, dst);
+            }
+
+            case ASTNode.BinaryOp bo -> binary(bo, dst);
+
+            case ASTNode.UnaryOp uo -> {
+                expr(uo.operand(), dst);
+                switch (uo.op()) {
+                    case "-"   -> emit(uo.line(), Opcode.NEG, dst, dst);
+                    case "not" -> emit(uo.line(), Opcode.NOT, dst, dst);
+                    default    -> {}
+                }
+            }
+
+            case ASTNode.FunctionCall fc -> {
+                int start = args(fc.args());
+                emit(fc.line(), Opcode.CALL, dst, name(fc.name()), start, fc.args().size());
+            }
+
+            case ASTNode.IndexAccess ia -> {
+                expr(ia.target(), dst);
+                int i = alloc();
+                expr(ia.index(), i);
+                emit(ia.line(), Opcode.INDEX, dst, dst, i);
+            }
+
+            case ASTNode.ListLiteral ll -> {
+                int start = args(ll.elements());
+                emit(ll.line(), Opcode.NEW_LIST, dst, start, ll.elements().size());
+            }
+
+            case ASTNode.MapLiteral ml -> {
+                int start = nextReg;
+                for (var entry : ml.entries()) {
+                    expr(entry.getKey(), alloc());
+                    expr(entry.getValue(), alloc());
+                }
+                emit(ml.line(), Opcode.NEW_MAP, dst, start, ml.entries().size());
+            }
+
+            case ASTNode.StringTemplate st -> {
+                int start = nextReg;
+                for (Object part : st.parts()) {
+                    int r = alloc();
+                    if (part instanceof String s) emit(st.line(), Opcode.LOADK, r, constant(FValue.of(s)));
+                    else expr((ASTNode) part, r);
+                }
+                emit(st.line(), Opcode.CONCAT, dst, start, st.parts().size());
+            }
+
+            case ASTNode.Conditional c -> {
+                expr(c.condition(), dst);
+                int otherwise = emitJump(c.line(), Opcode.JMP_FALSE, dst);
+                expr(c.ifTrue(), dst);
+                int end = emitJump(c.line(), Opcode.JMP);
+                patch(otherwise);
+                expr(c.ifFalse(), dst);
+                patch(end);
+            }
+
+            case ASTNode.PropertyAccess pa -> {
+                expr(pa.target(), dst);
+                emit(pa.line(), Opcode.PROPERTY, dst, dst, name(pa.property()));
+            }
+
+            default -> throw new ParseException("Unsupported expression: "
+                    + node.getClass().getSimpleName(), fileName, node.line());
+        }
+        nextReg = mark;
+    }
+
+    private void binary(ASTNode.BinaryOp bo, int dst) throws ParseException {
+        switch (bo.op()) {
+            case "and", "or" -> {
+                expr(bo.left(), dst);
+                int end = emitJump(bo.line(), "and".equals(bo.op()) ? Opcode.JMP_FALSE : Opcode.JMP_TRUE, dst);
+                expr(bo.right(), dst);
+                patch(end);
+                return;
+            }
+            default -> {}
+        }
+        int op = switch (bo.op()) {
+            case "+"        -> Opcode.ADD;
+            case "-"        -> Opcode.SUB;
+            case "*"        -> Opcode.MUL;
+            case "/"        -> Opcode.DIV;
+            case "%"        -> Opcode.MOD;
+            case "^"        -> Opcode.POW;
+            case "=="       -> Opcode.EQ;
+            case "!="       -> Opcode.NE;
+            case "<"        -> Opcode.LT;
+            case "<="       -> Opcode.LE;
+            case ">"        -> Opcode.GT;
+            case ">="       -> Opcode.GE;
+            case "contains" -> Opcode.CONTAINS;
+            default -> throw new ParseException("Unknown operator: " + bo.op(), fileName, bo.line());
+        };
+        expr(bo.left(), dst);
+        int r = alloc();
+        expr(bo.right(), r);
+        emit(bo.line(), op, dst, dst, r);
+    }
+
+    private void emitAug(int line, String op, int acc, int delta) {
+        switch (op) {
+            case "+=" -> emit(line, Opcode.ADD, acc, acc, delta);
+            case "-=" -> emit(line, Opcode.SUB, acc, acc, delta);
+            case "*=" -> emit(line, Opcode.MUL, acc, acc, delta);
+            case "/=" -> emit(line, Opcode.DIV, acc, acc, delta);
+            case "%=" -> emit(line, Opcode.MOD, acc, acc, delta);
+            default   -> emit(line, Opcode.MOVE, acc, delta);
+        }
+    }
+
+    /** Compile each expression into consecutive fresh registers; returns the first one. */
+    private int args(List<ASTNode> exprs) throws ParseException {
+        int start = nextReg;
+        for (ASTNode e : exprs) expr(e, alloc());
+        return start;
+    }
+
+
+    private int alloc() {
+        int r = nextReg++;
+        if (nextReg > maxReg) maxReg = nextReg;
+        return r;
+    }
+
+    private int allocCounter() {
+        int c = nextCounter++;
+        if (nextCounter > maxCounter) maxCounter = nextCounter;
+        return c;
+    }
+
+    private int constant(FValue v) {
+        String key = switch (v.getType()) {
+            case NULL    -> "null";
+            case BOOLEAN -> v.asBoolean() ? "true" : "false";
+            case NUMBER  -> "n" + Double.doubleToLongBits(v.asNumber());
+            case STRING  -> "s" + v.asString();
+            default      -> null;
+        };
+        if (key != null) {
+            Integer existing = constantIndex.get(key);
+            if (existing != null) return existing;
+            constantIndex.put(key, constants.size());
+        }
+        constants.add(v);
+        return constants.size() - 1;
+    }
+
+    /** Player variables are injected lazily, so reading one needs the checking opcode. */
+    private void load(int line, String var, int dst) {
+        emit(line, var.startsWith("player") ? Opcode.LOAD_PLAYER : Opcode.LOAD_SLOT, dst, slot(var));
+    }
+
+    private int slot(String var) {
+        return slotIndex.computeIfAbsent(var, x -> { slots.add(x); return slots.size() - 1; });
+    }
+
+    private int name(String n) {
+        return nameIndex.computeIfAbsent(n, x -> { names.add(x); return names.size() - 1; });
+    }
+
+    private void emit(int line, int op, int... operands) {
+        ensure(1 + operands.length);
+        lines[size]  = line;
+        code[size++] = op;
+        for (int o : operands) {
+            lines[size]  = line;
+            code[size++] = o;
+        }
+    }
+
+    /** Emit a jump whose target (always the last operand) is patched later. */
+    private int emitJump(int line, int op, int... leading) {
+        int[] operands = Arrays.copyOf(leading, leading.length + 1);
+        operands[leading.length] = -1;
+        emit(line, op, operands);
+        return size - 1;
+    }
+
+    private void patch(int operandPos) {
+        code[operandPos] = size;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra <= code.length) return;
+        int cap = Math.max(code.length * 2, size + extra);
+        code  = Arrays.copyOf(code, cap);
+        lines = Arrays.copyOf(lines, cap);
+    }
+}
@@ -0,0 +1,125 @@
+package yaluv.flok.engine.bytecode;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.runtime.JitCode;
+import yaluv.flok.engine.runtime.Linkage;
+
+/**
+ * Flat bytecode for one event, command or function body.
+ *
+ * The arrays are exposed directly (no defensive copies) because the VM reads
+ * them on every instruction. Nothing mutates the code after the compiler built
+ * it; the mutable parts are the link-time bindings and the tiering state
+ * (invocation counter and the JIT-compiled form), touched on the main thread only.
+ *
+ * The op budget is charged per basic block rather than per instruction: on
+ * entry and after every branch, the code runs straight on to the next
+ * branch, so that whole run is charged at once. {@link #blockCosts()} holds
+ * its length for every pc, computed here once. Only the branch actually
+ * taken is charged, and nothing past a {@code return}.
+ */
+public final class Chunk {
+
+    private final String   name;
+    private final int[]    code;
+    private final int[]    lines;
+    private final FValue[] constants;
+    private final String[] names;
+    private final String[] params;
+    private final FrameLayout layout;
+    private final int      registerCount;
+    private final int      counterCount;
+    private final int[]    blockCosts;
+
+    private Linkage linkage;
+
+    private int     jitThreshold = -1;  // invocations before promotion, -1 = never
+    private int     invocations;
+    private JitCode jitCode;
+
+    Chunk(String name, int[] code, int[] lines, FValue[] constants, String[] names,
+          String[] params, FrameLayout layout, int registerCount, int counterCount) {
+        this.name          = name;
+        this.code          = code;
+        this.lines         = lines;
+        this.constants     = constants;
+        this.names         = names;
+        this.params        = params;
+        this.layout        = layout;
+        this.registerCount = registerCount;
+        this.counterCount  = counterCount;
+        this.blockCosts    = computeCosts(code);
+    }
+
+    /**
+     * Ops from each instruction up to and including the next branch, return
+     * or the end of the code; 0 at pcs inside an instruction's operands.
+     */
+    private static int[] computeCosts(int[] code) {
+        int[] costs  = new int[code.length];
+        int[] starts = new int[code.length];
+        int   n = 0;
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) starts[n++] = pc;
+        int run = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            int pc = starts[i];
+            if (Opcode.isBranch(code[pc])) run = 0;
+            costs[pc] = ++run;
+        }
+        return costs;
+    }
+
+    public String   name()          { return name; }
+    public int[]    code()          { return code; }
+    public FValue[] constants()     { return constants; }
+    public String[] names()         { return names; }
+    public String[] params()        { return params; }
+    public FrameLayout layout()     { return layout; }
+    public int      registerCount() { return registerCount; }
+    public int      counterCount()  { return counterCount; }
+    public int      entryCost()     { return blockCosts[0]; }
+    /** Ops charged on reaching each pc by a branch; see {@link #computeCosts}. */
+    public int[]    blockCosts()    { return blockCosts; }
+
+    public Linkage linkage()              { return linkage; }
+    public void    setLinkage(Linkage l)  { this.linkage = l; }
+
+    public JitCode jitCode()              { return jitCode; }
+    public void    setJitCode(JitCode c)  { this.jitCode = c; }
+    public int     invocations()          { return invocations; }
+    public void    setJitThreshold(int t) { this.jitThreshold = t; }
+
+    /** Count one invocation; true exactly once, when the chunk becomes hot. */
+    public boolean countInvocation() {
+        return jitThreshold >= 0 && ++invocations == jitThreshold;
+    }
+
+    /** Source line of the instruction starting at {@code pc}. */
+    public int lineAt(int pc) {
+        return pc >= 0 && pc < lines.length ? lines[pc] : 0;
+    }
+
+    /** Human-readable listing, used by debug logging. */
+    public String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("== ").append(name).append(" (regs=").append(registerCount)
+          .append(", counters=").append(counterCount).append(", slots=").append(layout.size()).append(", entry ops=").append(entryCost()).append(") ==\n");
+        int pc = 0;
+        while (pc < code.length) {
+            int op = code[pc];
+            sb.append(String.format("%04d  L%-4d %-13s", pc, lines[pc], Opcode.name(op)));
+            for (int i = 1; i <= Opcode.operands(op); i++) sb.append(' ').append(code[pc + i]);
+            if (op == Opcode.LOADK || op == Opcode.LOADK_LIST) sb.append("    ; ").append(constants[code[pc + 2]].asString());
+            if (op == Opcode.LOAD_SLOT || op == Opcode.LOAD_PLAYER) sb.append("    ; ").append(layout.nameAt(code[pc + 2]));
+            if (op == Opcode.STORE_SLOT) sb.append("    ; ").append(layout.nameAt(code[pc + 1]));
+            sb.append('\n');
+            pc += 1 + Opcode.operands(op);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk{" + name + ", " + code.length + " ints}";
+    }
+}
@@ -0,0 +1,68 @@
+package yaluv.flok.engine.bytecode;
+
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Slot assignment for the locals of one chunk, resolved at compile time.
+ *
+ * Parameters always occupy the first slots, in declaration order. Bytecode
+ * addresses locals by slot only; the name map exists for callers that still
+ * work by name — event params, PlayerVariables and addon effects calling
+ * {@code FlokContext.getLocal}.
+ */
+public final class FrameLayout {
+
+    public static final FrameLayout EMPTY = new FrameLayout(new String[0]);
+
+    private final String[]             names;
+    private final Map<String, Integer> index;
+
+    FrameLayout(String[] names) {
+        this.names = names;
+        this.index = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) index.put(names[i], i);
+    }
+
+    /**
+     * Layout for a function run by the tree interpreter: its parameters, then
+     * every name the body assigns. Anything else falls back to the context's
+     * overflow map.
+     */
+    public static FrameLayout forFunction(List<String> params, ASTNode.Block body) {
+        Set<String> names = new LinkedHashSet<>(params);
+        collectAssigned(body, names);
+        return new FrameLayout(names.toArray(new String[0]));
+    }
+
+    private static void collectAssigned(ASTNode node, Set<String> out) {
+        switch (node) {
+            case ASTNode.VarAssign va   -> out.add(va.name());
+            case ASTNode.AugAssign aa   -> out.add(aa.name());
+            case ASTNode.Block b        -> { for (ASTNode s : b.statements()) collectAssigned(s, out); }
+            case ASTNode.WhileStmt ws   -> collectAssigned(ws.body(), out);
+            case ASTNode.RepeatStmt rs  -> collectAssigned(rs.body(), out);
+            case ASTNode.ForEachStmt fe -> { out.add(fe.varName()); collectAssigned(fe.body(), out); }
+            case ASTNode.IfStmt is      -> {
+                collectAssigned(is.thenBlock(), out);
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) collectAssigned(br.body(), out);
+                if (is.elseBlock() != null) collectAssigned(is.elseBlock(), out);
+            }
+            default -> {}
+        }
+    }
+
+    public int    size()          { return names.length; }
+    public String nameAt(int slot) { return names[slot]; }
+
+    /** Slot of {@code name}, or -1 if the chunk never refers to it. */
+    public int slotOf(String name) {
+        Integer slot = index.get(name);
+        return slot != null ? slot : -1;
+    }
+}
@@ -0,0 +1,105 @@
+package yaluv.flok.engine.bytecode;
+
+/**
+ * Instruction set of the Flok register VM.
+ *
+ * Every instruction is one opcode followed by a fixed number of int operands,
+ * all stored inline in {@link Chunk#code()}. Operand naming used below:
+ *   dst/a/b/src  register index
+ *   k            constant pool index
+ *   name         name pool index
+ *   slot         local variable slot (see {@link FrameLayout})
+ *   ctr          loop counter index
+ *   target       absolute code offset
+ */
+public final class Opcode {
+
+    private Opcode() {}
+
+    public static final int LOADK          = 0;  // dst k
+    public static final int LOAD_SLOT      = 1;  // dst slot
+    public static final int STORE_SLOT     = 2;  // slot src
+    public static final int LOAD_PERSIST   = 3;  // dst keyReg
+    public static final int STORE_PERSIST  = 4;  // keyReg src
+    public static final int PERSIST_INCR   = 5;  // keyReg src
+    public static final int MOVE           = 6;  // dst src
+
+    public static final int ADD            = 7;  // dst a b
+    public static final int SUB            = 8;
+    public static final int MUL            = 9;
+    public static final int DIV            = 10;
+    public static final int MOD            = 11;
+    public static final int POW            = 12;
+    public static final int EQ             = 13;
+    public static final int NE             = 14;
+    public static final int LT             = 15;
+    public static final int LE             = 16;
+    public static final int GT             = 17;
+    public static final int GE             = 18;
+    public static final int CONTAINS       = 19;
+
+    public static final int NEG            = 20; // dst a
+    public static final int NOT            = 21; // dst a
+
+    public static final int JMP            = 22; // target
+    public static final int JMP_FALSE      = 23; // a target
+    public static final int JMP_TRUE       = 24; // a target
+
+    public static final int CALL           = 25; // dst name argStart argc
+    public static final int EFFECT         = 26; // name argStart argc
+
+    public static final int INDEX          = 27; // dst a b
+    public static final int PROPERTY       = 28; // dst a name
+    public static final int NEW_LIST       = 29; // dst start count
+    public static final int NEW_MAP        = 30; // dst start pairCount
+    public static final int CONCAT         = 31; // dst start count
+
+    public static final int ITER_INIT      = 32; // dst src ctr
+    public static final int ITER_NEXT      = 33; // dst listReg ctr target
+    public static final int REPEAT_INIT    = 34; // ctr src
+    public static final int REPEAT_NEXT    = 35; // ctr target
+
+    public static final int WAIT           = 36; // a
+    public static final int RETURN         = 37; // a
+    public static final int RETURN_NULL    = 38; //
+
+    public static final int LOAD_PLAYER    = 39; // dst slot  (player-* variable, injected on first read)
+    public static final int LOADK_LIST     = 40; // dst k     (fresh copy of a folded list constant)
+
+    private static final String[] NAMES = {
+        "LOADK", "LOAD_SLOT", "STORE_SLOT", "LOAD_PERSIST", "STORE_PERSIST", "PERSIST_INCR", "MOVE",
+        "ADD", "SUB", "MUL", "DIV", "MOD", "POW", "EQ", "NE", "LT", "LE", "GT", "GE", "CONTAINS",
+        "NEG", "NOT",
+        "JMP", "JMP_FALSE", "JMP_TRUE",
+        "CALL", "EFFECT",
+        "INDEX", "PROPERTY", "NEW_LIST", "NEW_MAP", "CONCAT",
+        "ITER_INIT", "ITER_NEXT", "REPEAT_INIT", "REPEAT_NEXT",
+        "WAIT", "RETURN", "RETURN_NULL",
+        "LOAD_PLAYER", "LOADK_LIST"
+    };
+
+    private static final int[] OPERANDS = {
+        2, 2, 2, 2, 2, 2, 2,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3,
+        2, 2,
+        1, 2, 2,
+        4, 3,
+        3, 3, 3, 3, 3,
+        3, 4, 2, 2,
+        1, 1, 0,
+        2, 2
+    };
+
+    public static String name(int op)  { return NAMES[op]; }
+
+    /** Number of int operands following the opcode. */
+    public static int operands(int op) { return OPERANDS[op]; }
+
+    /** True for instructions that can transfer control: jumps, loop steps and returns. */
+    public static boolean isBranch(int op) {
+        return switch (op) {
+            case JMP, JMP_FALSE, JMP_TRUE, ITER_NEXT, REPEAT_NEXT, RETURN, RETURN_NULL -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,259 @@
+package yaluv.flok.engine.cache;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of an AST for {@link ScriptCache}: one tag byte per
+ * node followed by its fields in record order. Lists are length-prefixed,
+ * strings are length-prefixed UTF-8 with -1 for null. Entries are decoded
+ * from a heap buffer; anything unexpected, including a count or length
+ * that runs off its end, makes the cache treat the entry as corrupt.
+ */
+final class ASTCodec {
+
+    private ASTCodec() {}
+
+    private static final int NULL = 0, PROGRAM = 1, EVENT = 2, COMMAND = 3, FUNCTION = 4, IF = 5, WHILE = 6,
+            FOR_EACH = 7, REPEAT = 8, RETURN = 9, BREAK = 10, CONTINUE = 11, VAR_ASSIGN = 12, AUG_ASSIGN = 13,
+            PERSIST_ASSIGN = 14, PERSIST_AUG_ASSIGN = 15, EFFECT = 16, EXPR = 17, BLOCK = 18, LITERAL = 19,
+            VAR_REF = 20, PERSIST_REF = 21, BINARY = 22, UNARY = 23, CALL = 24, INDEX = 25, LIST = 26, MAP = 27,
+            TEMPLATE = 28, CONDITIONAL = 29, WAIT = 30, PROPERTY = 31;
+
+    // ── Write ────────────────────────────────────────────────────────────────
+
+    static void write(ASTNode node, DataOutputStream out) throws IOException {
+        if (node == null) { out.writeByte(NULL); return; }
+        switch (node) {
+            case ASTNode.Program p -> { out.writeByte(PROGRAM); nodes(p.children(), out); }
+            case ASTNode.EventBlock eb -> {
+                out.writeByte(EVENT); str(eb.eventName(), out); strs(eb.params(), out);
+                out.writeInt(eb.filters().size());
+                for (ASTNode.EventBlock.Filter f : eb.filters()) { str(f.key(), out); strs(f.values(), out); }
+                write(eb.body(), out);
+            }
+            case ASTNode.CommandBlock cb -> {
+                out.writeByte(COMMAND); str(cb.commandName(), out); strs(cb.aliases(), out);
+                str(cb.permission(), out); str(cb.description(), out); str(cb.cooldown(), out);
+                strs(cb.paramNames(), out); write(cb.body(), out);
+            }
+            case ASTNode.FunctionDef fd -> {
+                out.writeByte(FUNCTION); str(fd.name(), out); strs(fd.params(), out); write(fd.body(), out);
+            }
+            case ASTNode.IfStmt is -> {
+                out.writeByte(IF); write(is.condition(), out); write(is.thenBlock(), out);
+                out.writeInt(is.elseBranches().size());
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) { write(br.condition(), out); write(br.body(), out); }
+                write(is.elseBlock(), out);
+            }
+            case ASTNode.WhileStmt ws       -> { out.writeByte(WHILE); write(ws.condition(), out); write(ws.body(), out); }
+            case ASTNode.ForEachStmt fe     -> { out.writeByte(FOR_EACH); str(fe.varName(), out); write(fe.iterable(), out); write(fe.body(), out); }
+            case ASTNode.RepeatStmt rs      -> { out.writeByte(REPEAT); write(rs.count(), out); write(rs.body(), out); }
+            case ASTNode.ReturnStmt rs      -> { out.writeByte(RETURN); write(rs.value(), out); }
+            case ASTNode.BreakStmt bs       -> out.writeByte(BREAK);
+            case ASTNode.ContinueStmt cs    -> out.writeByte(CONTINUE);
+            case ASTNode.VarAssign va       -> { out.writeByte(VAR_ASSIGN); str(va.name(), out); write(va.value(), out); }
+            case ASTNode.AugAssign aa       -> { out.writeByte(AUG_ASSIGN); str(aa.name(), out); str(aa.op(), out); write(aa.value(), out); }
+            case ASTNode.PersistAssign pa   -> { out.writeByte(PERSIST_ASSIGN); write(pa.keyExpr(), out); write(pa.value(), out); }
+            case ASTNode.PersistAugAssign pa -> {
+                out.writeByte(PERSIST_AUG_ASSIGN); write(pa.keyExpr(), out); str(pa.op(), out); write(pa.value(), out);
+            }
+            case ASTNode.EffectStmt es      -> { out.writeByte(EFFECT); str(es.effectName(), out); nodes(es.args(), out); }
+            case ASTNode.ExprStmt es        -> { out.writeByte(EXPR); write(es.expr(), out); }
+            case ASTNode.Block b            -> { out.writeByte(BLOCK); nodes(b.statements(), out); }
+            case ASTNode.Literal lit        -> { out.writeByte(LITERAL); value(lit.value(), out); }
+            case ASTNode.VarRef vr          -> { out.writeByte(VAR_REF); str(vr.name(), out); }
+            case ASTNode.PersistRef pr      -> { out.writeByte(PERSIST_REF); write(pr.keyExpr(), out); }
+            case ASTNode.BinaryOp bo        -> { out.writeByte(BINARY); str(bo.op(), out); write(bo.left(), out); write(bo.right(), out); }
+            case ASTNode.UnaryOp uo         -> { out.writeByte(UNARY); str(uo.op(), out); write(uo.operand(), out); }
+            case ASTNode.FunctionCall fc    -> { out.writeByte(CALL); str(fc.name(), out); nodes(fc.args(), out); }
+            case ASTNode.IndexAccess ia     -> { out.writeByte(INDEX); write(ia.target(), out); write(ia.index(), out); }
+            case ASTNode.ListLiteral ll     -> { out.writeByte(LIST); nodes(ll.elements(), out); }
+            case ASTNode.MapLiteral ml      -> {
+                out.writeByte(MAP); out.writeInt(ml.entries().size());
+                for (var e : ml.entries()) { write(e.getKey(), out); write(e.getValue(), out); }
+            }
+            case ASTNode.StringTemplate st  -> {
+                out.writeByte(TEMPLATE); out.writeInt(st.parts().size());
+                for (Object part : st.parts()) {
+                    if (part instanceof String s) { out.writeBoolean(true); str(s, out); }
+                    else                          { out.writeBoolean(false); write((ASTNode) part, out); }
+                }
+            }
+            case ASTNode.Conditional c      -> { out.writeByte(CONDITIONAL); write(c.condition(), out); write(c.ifTrue(), out); write(c.ifFalse(), out); }
+            case ASTNode.WaitStmt ws        -> { out.writeByte(WAIT); write(ws.ticks(), out); }
+            case ASTNode.PropertyAccess pa  -> { out.writeByte(PROPERTY); write(pa.target(), out); str(pa.property(), out); }
+        }
+        out.writeInt(node.line());
+    }
+
+    private static void nodes(List<ASTNode> nodes, DataOutputStream out) throws IOException {
+        out.writeInt(nodes.size());
+        for (ASTNode n : nodes) write(n, out);
+    }
+
+    private static void strs(List<String> strs, DataOutputStream out) throws IOException {
+        out.writeInt(strs.size());
+        for (String s : strs) str(s, out);
+    }
+
+    private static void str(String s, DataOutputStream out) throws IOException {
+        if (s == null) { out.writeInt(-1); return; }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void value(FValue v, DataOutputStream out) throws IOException {
+        out.writeByte(v.getType().ordinal());
+        switch (v.getType()) {
+            case NULL    -> {}
+            case BOOLEAN -> out.writeBoolean(v.asBoolean());
+            case NUMBER  -> out.writeDouble(v.asNumber());
+            case STRING  -> str(v.asString(), out);
+            case LIST    -> {
+                out.writeInt(v.asList().size());
+                for (FValue item : v.asList()) value(item, out);
+            }
+            case MAP     -> {
+                out.writeInt(v.asMap().size());
+                for (var e : v.asMap().entrySet()) { str(e.getKey(), out); value(e.getValue(), out); }
+            }
+        }
+    }
+
+
+    // ── Read ─────────────────────────────────────────────────────────────────
+
+    static ASTNode read(ByteBuffer in) throws IOException {
+        int tag = Byte.toUnsignedInt(in.get());
+        if (tag == NULL) return null;
+        return switch (tag) {
+            case PROGRAM  -> new ASTNode.Program(nodes(in), in.getInt());
+            case EVENT    -> new ASTNode.EventBlock(str(in), strs(in), filters(in), block(in), in.getInt());
+            case COMMAND  -> new ASTNode.CommandBlock(str(in), strs(in), str(in), str(in), str(in), strs(in), block(in), in.getInt());
+            case FUNCTION -> new ASTNode.FunctionDef(str(in), strs(in), block(in), in.getInt());
+            case IF -> {
+                ASTNode cond = read(in);
+                ASTNode.Block then = block(in);
+                int n = count(in);
+                List<ASTNode.IfStmt.ElseBranch> branches = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) branches.add(new ASTNode.IfStmt.ElseBranch(read(in), block(in)));
+                yield new ASTNode.IfStmt(cond, then, branches, block(in), in.getInt());
+            }
+            case WHILE              -> new ASTNode.WhileStmt(read(in), block(in), in.getInt());
+            case FOR_EACH           -> new ASTNode.ForEachStmt(str(in), read(in), block(in), in.getInt());
+            case REPEAT             -> new ASTNode.RepeatStmt(read(in), block(in), in.getInt());
+            case RETURN             -> new ASTNode.ReturnStmt(read(in), in.getInt());
+            case BREAK              -> new ASTNode.BreakStmt(in.getInt());
+            case CONTINUE           -> new ASTNode.ContinueStmt(in.getInt());
+            case VAR_ASSIGN         -> new ASTNode.VarAssign(str(in), read(in), in.getInt());
+            case AUG_ASSIGN         -> new ASTNode.AugAssign(str(in), str(in), read(in), in.getInt());
+            case PERSIST_ASSIGN     -> new ASTNode.PersistAssign(read(in), read(in), in.getInt());
+            case PERSIST_AUG_ASSIGN -> new ASTNode.PersistAugAssign(read(in), str(in), read(in), in.getInt());
+            case EFFECT             -> new ASTNode.EffectStmt(str(in), nodes(in), in.getInt());
+            case EXPR               -> new ASTNode.ExprStmt(read(in), in.getInt());
+            case BLOCK              -> new ASTNode.Block(nodes(in), in.getInt());
+            case LITERAL            -> new ASTNode.Literal(value(in), in.getInt());
+            case VAR_REF            -> new ASTNode.VarRef(str(in), in.getInt());
+            case PERSIST_REF        -> new ASTNode.PersistRef(read(in), in.getInt());
+            case BINARY             -> new ASTNode.BinaryOp(str(in), read(in), read(in), in.getInt());
+            case UNARY              -> new ASTNode.UnaryOp(str(in), read(in), in.getInt());
+            case CALL               -> new ASTNode.FunctionCall(str(in), nodes(in), in.getInt());
+            case INDEX              -> new ASTNode.IndexAccess(read(in), read(in), in.getInt());
+            case LIST               -> new ASTNode.ListLiteral(nodes(in), in.getInt());
+            case MAP -> {
+                int n = count(in);
+                List<Map.Entry<ASTNode, ASTNode>> entries = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) entries.add(Map.entry(read(in), read(in)));
+                yield new ASTNode.MapLiteral(entries, in.getInt());
+            }
+            case TEMPLATE -> {
+                int n = count(in);
+                List<Object> parts = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) parts.add((in.get() != 0) ? str(in) : read(in));
+                yield new ASTNode.StringTemplate(parts, in.getInt());
+            }
+            case CONDITIONAL -> new ASTNode.Conditional(read(in), read(in), read(in), in.getInt());
+            case WAIT        -> new ASTNode.WaitStmt(read(in), in.getInt());
+            case PROPERTY    -> new ASTNode.PropertyAccess(read(in), str(in), in.getInt());
+            default -> throw new IOException("unknown node tag " + tag);
+        };
+    }
+
+    private static ASTNode.Block block(ByteBuffer in) throws IOException {
+        ASTNode node = read(in);
+        if (node == null || node instanceof ASTNode.Block) return (ASTNode.Block) node;
+        throw new IOException("expected a block, got " + node.getClass().getSimpleName());
+    }
+
+    private static List<ASTNode> nodes(ByteBuffer in) throws IOException {
+        int n = count(in);
+        List<ASTNode> nodes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) nodes.add(read(in));
+        return nodes;
+    }
+
+    private static List<ASTNode.EventBlock.Filter> filters(ByteBuffer in) throws IOException {
+        int n = count(in);
+        List<ASTNode.EventBlock.Filter> filters = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) filters.add(new ASTNode.EventBlock.Filter(str(in), strs(in)));
+        return filters;
+    }
+
+    private static List<String> strs(ByteBuffer in) throws IOException {
+        int n = count(in);
+        List<String> strs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) strs.add(str(in));
+        return strs;
+    }
+
+    private static String str(ByteBuffer in) throws IOException {
+        int n = in.getInt();
+        if (n == -1) return null;
+        if (n < 0) throw new IOException("bad string length " + n);
+        if (n > in.remaining()) throw new IOException("truncated string");
+        String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return s;
+    }
+
+    /** Every counted item takes at least one byte, so a count past the end is corrupt, not a huge allocation. */
+    private static int count(ByteBuffer in) throws IOException {
+        int n = in.getInt();
+        if (n < 0 || n > in.remaining()) throw new IOException("bad count " + n);
+        return n;
+    }
+
+    private static FValue value(ByteBuffer in) throws IOException {
+        int type = Byte.toUnsignedInt(in.get());
+        if (type >= FValue.Type.values().length) throw new IOException("bad value type " + type);
+        return switch (FValue.Type.values()[type]) {
+            case NULL    -> FValue.NULL;
+            case BOOLEAN -> FValue.of((in.get() != 0));
+            case NUMBER  -> FValue.of(in.getDouble());
+            case STRING  -> FValue.of(str(in));
+            case LIST    -> {
+                int n = count(in);
+                List<FValue> items = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) items.add(value(in));
+                yield FValue.ofList(items);
+            }
+            case MAP     -> {
+                int n = count(in);
+                Map<String, FValue> map = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) map.put(str(in), value(in));
+                yield FValue.ofMap(map);
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package yaluv.flok.engine.cache;
+
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * A jar of precompiled scripts, written by flok-compiler at build time and
+ * loaded by the engine with engine.precompiled. Each script is one entry
+ * under {@code flok-scripts/}, holding its parsed tree in the same encoding
+ * as the on-disk cache, in the order the engine loads them.
+ *
+ * Entries carry a format number instead of the source hash the cache uses:
+ * there is no source to compare against at runtime. A jar written with a
+ * different format is rejected as a whole, so it has to be rebuilt with the
+ * flok-compiler of the running Flok version.
+ */
+public final class ScriptArchive {
+
+    private static final int    MAGIC  = 0x464C4B41; // "FLKA"
+    private static final int    FORMAT = 3;
+    private static final String FOLDER = "flok-scripts/";
+    private static final String SUFFIX = ".fkc";
+
+    // Fixed entry times keep the jar byte-for-byte reproducible from the same sources.
+    private static final long ENTRY_TIME = 315_532_800_000L; // 1980-01-01
+
+    /** One script: its file name, its tree, and whether ASTOptimizer already ran over it. */
+    public record Entry(String name, ASTNode.Program program, boolean optimized) {}
+
+    private ScriptArchive() {}
+
+    /** Write {@code entries} to a new jar at {@code jar}, replacing any existing file. */
+    public static void write(Path jar, List<Entry> entries) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes main = manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.putValue("Created-By", "flok-compiler");
+        main.putValue("Flok-Format", String.valueOf(FORMAT));
+        main.putValue("Flok-Scripts", String.valueOf(entries.size()));
+
+        Path parent = jar.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(jar));
+             JarOutputStream out = new JarOutputStream(file)) {
+            put(out, JarFile.MANIFEST_NAME, manifestBytes(manifest));
+            for (Entry e : entries) put(out, FOLDER + e.name() + SUFFIX, encode(e));
+        }
+    }
+
+    /** Every script in a jar, in the order they were written. */
+    public static List<Entry> read(File jar) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (JarFile in = new JarFile(jar)) {
+            Manifest manifest = in.getManifest();
+            String format = manifest != null ? manifest.getMainAttributes().getValue("Flok-Format") : null;
+            if (format == null) throw new IOException(jar.getName() + ": not a precompiled scripts jar");
+            if (!format.equals(String.valueOf(FORMAT))) throw wrongFormat(jar.getName(), format);
+            Enumeration<JarEntry> all = in.entries();
+            while (all.hasMoreElements()) {
+                JarEntry je = all.nextElement();
+                String path = je.getName();
+                if (je.isDirectory() || !path.startsWith(FOLDER) || !path.endsWith(SUFFIX)) continue;
+                String name = path.substring(FOLDER.length(), path.length() - SUFFIX.length());
+                try (InputStream is = in.getInputStream(je)) {
+                    entries.add(decode(name, ByteBuffer.wrap(is.readAllBytes())));
+                } catch (RuntimeException e) {
+                    throw new IOException(name + ": corrupt entry (" + e.getMessage() + ")", e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] encode(Entry e) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeBoolean(e.optimized());
+            ASTCodec.write(e.program(), out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(String name, ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC) throw new IOException(name + ": not a precompiled script");
+        int format = in.getInt();
+        if (format != FORMAT) throw wrongFormat(name, String.valueOf(format));
+        boolean optimized = in.get() != 0;
+        if (!(ASTCodec.read(in) instanceof ASTNode.Program program)) throw new IOException(name + ": not a program");
+        return new Entry(name, program, optimized);
+    }
+
+    private static IOException wrongFormat(String name, String format) {
+        return new IOException(name + ": written in format " + format + ", this Flok reads format " + FORMAT
+                + "; rebuild the jar with the matching flok-compiler");
+    }
+
+    private static void put(JarOutputStream out, String path, byte[] data) throws IOException {
+        JarEntry je = new JarEntry(path);
+        je.setTime(ENTRY_TIME);
+        out.putNextEntry(je);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static byte[] manifestBytes(Manifest manifest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,113 @@
+package yaluv.flok.engine.cache;
+
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.util.FLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * On-disk cache of parsed (and optimised) scripts, one {@code <script>.fkc}
+ * file per script. An entry is only used if it was written for the same
+ * source — compared by SHA-256 — and the same {@code key}, which the engine
+ * derives from the Flok version and anything else that changes the stored
+ * tree. Missing, stale or unreadable entries count as a miss and the script
+ * is compiled from source as usual.
+ *
+ * Each script has its own file and entries are replaced atomically, so
+ * loadAll's worker threads can use the cache concurrently.
+ */
+public final class ScriptCache {
+
+    private static final int MAGIC  = 0x464C4B43; // "FLKC"
+    private static final int FORMAT = 3;
+    private static final String SUFFIX = ".fkc";
+
+    private final File   folder;
+    private final String key;
+
+    public ScriptCache(File folder, String key) {
+        this.folder = folder;
+        this.key    = key;
+    }
+
+    /** The cached tree for this exact source, or null. */
+    public ASTNode.Program load(String scriptName, String source) {
+        File file = entry(scriptName);
+        if (!file.isFile()) return null;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT) return null;
+            byte[] header = new byte[Short.toUnsignedInt(in.getShort())];
+            in.get(header);
+            if (!key.equals(new String(header, StandardCharsets.UTF_8))) return null;
+            byte[] hash = new byte[Byte.toUnsignedInt(in.get())];
+            in.get(hash);
+            if (!Arrays.equals(hash, hash(source))) return null;
+            if (!(ASTCodec.read(in) instanceof ASTNode.Program program)) throw new IOException("not a program");
+            if (in.hasRemaining()) throw new IOException(in.remaining() + " trailing bytes");
+            return program;
+        } catch (IOException | RuntimeException e) {
+            FLogger.debug("Ignoring corrupt cache entry " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Write the tree compiled from {@code source}; failures only cost the next load a recompile. */
+    public void store(String scriptName, String source, ASTNode.Program program) {
+        File file = entry(scriptName);
+        Path tmp  = null;
+        try {
+            Files.createDirectories(folder.toPath());
+            tmp = Files.createTempFile(folder.toPath(), scriptName, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                byte[] header = key.getBytes(StandardCharsets.UTF_8);
+                byte[] hash   = hash(source);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeShort(header.length);
+                out.write(header);
+                out.writeByte(hash.length);
+                out.write(hash);
+                ASTCodec.write(program, out);
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            FLogger.debug("Could not write cache entry " + file.getName() + ": " + e.getMessage());
+            if (tmp != null) tmp.toFile().delete();
+        }
+    }
+
+    /** Delete entries of scripts that no longer exist. */
+    public void retain(Set<String> scriptNames) {
+        File[] files = folder.listFiles(f -> f.getName().endsWith(SUFFIX));
+        if (files == null) return;
+        for (File f : files) {
+            String name = f.getName().substring(0, f.getName().length() - SUFFIX.length());
+            if (!scriptNames.contains(name)) f.delete();
+        }
+    }
+
+    private File entry(String scriptName) {
+        return new File(folder, scriptName + SUFFIX);
+    }
+
+    private static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package yaluv.flok.engine.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JVM class file writer used by the JIT tier.
+ *
+ * Emits version 49 (Java 5) class files on purpose: that version is still
+ * verified by type inference, so no StackMapTable frames have to be computed.
+ * Only the handful of constructs the JIT needs are supported — one class,
+ * final fields, and methods with a Code attribute and forward/backward jumps.
+ */
+public final class ClassFileBuilder {
+
+    public static final int ACC_PUBLIC    = 0x0001;
+    public static final int ACC_PRIVATE   = 0x0002;
+    public static final int ACC_FINAL     = 0x0010;
+    public static final int ACC_SUPER     = 0x0020;
+    public static final int ACC_SYNTHETIC = 0x1000;
+
+    private static final int MAJOR_VERSION = 49;
+
+    private final ByteArrayOutputStream pool  = new ByteArrayOutputStream();
+    private final DataOutputStream      poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer>  poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields  = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    public ClassFileBuilder(String internalName, String superName, String... interfaceNames) {
+        this.thisClass  = classRef(internalName);
+        this.superClass = classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) interfaces[i] = classRef(interfaceNames[i]);
+    }
+
+
+    public int utf8(String s) {
+        return entry("U" + s, out -> { out.writeByte(1); out.writeUTF(s); });
+    }
+
+    public int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, out -> { out.writeByte(7); out.writeShort(name); });
+    }
+
+    public int string(String s) {
+        int value = utf8(s);
+        return entry("S" + s, out -> { out.writeByte(8); out.writeShort(value); });
+    }
+
+    public int fieldRef(String owner, String name, String desc)  { return memberRef(9,  owner, name, desc); }
+    public int methodRef(String owner, String name, String desc) { return memberRef(10, owner, name, desc); }
+    public int interfaceMethodRef(String owner, String name, String desc) { return memberRef(11, owner, name, desc); }
+
+    private int memberRef(int tag, String owner, String name, String desc) {
+        int cls = classRef(owner);
+        int nat = nameAndType(name, desc);
+        return entry("M" + tag + owner + '.' + name + desc, out -> {
+            out.writeByte(tag); out.writeShort(cls); out.writeShort(nat);
+        });
+    }
+
+    private int nameAndType(String name, String desc) {
+        int n = utf8(name), d = utf8(desc);
+        return entry("N" + name + ':' + desc, out -> { out.writeByte(12); out.writeShort(n); out.writeShort(d); });
+    }
+
+    private interface PoolWriter { void write(DataOutputStream out) throws IOException; }
+
+    private int entry(String key, PoolWriter writer) {
+        Integer existing = poolIndex.get(key);
+        if (existing != null) return existing;
+        try {
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int index = poolCount++;
+        if (poolCount > 0xFFFF) throw new IllegalStateException("constant pool overflow");
+        poolIndex.put(key, index);
+        return index;
+    }
+
+
+    public void field(int access, String name, String desc) {
+        int n = utf8(name), d = utf8(desc);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeShort(access); out.writeShort(n); out.writeShort(d); out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(buf.toByteArray());
+    }
+
+    public Code method(int access, String name, String desc) {
+        return new Code(access, utf8(name), utf8(desc));
+    }
+
+    public byte[] toBytes() {
+        int codeAttr = utf8("Code");
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) out.writeShort(i);
+            out.writeShort(fields.size());
+            for (byte[] f : fields) out.write(f);
+            out.writeShort(methods.size());
+            for (byte[] m : methods) {
+                // Code attribute name index is patched in here so the pool entry is shared.
+                out.write(m, 0, 8);
+                out.writeShort(codeAttr);
+                out.write(m, 8, m.length - 8);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buf.toByteArray();
+    }
+
+
+    /** Bytecode of one method. Call {@link #end(int, int)} to attach it to the class. */
+    public final class Code {
+
+        private final int access, name, desc;
+        private byte[] bytes = new byte[256];
+        private int    size;
+
+        private final List<int[]> fixups = new ArrayList<>(); // {instructionPos, operandPos, label}
+        private int[] labels = new int[16];
+        private int   labelCount;
+
+        private Code(int access, int name, int desc) {
+            this.access = access;
+            this.name   = name;
+            this.desc   = desc;
+        }
+
+        public int size() { return size; }
+
+        public Code op(int opcode) { u1(opcode); return this; }
+
+        public Code u1(int v) {
+            ensure(1);
+            bytes[size++] = (byte) v;
+            return this;
+        }
+
+        public Code u2(int v) { u1(v >>> 8); u1(v); return this; }
+
+        public Code iconst(int v) {
+            if (v >= -1 && v <= 5)                 return op(0x03 + v);
+            if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE)   return op(0x10).u1(v);
+            if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) return op(0x11).u2(v);
+            return ldc(integer(v));
+        }
+
+        public Code ldcString(String s) { return ldc(string(s)); }
+
+        private Code ldc(int index) {
+            return index <= 0xFF ? op(0x12).u1(index) : op(0x13).u2(index);
+        }
+
+        public Code aload(int local)  { return local(0x19, 0x2A, local); }
+        public Code astore(int local) { return local(0x3A, 0x4B, local); }
+        public Code lload(int local)  { return local(0x16, 0x1E, local); }
+        public Code lstore(int local) { return local(0x37, 0x3F, local); }
+
+        private Code local(int opcode, int shortForm, int local) {
+            if (local <= 3)    return op(shortForm + local);
+            if (local <= 0xFF) return op(opcode).u1(local);
+            return op(0xC4).op(opcode).u2(local);
+        }
+
+        public Code getfield(String owner, String name, String desc)  { return op(0xB4).u2(fieldRef(owner, name, desc)); }
+        public Code putfield(String owner, String name, String desc)  { return op(0xB5).u2(fieldRef(owner, name, desc)); }
+        public Code getstatic(String owner, String name, String desc) { return op(0xB2).u2(fieldRef(owner, name, desc)); }
+
+        public Code invokevirtual(String owner, String name, String desc) { return op(0xB6).u2(methodRef(owner, name, desc)); }
+        public Code invokespecial(String owner, String name, String desc) { return op(0xB7).u2(methodRef(owner, name, desc)); }
+        public Code invokestatic(String owner, String name, String desc)  { return op(0xB8).u2(methodRef(owner, name, desc)); }
+
+        public Code anewarray(String internalName) { return op(0xBD).u2(classRef(internalName)); }
+
+        public int newLabel() {
+            if (labelCount == labels.length) labels = java.util.Arrays.copyOf(labels, labelCount * 2);
+            labels[labelCount] = -1;
+            return labelCount++;
+        }
+
+        public Code mark(int label) {
+            labels[label] = size;
+            return this;
+        }
+
+        /** Emit a branch instruction (goto, ifeq, ...) to a label bound now or later. */
+        public Code jump(int opcode, int label) {
+            int at = size;
+            op(opcode);
+            fixups.add(new int[] { at, size, label });
+            u2(0);
+            return this;
+        }
+
+        public void end(int maxStack, int maxLocals) {
+            for (int[] f : fixups) {
+                int target = labels[f[2]];
+                if (target < 0) throw new IllegalStateException("unbound label " + f[2]);
+                int offset = target - f[0];
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                    throw new IllegalStateException("branch offset out of range");
+                bytes[f[1]]     = (byte) (offset >>> 8);
+                bytes[f[1] + 1] = (byte) offset;
+            }
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(size + 32);
+            DataOutputStream out = new DataOutputStream(buf);
+            try {
+                out.writeShort(access);
+                out.writeShort(name);
+                out.writeShort(desc);
+                out.writeShort(1);          // attributes_count: Code
+                // attribute_name_index (2 bytes) is inserted by toBytes()
+                out.writeInt(12 + size);    // attribute_length
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(size);
+                out.write(bytes, 0, size);
+                out.writeShort(0);          // exception_table_length
+                out.writeShort(0);          // attributes_count
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(buf.toByteArray());
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) bytes = java.util.Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+    private int integer(int v) {
+        return entry("I" + v, out -> { out.writeByte(3); out.writeInt(v); });
+    }
+}
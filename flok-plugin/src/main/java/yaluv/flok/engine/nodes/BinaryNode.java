@@ -0,0 +1,159 @@
+package yaluv.flok.engine.nodes;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.runtime.ExecutionContext;
+import yaluv.flok.engine.runtime.Interpreter;
+
+/**
+ * Arithmetic, comparison and equality. Evaluates both operands, then
+ * {@link #apply} picks the result; the specialised forms only check their
+ * guard before doing the work {@code FValue} would do after its type tests.
+ */
+abstract class BinaryNode extends ExprNode {
+
+    final String op;
+    ExprNode     left;
+    ExprNode     right;
+
+    BinaryNode(ASTNode.BinaryOp source, ExprNode left, ExprNode right) {
+        super(source);
+        this.op    = source.op();
+        this.left  = adopt(left);
+        this.right = adopt(right);
+    }
+
+    /** Same site and operands as {@code from}, which is being replaced. */
+    BinaryNode(BinaryNode from) {
+        super(from.source);
+        this.op    = from.op;
+        this.left  = from.left;
+        this.right = from.right;
+    }
+
+    @Override
+    public final FValue execute(Interpreter in, ExecutionContext ctx) {
+        hits++;
+        FValue l = left.execute(in, ctx);
+        FValue r = right.execute(in, ctx);
+        return apply(l, r);
+    }
+
+    abstract FValue apply(FValue l, FValue r);
+
+    /** Guard failed: fall back to the generic node for good. */
+    final FValue generalize(FValue l, FValue r) {
+        return replace(new Generic(this)).apply(l, r);
+    }
+
+    @Override
+    boolean replaceChild(ExprNode old, ExprNode replacement) {
+        if (left == old)  { left  = replacement; return true; }
+        if (right == old) { right = replacement; return true; }
+        return false;
+    }
+
+    @Override ExprNode[] children() { return new ExprNode[] { left, right }; }
+    @Override String     label()    { return getClass().getSimpleName() + "(" + op + ")"; }
+
+
+    /** Not run yet; the first operands decide the specialisation. */
+    static final class Uninitialized extends BinaryNode {
+        Uninitialized(ASTNode.BinaryOp source, ExprNode left, ExprNode right) { super(source, left, right); }
+
+        @Override
+        FValue apply(FValue l, FValue r) {
+            BinaryNode next;
+            if (l.isNumber() && r.isNumber()) {
+                next = switch (op) {
+                    case "+", "-", "*", "/", "%"  -> new NumberArith(this);
+                    case "<", "<=", ">", ">="     -> new NumberCompare(this);
+                    case "==", "!="               -> new NumberEquals(this);
+                    default                       -> new Generic(this);
+                };
+            } else if ("+".equals(op) && (l.isString() || r.isString())) {
+                next = new StringConcat(this);
+            } else {
+                next = new Generic(this);
+            }
+            return replace(next).apply(l, r);
+        }
+    }
+
+    static final class NumberArith extends BinaryNode {
+        private final char kind;
+
+        NumberArith(BinaryNode from) {
+            super(from);
+            this.kind = op.charAt(0);
+        }
+
+        @Override
+        FValue apply(FValue l, FValue r) {
+            if (!l.isNumber() || !r.isNumber()) return generalize(l, r);
+            double a = l.asNumber(), b = r.asNumber();
+            return switch (kind) {
+                case '+' -> FValue.of(a + b);
+                case '-' -> FValue.of(a - b);
+                case '*' -> FValue.of(a * b);
+                case '/' -> b == 0.0 ? FValue.of(Double.NaN) : FValue.of(a / b);
+                default  -> b == 0.0 ? FValue.ZERO : FValue.of(a % b);
+            };
+        }
+    }
+
+    static final class NumberCompare extends BinaryNode {
+        private final boolean less, orEqual;
+
+        NumberCompare(BinaryNode from) {
+            super(from);
+            this.less    = op.charAt(0) == '<';
+            this.orEqual = op.length() == 2;
+        }
+
+        @Override
+        FValue apply(FValue l, FValue r) {
+            if (!l.isNumber() || !r.isNumber()) return generalize(l, r);
+            int c = Double.compare(l.asNumber(), r.asNumber());
+            if (!less) c = -c;
+            return FValue.of(c < 0 || (orEqual && c == 0));
+        }
+    }
+
+    static final class NumberEquals extends BinaryNode {
+        private final boolean negate;
+
+        NumberEquals(BinaryNode from) {
+            super(from);
+            this.negate = op.charAt(0) == '!';
+        }
+
+        @Override
+        FValue apply(FValue l, FValue r) {
+            if (!l.isNumber() || !r.isNumber()) return generalize(l, r);
+            boolean same = Double.doubleToLongBits(l.asNumber()) == Double.doubleToLongBits(r.asNumber());
+            return FValue.of(same != negate);
+        }
+    }
+
+    static final class StringConcat extends BinaryNode {
+        StringConcat(BinaryNode from) { super(from); }
+
+        @Override
+        FValue apply(FValue l, FValue r) {
+            if (!l.isString() && !r.isString()) return generalize(l, r);
+            return FValue.of(l.asString().concat(r.asString()));
+        }
+    }
+
+    /** Full {@code FValue} semantics; final state of a site whose types varied. */
+    static final class Generic extends BinaryNode {
+        Generic(ASTNode.BinaryOp source, ExprNode left, ExprNode right) { super(source, left, right); }
+        Generic(BinaryNode from) { super(from); }
+
+        @Override
+        FValue apply(FValue l, FValue r) {
+            return Interpreter.binary(op, l, r, source.line());
+        }
+    }
+}
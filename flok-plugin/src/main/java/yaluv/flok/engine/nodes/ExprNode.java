@@ -0,0 +1,62 @@
+package yaluv.flok.engine.nodes;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.runtime.ExecutionContext;
+import yaluv.flok.engine.runtime.Interpreter;
+
+/**
+ * Executable form of one expression, used by engine.mode: nodes.
+ *
+ * Nodes start out uninitialised and, on first execution, replace themselves
+ * in their parent with a version specialised for the operand types they saw
+ * (number + number, list[number], map["constant"]). A specialised node whose
+ * guard fails rewrites itself to the generic version for good, so a site
+ * changes shape at most twice. Every node counts its executions; see
+ * {@link NodeTree#dump()}.
+ */
+public abstract class ExprNode {
+
+    private static final ExprNode[] NONE = new ExprNode[0];
+
+    final ASTNode source;
+    ExprNode      parent;
+    long          hits;
+
+    ExprNode(ASTNode source) {
+        this.source = source;
+    }
+
+    public abstract FValue execute(Interpreter in, ExecutionContext ctx);
+
+    /** Number of times this site has run, including runs before its last rewrite. */
+    public long hits() { return hits; }
+
+    /**
+     * Put {@code replacement} where this node sits in the tree; the hit count
+     * carries over. A recursive call may already have rewritten this site
+     * while an outer activation was still in the old node; the outer one then
+     * just uses {@code replacement} for its own result.
+     */
+    final <T extends ExprNode> T replace(T replacement) {
+        replacement.parent = parent;
+        replacement.hits   = hits;
+        if (parent.replaceChild(this, replacement)) {
+            for (ExprNode child : replacement.children()) child.parent = replacement;
+        }
+        return replacement;
+    }
+
+    final <T extends ExprNode> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    /** Swap {@code old} for {@code replacement} if it is still one of this node's children. */
+    boolean replaceChild(ExprNode old, ExprNode replacement) { return false; }
+
+    ExprNode[] children() { return NONE; }
+
+    /** Name shown in dumps. */
+    String label() { return getClass().getSimpleName(); }
+}
@@ -0,0 +1,123 @@
+package yaluv.flok.engine.nodes;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.runtime.ExecutionContext;
+import yaluv.flok.engine.runtime.Interpreter;
+import yaluv.flok.engine.runtime.VirtualMachine;
+
+import java.util.List;
+
+/** {@code target[index]}, specialised to list-by-number, map-by-constant-key or map-by-key. */
+abstract class IndexNode extends ExprNode {
+
+    ExprNode target;
+    ExprNode index;
+
+    IndexNode(ASTNode.IndexAccess source, ExprNode target, ExprNode index) {
+        super(source);
+        this.target = adopt(target);
+        this.index  = adopt(index);
+    }
+
+    IndexNode(IndexNode from) {
+        super(from.source);
+        this.target = from.target;
+        this.index  = from.index;
+    }
+
+    final FValue generalize(FValue t, FValue i) {
+        replace(new Generic(this));
+        return VirtualMachine.index(t, i);
+    }
+
+    @Override
+    boolean replaceChild(ExprNode old, ExprNode replacement) {
+        if (target == old) { target = replacement; return true; }
+        if (index == old)  { index  = replacement; return true; }
+        return false;
+    }
+
+    @Override ExprNode[] children() { return new ExprNode[] { target, index }; }
+
+
+    static final class Uninitialized extends IndexNode {
+        Uninitialized(ASTNode.IndexAccess source, ExprNode target, ExprNode index) { super(source, target, index); }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue t = target.execute(in, ctx);
+            FValue i = index.execute(in, ctx);
+            IndexNode next;
+            if (t.isList() && i.isNumber())                     next = new ListIndex(this);
+            else if (t.isMap() && index instanceof SimpleNodes.Const c) next = new MapConstantKey(this, c.value);
+            else if (t.isMap())                                 next = new MapKey(this);
+            else                                                next = new Generic(this);
+            replace(next);
+            return VirtualMachine.index(t, i);
+        }
+    }
+
+    static final class ListIndex extends IndexNode {
+        ListIndex(IndexNode from) { super(from); }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue t = target.execute(in, ctx);
+            FValue i = index.execute(in, ctx);
+            if (!t.isList() || !i.isNumber()) return generalize(t, i);
+            int k = i.asInt();
+            List<FValue> list = t.asList();
+            return k >= 0 && k < list.size() ? list.get(k) : FValue.NULL;
+        }
+    }
+
+    /** The key is a literal: its string form is computed once and the literal is never re-run. */
+    static final class MapConstantKey extends IndexNode {
+        private final FValue key;
+        private final String keyString;
+
+        MapConstantKey(IndexNode from, FValue key) {
+            super(from);
+            this.key       = key;
+            this.keyString = key.asString();
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue t = target.execute(in, ctx);
+            if (!t.isMap()) return generalize(t, key);
+            return t.asMap().getOrDefault(keyString, FValue.NULL);
+        }
+
+        @Override String label() { return "MapConstantKey(\"" + keyString + "\")"; }
+    }
+
+    static final class MapKey extends IndexNode {
+        MapKey(IndexNode from) { super(from); }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue t = target.execute(in, ctx);
+            FValue i = index.execute(in, ctx);
+            if (!t.isMap()) return generalize(t, i);
+            return t.asMap().getOrDefault(i.asString(), FValue.NULL);
+        }
+    }
+
+    static final class Generic extends IndexNode {
+        Generic(IndexNode from) { super(from); }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue t = target.execute(in, ctx);
+            FValue i = index.execute(in, ctx);
+            return VirtualMachine.index(t, i);
+        }
+    }
+}
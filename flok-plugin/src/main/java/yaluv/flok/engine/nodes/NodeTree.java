@@ -0,0 +1,73 @@
+package yaluv.flok.engine.nodes;
+
+import yaluv.flok.engine.CompiledScript;
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The executable nodes of one script, built on first use of each expression
+ * the Interpreter evaluates and kept for the life of the script, so the
+ * specialisations survive between runs. Only touched from the thread that
+ * runs scripts.
+ */
+public final class NodeTree {
+
+    private final CompiledScript                 script;
+    private final Map<ASTNode, SimpleNodes.Root> roots = new IdentityHashMap<>();
+
+    public NodeTree(CompiledScript script) {
+        this.script = script;
+    }
+
+    public ExprNode root(ASTNode expr) {
+        SimpleNodes.Root root = roots.get(expr);
+        if (root == null) {
+            root = new SimpleNodes.Root(expr, build(expr));
+            roots.put(expr, root);
+        }
+        return root;
+    }
+
+    private ExprNode build(ASTNode node) {
+        return switch (node) {
+            case ASTNode.Literal lit       -> lit.value().isList() ? new SimpleNodes.ListConst(lit) : new SimpleNodes.Const(lit);
+            case ASTNode.VarRef vr         -> new SimpleNodes.Local(vr);
+            case ASTNode.BinaryOp bo       -> switch (bo.op()) {
+                case "and", "or"                        -> new SimpleNodes.Logical(bo, build(bo.left()), build(bo.right()));
+                case "+", "-", "*", "/", "%",
+                     "<", "<=", ">", ">=", "==", "!="   -> new BinaryNode.Uninitialized(bo, build(bo.left()), build(bo.right()));
+                default                                 -> new BinaryNode.Generic(bo, build(bo.left()), build(bo.right()));
+            };
+            case ASTNode.UnaryOp uo        -> new SimpleNodes.Unary(uo, build(uo.operand()));
+            case ASTNode.IndexAccess ia    -> new IndexNode.Uninitialized(ia, build(ia.target()), build(ia.index()));
+            case ASTNode.PropertyAccess pa -> new SimpleNodes.Property(pa, build(pa.target()));
+            case ASTNode.Conditional c     -> new SimpleNodes.Conditional(c, build(c.condition()), build(c.ifTrue()), build(c.ifFalse()));
+            case ASTNode.FunctionCall fc when script.getFunction(fc.name()) != null -> {
+                ASTNode.FunctionDef def = script.getFunction(fc.name());
+                ExprNode[] args = new ExprNode[fc.args().size()];
+                for (int i = 0; i < args.length; i++) args[i] = build(fc.args().get(i));
+                yield new SimpleNodes.ScriptCall(fc, def, script.getLayout(def), args);
+            }
+            default                        -> new SimpleNodes.Tree(node);
+        };
+    }
+
+    /** One line per node with its current shape and hit count, roots in source order. */
+    public List<String> dump() {
+        List<SimpleNodes.Root> sorted = new ArrayList<>(roots.values());
+        sorted.sort(Comparator.comparingInt(r -> r.source.line()));
+        List<String> lines = new ArrayList<>();
+        for (SimpleNodes.Root r : sorted) dump(r.body, 0, lines);
+        return lines;
+    }
+
+    private static void dump(ExprNode node, int depth, List<String> out) {
+        out.add(String.format("L%-4d %s%s  x%d", node.source.line(), "  ".repeat(depth), node.label(), node.hits));
+        for (ExprNode child : node.children()) dump(child, depth + 1, out);
+    }
+}
@@ -0,0 +1,274 @@
+package yaluv.flok.engine.nodes;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.bytecode.FrameLayout;
+import yaluv.flok.engine.runtime.ExecutionContext;
+import yaluv.flok.engine.runtime.Interpreter;
+import yaluv.flok.engine.runtime.PlayerVariables;
+import yaluv.flok.engine.runtime.VirtualMachine;
+
+import java.util.ArrayList;
+
+/** Nodes with a single shape: constants, locals, unary and logical operators, and the tree fallback. */
+final class SimpleNodes {
+
+    private SimpleNodes() {}
+
+    /** Holder for a top-level expression, so its node can be replaced like any other. */
+    static final class Root extends ExprNode {
+        ExprNode body;
+
+        Root(ASTNode source, ExprNode body) {
+            super(source);
+            this.body = adopt(body);
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            return body.execute(in, ctx);
+        }
+
+        @Override
+        boolean replaceChild(ExprNode old, ExprNode replacement) {
+            if (body == old) { body = replacement; return true; }
+            return false;
+        }
+
+        @Override ExprNode[] children() { return new ExprNode[] { body }; }
+    }
+
+    static final class Const extends ExprNode {
+        final FValue value;
+
+        Const(ASTNode.Literal source) {
+            super(source);
+            this.value = source.value();
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            return value;
+        }
+    }
+
+    /** List literals are mutable at run time, so each evaluation gets its own copy. */
+    static final class ListConst extends ExprNode {
+        ListConst(ASTNode.Literal source) { super(source); }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            return FValue.ofList(new ArrayList<>(((ASTNode.Literal) source).value().asList()));
+        }
+    }
+
+    /**
+     * Variable read with a one-entry cache of its slot: while the context runs
+     * the same layout, a read is an array load instead of a name lookup.
+     */
+    static final class Local extends ExprNode {
+        private final String name;
+        private FrameLayout  layout;
+        private int          slot = -1;
+
+        Local(ASTNode.VarRef source) {
+            super(source);
+            this.name = source.name();
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FrameLayout current = ctx.layout();
+            if (current != layout) {
+                layout = current;
+                slot   = current.slotOf(name);
+            }
+            if (slot >= 0) {
+                FValue v = ctx.getSlot(slot);
+                if (!v.isNull()) return v;
+            }
+            return PlayerVariables.resolve(name, ctx);
+        }
+
+        @Override String label() { return "Local(" + name + ")"; }
+    }
+
+    static final class Unary extends ExprNode {
+        private final boolean not;
+        ExprNode operand;
+
+        Unary(ASTNode.UnaryOp source, ExprNode operand) {
+            super(source);
+            this.not     = "not".equals(source.op());
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue v = operand.execute(in, ctx);
+            return not ? FValue.of(!v.asBoolean()) : v.negate();
+        }
+
+        @Override
+        boolean replaceChild(ExprNode old, ExprNode replacement) {
+            if (operand == old) { operand = replacement; return true; }
+            return false;
+        }
+
+        @Override ExprNode[] children() { return new ExprNode[] { operand }; }
+        @Override String     label()    { return not ? "Not" : "Negate"; }
+    }
+
+    /** {@code and} / {@code or}: yields the deciding operand, right side only when needed. */
+    static final class Logical extends ExprNode {
+        private final boolean and;
+        ExprNode left;
+        ExprNode right;
+
+        Logical(ASTNode.BinaryOp source, ExprNode left, ExprNode right) {
+            super(source);
+            this.and   = "and".equals(source.op());
+            this.left  = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            FValue l = left.execute(in, ctx);
+            return l.asBoolean() == and ? right.execute(in, ctx) : l;
+        }
+
+        @Override
+        boolean replaceChild(ExprNode old, ExprNode replacement) {
+            if (left == old)  { left  = replacement; return true; }
+            if (right == old) { right = replacement; return true; }
+            return false;
+        }
+
+        @Override ExprNode[] children() { return new ExprNode[] { left, right }; }
+        @Override String     label()    { return and ? "And" : "Or"; }
+    }
+
+    static final class Conditional extends ExprNode {
+        ExprNode condition;
+        ExprNode ifTrue;
+        ExprNode ifFalse;
+
+        Conditional(ASTNode.Conditional source, ExprNode condition, ExprNode ifTrue, ExprNode ifFalse) {
+            super(source);
+            this.condition = adopt(condition);
+            this.ifTrue    = adopt(ifTrue);
+            this.ifFalse   = adopt(ifFalse);
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            return condition.execute(in, ctx).asBoolean() ? ifTrue.execute(in, ctx) : ifFalse.execute(in, ctx);
+        }
+
+        @Override
+        boolean replaceChild(ExprNode old, ExprNode replacement) {
+            if (condition == old) { condition = replacement; return true; }
+            if (ifTrue == old)    { ifTrue    = replacement; return true; }
+            if (ifFalse == old)   { ifFalse   = replacement; return true; }
+            return false;
+        }
+
+        @Override ExprNode[] children() { return new ExprNode[] { condition, ifTrue, ifFalse }; }
+    }
+
+    static final class Property extends ExprNode {
+        private final String name;
+        ExprNode target;
+
+        Property(ASTNode.PropertyAccess source, ExprNode target) {
+            super(source);
+            this.name   = source.property();
+            this.target = adopt(target);
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            return VirtualMachine.property(target.execute(in, ctx), name);
+        }
+
+        @Override
+        boolean replaceChild(ExprNode old, ExprNode replacement) {
+            if (target == old) { target = replacement; return true; }
+            return false;
+        }
+
+        @Override ExprNode[] children() { return new ExprNode[] { target }; }
+        @Override String     label()    { return "Property(" + name + ")"; }
+    }
+
+    /**
+     * Call of a script function, resolved when the node is built. Arguments
+     * are evaluated by their own nodes straight into the callee's slots.
+     */
+    static final class ScriptCall extends ExprNode {
+        private final ASTNode.FunctionDef def;
+        private final FrameLayout         layout;
+        final ExprNode[]                  args;
+
+        ScriptCall(ASTNode.FunctionCall source, ASTNode.FunctionDef def, FrameLayout layout, ExprNode[] args) {
+            super(source);
+            this.def    = def;
+            this.layout = layout;
+            this.args   = args;
+            for (ExprNode a : args) adopt(a);
+        }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            ctx.pushCall();
+            ExecutionContext child = ctx.callee();
+            child.bindLayout(layout);
+            int params = def.params().size();
+            for (int i = 0; i < args.length; i++) {
+                FValue v = args[i].execute(in, ctx);
+                if (i < params) child.setSlot(i, v);
+            }
+            in.execute(def.body(), child);
+            ctx.popCall();
+            ctx.syncOpsFromChild(child.opsRemaining());
+            return child.isReturnSet() ? child.getReturnValue() : FValue.NULL;
+        }
+
+        @Override
+        boolean replaceChild(ExprNode old, ExprNode replacement) {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] == old) { args[i] = replacement; return true; }
+            }
+            return false;
+        }
+
+        @Override ExprNode[] children() { return args.clone(); }
+        @Override String     label()    { return "Call(" + def.name() + ")"; }
+    }
+
+    /**
+     * Anything without a node of its own (calls, templates, list and map
+     * literals, persistent refs) runs through the tree interpreter; its
+     * sub-expressions come back in as roots of their own.
+     */
+    static final class Tree extends ExprNode {
+        Tree(ASTNode source) { super(source); }
+
+        @Override
+        public FValue execute(Interpreter in, ExecutionContext ctx) {
+            hits++;
+            return in.evalUnspecialized(source, ctx);
+        }
+
+        @Override String label() { return "Tree(" + source.getClass().getSimpleName() + ")"; }
+    }
+}
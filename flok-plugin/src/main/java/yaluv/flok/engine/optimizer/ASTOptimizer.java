@@ -0,0 +1,317 @@
+package yaluv.flok.engine.optimizer;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.runtime.BuiltinFunctions;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a parsed program before it is compiled, so constant work is done
+ * once at load time instead of on every event.
+ *
+ * - Inlines calls to small, pure, non-recursive script functions (see
+ *   {@link Inliner}), so their bodies fold together with the caller.
+ * - Folds operators, conditionals and pure builtins whose operands are literals,
+ *   using the same FValue operations the runtime uses.
+ * - Collapses string templates and list literals made only of constants.
+ * - Drops if/else branches with constant conditions, loops that never run,
+ *   and statements after return / break / continue / stop.
+ *
+ * Folded lists are only ever lists of scalars; both executors copy a list
+ * constant on load, so a script mutating it cannot affect the next run.
+ * Folds that would produce very large constants are skipped.
+ */
+public final class ASTOptimizer {
+
+    private static final int MAX_FOLDED_STRING = 4096;
+    private static final int MAX_FOLDED_LIST   = 256;
+
+    private final Set<String> scriptFunctions = new HashSet<>();
+
+    private ASTOptimizer() {}
+
+    public static ASTNode.Program optimize(ASTNode.Program program) {
+        program = Inliner.inline(program);
+        ASTOptimizer opt = new ASTOptimizer();
+        for (ASTNode node : program.children()) {
+            if (node instanceof ASTNode.FunctionDef fd) opt.scriptFunctions.add(fd.name().toLowerCase());
+        }
+        List<ASTNode> children = new ArrayList<>(program.children().size());
+        for (ASTNode node : program.children()) {
+            children.add(switch (node) {
+                case ASTNode.EventBlock eb ->
+                        new ASTNode.EventBlock(eb.eventName(), eb.params(), eb.filters(), opt.block(eb.body()), eb.line());
+                case ASTNode.CommandBlock cb ->
+                        new ASTNode.CommandBlock(cb.commandName(), cb.aliases(), cb.permission(),
+                                cb.description(), cb.cooldown(), cb.paramNames(), opt.block(cb.body()), cb.line());
+                case ASTNode.FunctionDef fd ->
+                        new ASTNode.FunctionDef(fd.name(), fd.params(), opt.block(fd.body()), fd.line());
+                default -> node;
+            });
+        }
+        return new ASTNode.Program(children, program.line());
+    }
+
+
+    // ── Statements ───────────────────────────────────────────────────────────
+
+    private ASTNode.Block block(ASTNode.Block block) {
+        List<ASTNode> out = new ArrayList<>(block.statements().size());
+        for (ASTNode stmt : block.statements()) {
+            statement(stmt, out);
+            if (!out.isEmpty() && endsFlow(out.get(out.size() - 1))) break;
+        }
+        return new ASTNode.Block(out, block.line());
+    }
+
+    private static boolean endsFlow(ASTNode stmt) {
+        return stmt instanceof ASTNode.ReturnStmt
+            || stmt instanceof ASTNode.BreakStmt
+            || stmt instanceof ASTNode.ContinueStmt;
+    }
+
+    /** Append the optimised form of {@code node} to {@code out} (zero or more statements). */
+    private void statement(ASTNode node, List<ASTNode> out) {
+        switch (node) {
+            case ASTNode.VarAssign va        -> out.add(new ASTNode.VarAssign(va.name(), expr(va.value()), va.line()));
+            case ASTNode.AugAssign aa        -> out.add(new ASTNode.AugAssign(aa.name(), aa.op(), expr(aa.value()), aa.line()));
+            case ASTNode.PersistAssign pa    -> out.add(new ASTNode.PersistAssign(expr(pa.keyExpr()), expr(pa.value()), pa.line()));
+            case ASTNode.PersistAugAssign pa -> out.add(new ASTNode.PersistAugAssign(expr(pa.keyExpr()), pa.op(), expr(pa.value()), pa.line()));
+            case ASTNode.EffectStmt es       -> out.add(new ASTNode.EffectStmt(es.effectName(), exprs(es.args()), es.line()));
+            case ASTNode.ExprStmt es         -> out.add(new ASTNode.ExprStmt(expr(es.expr()), es.line()));
+            case ASTNode.WaitStmt ws         -> out.add(new ASTNode.WaitStmt(expr(ws.ticks()), ws.line()));
+            case ASTNode.ReturnStmt rs       -> out.add(new ASTNode.ReturnStmt(rs.value() != null ? expr(rs.value()) : null, rs.line()));
+            case ASTNode.Block b             -> out.add(block(b));
+            case ASTNode.IfStmt is           -> ifStmt(is, out);
+
+            case ASTNode.WhileStmt ws -> {
+                ASTNode cond = expr(ws.condition());
+                if (cond instanceof ASTNode.Literal lit && !lit.value().asBoolean()) return;
+                out.add(new ASTNode.WhileStmt(cond, block(ws.body()), ws.line()));
+            }
+
+            case ASTNode.RepeatStmt rs -> {
+                ASTNode count = expr(rs.count());
+                if (count instanceof ASTNode.Literal lit && lit.value().asLong() <= 0) return;
+                out.add(new ASTNode.RepeatStmt(count, block(rs.body()), rs.line()));
+            }
+
+            case ASTNode.ForEachStmt fe ->
+                    out.add(new ASTNode.ForEachStmt(fe.varName(), expr(fe.iterable()), block(fe.body()), fe.line()));
+
+            default -> out.add(node);
+        }
+    }
+
+    /**
+     * Branches with a constant-false condition are dropped; the first constant-true
+     * branch becomes the else (or, if it is the first branch, replaces the whole if).
+     */
+    private void ifStmt(ASTNode.IfStmt is, List<ASTNode> out) {
+        List<ASTNode>       conds  = new ArrayList<>();
+        List<ASTNode.Block> bodies = new ArrayList<>();
+        ASTNode.Block       orElse = null;
+
+        conds.add(is.condition());
+        bodies.add(is.thenBlock());
+        for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) {
+            conds.add(br.condition());
+            bodies.add(br.body());
+        }
+
+        List<ASTNode>       keptConds  = new ArrayList<>();
+        List<ASTNode.Block> keptBodies = new ArrayList<>();
+        boolean decided = false;
+        for (int i = 0; i < conds.size(); i++) {
+            ASTNode cond = expr(conds.get(i));
+            if (cond instanceof ASTNode.Literal lit) {
+                if (!lit.value().asBoolean()) continue;
+                orElse  = block(bodies.get(i));
+                decided = true;
+                break;
+            }
+            keptConds.add(cond);
+            keptBodies.add(block(bodies.get(i)));
+        }
+        if (!decided && is.elseBlock() != null) orElse = block(is.elseBlock());
+
+        if (keptConds.isEmpty()) {
+            if (orElse != null) out.addAll(orElse.statements());
+            return;
+        }
+        List<ASTNode.IfStmt.ElseBranch> branches = new ArrayList<>();
+        for (int i = 1; i < keptConds.size(); i++) {
+            branches.add(new ASTNode.IfStmt.ElseBranch(keptConds.get(i), keptBodies.get(i)));
+        }
+        out.add(new ASTNode.IfStmt(keptConds.get(0), keptBodies.get(0), branches, orElse, is.line()));
+    }
+
+
+    // ── Expressions ──────────────────────────────────────────────────────────
+
+    private List<ASTNode> exprs(List<ASTNode> nodes) {
+        List<ASTNode> out = new ArrayList<>(nodes.size());
+        for (ASTNode n : nodes) out.add(expr(n));
+        return out;
+    }
+
+    private ASTNode expr(ASTNode node) {
+        return switch (node) {
+            case ASTNode.BinaryOp bo       -> binary(bo);
+            case ASTNode.UnaryOp uo        -> unary(uo);
+            case ASTNode.Conditional c     -> conditional(c);
+            case ASTNode.FunctionCall fc   -> call(fc);
+            case ASTNode.StringTemplate st -> template(st);
+            case ASTNode.ListLiteral ll    -> list(ll);
+            case ASTNode.PersistRef pr     -> new ASTNode.PersistRef(expr(pr.keyExpr()), pr.line());
+            case ASTNode.IndexAccess ia    -> new ASTNode.IndexAccess(expr(ia.target()), expr(ia.index()), ia.line());
+            case ASTNode.PropertyAccess pa -> new ASTNode.PropertyAccess(expr(pa.target()), pa.property(), pa.line());
+            case ASTNode.MapLiteral ml     -> {
+                List<Map.Entry<ASTNode, ASTNode>> entries = new ArrayList<>(ml.entries().size());
+                for (var e : ml.entries()) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(expr(e.getKey()), expr(e.getValue())));
+                }
+                yield new ASTNode.MapLiteral(entries, ml.line());
+            }
+            default -> node;
+        };
+    }
+
+    private ASTNode binary(ASTNode.BinaryOp bo) {
+        ASTNode left  = expr(bo.left());
+        ASTNode right = expr(bo.right());
+
+        // and / or short-circuit on the left operand alone, returning an operand as-is.
+        if (left instanceof ASTNode.Literal l && ("and".equals(bo.op()) || "or".equals(bo.op()))) {
+            boolean truthy = l.value().asBoolean();
+            return "and".equals(bo.op()) == truthy ? right : left;
+        }
+        if (left instanceof ASTNode.Literal l && right instanceof ASTNode.Literal r && isScalar(l) && isScalar(r)) {
+            FValue a = l.value(), b = r.value();
+            FValue v = switch (bo.op()) {
+                case "+"   -> a.add(b);
+                case "-"   -> a.subtract(b);
+                case "*"   -> a.multiply(b);
+                case "/"   -> a.divide(b);
+                case "%"   -> a.modulo(b);
+                case "^"   -> a.power(b);
+                case "=="  -> FValue.of(a.equalsValue(b));
+                case "!="  -> FValue.of(!a.equalsValue(b));
+                case "<"   -> FValue.of(a.compareTo(b) < 0);
+                case "<="  -> FValue.of(a.compareTo(b) <= 0);
+                case ">"   -> FValue.of(a.compareTo(b) > 0);
+                case ">="  -> FValue.of(a.compareTo(b) >= 0);
+                case "contains" -> FValue.of(a.asString().contains(b.asString()));
+                default    -> null;
+            };
+            if (v != null && fits(v)) return new ASTNode.Literal(v, bo.line());
+        }
+        return new ASTNode.BinaryOp(bo.op(), left, right, bo.line());
+    }
+
+    private ASTNode unary(ASTNode.UnaryOp uo) {
+        ASTNode operand = expr(uo.operand());
+        if (operand instanceof ASTNode.Literal lit && isScalar(lit)) {
+            return switch (uo.op()) {
+                case "-"   -> new ASTNode.Literal(lit.value().negate(), uo.line());
+                case "not" -> new ASTNode.Literal(FValue.of(!lit.value().asBoolean()), uo.line());
+                default    -> operand;
+            };
+        }
+        return new ASTNode.UnaryOp(uo.op(), operand, uo.line());
+    }
+
+    private ASTNode conditional(ASTNode.Conditional c) {
+        ASTNode cond = expr(c.condition());
+        if (cond instanceof ASTNode.Literal lit) return expr(lit.value().asBoolean() ? c.ifTrue() : c.ifFalse());
+        return new ASTNode.Conditional(cond, expr(c.ifTrue()), expr(c.ifFalse()), c.line());
+    }
+
+    /** Script functions shadow builtins, so only names no function defines are folded. */
+    private ASTNode call(ASTNode.FunctionCall fc) {
+        List<ASTNode> args = exprs(fc.args());
+        if (!scriptFunctions.contains(fc.name().toLowerCase()) && allLiteral(args)) {
+            List<FValue> values = new ArrayList<>(args.size());
+            for (ASTNode a : args) values.add(((ASTNode.Literal) a).value());
+            FValue v = cheap(fc.name(), values) ? BuiltinFunctions.fold(fc.name(), values) : null;
+            if (v != null && fits(v)) return new ASTNode.Literal(v, fc.line());
+        }
+        return new ASTNode.FunctionCall(fc.name(), args, fc.line());
+    }
+
+    /** Fold literal parts into their neighbours; a template of only text becomes a literal. */
+    private ASTNode template(ASTNode.StringTemplate st) {
+        List<Object>  parts = new ArrayList<>(st.parts().size());
+        StringBuilder text  = new StringBuilder();
+        for (Object part : st.parts()) {
+            Object p = part instanceof ASTNode n ? expr(n) : part;
+            if (p instanceof ASTNode.Literal lit && isScalar(lit)) p = lit.value().asString();
+            if (p instanceof String s) {
+                text.append(s);
+            } else {
+                if (!text.isEmpty()) { parts.add(text.toString()); text.setLength(0); }
+                parts.add(p);
+            }
+        }
+        if (!text.isEmpty()) parts.add(text.toString());
+        if (parts.isEmpty()) return new ASTNode.Literal(FValue.EMPTY_STRING, st.line());
+        if (parts.size() == 1 && parts.get(0) instanceof String s) {
+            return s.length() <= MAX_FOLDED_STRING
+                    ? new ASTNode.Literal(FValue.of(s), st.line())
+                    : new ASTNode.StringTemplate(parts, st.line());
+        }
+        return new ASTNode.StringTemplate(parts, st.line());
+    }
+
+    private ASTNode list(ASTNode.ListLiteral ll) {
+        List<ASTNode> elems = exprs(ll.elements());
+        if (elems.size() <= MAX_FOLDED_LIST && allLiteral(elems)) {
+            List<FValue> values = new ArrayList<>(elems.size());
+            for (ASTNode e : elems) {
+                ASTNode.Literal lit = (ASTNode.Literal) e;
+                if (!isScalar(lit)) return new ASTNode.ListLiteral(elems, ll.line());
+                values.add(lit.value());
+            }
+            return new ASTNode.Literal(FValue.ofList(values), ll.line());
+        }
+        return new ASTNode.ListLiteral(elems, ll.line());
+    }
+
+
+    /** Rejects folds whose result would be built far past the size limits before {@link #fits} sees it. */
+    private static boolean cheap(String name, List<FValue> args) {
+        return switch (name.toLowerCase()) {
+            case "range"      -> args.size() >= 2
+                    && Math.abs(args.get(1).asNumber() - args.get(0).asNumber()) <= MAX_FOLDED_LIST;
+            case "repeat-str" -> args.size() >= 2
+                    && args.get(0).asString().length() * Math.max(0, args.get(1).asNumber()) <= MAX_FOLDED_STRING;
+            default           -> true;
+        };
+    }
+
+    private static boolean allLiteral(List<ASTNode> nodes) {
+        for (ASTNode n : nodes) if (!(n instanceof ASTNode.Literal)) return false;
+        return true;
+    }
+
+    private static boolean isScalar(ASTNode.Literal lit) {
+        return !lit.value().isList() && !lit.value().isMap();
+    }
+
+    /** Only keep folds that are small and contain no nested collections. */
+    private static boolean fits(FValue v) {
+        if (v.isMap()) return false;
+        if (v.isString()) return v.asString().length() <= MAX_FOLDED_STRING;
+        if (v.isList()) {
+            if (v.asList().size() > MAX_FOLDED_LIST) return false;
+            for (FValue item : v.asList()) if (item.isList() || item.isMap()) return false;
+        }
+        return true;
+    }
+}
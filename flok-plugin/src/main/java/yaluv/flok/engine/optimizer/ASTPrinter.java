@@ -0,0 +1,145 @@
+package yaluv.flok.engine.optimizer;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.util.List;
+
+/**
+ * Indented dump of an AST, one statement per line with expressions inline.
+ * Used for the debug log of the optimised tree.
+ */
+public final class ASTPrinter {
+
+    private ASTPrinter() {}
+
+    public static String print(ASTNode.Program program) {
+        StringBuilder sb = new StringBuilder();
+        for (ASTNode node : program.children()) {
+            switch (node) {
+                case ASTNode.EventBlock eb -> {
+                    StringBuilder header = new StringBuilder("on ").append(eb.eventName());
+                    for (ASTNode.EventBlock.Filter f : eb.filters()) header.append(' ').append(f.key()).append(": ").append(String.join(", ", f.values()));
+                    line(sb, 0, eb.line(), header.append(':').toString());
+                    block(sb, eb.body(), 1);
+                }
+                case ASTNode.CommandBlock cb -> {
+                    line(sb, 0, cb.line(), "command /" + cb.commandName() + " " + cb.paramNames()
+                            + (cb.cooldown().isEmpty() ? "" : " cooldown: " + cb.cooldown()) + ":");
+                    block(sb, cb.body(), 1);
+                }
+                case ASTNode.FunctionDef fd -> {
+                    line(sb, 0, fd.line(), "function " + fd.name() + fd.params() + ":");
+                    block(sb, fd.body(), 1);
+                }
+                default -> line(sb, 0, node.line(), node.getClass().getSimpleName());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void block(StringBuilder sb, ASTNode.Block block, int depth) {
+        for (ASTNode stmt : block.statements()) statement(sb, stmt, depth);
+    }
+
+    private static void statement(StringBuilder sb, ASTNode node, int depth) {
+        int ln = node.line();
+        switch (node) {
+            case ASTNode.VarAssign va        -> line(sb, depth, ln, "%" + va.name() + "% = " + expr(va.value()));
+            case ASTNode.AugAssign aa        -> line(sb, depth, ln, "%" + aa.name() + "% " + aa.op() + "= " + expr(aa.value()));
+            case ASTNode.PersistAssign pa    -> line(sb, depth, ln, "{" + expr(pa.keyExpr()) + "} = " + expr(pa.value()));
+            case ASTNode.PersistAugAssign pa -> line(sb, depth, ln, "{" + expr(pa.keyExpr()) + "} " + pa.op() + "= " + expr(pa.value()));
+            case ASTNode.EffectStmt es       -> line(sb, depth, ln, es.effectName() + " " + list(es.args()));
+            case ASTNode.ExprStmt es         -> line(sb, depth, ln, expr(es.expr()));
+            case ASTNode.WaitStmt ws         -> line(sb, depth, ln, "wait " + expr(ws.ticks()));
+            case ASTNode.ReturnStmt rs       -> line(sb, depth, ln, rs.value() != null ? "return " + expr(rs.value()) : "return");
+            case ASTNode.BreakStmt bs        -> line(sb, depth, ln, "break");
+            case ASTNode.ContinueStmt cs     -> line(sb, depth, ln, "continue");
+            case ASTNode.Block b             -> block(sb, b, depth);
+
+            case ASTNode.IfStmt is -> {
+                line(sb, depth, ln, "if " + expr(is.condition()) + ":");
+                block(sb, is.thenBlock(), depth + 1);
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) {
+                    line(sb, depth, br.condition().line(), "else if " + expr(br.condition()) + ":");
+                    block(sb, br.body(), depth + 1);
+                }
+                if (is.elseBlock() != null) {
+                    line(sb, depth, is.elseBlock().line(), "else:");
+                    block(sb, is.elseBlock(), depth + 1);
+                }
+            }
+            case ASTNode.WhileStmt ws -> {
+                line(sb, depth, ln, "while " + expr(ws.condition()) + ":");
+                block(sb, ws.body(), depth + 1);
+            }
+            case ASTNode.RepeatStmt rs -> {
+                line(sb, depth, ln, "repeat " + expr(rs.count()) + ":");
+                block(sb, rs.body(), depth + 1);
+            }
+            case ASTNode.ForEachStmt fe -> {
+                line(sb, depth, ln, "for %" + fe.varName() + "% in " + expr(fe.iterable()) + ":");
+                block(sb, fe.body(), depth + 1);
+            }
+            default -> line(sb, depth, ln, node.getClass().getSimpleName());
+        }
+    }
+
+    private static String expr(ASTNode node) {
+        return switch (node) {
+            case ASTNode.Literal lit       -> literal(lit.value());
+            case ASTNode.VarRef vr         -> "%" + vr.name() + "%";
+            case ASTNode.PersistRef pr     -> "{" + expr(pr.keyExpr()) + "}";
+            case ASTNode.BinaryOp bo       -> "(" + expr(bo.left()) + " " + bo.op() + " " + expr(bo.right()) + ")";
+            case ASTNode.UnaryOp uo        -> "(" + uo.op() + ("-".equals(uo.op()) ? "" : " ") + expr(uo.operand()) + ")";
+            case ASTNode.FunctionCall fc   -> fc.name() + "(" + list(fc.args()) + ")";
+            case ASTNode.IndexAccess ia    -> expr(ia.target()) + "[" + expr(ia.index()) + "]";
+            case ASTNode.PropertyAccess pa -> expr(pa.target()) + "." + pa.property();
+            case ASTNode.ListLiteral ll    -> "[" + list(ll.elements()) + "]";
+            case ASTNode.Conditional c     -> "(" + expr(c.ifTrue()) + " if " + expr(c.condition()) + " else " + expr(c.ifFalse()) + ")";
+            case ASTNode.MapLiteral ml     -> {
+                StringBuilder sb = new StringBuilder("{");
+                for (var e : ml.entries()) {
+                    if (sb.length() > 1) sb.append(", ");
+                    sb.append(expr(e.getKey())).append(": ").append(expr(e.getValue()));
+                }
+                yield sb.append('}').toString();
+            }
+            case ASTNode.StringTemplate st -> {
+                StringBuilder sb = new StringBuilder("\"");
+                for (Object part : st.parts()) {
+                    if (part instanceof String s) sb.append(s);
+                    else sb.append(expr((ASTNode) part));
+                }
+                yield sb.append('"').toString();
+            }
+            default -> node.getClass().getSimpleName();
+        };
+    }
+
+    private static String literal(FValue v) {
+        if (v.isString()) return "\"" + v.asString() + "\"";
+        if (v.isList()) {
+            StringBuilder sb = new StringBuilder("[");
+            for (FValue item : v.asList()) {
+                if (sb.length() > 1) sb.append(", ");
+                sb.append(literal(item));
+            }
+            return sb.append(']').toString();
+        }
+        return v.asString();
+    }
+
+    private static String list(List<ASTNode> nodes) {
+        StringBuilder sb = new StringBuilder();
+        for (ASTNode n : nodes) {
+            if (!sb.isEmpty()) sb.append(", ");
+            sb.append(expr(n));
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, int depth, int line, String text) {
+        sb.append(String.format("L%-4d ", line)).append("  ".repeat(depth)).append(text).append('\n');
+    }
+}
@@ -0,0 +1,539 @@
+package yaluv.flok.engine.optimizer;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.runtime.BuiltinFunctions;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Inlines calls to small script functions into their callers. Runs first in
+ * ASTOptimizer, so constant arguments fold through the inlined body.
+ *
+ * A function is only inlined if it is pure — no effects, waits, storage
+ * writes or builtins with side effects, and it calls only other pure
+ * functions — not recursive, reads no variable it does not bind itself
+ * (player variables are injected per call), and is at most
+ * {@link #MAX_SIZE} nodes once its own calls are inlined. Everything else,
+ * recursion in particular, stays a real call with its own call depth.
+ *
+ * A function whose body is a single return is substituted in place when
+ * every argument is a literal or a variable. Otherwise the body is copied in
+ * front of the calling statement: parameters and locals are renamed to
+ * {@code name%k.local} (a '%' can't occur in a source variable name),
+ * returns assign the result local {@code name%k}, and the call reads it.
+ * That only happens where the call runs exactly once per statement and
+ * nothing with side effects is evaluated before it, so the order of
+ * everything observable is unchanged.
+ */
+final class Inliner {
+
+    static final int MAX_SIZE = 40;
+
+    /** Placeholder the tail form assigns instead of returning; renamed per call site. */
+    private static final String RESULT = "";
+
+    /**
+     * An inlinable function. {@code body} is in tail form: returns are
+     * assignments to {@link #RESULT} and every path ends in one. {@code expr}
+     * is set when the whole function is {@code return expr}.
+     */
+    private record Template(ASTNode.FunctionDef def, List<ASTNode> body, ASTNode expr,
+                            Set<String> locals, Set<String> reset, Set<String> assigned) {}
+
+    /** Where the statement being rewritten hoists inlined bodies to. */
+    private static final class Site {
+        final List<ASTNode> out;
+        boolean clean = true;   // nothing with side effects evaluated yet
+        Site(List<ASTNode> out) { this.out = out; }
+    }
+
+    private final Map<String, ASTNode.FunctionDef> functions = new HashMap<>();
+    private final Map<String, ASTNode.FunctionDef> done      = new HashMap<>();
+    private final Set<String>                      visiting  = new HashSet<>();
+    private final Map<String, Boolean>             pure      = new HashMap<>();
+    private final Map<String, Template>            templates = new HashMap<>();
+    private int sites;
+
+    private Inliner() {}
+
+    static ASTNode.Program inline(ASTNode.Program program) {
+        Inliner in = new Inliner();
+        for (ASTNode node : program.children()) {
+            if (node instanceof ASTNode.FunctionDef fd) in.functions.put(fd.name().toLowerCase(), fd);
+        }
+        if (in.functions.isEmpty()) return program;
+
+        List<ASTNode> children = new ArrayList<>(program.children().size());
+        for (ASTNode node : program.children()) {
+            children.add(switch (node) {
+                case ASTNode.EventBlock eb ->
+                        new ASTNode.EventBlock(eb.eventName(), eb.params(), eb.filters(), in.block(eb.body()), eb.line());
+                case ASTNode.CommandBlock cb ->
+                        new ASTNode.CommandBlock(cb.commandName(), cb.aliases(), cb.permission(),
+                                cb.description(), cb.cooldown(), cb.paramNames(), in.block(cb.body()), cb.line());
+                case ASTNode.FunctionDef fd -> {
+                    String key = fd.name().toLowerCase();
+                    in.process(key);
+                    // A later definition of the same name replaces this one at run time.
+                    yield in.functions.get(key) == fd ? in.done.get(key) : fd;
+                }
+                default -> node;
+            });
+        }
+        return new ASTNode.Program(children, program.line());
+    }
+
+
+    // ── Callees ──────────────────────────────────────────────────────────────
+
+    /** Inline into a function's own body first, then decide whether it can be inlined itself. */
+    private void process(String key) {
+        if (done.containsKey(key) || !visiting.add(key)) return;
+        ASTNode.FunctionDef fd  = functions.get(key);
+        ASTNode.FunctionDef out = new ASTNode.FunctionDef(fd.name(), fd.params(), block(fd.body()), fd.line());
+        boolean isPure = isPure(out.body());
+        pure.put(key, isPure);
+        if (isPure) {
+            Template t = template(out);
+            if (t != null) templates.put(key, t);
+        }
+        done.put(key, out);
+        visiting.remove(key);
+    }
+
+    /** The template of a script function, or null if calls to it must stay calls. */
+    private Template templateOf(String key) {
+        if (!functions.containsKey(key)) return null;
+        process(key);
+        return templates.get(key);
+    }
+
+    /** Whether calling {@code name} can have side effects. Functions still being processed are recursive: impure. */
+    private boolean callIsPure(String name) {
+        String key = name.toLowerCase();
+        if (!functions.containsKey(key)) return BuiltinFunctions.isPure(key);
+        process(key);
+        return pure.getOrDefault(key, false);
+    }
+
+    private boolean isPure(ASTNode body) {
+        boolean[] ok = {true};
+        walk(body, n -> {
+            switch (n) {
+                case ASTNode.EffectStmt ignored       -> ok[0] = false;
+                case ASTNode.WaitStmt ignored         -> ok[0] = false;
+                case ASTNode.PersistAssign ignored    -> ok[0] = false;
+                case ASTNode.PersistAugAssign ignored -> ok[0] = false;
+                case ASTNode.FunctionCall fc          -> { if (!callIsPure(fc.name())) ok[0] = false; }
+                default -> {}
+            }
+        });
+        return ok[0];
+    }
+
+    private static Template template(ASTNode.FunctionDef fd) {
+        Set<String> params   = new HashSet<>(fd.params());
+        Set<String> assigned = new HashSet<>();
+        Set<String> read     = new HashSet<>();
+        walk(fd.body(), n -> {
+            switch (n) {
+                case ASTNode.VarAssign va   -> assigned.add(va.name());
+                case ASTNode.AugAssign aa   -> { assigned.add(aa.name()); read.add(aa.name()); }
+                case ASTNode.ForEachStmt fe -> assigned.add(fe.varName());
+                case ASTNode.VarRef vr      -> read.add(vr.name());
+                default -> {}
+            }
+        });
+        Set<String> locals = new HashSet<>(params);
+        locals.addAll(assigned);
+        if (!locals.containsAll(read)) return null;            // free variable: would see the caller's instead
+        if (escapes(fd.body())) return null;                   // break / continue outside a loop
+
+        List<ASTNode> stmts = fd.body().statements();
+        if (stmts.size() == 1 && stmts.get(0) instanceof ASTNode.ReturnStmt rs && rs.value() != null
+                && assigned.isEmpty() && size(rs.value()) <= MAX_SIZE) {
+            return new Template(fd, List.of(), rs.value(), locals, Set.of(), Set.of());
+        }
+
+        List<ASTNode> body = tail(stmts, fd.line());
+        if (body == null) return null;                         // a return inside a loop
+        int n = 0;
+        for (ASTNode s : body) n += size(s);
+        if (n > MAX_SIZE) return null;
+
+        Set<String> paramsAssigned = new HashSet<>(params);
+        paramsAssigned.retainAll(assigned);
+        return new Template(fd, body, null, locals, needsReset(body, locals, params), paramsAssigned);
+    }
+
+    /**
+     * Rewrite statements so no return is left: each becomes an assignment to
+     * {@link #RESULT}, statements after an if that returns on some paths move
+     * into its other branches, and falling off the end assigns null. Returns
+     * null if a return sits inside a loop.
+     */
+    private static List<ASTNode> tail(List<ASTNode> stmts, int line) {
+        List<ASTNode> out = new ArrayList<>();
+        for (int i = 0; i < stmts.size(); i++) {
+            ASTNode stmt = stmts.get(i);
+            if (stmt instanceof ASTNode.ReturnStmt rs) {
+                ASTNode value = rs.value() != null ? rs.value() : new ASTNode.Literal(FValue.NULL, rs.line());
+                out.add(new ASTNode.VarAssign(RESULT, value, rs.line()));
+                return out;
+            }
+            if (!hasReturn(stmt)) {
+                out.add(stmt);
+                continue;
+            }
+            List<ASTNode> rest = stmts.subList(i + 1, stmts.size());
+            switch (stmt) {
+                case ASTNode.Block b -> {
+                    List<ASTNode> inner = tail(concat(b.statements(), rest), line);
+                    if (inner == null) return null;
+                    out.addAll(inner);
+                }
+                case ASTNode.IfStmt is -> {
+                    List<ASTNode> then = tail(concat(is.thenBlock().statements(), rest), line);
+                    if (then == null) return null;
+                    List<ASTNode.IfStmt.ElseBranch> branches = new ArrayList<>();
+                    for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) {
+                        List<ASTNode> body = tail(concat(br.body().statements(), rest), line);
+                        if (body == null) return null;
+                        branches.add(new ASTNode.IfStmt.ElseBranch(br.condition(), new ASTNode.Block(body, br.body().line())));
+                    }
+                    List<ASTNode> orElse = tail(concat(is.elseBlock() != null ? is.elseBlock().statements() : List.of(), rest), line);
+                    if (orElse == null) return null;
+                    int elseLine = is.elseBlock() != null ? is.elseBlock().line() : is.line();
+                    out.add(new ASTNode.IfStmt(is.condition(), new ASTNode.Block(then, is.thenBlock().line()),
+                            branches, new ASTNode.Block(orElse, elseLine), is.line()));
+                }
+                default -> { return null; }
+            }
+            return out;
+        }
+        out.add(new ASTNode.VarAssign(RESULT, new ASTNode.Literal(FValue.NULL, line), line));
+        return out;
+    }
+
+    /**
+     * Locals that may be read before the body first assigns them. A real call
+     * starts them as null; inlined into a loop they would keep the last
+     * iteration's value, so they are reset first.
+     */
+    private static Set<String> needsReset(List<ASTNode> body, Set<String> locals, Set<String> params) {
+        Set<String> reset    = new HashSet<>();
+        Set<String> assigned = new HashSet<>(params);
+        assigned.add(RESULT);
+        for (ASTNode stmt : body) {
+            walk(stmt, n -> {
+                String name = switch (n) {
+                    case ASTNode.VarRef vr    -> vr.name();
+                    case ASTNode.AugAssign aa -> aa.name();
+                    default -> null;
+                };
+                if (name != null && locals.contains(name) && !assigned.contains(name)) reset.add(name);
+            });
+            if (stmt instanceof ASTNode.VarAssign va) assigned.add(va.name());
+        }
+        return reset;
+    }
+
+
+    // ── Call sites ───────────────────────────────────────────────────────────
+
+    private ASTNode.Block block(ASTNode.Block block) {
+        List<ASTNode> out = new ArrayList<>(block.statements().size());
+        for (ASTNode stmt : block.statements()) statement(stmt, out);
+        return new ASTNode.Block(out, block.line());
+    }
+
+    /** Append {@code node}, preceded by any bodies hoisted out of it, to {@code out}. */
+    private void statement(ASTNode node, List<ASTNode> out) {
+        Site site = new Site(out);
+        ASTNode stmt = switch (node) {
+            case ASTNode.VarAssign va        -> new ASTNode.VarAssign(va.name(), expr(va.value(), site, true), va.line());
+            case ASTNode.AugAssign aa        -> new ASTNode.AugAssign(aa.name(), aa.op(), expr(aa.value(), site, true), aa.line());
+            case ASTNode.PersistAssign pa    -> {
+                ASTNode key = expr(pa.keyExpr(), site, true);
+                yield new ASTNode.PersistAssign(key, expr(pa.value(), site, true), pa.line());
+            }
+            case ASTNode.PersistAugAssign pa -> {
+                ASTNode key = expr(pa.keyExpr(), site, true);
+                yield new ASTNode.PersistAugAssign(key, pa.op(), expr(pa.value(), site, true), pa.line());
+            }
+            case ASTNode.EffectStmt es       -> new ASTNode.EffectStmt(es.effectName(), exprs(es.args(), site, true), es.line());
+            case ASTNode.ExprStmt es         -> {
+                ASTNode e = expr(es.expr(), site, true);
+                // The value of an inlined call whose result is discarded needs no read.
+                yield e instanceof ASTNode.VarRef vr && vr.name().indexOf('%') >= 0 ? null : new ASTNode.ExprStmt(e, es.line());
+            }
+            case ASTNode.WaitStmt ws         -> new ASTNode.WaitStmt(expr(ws.ticks(), site, true), ws.line());
+            case ASTNode.ReturnStmt rs       -> new ASTNode.ReturnStmt(rs.value() != null ? expr(rs.value(), site, true) : null, rs.line());
+            case ASTNode.Block b             -> block(b);
+            case ASTNode.IfStmt is           -> {
+                ASTNode cond = expr(is.condition(), site, true);
+                List<ASTNode.IfStmt.ElseBranch> branches = new ArrayList<>(is.elseBranches().size());
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) {
+                    branches.add(new ASTNode.IfStmt.ElseBranch(expr(br.condition(), site, false), block(br.body())));
+                }
+                yield new ASTNode.IfStmt(cond, block(is.thenBlock()), branches,
+                        is.elseBlock() != null ? block(is.elseBlock()) : null, is.line());
+            }
+            case ASTNode.WhileStmt ws   -> new ASTNode.WhileStmt(expr(ws.condition(), site, false), block(ws.body()), ws.line());
+            case ASTNode.RepeatStmt rs  -> new ASTNode.RepeatStmt(expr(rs.count(), site, true), block(rs.body()), rs.line());
+            case ASTNode.ForEachStmt fe -> new ASTNode.ForEachStmt(fe.varName(), expr(fe.iterable(), site, true), block(fe.body()), fe.line());
+            default -> node;
+        };
+        if (stmt != null) out.add(stmt);
+    }
+
+    private List<ASTNode> exprs(List<ASTNode> nodes, Site site, boolean once) {
+        List<ASTNode> out = new ArrayList<>(nodes.size());
+        for (ASTNode n : nodes) out.add(expr(n, site, once));
+        return out;
+    }
+
+    /**
+     * Rewrite an expression in evaluation order. {@code once} is false below
+     * anything that may evaluate it zero or several times (short-circuit
+     * operands, conditional branches, loop conditions); no body is hoisted
+     * out of there.
+     */
+    private ASTNode expr(ASTNode node, Site site, boolean once) {
+        return switch (node) {
+            case ASTNode.BinaryOp bo -> {
+                ASTNode left = expr(bo.left(), site, once);
+                boolean lazy = "and".equals(bo.op()) || "or".equals(bo.op());
+                yield new ASTNode.BinaryOp(bo.op(), left, expr(bo.right(), site, once && !lazy), bo.line());
+            }
+            case ASTNode.UnaryOp uo     -> new ASTNode.UnaryOp(uo.op(), expr(uo.operand(), site, once), uo.line());
+            case ASTNode.Conditional c  -> {
+                ASTNode cond = expr(c.condition(), site, once);
+                yield new ASTNode.Conditional(cond, expr(c.ifTrue(), site, false), expr(c.ifFalse(), site, false), c.line());
+            }
+            case ASTNode.FunctionCall fc   -> call(fc, site, once);
+            case ASTNode.PersistRef pr     -> new ASTNode.PersistRef(expr(pr.keyExpr(), site, once), pr.line());
+            case ASTNode.PropertyAccess pa -> new ASTNode.PropertyAccess(expr(pa.target(), site, once), pa.property(), pa.line());
+            case ASTNode.ListLiteral ll    -> new ASTNode.ListLiteral(exprs(ll.elements(), site, once), ll.line());
+            case ASTNode.IndexAccess ia    -> {
+                ASTNode target = expr(ia.target(), site, once);
+                yield new ASTNode.IndexAccess(target, expr(ia.index(), site, once), ia.line());
+            }
+            case ASTNode.MapLiteral ml -> {
+                List<Map.Entry<ASTNode, ASTNode>> entries = new ArrayList<>(ml.entries().size());
+                for (var e : ml.entries()) {
+                    ASTNode key = expr(e.getKey(), site, once);
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(key, expr(e.getValue(), site, once)));
+                }
+                yield new ASTNode.MapLiteral(entries, ml.line());
+            }
+            case ASTNode.StringTemplate st -> {
+                List<Object> parts = new ArrayList<>(st.parts().size());
+                for (Object part : st.parts()) parts.add(part instanceof ASTNode n ? expr(n, site, once) : part);
+                yield new ASTNode.StringTemplate(parts, st.line());
+            }
+            default -> node;
+        };
+    }
+
+    private ASTNode call(ASTNode.FunctionCall fc, Site site, boolean once) {
+        List<ASTNode> args = exprs(fc.args(), site, once);
+        Template t = templateOf(fc.name().toLowerCase());
+        if (t != null) {
+            if (t.expr() != null && args.stream().allMatch(Inliner::simple)) return substitute(t, args);
+            if (t.expr() == null && once && site.clean) return hoist(t, args, site, fc.line());
+        }
+        if (!callIsPure(fc.name())) site.clean = false;
+        return new ASTNode.FunctionCall(fc.name(), args, fc.line());
+    }
+
+    /** Literals and variables can be read in place of a parameter with no change in what they evaluate to. */
+    private static boolean simple(ASTNode arg) {
+        return arg instanceof ASTNode.Literal || arg instanceof ASTNode.VarRef;
+    }
+
+    /** Extra arguments are simple too, so dropping them drops nothing observable. */
+    private static ASTNode substitute(Template t, List<ASTNode> args) {
+        Map<String, ASTNode> subst = new HashMap<>();
+        List<String> params = t.def().params();
+        for (int i = 0; i < params.size(); i++) subst.put(params.get(i), argOrNull(args, i));
+        return copy(t.expr(), Map.of(), subst);
+    }
+
+    /** What parameter {@code i} is bound to: its argument, or null as in a real call when there is none. */
+    private static ASTNode argOrNull(List<ASTNode> args, int i) {
+        return i < args.size() ? args.get(i) : new ASTNode.Literal(FValue.NULL, 0);
+    }
+
+    /** Emit the renamed body in front of the statement and return a read of its result. */
+    private ASTNode hoist(Template t, List<ASTNode> args, Site site, int line) {
+        String prefix = t.def().name() + "%" + (++sites);
+        Map<String, String> names = new HashMap<>();
+        for (String local : t.locals()) names.put(local, prefix + "." + local);
+        names.put(RESULT, prefix);
+
+        Map<String, ASTNode> subst = new HashMap<>();
+        List<String> params = t.def().params();
+        for (int i = 0; i < params.size(); i++) {
+            ASTNode arg = argOrNull(args, i);
+            if (simple(arg) && !t.assigned().contains(params.get(i))) subst.put(params.get(i), arg);
+            else site.out.add(new ASTNode.VarAssign(names.get(params.get(i)), arg, line));
+        }
+        // Extra arguments are still evaluated, in order, as a real call does.
+        for (int i = params.size(); i < args.size(); i++) {
+            if (!simple(args.get(i))) site.out.add(new ASTNode.ExprStmt(args.get(i), line));
+        }
+        for (String local : t.reset()) {
+            site.out.add(new ASTNode.VarAssign(names.get(local), new ASTNode.Literal(FValue.NULL, line), line));
+        }
+        for (ASTNode stmt : t.body()) site.out.add(copy(stmt, names, subst));
+        return new ASTNode.VarRef(prefix, line);
+    }
+
+
+    // ── Tree helpers ─────────────────────────────────────────────────────────
+
+    /** A fresh copy of {@code node} with variables renamed and parameters substituted. */
+    private static ASTNode copy(ASTNode node, Map<String, String> names, Map<String, ASTNode> subst) {
+        return switch (node) {
+            case ASTNode.VarRef vr -> {
+                ASTNode arg = subst.get(vr.name());
+                if (arg instanceof ASTNode.Literal lit) yield new ASTNode.Literal(lit.value(), lit.line());
+                if (arg instanceof ASTNode.VarRef ref)  yield new ASTNode.VarRef(ref.name(), ref.line());
+                yield new ASTNode.VarRef(names.getOrDefault(vr.name(), vr.name()), vr.line());
+            }
+            case ASTNode.Literal lit       -> new ASTNode.Literal(lit.value(), lit.line());
+            case ASTNode.VarAssign va      -> new ASTNode.VarAssign(rename(va.name(), names), copy(va.value(), names, subst), va.line());
+            case ASTNode.AugAssign aa      -> new ASTNode.AugAssign(rename(aa.name(), names), aa.op(), copy(aa.value(), names, subst), aa.line());
+            case ASTNode.ExprStmt es       -> new ASTNode.ExprStmt(copy(es.expr(), names, subst), es.line());
+            case ASTNode.BreakStmt bs      -> new ASTNode.BreakStmt(bs.line());
+            case ASTNode.ContinueStmt cs   -> new ASTNode.ContinueStmt(cs.line());
+            case ASTNode.Block b           -> new ASTNode.Block(copies(b.statements(), names, subst), b.line());
+            case ASTNode.IfStmt is         -> {
+                List<ASTNode.IfStmt.ElseBranch> branches = new ArrayList<>(is.elseBranches().size());
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) {
+                    branches.add(new ASTNode.IfStmt.ElseBranch(copy(br.condition(), names, subst),
+                            (ASTNode.Block) copy(br.body(), names, subst)));
+                }
+                yield new ASTNode.IfStmt(copy(is.condition(), names, subst), (ASTNode.Block) copy(is.thenBlock(), names, subst),
+                        branches, is.elseBlock() != null ? (ASTNode.Block) copy(is.elseBlock(), names, subst) : null, is.line());
+            }
+            case ASTNode.WhileStmt ws   -> new ASTNode.WhileStmt(copy(ws.condition(), names, subst),
+                    (ASTNode.Block) copy(ws.body(), names, subst), ws.line());
+            case ASTNode.RepeatStmt rs  -> new ASTNode.RepeatStmt(copy(rs.count(), names, subst),
+                    (ASTNode.Block) copy(rs.body(), names, subst), rs.line());
+            case ASTNode.ForEachStmt fe -> new ASTNode.ForEachStmt(rename(fe.varName(), names), copy(fe.iterable(), names, subst),
+                    (ASTNode.Block) copy(fe.body(), names, subst), fe.line());
+            case ASTNode.BinaryOp bo       -> new ASTNode.BinaryOp(bo.op(), copy(bo.left(), names, subst), copy(bo.right(), names, subst), bo.line());
+            case ASTNode.UnaryOp uo        -> new ASTNode.UnaryOp(uo.op(), copy(uo.operand(), names, subst), uo.line());
+            case ASTNode.Conditional c     -> new ASTNode.Conditional(copy(c.condition(), names, subst),
+                    copy(c.ifTrue(), names, subst), copy(c.ifFalse(), names, subst), c.line());
+            case ASTNode.FunctionCall fc   -> new ASTNode.FunctionCall(fc.name(), copies(fc.args(), names, subst), fc.line());
+            case ASTNode.PersistRef pr     -> new ASTNode.PersistRef(copy(pr.keyExpr(), names, subst), pr.line());
+            case ASTNode.PropertyAccess pa -> new ASTNode.PropertyAccess(copy(pa.target(), names, subst), pa.property(), pa.line());
+            case ASTNode.IndexAccess ia    -> new ASTNode.IndexAccess(copy(ia.target(), names, subst), copy(ia.index(), names, subst), ia.line());
+            case ASTNode.ListLiteral ll    -> new ASTNode.ListLiteral(copies(ll.elements(), names, subst), ll.line());
+            case ASTNode.MapLiteral ml     -> {
+                List<Map.Entry<ASTNode, ASTNode>> entries = new ArrayList<>(ml.entries().size());
+                for (var e : ml.entries()) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(copy(e.getKey(), names, subst), copy(e.getValue(), names, subst)));
+                }
+                yield new ASTNode.MapLiteral(entries, ml.line());
+            }
+            case ASTNode.StringTemplate st -> {
+                List<Object> parts = new ArrayList<>(st.parts().size());
+                for (Object part : st.parts()) parts.add(part instanceof ASTNode n ? copy(n, names, subst) : part);
+                yield new ASTNode.StringTemplate(parts, st.line());
+            }
+            // Impure statements never reach a template.
+            default -> throw new IllegalStateException("cannot inline " + node.getClass().getSimpleName());
+        };
+    }
+
+    private static List<ASTNode> copies(List<ASTNode> nodes, Map<String, String> names, Map<String, ASTNode> subst) {
+        List<ASTNode> out = new ArrayList<>(nodes.size());
+        for (ASTNode n : nodes) out.add(copy(n, names, subst));
+        return out;
+    }
+
+    private static String rename(String name, Map<String, String> names) {
+        return names.getOrDefault(name, name);
+    }
+
+    /** Visit {@code node} and everything below it, statements and expressions alike. */
+    private static void walk(ASTNode node, Consumer<ASTNode> visit) {
+        if (node == null) return;
+        visit.accept(node);
+        switch (node) {
+            case ASTNode.Block b            -> { for (ASTNode s : b.statements()) walk(s, visit); }
+            case ASTNode.VarAssign va       -> walk(va.value(), visit);
+            case ASTNode.AugAssign aa       -> walk(aa.value(), visit);
+            case ASTNode.PersistAssign pa   -> { walk(pa.keyExpr(), visit); walk(pa.value(), visit); }
+            case ASTNode.PersistAugAssign p -> { walk(p.keyExpr(), visit); walk(p.value(), visit); }
+            case ASTNode.EffectStmt es      -> { for (ASTNode a : es.args()) walk(a, visit); }
+            case ASTNode.ExprStmt es        -> walk(es.expr(), visit);
+            case ASTNode.WaitStmt ws        -> walk(ws.ticks(), visit);
+            case ASTNode.ReturnStmt rs      -> walk(rs.value(), visit);
+            case ASTNode.IfStmt is          -> {
+                walk(is.condition(), visit);
+                walk(is.thenBlock(), visit);
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) { walk(br.condition(), visit); walk(br.body(), visit); }
+                walk(is.elseBlock(), visit);
+            }
+            case ASTNode.WhileStmt ws       -> { walk(ws.condition(), visit); walk(ws.body(), visit); }
+            case ASTNode.RepeatStmt rs      -> { walk(rs.count(), visit); walk(rs.body(), visit); }
+            case ASTNode.ForEachStmt fe     -> { walk(fe.iterable(), visit); walk(fe.body(), visit); }
+            case ASTNode.BinaryOp bo        -> { walk(bo.left(), visit); walk(bo.right(), visit); }
+            case ASTNode.UnaryOp uo         -> walk(uo.operand(), visit);
+            case ASTNode.Conditional c      -> { walk(c.condition(), visit); walk(c.ifTrue(), visit); walk(c.ifFalse(), visit); }
+            case ASTNode.FunctionCall fc    -> { for (ASTNode a : fc.args()) walk(a, visit); }
+            case ASTNode.PersistRef pr      -> walk(pr.keyExpr(), visit);
+            case ASTNode.PropertyAccess pa  -> walk(pa.target(), visit);
+            case ASTNode.IndexAccess ia     -> { walk(ia.target(), visit); walk(ia.index(), visit); }
+            case ASTNode.ListLiteral ll     -> { for (ASTNode e : ll.elements()) walk(e, visit); }
+            case ASTNode.MapLiteral ml      -> { for (var e : ml.entries()) { walk(e.getKey(), visit); walk(e.getValue(), visit); } }
+            case ASTNode.StringTemplate st  -> { for (Object p : st.parts()) if (p instanceof ASTNode n) walk(n, visit); }
+            default -> {}
+        }
+    }
+
+    private static int size(ASTNode node) {
+        int[] n = {0};
+        walk(node, x -> n[0]++);
+        return n[0];
+    }
+
+    private static boolean hasReturn(ASTNode node) {
+        boolean[] found = {false};
+        walk(node, x -> { if (x instanceof ASTNode.ReturnStmt) found[0] = true; });
+        return found[0];
+    }
+
+    /** A break or continue that is not inside a loop of the function itself. */
+    private static boolean escapes(ASTNode node) {
+        return switch (node) {
+            case ASTNode.BreakStmt ignored    -> true;
+            case ASTNode.ContinueStmt ignored -> true;
+            case ASTNode.Block b              -> b.statements().stream().anyMatch(Inliner::escapes);
+            case ASTNode.IfStmt is            -> escapes(is.thenBlock())
+                    || is.elseBranches().stream().anyMatch(br -> escapes(br.body()))
+                    || (is.elseBlock() != null && escapes(is.elseBlock()));
+            default -> false;
+        };
+    }
+
+    private static List<ASTNode> concat(List<ASTNode> a, List<ASTNode> b) {
+        List<ASTNode> out = new ArrayList<>(a.size() + b.size());
+        out.addAll(a);
+        out.addAll(b);
+        return out;
+    }
+}
@@ -5,147 +5,199 @@ import yaluv.flok.engine.ast.ASTNode;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-final class BuiltinFunctions {
+public final class BuiltinFunctions {
 
     private BuiltinFunctions() {}
 
     static FValue call(String name, List<ASTNode> argExprs, ExecutionContext ctx, Interpreter interp) {
         List<FValue> args = new ArrayList<>(argExprs.size());
         for (ASTNode a : argExprs) args.add(interp.eval(a, ctx));
+        return invoke(name, args);
+    }
 
-        return switch (name.toLowerCase()) {
-            case "abs"        -> FValue.of(Math.abs(num(args, 0)));
-            case "ceil"       -> FValue.of(Math.ceil(num(args, 0)));
-            case "floor"      -> FValue.of(Math.floor(num(args, 0)));
-            case "round"      -> FValue.of((double) Math.round(num(args, 0)));
-            case "sqrt"       -> FValue.of(Math.sqrt(num(args, 0)));
-            case "pow"        -> FValue.of(Math.pow(num(args, 0), num(args, 1)));
-            case "min"        -> FValue.of(Math.min(num(args, 0), num(args, 1)));
-            case "max"        -> FValue.of(Math.max(num(args, 0), num(args, 1)));
-            case "clamp"      -> FValue.of(Math.max(num(args, 1), Math.min(num(args, 2), num(args, 0))));
-            case "log"        -> FValue.of(Math.log(num(args, 0)));
-            case "log10"      -> FValue.of(Math.log10(num(args, 0)));
-            case "sin"        -> FValue.of(Math.sin(Math.toRadians(num(args, 0))));
-            case "cos"        -> FValue.of(Math.cos(Math.toRadians(num(args, 0))));
-            case "tan"        -> FValue.of(Math.tan(Math.toRadians(num(args, 0))));
-            case "random"     -> FValue.of(Math.random());
-            case "random-int" -> {
-                int lo = args.size() > 1 ? (int) num(args, 0) : 1;
-                int hi = args.size() > 1 ? (int) num(args, 1) : (int) num(args, 0);
-                yield FValue.of(lo + (int)(Math.random() * (hi - lo + 1)));
-            }
-            case "upper"        -> FValue.of(str(args, 0).toUpperCase());
-            case "lower"        -> FValue.of(str(args, 0).toLowerCase());
-            case "length"       -> {
-                FValue v = arg(args, 0);
-                yield v.isList() ? FValue.of(v.asList().size()) : FValue.of(str(args, 0).length());
-            }
-            case "trim"         -> FValue.of(str(args, 0).trim());
-            case "starts-with"  -> FValue.of(str(args, 0).startsWith(str(args, 1)));
-            case "ends-with"    -> FValue.of(str(args, 0).endsWith(str(args, 1)));
-            case "contains"     -> {
-                FValue haystack = arg(args, 0);
-                if (haystack.isList()) yield FValue.of(haystack.asList().contains(arg(args, 1)));
-                yield FValue.of(str(args, 0).contains(str(args, 1)));
-            }
-            case "replace"      -> FValue.of(str(args, 0).replace(str(args, 1), str(args, 2)));
-            case "split"        -> {
-                String[] parts = str(args, 0).split(str(args, 1));
-                List<FValue> list = new ArrayList<>(parts.length);
-                for (String p : parts) list.add(FValue.of(p));
-                yield FValue.ofList(list);
-            }
-            case "substring"    -> {
-                String s  = str(args, 0);
-                int    lo = (int) num(args, 1);
-                int    hi = args.size() > 2 ? (int) num(args, 2) : s.length();
-                lo = Math.max(0, lo); hi = Math.min(s.length(), hi);
-                yield FValue.of(lo < hi ? s.substring(lo, hi) : "");
-            }
-            case "index-of"     -> FValue.of(str(args, 0).indexOf(str(args, 1)));
-            case "repeat-str"   -> FValue.of(str(args, 0).repeat(Math.max(0, (int) num(args, 1))));
-            case "str"          -> FValue.of(arg(args, 0).asString());
-            case "num"          -> FValue.of(arg(args, 0).asNumber());
-            case "bool"         -> FValue.of(arg(args, 0).asBoolean());
-
-            case "range"        -> {
-                int start = (int) num(args, 0);
-                int end   = (int) num(args, 1);
-                List<FValue> list = new ArrayList<>(Math.abs(end - start));
-                int step = end >= start ? 1 : -1;
-                for (int i = start; i != end; i += step) list.add(FValue.of(i));
-                yield FValue.ofList(list);
-            }
-            case "push"         -> {
-                FValue list = arg(args, 0);
-                if (list.isList()) list.asList().add(arg(args, 1));
-                yield list;
-            }
-            case "pop"          -> {
-                FValue list = arg(args, 0);
-                if (list.isList() && !list.asList().isEmpty())
-                    yield list.asList().remove(list.asList().size() - 1);
-                yield FValue.NULL;
-            }
-            case "remove"       -> {
-                FValue list = arg(args, 0);
-                int    idx  = (int) num(args, 1);
-                if (list.isList() && idx >= 0 && idx < list.asList().size())
-                    yield list.asList().remove(idx);
-                yield FValue.NULL;
-            }
-            case "join"         -> {
-                FValue list = arg(args, 0);
-                String sep  = args.size() > 1 ? str(args, 1) : ", ";
-                if (!list.isList()) yield FValue.of(list.asString());
-                StringBuilder sb = new StringBuilder();
-                List<FValue> items = list.asList();
-                for (int i = 0; i < items.size(); i++) {
-                    if (i > 0) sb.append(sep);
-                    sb.append(items.get(i).asString());
-                }
-                yield FValue.of(sb.toString());
-            }
-            case "sum"          -> {
-                double total = 0;
-                for (FValue v : arg(args, 0).asList()) total += v.asNumber();
-                yield FValue.of(total);
-            }
-            case "sort"         -> {
-                List<FValue> copy = new ArrayList<>(arg(args, 0).asList());
-                copy.sort(FValue::compareTo);
-                yield FValue.ofList(copy);
-            }
-            case "shuffle"      -> {
-                List<FValue> copy = new ArrayList<>(arg(args, 0).asList());
-                Collections.shuffle(copy);
-                yield FValue.ofList(copy);
-            }
-            case "reverse"      -> {
-                List<FValue> copy = new ArrayList<>(arg(args, 0).asList());
-                Collections.reverse(copy);
-                yield FValue.ofList(copy);
-            }
-            case "size", "count" -> {
-                FValue v = arg(args, 0);
-                yield v.isList() ? FValue.of(v.asList().size())
-                    : v.isMap()  ? FValue.of(v.asMap().size())
-                    : FValue.of(v.asString().length());
-            }
-            case "is-null"      -> FValue.of(arg(args, 0).isNull());
-            case "is-number"    -> FValue.of(arg(args, 0).isNumber());
-            case "is-string"    -> FValue.of(arg(args, 0).isString());
-            case "is-list"      -> FValue.of(arg(args, 0).isList());
-            case "format-time"  -> {
-                long secs  = (long) num(args, 0);
-                long h     = secs / 3600, m = (secs % 3600) / 60, s = secs % 60;
-                yield FValue.of(String.format("%02d:%02d:%02d", h, m, s));
-            }
+    /** A builtin bound at link time; called with already-evaluated arguments. */
+    @FunctionalInterface
+    interface Builtin {
+        FValue apply(List<FValue> args);
+    }
+
+    private static final Map<String, Builtin> TABLE = new HashMap<>(64);
+
+    /** Builtins without side effects or randomness — safe to evaluate at compile time. */
+    private static final Set<String> PURE = Set.of(
+            "abs", "ceil", "floor", "round", "sqrt", "pow", "min", "max", "clamp", "log", "log10",
+            "sin", "cos", "tan", "upper", "lower", "length", "trim", "starts-with", "ends-with",
+            "contains", "replace", "split", "substring", "index-of", "repeat-str", "str", "num",
+            "bool", "range", "join", "sum", "sort", "reverse", "size", "count", "is-null",
+            "is-number", "is-string", "is-list", "format-time");
+
+    /** Resolve a builtin by name, or null if there is none. */
+    static Builtin lookup(String name) {
+        return TABLE.get(name.toLowerCase());
+    }
+
+    /** Call a builtin with already-evaluated arguments. */
+    static FValue invoke(String name, List<FValue> args) {
+        Builtin fn = lookup(name);
+        if (fn == null) throw new ScriptException("Unknown function: " + name + "()", 0);
+        return fn.apply(args);
+    }
+
+    /** True if {@code name} is a builtin without side effects or randomness. */
+    public static boolean isPure(String name) {
+        return PURE.contains(name.toLowerCase());
+    }
+
+    /**
+     * Evaluate a pure builtin on constant arguments for the optimizer.
+     * Returns null when {@code name} is not a pure builtin or the call fails.
+     */
+    public static FValue fold(String name, List<FValue> args) {
+        String key = name.toLowerCase();
+        if (!PURE.contains(key)) return null;
+        try {
+            return TABLE.get(key).apply(args);
+        } catch (RuntimeException e) {
+            return null;   // leave it to fail (or not) at run time, with a line number
+        }
+    }
+
+    private static void def(String name, Builtin fn)      { TABLE.put(name, fn); }
+    private static void alias(String name, String target) { TABLE.put(name, TABLE.get(target)); }
 
-            default -> throw new ScriptException("Unknown function: " + name + "()", 0);
-        };
+    static {
+        def("abs",         args -> FValue.of(Math.abs(num(args, 0))));
+        def("ceil",        args -> FValue.of(Math.ceil(num(args, 0))));
+        def("floor",       args -> FValue.of(Math.floor(num(args, 0))));
+        def("round",       args -> FValue.of((double) Math.round(num(args, 0))));
+        def("sqrt",        args -> FValue.of(Math.sqrt(num(args, 0))));
+        def("pow",         args -> FValue.of(Math.pow(num(args, 0), num(args, 1))));
+        def("min",         args -> FValue.of(Math.min(num(args, 0), num(args, 1))));
+        def("max",         args -> FValue.of(Math.max(num(args, 0), num(args, 1))));
+        def("clamp",       args -> FValue.of(Math.max(num(args, 1), Math.min(num(args, 2), num(args, 0)))));
+        def("log",         args -> FValue.of(Math.log(num(args, 0))));
+        def("log10",       args -> FValue.of(Math.log10(num(args, 0))));
+        def("sin",         args -> FValue.of(Math.sin(Math.toRadians(num(args, 0)))));
+        def("cos",         args -> FValue.of(Math.cos(Math.toRadians(num(args, 0)))));
+        def("tan",         args -> FValue.of(Math.tan(Math.toRadians(num(args, 0)))));
+        def("random",      args -> FValue.of(Math.random()));
+        def("random-int", args -> {
+            int lo = args.size() > 1 ? (int) num(args, 0) : 1;
+            int hi = args.size() > 1 ? (int) num(args, 1) : (int) num(args, 0);
+            return FValue.of(lo + (int)(Math.random() * (hi - lo + 1)));
+        });
+        def("upper",       args -> FValue.of(str(args, 0).toUpperCase()));
+        def("lower",       args -> FValue.of(str(args, 0).toLowerCase()));
+        def("length", args -> {
+            FValue v = arg(args, 0);
+            return v.isList() ? FValue.of(v.asList().size()) : FValue.of(str(args, 0).length());
+        });
+        def("trim",        args -> FValue.of(str(args, 0).trim()));
+        def("starts-with", args -> FValue.of(str(args, 0).startsWith(str(args, 1))));
+        def("ends-with",   args -> FValue.of(str(args, 0).endsWith(str(args, 1))));
+        def("contains", args -> {
+            FValue haystack = arg(args, 0);
+            if (haystack.isList()) return FValue.of(haystack.asList().contains(arg(args, 1)));
+            return FValue.of(str(args, 0).contains(str(args, 1)));
+        });
+        def("replace",     args -> FValue.of(str(args, 0).replace(str(args, 1), str(args, 2))));
+        def("split", args -> {
+            String[] parts = str(args, 0).split(str(args, 1));
+            List<FValue> list = new ArrayList<>(parts.length);
+            for (String p : parts) list.add(FValue.of(p));
+            return FValue.ofList(list);
+        });
+        def("substring", args -> {
+            String s  = str(args, 0);
+            int    lo = (int) num(args, 1);
+            int    hi = args.size() > 2 ? (int) num(args, 2) : s.length();
+            lo = Math.max(0, lo); hi = Math.min(s.length(), hi);
+            return FValue.of(lo < hi ? s.substring(lo, hi) : "");
+        });
+        def("index-of",    args -> FValue.of(str(args, 0).indexOf(str(args, 1))));
+        def("repeat-str",  args -> FValue.of(str(args, 0).repeat(Math.max(0, (int) num(args, 1)))));
+        def("str",         args -> FValue.of(arg(args, 0).asString()));
+        def("num",         args -> FValue.of(arg(args, 0).asNumber()));
+        def("bool",        args -> FValue.of(arg(args, 0).asBoolean()));
+        def("range", args -> {
+            int start = (int) num(args, 0);
+            int end   = (int) num(args, 1);
+            List<FValue> list = new ArrayList<>(Math.abs(end - start));
+            int step = end >= start ? 1 : -1;
+            for (int i = start; i != end; i += step) list.add(FValue.of(i));
+            return FValue.ofList(list);
+        });
+        def("push", args -> {
+            FValue list = arg(args, 0);
+            if (list.isList()) list.asList().add(arg(args, 1));
+            return list;
+        });
+        def("pop", args -> {
+            FValue list = arg(args, 0);
+            if (list.isList() && !list.asList().isEmpty())
+                return list.asList().remove(list.asList().size() - 1);
+            return FValue.NULL;
+        });
+        def("remove", args -> {
+            FValue list = arg(args, 0);
+            int    idx  = (int) num(args, 1);
+            if (list.isList() && idx >= 0 && idx < list.asList().size())
+                return list.asList().remove(idx);
+            return FValue.NULL;
+        });
+        def("join", args -> {
+            FValue list = arg(args, 0);
+            String sep  = args.size() > 1 ? str(args, 1) : ", ";
+            if (!list.isList()) return FValue.of(list.asString());
+            StringBuilder sb = new StringBuilder();
+            List<FValue> items = list.asList();
+            for (int i = 0; i < items.size(); i++) {
+                if (i > 0) sb.append(sep);
+                sb.append(items.get(i).asString());
+            }
+            return FValue.of(sb.toString());
+        });
+        def("sum", args -> {
+            double total = 0;
+            for (FValue v : arg(args, 0).asList()) total += v.asNumber();
+            return FValue.of(total);
+        });
+        def("sort", args -> {
+            List<FValue> copy = new ArrayList<>(arg(args, 0).asList());
+            copy.sort(FValue::compareTo);
+            return FValue.ofList(copy);
+        });
+        def("shuffle", args -> {
+            List<FValue> copy = new ArrayList<>(arg(args, 0).asList());
+            Collections.shuffle(copy);
+            return FValue.ofList(copy);
+        });
+        def("reverse", args -> {
+            List<FValue> copy = new ArrayList<>(arg(args, 0).asList());
+            Collections.reverse(copy);
+            return FValue.ofList(copy);
+        });
+        def("size", args -> {
+            FValue v = arg(args, 0);
+            return v.isList() ? FValue.of(v.asList().size())
+                : v.isMap()  ? FValue.of(v.asMap().size())
+                : FValue.of(v.asString().length());
+        });
+        alias("count", "size");
+        def("is-null",     args -> FValue.of(arg(args, 0).isNull()));
+        def("is-number",   args -> FValue.of(arg(args, 0).isNumber()));
+        def("is-string",   args -> FValue.of(arg(args, 0).isString()));
+        def("is-list",     args -> FValue.of(arg(args, 0).isList()));
+        def("format-time", args -> {
+            long secs  = (long) num(args, 0);
+            long h     = secs / 3600, m = (secs % 3600) / 60, s = secs % 60;
+            return FValue.of(String.format("%02d:%02d:%02d", h, m, s));
+        });
     }
 
 
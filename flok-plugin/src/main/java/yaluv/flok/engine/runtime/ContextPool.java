@@ -2,20 +2,88 @@ package yaluv.flok.engine.runtime;
 
 import org.bukkit.entity.Player;
 
+import java.util.Arrays;
+
+/**
+ * Per-thread stack of reusable execution contexts, indexed by dispatch depth.
+ *
+ * An effect can fire a Bukkit event synchronously (teleport fires a
+ * PlayerTeleportEvent, addons call FlokAPI.fireEvent), so a handler may start
+ * while another on the same thread is still running. Each nested dispatch
+ * takes the next context on the stack and leaves the outer one untouched.
+ * Every {@link #acquire} must be paired with a {@link #release}, innermost
+ * first; anything else throws rather than hand a running context to the
+ * next dispatch. Past {@link #MAX_DEPTH} contexts are allocated and not kept.
+ */
 public final class ContextPool {
-    private static final ThreadLocal<ExecutionContext> POOL =
-            ThreadLocal.withInitial(() -> new ExecutionContext(null, 0));
+
+    static final int MAX_DEPTH = 16;
+
+    private static final class Stack {
+        final ExecutionContext[] contexts = new ExecutionContext[MAX_DEPTH];
+        ExecutionContext[]       live     = new ExecutionContext[MAX_DEPTH];   // handed out, by depth
+        int depth;
+    }
+
+    private static final ThreadLocal<Stack> POOL = ThreadLocal.withInitial(Stack::new);
 
     private ContextPool() {}
 
     public static ExecutionContext acquire(Player player, long maxOps) {
-        ExecutionContext ctx = POOL.get();
+        Stack s = POOL.get();
+        int d = s.depth++;
+        ExecutionContext ctx;
+        if (d < MAX_DEPTH) {
+            ctx = s.contexts[d];
+            if (ctx == null) ctx = s.contexts[d] = new ExecutionContext(null, 0);
+        } else {
+            ctx = new ExecutionContext(null, 0);
+        }
+        if (d == s.live.length) s.live = Arrays.copyOf(s.live, d * 2);
+        s.live[d] = ctx;
         ctx.reset(player, maxOps);
         return ctx;
     }
+
+    /**
+     * Give back the innermost context taken by {@link #acquire}. Throws if
+     * {@code ctx} is not that context: the outer one is still running.
+     */
     public static void release(ExecutionContext ctx) {
+        Stack s = POOL.get();
+        int d = s.depth - 1;
+        if (d < 0 || ctx == null || s.live[d] != ctx) {
+            throw new IllegalStateException("Context released out of order at dispatch depth " + s.depth);
+        }
+        s.live[d] = null;
+        s.depth = d;
     }
+
+    /** Current nesting depth of dispatches on this thread. */
+    public static int depth() {
+        return POOL.get().depth;
+    }
+
+    /**
+     * Hand a context over to a suspended continuation. The pool gives up the
+     * instance (and, for a callee, the run that owns it) and puts a fresh one
+     * in its place, so nothing is copied and the caller keeps exactly the
+     * object its frames already reference.
+     */
     public static ExecutionContext detach(ExecutionContext ctx) {
-        return ctx.snapshot();
+        ExecutionContext owner = ctx.root();
+        ExecutionContext[] contexts = POOL.get().contexts;
+        for (int i = 0; i < MAX_DEPTH; i++) {
+            if (contexts[i] == owner) contexts[i] = new ExecutionContext(null, 0);
+        }
+        forgetEvent(ctx);
+        if (owner != ctx) forgetEvent(owner);   // a tree-mode wait in a function resumes its caller too
+        return ctx;
+    }
+
+    // the event has been fully dispatched by the time we resume
+    private static void forgetEvent(ExecutionContext ctx) {
+        ctx.setCancellableEvent(null);
+        ctx.setEventParams(null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package yaluv.flok.engine.runtime;
+
+/**
+ * A suspended VM run: the innermost frame of the suspended chain (callers are
+ * linked behind it) and how long to wait before resuming. Runs suspend on
+ * {@code wait}, or at a safepoint once their time slice is used up
+ * (engine.time-slicing). Suspending and resuming are O(1) — the frames are
+ * the live state, nothing is copied.
+ */
+public final class Continuation {
+
+    private final VirtualMachine.Frame frame;
+    private final long                 delayTicks;
+    private final boolean              yielded;
+
+    Continuation(VirtualMachine.Frame frame, long delayTicks) {
+        this(frame, delayTicks, false);
+    }
+
+    private Continuation(VirtualMachine.Frame frame, long delayTicks, boolean yielded) {
+        this.frame      = frame;
+        this.delayTicks = delayTicks;
+        this.yielded    = yielded;
+    }
+
+    /** A run that used up its slice and goes back on the run queue. */
+    static Continuation yielded(VirtualMachine.Frame frame) {
+        return new Continuation(frame, 1, true);
+    }
+
+    public long    delayTicks() { return delayTicks; }
+    /** True if the run suspended for its time slice rather than a {@code wait}. */
+    public boolean isYield()    { return yielded; }
+    /** Context of the innermost frame; its root holds the run's state. */
+    public ExecutionContext ctx() { return frame.ctx; }
+
+    VirtualMachine.Frame frame() { return frame; }
+}
@@ -0,0 +1,33 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The params of one event, computed on demand. Dispatch asks only for the
+ * names a handler refers to, so a param no script reads is never built.
+ *
+ * Values are read from the live Bukkit event. Dispatch fetches every param a
+ * handler uses before it starts running, so a script that waits still sees
+ * the values from when the event fired.
+ */
+@FunctionalInterface
+public interface EventParams {
+
+    EventParams NONE = name -> null;
+
+    /** The value of param {@code name}, or null if the event has no such param. */
+    FValue get(String name);
+
+    /** A view that computes each param at most once, so every handler of one event sees the same values. */
+    default EventParams memoized() {
+        Map<String, FValue> seen = new HashMap<>();
+        return name -> seen.computeIfAbsent(name, this::get);
+    }
+
+    static EventParams of(Map<String, FValue> params) {
+        return params.isEmpty() ? NONE : params::get;
+    }
+}
@@ -2,20 +2,31 @@ package yaluv.flok.engine.runtime;
 
 import yaluv.flok.api.FValue;
 import yaluv.flok.api.FlokContext;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.bytecode.FrameLayout;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Cancellable;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public final class ExecutionContext implements FlokContext {
 
-    // Local variable frame — reset on reuse
-    private final Map<String, FValue> locals = new HashMap<>(16);
+    // Local variable frame — slots resolved at compile time, reset on reuse.
+    // Names outside the layout (tree mode, addon effects) go to the overflow map.
+    private static final FValue[] NO_SLOTS = new FValue[0];
+
+    private FrameLayout         layout = FrameLayout.EMPTY;
+    private FValue[]            slots  = NO_SLOTS;
+    private Map<String, FValue> overflow;
 
     private Player     player;
     private long       opsRemaining;
+    private boolean    yielded;     // has used up a time slice at least once
     private Cancellable cancellableEvent;
+    private EventParams eventParams;
     private boolean returnFlag;
     private boolean breakFlag;
     private boolean continueFlag;
@@ -26,6 +37,22 @@ public final class ExecutionContext implements FlokContext {
 
     private boolean playerVarsInjected;
 
+    // Contexts for script function calls, reused by call depth. Only the
+    // outermost context of a run owns the array; callees point back to it.
+    private ExecutionContext   root = this;
+    private ExecutionContext[] callees;
+
+    // Reusable VM frame for whatever chunk runs in this context.
+    VirtualMachine.Frame frame;
+
+    // VM state of the run; only used on the root context. See VirtualMachine.
+    Continuation suspended;
+    long         yieldAt = Long.MIN_VALUE;
+    int          jitDepth;
+
+    // Values kept by the tree interpreter while it runs a statement that can wait.
+    Map<ASTNode, FValue> evaluated;
+
     public ExecutionContext(Player player, long maxOps) {
         this.player       = player;
         this.opsRemaining = maxOps;
@@ -41,13 +68,61 @@ public final class ExecutionContext implements FlokContext {
         this.callDepth           = 0;
         this.playerVarsInjected  = false;
         this.cancellableEvent    = null;
-        this.locals.clear();
+        this.yielded             = false;
+        this.eventParams         = null;
+        this.layout              = FrameLayout.EMPTY;
+        this.evaluated           = null;
+        this.suspended           = null;
+        this.yieldAt             = Long.MIN_VALUE;
+        this.jitDepth            = 0;
+        if (overflow != null) overflow.clear();
+    }
+
+    /** Size the slot frame for a chunk's layout and clear it. Call before binding params. */
+    public void bindLayout(FrameLayout layout) {
+        this.layout = layout;
+        int n = layout.size();
+        if (slots.length < n) slots = new FValue[n];
+        Arrays.fill(slots, 0, n, FValue.NULL);
     }
 
 
     @Override public Player getPlayer()                    { return player; }
-    @Override public FValue getLocal(String name)          { return locals.getOrDefault(name, FValue.NULL); }
-    @Override public void   setLocal(String name, FValue v){ locals.put(name, v); }
+    @Override
+    public FValue getLocal(String name) {
+        int slot = layout.slotOf(name);
+        if (slot >= 0) return slots[slot];
+        FValue v = overflow != null ? overflow.get(name) : null;
+        if (v != null) return v;
+        return eventParams != null ? eventParam(name) : FValue.NULL;
+    }
+
+    /**
+     * An event param the handler itself never refers to, asked for by name
+     * (addon effects). Fetched once, then kept like any other local.
+     */
+    private FValue eventParam(String name) {
+        FValue v = eventParams.get(name);
+        if (v == null) return FValue.NULL;
+        setLocal(name, v);
+        return v;
+    }
+
+    @Override
+    public void setLocal(String name, FValue v) {
+        int slot = layout.slotOf(name);
+        if (slot >= 0) {
+            slots[slot] = v;
+        } else {
+            if (overflow == null) overflow = new HashMap<>(16);
+            overflow.put(name, v);
+        }
+    }
+
+    public FValue   getSlot(int slot)           { return slots[slot]; }
+    public void     setSlot(int slot, FValue v) { slots[slot] = v; }
+    public FValue[] slots()                     { return slots; }
+    public FrameLayout layout()                 { return layout; }
 
     public void   setPlayer(Player p)                  { this.player = p; }
     public boolean isReturnSet()                       { return returnFlag; }
@@ -71,7 +146,22 @@ public final class ExecutionContext implements FlokContext {
         return true;
     }
 
+    /** Charge a whole straight-line block at once — used by JIT-compiled code. */
+    public void tickOps(int n) {
+        opsRemaining -= n;
+        if (opsRemaining <= 0) throw new OpLimitExceededException();
+    }
+
     public long    opsRemaining()                { return opsRemaining; }
+
+    /** Record that the run yielded its time slice; true the first time only. */
+    boolean markYielded() {
+        if (yielded) return false;
+        yielded = true;
+        return true;
+    }
+
+    void addOps(long n) { opsRemaining += n; }
     public void     syncOpsFromChild(long childRemaining) {
         this.opsRemaining = Math.min(this.opsRemaining, childRemaining);
     }
@@ -84,25 +174,53 @@ public final class ExecutionContext implements FlokContext {
 
     public void popCall() { callDepth--; }
 
+    /**
+     * Context for a script function called from this one, after {@link #pushCall()}.
+     * Taken from the root's per-depth stack and cleared, so calls allocate
+     * nothing once the stack is warm. The callee continues this context's
+     * call depth, op budget, player and event.
+     */
+    public ExecutionContext callee() {
+        ExecutionContext[] stack = root.callees;
+        if (stack == null) stack = root.callees = new ExecutionContext[MAX_CALL_DEPTH + 1];
+        ExecutionContext c = stack[callDepth];
+        if (c == null) {
+            c = new ExecutionContext(null, 0);
+            c.root = root;
+            stack[callDepth] = c;
+        }
+        c.reset(player, opsRemaining);
+        c.callDepth        = callDepth;
+        c.cancellableEvent = cancellableEvent;
+        return c;
+    }
+
+    /** Outermost context of the run this one belongs to; itself unless it is a callee. */
+    ExecutionContext root() {
+        return root;
+    }
+
+    /** The context last handed out by {@link #callee()} at the current depth. */
+    ExecutionContext activeCallee() {
+        return root.callees[callDepth];
+    }
+
     public boolean isPlayerVarsInjected()       { return playerVarsInjected; }
     public void    markPlayerVarsInjected()      { playerVarsInjected = true; }
 
-    public Map<String, FValue> locals()          { return locals; }
-
-    public ExecutionContext snapshot() {
-        ExecutionContext snap = new ExecutionContext(player, opsRemaining);
-        snap.locals.putAll(this.locals);
-        snap.returnFlag         = this.returnFlag;
-        snap.breakFlag          = this.breakFlag;
-        snap.continueFlag       = this.continueFlag;
-        snap.returnValue        = this.returnValue;
-        snap.callDepth          = this.callDepth;
-        snap.playerVarsInjected = this.playerVarsInjected;
-        return snap;
+    /** All named locals, slots first. Allocates — for debugging only. */
+    public Map<String, FValue> locals() {
+        Map<String, FValue> all = new LinkedHashMap<>();
+        for (int i = 0; i < layout.size(); i++) all.put(layout.nameAt(i), slots[i]);
+        if (overflow != null) all.putAll(overflow);
+        return all;
     }
 
     public void setCancellableEvent(Cancellable event) { this.cancellableEvent = event; }
 
+    /** Params of the event being dispatched, for names not bound up front; null outside dispatch. */
+    public void setEventParams(EventParams params)     { this.eventParams = params; }
+
     @Override
     public void cancelEvent() {
         if (cancellableEvent != null) cancellableEvent.setCancelled(true);
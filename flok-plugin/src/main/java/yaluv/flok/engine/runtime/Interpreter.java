@@ -4,40 +4,110 @@ import yaluv.flok.api.FValue;
 import yaluv.flok.effects.EffectRegistry;
 import yaluv.flok.engine.CompiledScript;
 import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.nodes.NodeTree;
 import yaluv.flok.storage.PersistentStorage;
-import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public final class Interpreter {
 
     private final CompiledScript    script;
     private final PersistentStorage storage;
     private final EffectRegistry    effects;
+    private final NodeTree          nodes;
 
     public Interpreter(CompiledScript script, PersistentStorage storage, EffectRegistry effects) {
+        this(script, storage, effects, null);
+    }
+
+    /** With a non-null {@code nodes}, expressions run as self-specializing nodes (engine.mode: nodes). */
+    public Interpreter(CompiledScript script, PersistentStorage storage, EffectRegistry effects, NodeTree nodes) {
         this.script  = script;
         this.storage = storage;
         this.effects = effects;
+        this.nodes   = nodes;
+    }
+
+    /** Run a handler or function body. */
+    public void execute(ASTNode.Block body, ExecutionContext ctx) {
+        executeBlock(body, ctx);
     }
 
     public void executeBlock(ASTNode.Block block, ExecutionContext ctx) {
+        executeBlock(block, 0, ctx);
+    }
+
+    /**
+     * Each straight-line run of statements is charged as it starts; see
+     * {@link OpCosts}. A run resumed part-way after a wait was charged
+     * when it started, so only the runs after it are.
+     */
+    private void executeBlock(ASTNode.Block block, int from, ExecutionContext ctx) {
         List<ASTNode> stmts = block.statements();
-        for (int i = 0; i < stmts.size(); i++) {
+        int[] runs = script.getOpCosts().runs(block);
+        boolean[] marked = script.getWaitSites().in(block);
+        for (int i = from; i < stmts.size(); i++) {
             if (ctx.isReturnSet() || ctx.isBreakSet() || ctx.isContinueSet()) break;
+            if (runs[i] > 0) ctx.tickOps(runs[i]);
             try {
-                executeStmt(stmts.get(i), ctx);
+                if (marked != null && marked[i]) executeMarked(stmts.get(i), ctx);
+                else                             executeStmt(stmts.get(i), ctx, false);
             } catch (WaitSignal w) {
-                List<ASTNode> rest = stmts.subList(i + 1, stmts.size());
-                throw new WaitSignal(w.delayTicks(),
-                        new java.util.ArrayList<>(rest), w.ctx());
+                w.push(new Rest(block, i + 1, ctx));
+                throw w;
             }
-            ctx.tickOp();
         }
     }
 
-    private void executeStmt(ASTNode node, ExecutionContext ctx) {
+    /** A statement that can wait inside a call it makes; see {@link WaitSites}. */
+    private void executeMarked(ASTNode stmt, ExecutionContext ctx) {
+        if (stmt instanceof ASTNode.IfStmt || stmt instanceof ASTNode.WhileStmt
+                || stmt instanceof ASTNode.ForEachStmt || stmt instanceof ASTNode.RepeatStmt) {
+            executeStmt(stmt, ctx, true);
+        } else {
+            replay(stmt, new IdentityHashMap<>(), ctx);
+        }
+    }
+
+    /**
+     * Run a simple statement, keeping what it evaluates in {@code evaluated}.
+     * Run again after a wait, it reads those values back instead.
+     */
+    private void replay(ASTNode stmt, Map<ASTNode, FValue> evaluated, ExecutionContext ctx) {
+        ctx.evaluated = evaluated;
+        try {
+            executeStmt(stmt, ctx, false);
+        } catch (WaitSignal w) {
+            // With no frames yet the wait is this statement's own, and it is done.
+            if (!w.frames().isEmpty()) w.push(new Replay(stmt, evaluated, ctx));
+            throw w;
+        } finally {
+            ctx.evaluated = null;
+        }
+    }
+
+    /** The condition, count or list of an if or loop; {@code marked} if it can wait. */
+    private FValue header(ASTNode expr, boolean marked, ExecutionContext ctx) {
+        return marked ? value(expr, new IdentityHashMap<>(), ctx) : eval(expr, ctx);
+    }
+
+    private FValue value(ASTNode expr, Map<ASTNode, FValue> evaluated, ExecutionContext ctx) {
+        ctx.evaluated = evaluated;
+        try {
+            return eval(expr, ctx);
+        } catch (WaitSignal w) {
+            w.push(new Value(expr, evaluated, ctx));
+            throw w;
+        } finally {
+            ctx.evaluated = null;
+        }
+    }
+
+    private void executeStmt(ASTNode node, ExecutionContext ctx, boolean marked) {
         switch (node) {
 
             case ASTNode.VarAssign va ->
@@ -68,13 +138,31 @@ public final class Interpreter {
                 }
                 List<FValue> args = new ArrayList<>(es.args().size());
                 for (ASTNode a : es.args()) args.add(eval(a, ctx));
-                handler.execute(ctx.getPlayer(), args, ctx);
+                ScriptThread.execute(handler, ctx, args, es.line());
             }
 
-            case ASTNode.IfStmt is -> executeIf(is, ctx);
-            case ASTNode.WhileStmt ws -> executeWhile(ws, ctx);
-            case ASTNode.ForEachStmt fe -> executeForEach(fe, ctx);
-            case ASTNode.RepeatStmt rs -> executeRepeat(rs, ctx);
+            case ASTNode.IfStmt is -> executeIf(is, 0, null, marked, ctx);
+            case ASTNode.WhileStmt ws -> executeWhile(ws, null, marked, ctx);
+            case ASTNode.ForEachStmt fe -> {
+                FValue iterable;
+                try {
+                    iterable = header(fe.iterable(), marked, ctx);
+                } catch (WaitSignal w) {
+                    w.push(new Header(fe, 0, ctx));
+                    throw w;
+                }
+                executeForEach(fe, items(iterable).iterator(), ctx);
+            }
+            case ASTNode.RepeatStmt rs -> {
+                long count;
+                try {
+                    count = header(rs.count(), marked, ctx).asLong();
+                } catch (WaitSignal w) {
+                    w.push(new Header(rs, 0, ctx));
+                    throw w;
+                }
+                executeRepeat(rs, 0, count, ctx);
+            }
 
             case ASTNode.ReturnStmt rs ->
                     ctx.signalReturn(rs.value() != null ? eval(rs.value(), ctx) : FValue.NULL);
@@ -88,75 +176,135 @@ public final class Interpreter {
 
             case ASTNode.WaitStmt ws -> {
                 long ticks = Math.max(1L, eval(ws.ticks(), ctx).asLong());
-                throw new WaitSignal(ticks, java.util.Collections.emptyList(), ctx);
+                ScriptThread thread = ScriptThread.current();
+                if (thread == null) throw new WaitSignal(ticks, ctx);
+                thread.await(ticks);
             }
 
             default -> throw new ScriptException("Unhandled statement: " + node.getClass().getSimpleName(), node.line());
         }
     }
 
-    private void executeIf(ASTNode.IfStmt is, ExecutionContext ctx) {
-        if (eval(is.condition(), ctx).asBoolean()) {
-            executeBlock(is.thenBlock(), ctx);
-            return;
-        }
-        for (ASTNode.IfStmt.ElseBranch branch : is.elseBranches()) {
-            if (eval(branch.condition(), ctx).asBoolean()) {
-                executeBlock(branch.body(), ctx);
+    /**
+     * Test the conditions from {@code branch} on (0 is the if, then each
+     * else-if) and run the first branch that holds. {@code cond} is the
+     * value of that first condition when resuming after it waited.
+     */
+    private void executeIf(ASTNode.IfStmt is, int branch, FValue cond, boolean marked, ExecutionContext ctx) {
+        List<ASTNode.IfStmt.ElseBranch> branches = is.elseBranches();
+        for (int i = branch; i <= branches.size(); i++) {
+            if (cond == null) {
+                try {
+                    cond = header(i == 0 ? is.condition() : branches.get(i - 1).condition(), marked, ctx);
+                } catch (WaitSignal w) {
+                    w.push(new Header(is, i, ctx));
+                    throw w;
+                }
+            }
+            if (cond.asBoolean()) {
+                executeBlock(i == 0 ? is.thenBlock() : branches.get(i - 1).body(), ctx);
                 return;
             }
+            cond = null;
         }
         if (is.elseBlock() != null) executeBlock(is.elseBlock(), ctx);
     }
 
-    private void executeWhile(ASTNode.WhileStmt ws, ExecutionContext ctx) {
-        while (eval(ws.condition(), ctx).asBoolean()) {
-            ctx.tickOp();
-            executeBlock(ws.body(), ctx);
-            if (ctx.isReturnSet()) break;
-            if (ctx.isBreakSet())  { ctx.clearBreak(); break; }
-            if (ctx.isContinueSet()) ctx.clearContinue();
+    /** {@code cond} is the condition's value when resuming after it waited. */
+    private void executeWhile(ASTNode.WhileStmt ws, FValue cond, boolean marked, ExecutionContext ctx) {
+        int cost = script.getOpCosts().loop(ws);
+        while (true) {
+            if (cond == null) {
+                try {
+                    cond = header(ws.condition(), marked, ctx);
+                } catch (WaitSignal w) {
+                    w.push(new Header(ws, 0, ctx));
+                    throw w;
+                }
+            }
+            if (!cond.asBoolean()) break;
+            cond = null;
+            try {
+                executeBlock(ws.body(), ctx);
+            } catch (WaitSignal w) {
+                w.push(new Iteration(ws, null, 0, 0, ctx));
+                throw w;
+            }
+            if (!nextIteration(ctx)) break;
+            ctx.tickOps(cost);   // the condition runs again
         }
     }
 
-    private void executeForEach(ASTNode.ForEachStmt fe, ExecutionContext ctx) {
-        FValue iterable = eval(fe.iterable(), ctx);
-        List<FValue> items;
-        if (iterable.isList()) {
-            items = iterable.asList();
-        } else if (iterable.isMap()) {
-            items = new ArrayList<>();
+    private static List<FValue> items(FValue iterable) {
+        if (iterable.isList()) return iterable.asList();
+        List<FValue> items = new ArrayList<>();
+        if (iterable.isMap()) {
             iterable.asMap().forEach((k, v) -> items.add(FValue.of(k)));
         } else {
-            items = new ArrayList<>();
             for (char c : iterable.asString().toCharArray()) items.add(FValue.of(String.valueOf(c)));
         }
-        for (FValue item : items) {
-            ctx.tickOp();
-            ctx.setLocal(fe.varName(), item);
-            executeBlock(fe.body(), ctx);
-            if (ctx.isReturnSet()) break;
-            if (ctx.isBreakSet())  { ctx.clearBreak(); break; }
-            if (ctx.isContinueSet()) ctx.clearContinue();
+        return items;
+    }
+
+    private void executeForEach(ASTNode.ForEachStmt fe, Iterator<FValue> items, ExecutionContext ctx) {
+        int cost = script.getOpCosts().loop(fe);
+        while (items.hasNext()) {
+            ctx.tickOps(cost);
+            ctx.setLocal(fe.varName(), items.next());
+            try {
+                executeBlock(fe.body(), ctx);
+            } catch (WaitSignal w) {
+                w.push(new Iteration(fe, items, 0, 0, ctx));
+                throw w;
+            }
+            if (!nextIteration(ctx)) break;
         }
     }
 
-    private void executeRepeat(ASTNode.RepeatStmt rs, ExecutionContext ctx) {
-        long count = eval(rs.count(), ctx).asLong();
-        for (long i = 0; i < count; i++) {
-            ctx.tickOp();
-            executeBlock(rs.body(), ctx);
-            if (ctx.isReturnSet()) break;
-            if (ctx.isBreakSet())  { ctx.clearBreak(); break; }
-            if (ctx.isContinueSet()) ctx.clearContinue();
+    private void executeRepeat(ASTNode.RepeatStmt rs, long from, long count, ExecutionContext ctx) {
+        int cost = script.getOpCosts().loop(rs);
+        for (long i = from; i < count; i++) {
+            ctx.tickOps(cost);
+            try {
+                executeBlock(rs.body(), ctx);
+            } catch (WaitSignal w) {
+                w.push(new Iteration(rs, null, i + 1, count, ctx));
+                throw w;
+            }
+            if (!nextIteration(ctx)) break;
         }
     }
 
+    /** After a loop body: false if the loop ends here on a return or break. */
+    private static boolean nextIteration(ExecutionContext ctx) {
+        if (ctx.isReturnSet()) return false;
+        if (ctx.isBreakSet())  { ctx.clearBreak(); return false; }
+        if (ctx.isContinueSet()) ctx.clearContinue();
+        return true;
+    }
+
     public FValue eval(ASTNode node, ExecutionContext ctx) {
-        ctx.tickOp();
+        Map<ASTNode, FValue> evaluated = ctx.evaluated;
+        if (evaluated != null) {
+            // A statement that can wait keeps each value, so nodes are skipped.
+            FValue v = evaluated.get(node);
+            if (v == null) {
+                v = evalUnspecialized(node, ctx);
+                evaluated.put(node, v);
+            }
+            return v;
+        }
+        if (nodes != null) return nodes.root(node).execute(this, ctx);
+        return evalUnspecialized(node, ctx);
+    }
+
+    /** Plain tree evaluation of one node; its children still go through {@link #eval}. */
+    public FValue evalUnspecialized(ASTNode node, ExecutionContext ctx) {
         return switch (node) {
 
-            case ASTNode.Literal lit -> lit.value();
+            case ASTNode.Literal lit -> lit.value().isList()
+                    ? FValue.ofList(new ArrayList<>(lit.value().asList()))
+                    : lit.value();
 
             case ASTNode.VarRef vr   -> resolveVar(vr.name(), ctx);
 
@@ -238,8 +386,12 @@ public final class Interpreter {
 
         FValue left  = eval(bo.left(), ctx);
         FValue right = eval(bo.right(), ctx);
+        return binary(bo.op(), left, right, bo.line());
+    }
 
-        return switch (bo.op()) {
+    /** Generic semantics of every non-short-circuit binary operator. */
+    public static FValue binary(String op, FValue left, FValue right, int line) {
+        return switch (op) {
             case "+"   -> left.add(right);
             case "-"   -> left.subtract(right);
             case "*"   -> left.multiply(right);
@@ -256,70 +408,47 @@ public final class Interpreter {
                 if (left.isList()) yield FValue.of(left.asList().contains(right));
                 yield FValue.of(left.asString().contains(right.asString()));
             }
-            default    -> throw new ScriptException("Unknown operator: " + bo.op(), bo.line());
+            default    -> throw new ScriptException("Unknown operator: " + op, line);
         };
     }
     
     private FValue callFunction(ASTNode.FunctionCall fc, ExecutionContext ctx) {
         ASTNode.FunctionDef def = script.getFunction(fc.name());
-        if (def != null) return callScriptFunction(def, fc.args(), ctx);
+        if (def != null) return callScriptFunction(fc, def, ctx);
 
         return BuiltinFunctions.call(fc.name(), fc.args(), ctx, this);
     }
 
-    private FValue callScriptFunction(ASTNode.FunctionDef def, List<ASTNode> argExprs, ExecutionContext ctx) {
+    private FValue callScriptFunction(ASTNode.FunctionCall fc, ASTNode.FunctionDef def, ExecutionContext ctx) {
+        List<ASTNode> argExprs = fc.args();
         ctx.pushCall();
-        ExecutionContext child = new ExecutionContext(ctx.getPlayer(), ctx.opsRemaining());
-        for (int i = 0; i < def.params().size(); i++) {
-            child.setLocal(def.params().get(i),
-                    i < argExprs.size() ? eval(argExprs.get(i), ctx) : FValue.NULL);
+        ExecutionContext child = ctx.callee();
+        child.bindLayout(script.getLayout(def));
+        // Params are the first slots; missing args stay NULL from bindLayout.
+        // Every argument is evaluated, as the bytecode CALL does; extra ones are dropped.
+        int params = def.params().size();
+        for (int i = 0; i < argExprs.size(); i++) {
+            FValue v = eval(argExprs.get(i), ctx);
+            if (i < params) child.setSlot(i, v);
+        }
+        try {
+            execute(def.body(), child);
+        } catch (WaitSignal w) {
+            w.push(new Call(fc, ctx, child, ctx.evaluated));
+            throw w;
         }
-        Interpreter childInterp = new Interpreter(script, storage, effects);
-        childInterp.executeBlock(def.body(), child);
-        ctx.popCall();
-        ctx.syncOpsFromChild(child.opsRemaining());
-        return child.isReturnSet() ? child.getReturnValue() : FValue.NULL;
+        return returned(ctx, child);
     }
 
-
-    /**
-     * Resolve a variable name. On first access to any player variable,
-     * inject all player variables lazily into the context.
-     */
-    private FValue resolveVar(String name, ExecutionContext ctx) {
-        FValue v = ctx.getLocal(name);
-        if (!v.isNull()) return v;
-
-        if (name.startsWith("player") && !ctx.isPlayerVarsInjected()) {
-            injectPlayerVars(ctx);
-            v = ctx.getLocal(name);
-        }
-        return v;
+    private static FValue returned(ExecutionContext caller, ExecutionContext callee) {
+        caller.popCall();
+        caller.syncOpsFromChild(callee.opsRemaining());
+        return callee.isReturnSet() ? callee.getReturnValue() : FValue.NULL;
     }
 
-    /**
-     * Inject all player-related variables into ctx.
-     * Called at most once per execution block (guarded by playerVarsInjected flag).
-     */
-    private void injectPlayerVars(ExecutionContext ctx) {
-        ctx.markPlayerVarsInjected();
-        Player p = ctx.getPlayer();
-        if (p == null) return;
-
-        ctx.setLocal("player-name",         FValue.of(p.getName()));
-        ctx.setLocal("player-display-name", FValue.of(p.getDisplayName()));
-        ctx.setLocal("player-uuid",         FValue.of(p.getUniqueId().toString()));
-        ctx.setLocal("player-world",        FValue.of(p.getWorld().getName()));
-        ctx.setLocal("player-health",       FValue.of(p.getHealth()));
-        ctx.setLocal("player-max-health",   FValue.of(p.getMaxHealth()));
-        ctx.setLocal("player-food",         FValue.of((double) p.getFoodLevel()));
-        ctx.setLocal("player-level",        FValue.of((double) p.getLevel()));
-        ctx.setLocal("player-gamemode",     FValue.of(p.getGameMode().name().toLowerCase()));
-        ctx.setLocal("player-x",            FValue.of(p.getLocation().getX()));
-        ctx.setLocal("player-y",            FValue.of(p.getLocation().getY()));
-        ctx.setLocal("player-z",            FValue.of(p.getLocation().getZ()));
-        ctx.setLocal("player-yaw",          FValue.of((double) p.getLocation().getYaw()));
-        ctx.setLocal("player-pitch",        FValue.of((double) p.getLocation().getPitch()));
+
+    private FValue resolveVar(String name, ExecutionContext ctx) {
+        return PlayerVariables.resolve(name, ctx);
     }
 
     /**
@@ -351,20 +480,92 @@ public final class Interpreter {
     }
 
     /**
-     * Resume execution from a wait continuation.
-     * Called by ScriptEngine after the scheduled delay has elapsed.
-     * Executes the remaining statements, which may themselves contain further waits.
+     * Resume a run after a wait. Called by ScriptEngine once the delay has
+     * elapsed; the run may wait again, and the new signal carries on from there.
      */
-    public void resumeBlock(List<ASTNode> remaining, ExecutionContext ctx) {
-        for (int i = 0; i < remaining.size(); i++) {
-            if (ctx.isReturnSet() || ctx.isBreakSet() || ctx.isContinueSet()) break;
+    public void resume(WaitSignal w) {
+        w.ctx().tickOp();   // resuming is a safepoint
+        List<Frame> frames = w.frames();
+        FValue value = null;
+        for (int i = 0; i < frames.size(); i++) {
             try {
-                executeStmt(remaining.get(i), ctx);
-            } catch (WaitSignal w) {
-                List<ASTNode> rest = remaining.subList(i + 1, remaining.size());
-                throw new WaitSignal(w.delayTicks(), new java.util.ArrayList<>(rest), w.ctx());
+                value = frames.get(i).resume(this, value);
+            } catch (WaitSignal next) {
+                for (int j = i + 1; j < frames.size(); j++) next.push(frames.get(j));
+                throw next;
             }
-            ctx.tickOp();
+        }
+    }
+
+    /**
+     * Where a run stopped by a wait carries on, one frame per block, loop,
+     * statement and call the signal passed through. Each takes the value the
+     * frame inside it produced, if any, and may produce one for the next.
+     */
+    sealed interface Frame {
+        FValue resume(Interpreter in, FValue value);
+    }
+
+    /** The statements of {@code block} from {@code next} on. */
+    record Rest(ASTNode.Block block, int next, ExecutionContext ctx) implements Frame {
+        public FValue resume(Interpreter in, FValue value) {
+            in.executeBlock(block, next, ctx);
+            return null;
+        }
+    }
+
+    /** A simple statement run again with the values it had evaluated. */
+    record Replay(ASTNode stmt, Map<ASTNode, FValue> evaluated, ExecutionContext ctx) implements Frame {
+        public FValue resume(Interpreter in, FValue value) {
+            in.replay(stmt, evaluated, ctx);
+            return null;
+        }
+    }
+
+    /** The condition, count or list of an if or loop, evaluated again with the values it had. */
+    record Value(ASTNode expr, Map<ASTNode, FValue> evaluated, ExecutionContext ctx) implements Frame {
+        public FValue resume(Interpreter in, FValue value) {
+            return in.value(expr, evaluated, ctx);
+        }
+    }
+
+    /** An if or loop given the value of the header it waited in; {@code branch} as in executeIf. */
+    record Header(ASTNode stmt, int branch, ExecutionContext ctx) implements Frame {
+        public FValue resume(Interpreter in, FValue value) {
+            switch (stmt) {
+                case ASTNode.IfStmt is      -> in.executeIf(is, branch, value, true, ctx);
+                case ASTNode.WhileStmt ws   -> in.executeWhile(ws, value, true, ctx);
+                case ASTNode.ForEachStmt fe -> in.executeForEach(fe, items(value).iterator(), ctx);
+                case ASTNode.RepeatStmt rs  -> in.executeRepeat(rs, 0, value.asLong(), ctx);
+                default -> throw new IllegalStateException(stmt.getClass().getSimpleName());
+            }
+            return null;
+        }
+    }
+
+    /** A loop whose body waited: the items left, or the next count of a repeat. */
+    record Iteration(ASTNode loop, Iterator<FValue> items, long next, long count, ExecutionContext ctx) implements Frame {
+        public FValue resume(Interpreter in, FValue value) {
+            if (!nextIteration(ctx)) return null;
+            switch (loop) {
+                case ASTNode.WhileStmt ws -> {
+                    ctx.tickOps(in.script.getOpCosts().loop(ws));
+                    in.executeWhile(ws, null, in.script.getWaitSites().canWait(ws.condition()), ctx);
+                }
+                case ASTNode.ForEachStmt fe -> in.executeForEach(fe, items, ctx);
+                case ASTNode.RepeatStmt rs  -> in.executeRepeat(rs, next, count, ctx);
+                default -> throw new IllegalStateException(loop.getClass().getSimpleName());
+            }
+            return null;
+        }
+    }
+
+    /** A script function call whose body waited; its result goes to the caller's statement. */
+    record Call(ASTNode.FunctionCall call, ExecutionContext caller, ExecutionContext callee,
+                Map<ASTNode, FValue> evaluated) implements Frame {
+        public FValue resume(Interpreter in, FValue value) {
+            evaluated.put(call, returned(caller, callee));
+            return null;
         }
     }
 
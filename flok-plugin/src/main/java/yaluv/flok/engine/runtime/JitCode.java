@@ -0,0 +1,12 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+
+/**
+ * A chunk translated to JVM bytecode by {@link JitCompiler}.
+ * Implementations are hidden classes generated at runtime.
+ */
+public interface JitCode {
+
+    FValue run(ExecutionContext ctx, VirtualMachine vm);
+}
@@ -0,0 +1,365 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.CompiledScript;
+import yaluv.flok.engine.bytecode.Chunk;
+import yaluv.flok.engine.bytecode.Opcode;
+import yaluv.flok.engine.jit.ClassFileBuilder;
+import yaluv.flok.util.FLogger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Second execution tier: translates a {@link Chunk} into a hidden JVM class so
+ * HotSpot can inline and optimise the handler like ordinary Java code.
+ *
+ * Registers become JVM locals and loop counters become {@code long} locals.
+ * Ops are charged at the same points as in the VM: the caller charges
+ * entry, and each branch charges the block it lands on via
+ * {@link ExecutionContext#tickOps(int)}, so the total count is the same.
+ * Chunks that can reach a {@code wait} — directly or through a script
+ * function — are never compiled and stay in the VM, which knows how to
+ * suspend them.
+ *
+ * Generated method bodies are capped below HotSpot's huge-method limit; a chunk
+ * that would not be JIT-compiled by HotSpot anyway is left in the VM.
+ */
+public final class JitCompiler {
+
+    private JitCompiler() {}
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** HotSpot refuses to compile methods larger than this (HugeMethodLimit). */
+    private static final int MAX_METHOD_BYTES = 8000;
+    private static final int MAX_STACK        = 12;
+
+    private static final String SELF    = "yaluv/flok/engine/runtime/FlokJit";
+    private static final String VM      = "yaluv/flok/engine/runtime/VirtualMachine";
+    private static final String CTX     = "yaluv/flok/engine/runtime/ExecutionContext";
+    private static final String VALUE   = "yaluv/flok/api/FValue";
+    private static final String JIT     = "yaluv/flok/engine/runtime/JitCode";
+    private static final String LINK    = "yaluv/flok/engine/runtime/Linkage";
+    private static final String CHUNK   = "yaluv/flok/engine/bytecode/Chunk";
+    private static final String BUILTIN = "yaluv/flok/engine/runtime/BuiltinFunctions$Builtin";
+    private static final String EFFECT  = "yaluv/flok/api/FlokEffect";
+
+    private static final String D_VALUE  = "L" + VALUE + ";";
+    private static final String D_VALUES = "[" + D_VALUE;
+    private static final String D_STRING = "Ljava/lang/String;";
+    private static final String D_CTX    = "L" + CTX + ";";
+    private static final String D_BINARY = "(" + D_VALUE + D_VALUE + ")" + D_VALUE;
+    private static final String D_ARRAY  = "(" + D_VALUES + "II)" + D_VALUE;
+    private static final String D_LINK   = "L" + LINK + ";";
+
+    // JVM local slots: 0 = this, 1 = ctx, 2 = vm, 3 = ctx.slots(), then registers,
+    // then counters (2 slots each)
+    private static final int L_CTX   = 1;
+    private static final int L_VM    = 2;
+    private static final int L_SLOTS = 3;
+    private static final int L_REGS  = 4;
+
+    // JVM opcodes
+    private static final int ACONST_NULL = 0x01, LCONST_0 = 0x09, LCONST_1 = 0x0A;
+    private static final int AALOAD = 0x32, AASTORE = 0x53, DUP = 0x59, POP = 0x57;
+    private static final int LADD = 0x61, LSUB = 0x65, LCMP = 0x94;
+    private static final int IFEQ = 0x99, IFNE = 0x9A, IFGT = 0x9D, GOTO = 0xA7;
+    private static final int ARETURN = 0xB0, RETURN = 0xB1;
+
+    /**
+     * Compile a chunk and install the result on it. Returns null (and stops
+     * further promotion attempts) when the chunk is not eligible or fails.
+     */
+    public static JitCode promote(Chunk chunk, CompiledScript script) {
+        chunk.setJitThreshold(-1);
+        if (mayWait(chunk, script, new HashSet<>())) {
+            FLogger.debug("JIT skipped " + script.getName() + " / " + chunk.name() + ": may wait");
+            return null;
+        }
+        try {
+            byte[] bytes = translate(chunk);
+            if (bytes == null) {
+                FLogger.debug("JIT skipped " + script.getName() + " / " + chunk.name() + ": too large");
+                return null;
+            }
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+            JitCode code = (JitCode) hidden.findConstructor(hidden.lookupClass(),
+                    MethodType.methodType(void.class, FValue[].class, Linkage.class))
+                    .invoke(chunk.constants(), chunk.linkage());
+            chunk.setJitCode(code);
+            FLogger.debug("JIT compiled " + script.getName() + " / " + chunk.name()
+                    + " after " + chunk.invocations() + " call(s), " + bytes.length + " bytes");
+            return code;
+        } catch (Throwable t) {
+            FLogger.warn("[" + script.getName() + "] JIT failed for " + chunk.name()
+                    + ", staying interpreted: " + t);
+            return null;
+        }
+    }
+
+    /** True if the chunk contains a wait or calls a script function that might. Needs linkage. */
+    public static boolean mayWait(Chunk chunk, CompiledScript script) {
+        return mayWait(chunk, script, new HashSet<>());
+    }
+
+    static boolean mayWait(Chunk chunk, CompiledScript script, Set<Chunk> visited) {
+        if (!visited.add(chunk)) return false;
+        int[] code = chunk.code();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            if (code[pc] == Opcode.WAIT) return true;
+            if (code[pc] == Opcode.CALL) {
+                Chunk fn = chunk.linkage().functions[code[pc + 2]];
+                if (fn != null && mayWait(fn, script, visited)) return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * True if the chunk loops or calls a script function. Under time slicing
+     * only the VM can yield, so such chunks stay interpreted. Needs linkage.
+     */
+    public static boolean mayRunLong(Chunk chunk) {
+        int[] code = chunk.code();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            if (code[pc] == Opcode.JMP && code[pc + 1] <= pc) return true;
+            if (code[pc] == Opcode.CALL && chunk.linkage().functions[code[pc + 2]] != null) return true;
+        }
+        return false;
+    }
+
+
+    /** Build the class file for {@code chunk}, or null if it exceeds the size cap. */
+    static byte[] translate(Chunk chunk) {
+        int[] code = chunk.code();
+
+        // Basic-block leaders: entry, jump targets and every instruction after a branch.
+        boolean[] leader = new boolean[code.length + 1];
+        leader[0] = true;
+        for (int pc = 0; pc < code.length; ) {
+            int op = code[pc], next = pc + 1 + Opcode.operands(op);
+            switch (op) {
+                case Opcode.JMP                          -> leader[code[pc + 1]] = true;
+                case Opcode.JMP_FALSE, Opcode.JMP_TRUE,
+                     Opcode.REPEAT_NEXT                  -> leader[code[pc + 2]] = true;
+                case Opcode.ITER_NEXT                    -> leader[code[pc + 4]] = true;
+                default -> {}
+            }
+            if (Opcode.isBranch(op)) leader[next] = true;
+            pc = next;
+        }
+
+        ClassFileBuilder cf = new ClassFileBuilder(SELF, "java/lang/Object", JIT);
+        cf.field(ClassFileBuilder.ACC_PRIVATE | ClassFileBuilder.ACC_FINAL, "k", D_VALUES);
+        cf.field(ClassFileBuilder.ACC_PRIVATE | ClassFileBuilder.ACC_FINAL, "l", D_LINK);
+
+        ClassFileBuilder.Code init = cf.method(ClassFileBuilder.ACC_PUBLIC, "<init>", "(" + D_VALUES + D_LINK + ")V");
+        init.aload(0).invokespecial("java/lang/Object", "<init>", "()V");
+        init.aload(0).aload(1).putfield(SELF, "k", D_VALUES);
+        init.aload(0).aload(2).putfield(SELF, "l", D_LINK);
+        init.op(RETURN);
+        init.end(2, 3);
+
+        ClassFileBuilder.Code m = cf.method(ClassFileBuilder.ACC_PUBLIC, "run",
+                "(" + D_CTX + "L" + VM + ";)" + D_VALUE);
+        int regs     = chunk.registerCount();
+        int counters = L_REGS + regs;
+        m.aload(L_CTX).invokevirtual(CTX, "slots", "()" + D_VALUES).astore(L_SLOTS);
+        for (int i = 0; i < regs; i++) m.op(ACONST_NULL).astore(L_REGS + i);
+        for (int i = 0; i < chunk.counterCount(); i++) m.op(LCONST_0).lstore(counters + 2 * i);
+
+        int[] labels = new int[code.length];
+        for (int pc = 0; pc < code.length; pc++) labels[pc] = leader[pc] ? m.newLabel() : -1;
+
+        for (int pc = 0; pc < code.length; ) {
+            int op = code[pc], next = pc + 1 + Opcode.operands(op);
+            if (leader[pc]) m.mark(labels[pc]);
+            emit(m, chunk, pc, labels, counters);
+            if (m.size() > MAX_METHOD_BYTES) return null;
+            pc = next;
+        }
+        // Every chunk ends in RETURN_NULL, but keep the verifier happy about falling off the end.
+        m.getstatic(VALUE, "NULL", D_VALUE).op(ARETURN);
+        m.end(MAX_STACK, counters + 2 * chunk.counterCount());
+
+        return cf.toBytes();
+    }
+
+    private static void emit(ClassFileBuilder.Code m, Chunk chunk, int pc, int[] labels, int counters) {
+        int[]    code  = chunk.code();
+        String[] names = chunk.names();
+        int a = pc + 1 < code.length ? code[pc + 1] : 0;
+        int b = pc + 2 < code.length ? code[pc + 2] : 0;
+        int c = pc + 3 < code.length ? code[pc + 3] : 0;
+        int next = pc + 1 + Opcode.operands(code[pc]);
+        int line = chunk.lineAt(pc);
+
+        switch (code[pc]) {
+            case Opcode.LOADK -> m.aload(0).getfield(SELF, "k", D_VALUES).iconst(b).op(AALOAD).astore(reg(a));
+            case Opcode.LOADK_LIST -> m.aload(0).getfield(SELF, "k", D_VALUES).iconst(b).op(AALOAD)
+                    .invokestatic(VM, "copyList", "(" + D_VALUE + ")" + D_VALUE).astore(reg(a));
+
+            case Opcode.LOAD_SLOT   -> m.aload(L_SLOTS).iconst(b).op(AALOAD).astore(reg(a));
+            case Opcode.STORE_SLOT  -> m.aload(L_SLOTS).iconst(a).aload(reg(b)).op(AASTORE);
+            case Opcode.LOAD_PLAYER -> m.aload(L_CTX).iconst(b)
+                    .invokestatic(VM, "loadPlayer", "(" + D_CTX + "I)" + D_VALUE).astore(reg(a));
+
+            case Opcode.LOAD_PERSIST -> m.aload(L_VM).aload(reg(b))
+                    .invokevirtual(VM, "loadPersist", "(" + D_VALUE + ")" + D_VALUE).astore(reg(a));
+            case Opcode.STORE_PERSIST -> m.aload(L_VM).aload(reg(a)).aload(reg(b))
+                    .invokevirtual(VM, "storePersist", "(" + D_VALUE + D_VALUE + ")V");
+            case Opcode.PERSIST_INCR -> m.aload(L_VM).aload(reg(a)).aload(reg(b))
+                    .invokevirtual(VM, "persistIncr", "(" + D_VALUE + D_VALUE + ")V");
+
+            case Opcode.MOVE -> m.aload(reg(b)).astore(reg(a));
+
+            case Opcode.ADD -> binary(m, a, b, c, VALUE, "add", false);
+            case Opcode.SUB -> binary(m, a, b, c, VALUE, "subtract", false);
+            case Opcode.MUL -> binary(m, a, b, c, VALUE, "multiply", false);
+            case Opcode.DIV -> binary(m, a, b, c, VALUE, "divide", false);
+            case Opcode.MOD -> binary(m, a, b, c, VALUE, "modulo", false);
+            case Opcode.POW -> binary(m, a, b, c, VALUE, "power", false);
+            case Opcode.EQ  -> binary(m, a, b, c, VM, "eq", true);
+            case Opcode.NE  -> binary(m, a, b, c, VM, "ne", true);
+            case Opcode.LT  -> binary(m, a, b, c, VM, "lt", true);
+            case Opcode.LE  -> binary(m, a, b, c, VM, "le", true);
+            case Opcode.GT  -> binary(m, a, b, c, VM, "gt", true);
+            case Opcode.GE  -> binary(m, a, b, c, VM, "ge", true);
+            case Opcode.CONTAINS -> binary(m, a, b, c, VM, "contains", true);
+            case Opcode.INDEX    -> binary(m, a, b, c, VM, "index", true);
+
+            case Opcode.NEG -> m.aload(reg(b)).invokevirtual(VALUE, "negate", "()" + D_VALUE).astore(reg(a));
+            case Opcode.NOT -> m.aload(reg(b)).invokestatic(VM, "not", "(" + D_VALUE + ")" + D_VALUE).astore(reg(a));
+
+            case Opcode.JMP       -> jumpTo(m, chunk, a, labels);
+            case Opcode.JMP_FALSE -> {
+                int stay = m.newLabel();
+                m.aload(reg(a)).invokevirtual(VALUE, "asBoolean", "()Z").jump(IFNE, stay);
+                jumpTo(m, chunk, b, labels);
+                m.mark(stay);
+                charge(m, chunk, next);
+            }
+            case Opcode.JMP_TRUE -> {
+                int stay = m.newLabel();
+                m.aload(reg(a)).invokevirtual(VALUE, "asBoolean", "()Z").jump(IFEQ, stay);
+                jumpTo(m, chunk, b, labels);
+                m.mark(stay);
+                charge(m, chunk, next);
+            }
+
+            // Functions are fixed at link time, so the call kind is decided here.
+            case Opcode.CALL -> {
+                Chunk fn = chunk.linkage().functions[b];
+                if (fn != null) {
+                    // Arguments go straight into the callee's slots; no array per call.
+                    m.aload(L_CTX);
+                    linked(m, "functions", "[L" + CHUNK + ";", b);
+                    m.invokestatic(VM, "jitEnter", "(" + D_CTX + "L" + CHUNK + ";)" + D_VALUES);
+                    int n = Math.min(fn.params().length, code[pc + 4]);
+                    for (int i = 0; i < n; i++) m.op(DUP).iconst(i).aload(reg(c + i)).op(AASTORE);
+                    m.op(POP);
+                    m.aload(L_VM).aload(L_CTX);
+                    linked(m, "functions", "[L" + CHUNK + ";", b);
+                    m.iconst(line).invokevirtual(VM, "jitCall", "(" + D_CTX + "L" + CHUNK + ";I)" + D_VALUE);
+                } else {
+                    linked(m, "builtins", "[L" + BUILTIN + ";", b);
+                    m.ldcString(names[b]);
+                    array(m, c, code[pc + 4]);
+                    m.iconst(line).invokestatic(VM, "jitBuiltin",
+                            "(L" + BUILTIN + ";" + D_STRING + D_VALUES + "I)" + D_VALUE);
+                }
+                m.astore(reg(a));
+            }
+
+            // Effects are read from the linkage on every call so relinking takes effect.
+            case Opcode.EFFECT -> {
+                linked(m, "effects", "[L" + EFFECT + ";", a);
+                m.aload(L_CTX).ldcString(names[a]);
+                array(m, b, c);
+                m.iconst(line).invokestatic(VM, "jitEffect",
+                        "(L" + EFFECT + ";" + D_CTX + D_STRING + D_VALUES + "I)V");
+            }
+
+            case Opcode.PROPERTY -> m.aload(reg(b)).ldcString(names[c])
+                    .invokestatic(VM, "property", "(" + D_VALUE + D_STRING + ")" + D_VALUE).astore(reg(a));
+
+            case Opcode.NEW_LIST -> arrayCall(m, a, b, c, c, "newList");
+            case Opcode.NEW_MAP  -> arrayCall(m, a, b, 2 * c, c, "newMap");
+            case Opcode.CONCAT   -> arrayCall(m, a, b, c, c, "concat");
+
+            case Opcode.ITER_INIT -> {
+                m.aload(reg(b)).invokestatic(VM, "iterable", "(" + D_VALUE + ")" + D_VALUE).astore(reg(a));
+                m.op(LCONST_0).lstore(counter(counters, c));
+            }
+
+            case Opcode.ITER_NEXT -> {
+                int ctr  = counter(counters, c);
+                int stay = m.newLabel();
+                m.aload(reg(b)).lload(ctr).invokestatic(VM, "hasNext", "(" + D_VALUE + "J)Z").jump(IFNE, stay);
+                jumpTo(m, chunk, code[pc + 4], labels);
+                m.mark(stay);
+                m.aload(reg(b)).lload(ctr).invokestatic(VM, "item", "(" + D_VALUE + "J)" + D_VALUE).astore(reg(a));
+                m.lload(ctr).op(LCONST_1).op(LADD).lstore(ctr);
+                charge(m, chunk, next);
+            }
+
+            case Opcode.REPEAT_INIT -> m.aload(reg(b)).invokevirtual(VALUE, "asLong", "()J").lstore(counter(counters, a));
+
+            case Opcode.REPEAT_NEXT -> {
+                int ctr  = counter(counters, a);
+                int stay = m.newLabel();
+                m.lload(ctr).op(LCONST_0).op(LCMP).jump(IFGT, stay);
+                jumpTo(m, chunk, b, labels);
+                m.mark(stay);
+                m.lload(ctr).op(LCONST_1).op(LSUB).lstore(ctr);
+                charge(m, chunk, next);
+            }
+
+            case Opcode.RETURN      -> m.aload(reg(a)).op(ARETURN);
+            case Opcode.RETURN_NULL -> m.getstatic(VALUE, "NULL", D_VALUE).op(ARETURN);
+
+            default -> throw new IllegalStateException("cannot compile " + Opcode.name(code[pc]));
+        }
+    }
+
+    /** Charge the block starting at {@code pc}, as the VM does on landing there. */
+    private static void charge(ClassFileBuilder.Code m, Chunk chunk, int pc) {
+        m.aload(L_CTX).iconst(chunk.blockCosts()[pc]).invokevirtual(CTX, "tickOps", "(I)V");
+    }
+
+    private static void jumpTo(ClassFileBuilder.Code m, Chunk chunk, int target, int[] labels) {
+        charge(m, chunk, target);
+        m.jump(GOTO, labels[target]);
+    }
+
+    private static int reg(int r)                    { return L_REGS + r; }
+    private static int counter(int base, int c)      { return base + 2 * c; }
+
+    private static void binary(ClassFileBuilder.Code m, int dst, int a, int b,
+                               String owner, String method, boolean isStatic) {
+        m.aload(reg(a)).aload(reg(b));
+        if (isStatic) m.invokestatic(owner, method, D_BINARY);
+        else          m.invokevirtual(owner, method, "(" + D_VALUE + ")" + D_VALUE);
+        m.astore(reg(dst));
+    }
+
+    /** Push {@code this.l.<table>[index]}. */
+    private static void linked(ClassFileBuilder.Code m, String table, String desc, int index) {
+        m.aload(0).getfield(SELF, "l", D_LINK).getfield(LINK, table, desc).iconst(index).op(AALOAD);
+    }
+
+    /** Push a fresh FValue[] holding registers {@code start .. start+count-1}. */
+    private static void array(ClassFileBuilder.Code m, int start, int count) {
+        m.iconst(count).anewarray(VALUE);
+        for (int i = 0; i < count; i++) m.op(DUP).iconst(i).aload(reg(start + i)).op(AASTORE);
+    }
+
+    private static void arrayCall(ClassFileBuilder.Code m, int dst, int start, int size, int count, String method) {
+        array(m, start, size);
+        m.iconst(0).iconst(count).invokestatic(VM, method, D_ARRAY).astore(reg(dst));
+    }
+}
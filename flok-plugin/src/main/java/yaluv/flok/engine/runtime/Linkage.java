@@ -0,0 +1,103 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FlokEffect;
+import yaluv.flok.effects.EffectRegistry;
+import yaluv.flok.engine.CompiledScript;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.bytecode.Chunk;
+import yaluv.flok.engine.bytecode.Opcode;
+
+import java.util.List;
+
+/**
+ * Link-time bindings for one chunk: every CALL and EFFECT name is resolved
+ * once, after compilation, to the script function's chunk, the builtin, or
+ * the effect handler. The tables are indexed by name pool index, so the VM
+ * and JIT code never hash a name or lowercase a string on the hot path.
+ *
+ * Effects can change at runtime when addons register or unregister them, so
+ * {@link #relinkEffects} refreshes that table in place — JIT code holding a
+ * reference to it sees the new handlers without recompiling.
+ */
+public final class Linkage {
+
+    final Chunk[]                    functions;
+    final BuiltinFunctions.Builtin[] builtins;
+    final FlokEffect[]               effects;
+
+    private final Chunk chunk;
+
+    private Linkage(Chunk chunk) {
+        int n = chunk.names().length;
+        this.chunk     = chunk;
+        this.functions = new Chunk[n];
+        this.builtins  = new BuiltinFunctions.Builtin[n];
+        this.effects   = new FlokEffect[n];
+    }
+
+    /**
+     * Link every chunk of a script. Names that resolve to nothing are added
+     * to {@code unresolved} as "line N: message" entries. Unknown effects are
+     * only reported when {@code reportEffects} is set, since addons may still
+     * register them after scripts load.
+     */
+    public static void linkAll(CompiledScript script, EffectRegistry registry,
+                               boolean reportEffects, List<String> unresolved) {
+        for (Chunk chunk : script.getChunks()) {
+            Linkage link = new Linkage(chunk);
+            link.resolve(script, registry, reportEffects, unresolved);
+            chunk.setLinkage(link);
+        }
+    }
+
+    /** Re-resolve effect handlers of every chunk in a script against the registry. */
+    public static void relinkEffects(CompiledScript script, EffectRegistry registry) {
+        for (Chunk chunk : script.getChunks()) {
+            Linkage link = chunk.linkage();
+            if (link != null) link.resolveEffects(registry, false, null);
+        }
+    }
+
+    /** Report effects that are still unresolved, e.g. once all addons have loaded. */
+    public static void reportUnresolvedEffects(CompiledScript script, List<String> unresolved) {
+        for (Chunk chunk : script.getChunks()) {
+            Linkage link = chunk.linkage();
+            if (link != null) link.resolveEffects(null, true, unresolved);
+        }
+    }
+
+    private void resolve(CompiledScript script, EffectRegistry registry,
+                         boolean reportEffects, List<String> unresolved) {
+        int[]    code  = chunk.code();
+        String[] names = chunk.names();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            if (code[pc] != Opcode.CALL) continue;
+            int    idx  = code[pc + 2];
+            String name = names[idx];
+            ASTNode.FunctionDef def = script.getFunction(name);
+            if (def != null) {
+                functions[idx] = script.getChunk(def.body());
+            } else {
+                builtins[idx] = BuiltinFunctions.lookup(name);
+                if (builtins[idx] == null) {
+                    unresolved.add("line " + chunk.lineAt(pc) + ": unknown function " + name + "()");
+                }
+            }
+        }
+        resolveEffects(registry, reportEffects, unresolved);
+    }
+
+    /** With a null registry only reports; otherwise re-resolves every effect slot. */
+    private void resolveEffects(EffectRegistry registry, boolean report, List<String> unresolved) {
+        int[]    code  = chunk.code();
+        String[] names = chunk.names();
+        for (int pc = 0; pc < code.length; pc += 1 + Opcode.operands(code[pc])) {
+            if (code[pc] != Opcode.EFFECT) continue;
+            int idx = code[pc + 1];
+            if (registry != null) effects[idx] = registry.get(names[idx]);
+            if (report && effects[idx] == null) {
+                unresolved.add("line " + chunk.lineAt(pc) + ": unknown effect " + names[idx]);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static op costs for the tree interpreter, the counterpart of what
+ * {@link yaluv.flok.engine.bytecode.Chunk} computes for bytecode.
+ *
+ * Statements and expressions cost one op per node. A block is charged in
+ * straight-line runs: the first statement of a run is charged for every
+ * statement up to the next one that branches, loops, waits or leaves the
+ * block. That statement counts only its own condition, count or value; the
+ * blocks under it charge for themselves when they run. Each further loop
+ * iteration costs one op, plus its condition for a while loop.
+ */
+public final class OpCosts {
+
+    private final Map<ASTNode.Block, int[]> runs  = new IdentityHashMap<>();
+    private final Map<ASTNode, Integer>     loops = new IdentityHashMap<>();
+
+    private OpCosts() {}
+
+    /** Costs of every block and loop in every handler and function body, keyed by node identity. */
+    public static OpCosts compute(ASTNode.Program program) {
+        OpCosts costs = new OpCosts();
+        for (ASTNode node : program.children()) {
+            ASTNode.Block body = switch (node) {
+                case ASTNode.EventBlock   eb -> eb.body();
+                case ASTNode.CommandBlock cb -> cb.body();
+                case ASTNode.FunctionDef  fd -> fd.body();
+                default -> null;
+            };
+            if (body != null) costs.block(body);
+        }
+        return costs;
+    }
+
+    /** Charge at each statement of {@code block}; see {@link #runs(List)}. */
+    public int[] runs(ASTNode.Block block) {
+        int[] r = runs.get(block);
+        return r != null ? r : runs(block.statements());
+    }
+
+    /** Ops charged per iteration of a loop. */
+    public int loop(ASTNode loop) {
+        return loops.getOrDefault(loop, 1);
+    }
+
+    /** The charge at each statement that starts a run, 0 at the others. */
+    public static int[] runs(List<ASTNode> statements) {
+        int[] r = new int[statements.size()];
+        int start = 0;
+        for (int i = 0; i < statements.size(); i++) {
+            ASTNode stmt = statements.get(i);
+            r[start] += cost(stmt);
+            if (endsRun(stmt)) start = i + 1;
+        }
+        return r;
+    }
+
+    private void block(ASTNode.Block block) {
+        runs.put(block, runs(block.statements()));
+        for (ASTNode stmt : block.statements()) {
+            switch (stmt) {
+                case ASTNode.Block b -> block(b);
+                case ASTNode.IfStmt is -> {
+                    block(is.thenBlock());
+                    for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) block(br.body());
+                    if (is.elseBlock() != null) block(is.elseBlock());
+                }
+                case ASTNode.WhileStmt ws -> {
+                    loops.put(ws, 1 + cost(ws.condition()));
+                    block(ws.body());
+                }
+                case ASTNode.RepeatStmt  rs -> block(rs.body());
+                case ASTNode.ForEachStmt fe -> block(fe.body());
+                default -> {}
+            }
+        }
+    }
+
+    private static boolean endsRun(ASTNode stmt) {
+        return stmt instanceof ASTNode.Block || stmt instanceof ASTNode.IfStmt
+            || stmt instanceof ASTNode.WhileStmt || stmt instanceof ASTNode.RepeatStmt || stmt instanceof ASTNode.ForEachStmt
+            || stmt instanceof ASTNode.WaitStmt || stmt instanceof ASTNode.ReturnStmt
+            || stmt instanceof ASTNode.BreakStmt || stmt instanceof ASTNode.ContinueStmt;
+    }
+
+    private static int cost(ASTNode node) {
+        if (node == null) return 0;
+        return switch (node) {
+            case ASTNode.Block b -> 0;
+
+            case ASTNode.WhileStmt ws   -> 1 + cost(ws.condition());
+            case ASTNode.RepeatStmt rs  -> 1 + cost(rs.count());
+            case ASTNode.ForEachStmt fe -> 1 + cost(fe.iterable());
+            case ASTNode.IfStmt is -> {
+                int n = 1 + cost(is.condition());
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) n += cost(br.condition());
+                yield n;
+            }
+
+            case ASTNode.VarAssign va        -> 1 + cost(va.value());
+            case ASTNode.AugAssign aa        -> 1 + cost(aa.value());
+            case ASTNode.PersistAssign pa    -> 1 + cost(pa.keyExpr()) + cost(pa.value());
+            case ASTNode.PersistAugAssign pa -> 1 + cost(pa.keyExpr()) + cost(pa.value());
+            case ASTNode.EffectStmt es       -> 1 + sum(es.args());
+            case ASTNode.ExprStmt es         -> 1 + cost(es.expr());
+            case ASTNode.ReturnStmt rs       -> 1 + cost(rs.value());
+            case ASTNode.WaitStmt ws         -> 1 + cost(ws.ticks());
+
+            case ASTNode.PersistRef pr     -> 1 + cost(pr.keyExpr());
+            case ASTNode.BinaryOp bo       -> 1 + cost(bo.left()) + cost(bo.right());
+            case ASTNode.UnaryOp uo        -> 1 + cost(uo.operand());
+            case ASTNode.FunctionCall fc   -> 1 + sum(fc.args());
+            case ASTNode.IndexAccess ia    -> 1 + cost(ia.target()) + cost(ia.index());
+            case ASTNode.PropertyAccess pa -> 1 + cost(pa.target());
+            case ASTNode.ListLiteral ll    -> 1 + sum(ll.elements());
+            case ASTNode.Conditional c     -> 1 + cost(c.condition()) + cost(c.ifTrue()) + cost(c.ifFalse());
+            case ASTNode.MapLiteral ml     -> {
+                int n = 1;
+                for (var e : ml.entries()) n += cost(e.getKey()) + cost(e.getValue());
+                yield n;
+            }
+            case ASTNode.StringTemplate st -> {
+                int n = 1;
+                for (Object part : st.parts()) if (part instanceof ASTNode p) n += cost(p);
+                yield n;
+            }
+
+            default -> 1;   // literals, variables, break, continue
+        };
+    }
+
+    private static int sum(List<ASTNode> nodes) {
+        int n = 0;
+        for (ASTNode node : nodes) n += cost(node);
+        return n;
+    }
+}
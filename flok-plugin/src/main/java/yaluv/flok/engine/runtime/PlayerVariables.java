@@ -0,0 +1,64 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+import org.bukkit.entity.Player;
+
+/**
+ * Lazy injection of the {@code %player-*%} variables, shared by the
+ * Interpreter and the VirtualMachine.
+ */
+public final class PlayerVariables {
+
+    private PlayerVariables() {}
+
+    /**
+     * Resolve a variable name. On first access to any player variable,
+     * inject all player variables lazily into the context.
+     */
+    public static FValue resolve(String name, ExecutionContext ctx) {
+        FValue v = ctx.getLocal(name);
+        if (!v.isNull()) return v;
+
+        if (name.startsWith("player") && !ctx.isPlayerVarsInjected()) {
+            inject(ctx);
+            v = ctx.getLocal(name);
+        }
+        return v;
+    }
+
+    /**
+     * Inject all player-related variables into ctx.
+     * Called at most once per execution block (guarded by playerVarsInjected flag).
+     * On a script thread the Bukkit reads are done by the server thread.
+     */
+    static void inject(ExecutionContext ctx) {
+        ScriptThread thread = ScriptThread.current();
+        if (thread != null) {
+            thread.flush();
+            thread.onMain(() -> read(ctx));
+        } else {
+            read(ctx);
+        }
+    }
+
+    private static void read(ExecutionContext ctx) {
+        ctx.markPlayerVarsInjected();
+        Player p = ctx.getPlayer();
+        if (p == null) return;
+
+        ctx.setLocal("player-name",         FValue.of(p.getName()));
+        ctx.setLocal("player-display-name", FValue.of(p.getDisplayName()));
+        ctx.setLocal("player-uuid",         FValue.of(p.getUniqueId().toString()));
+        ctx.setLocal("player-world",        FValue.of(p.getWorld().getName()));
+        ctx.setLocal("player-health",       FValue.of(p.getHealth()));
+        ctx.setLocal("player-max-health",   FValue.of(p.getMaxHealth()));
+        ctx.setLocal("player-food",         FValue.of((double) p.getFoodLevel()));
+        ctx.setLocal("player-level",        FValue.of((double) p.getLevel()));
+        ctx.setLocal("player-gamemode",     FValue.of(p.getGameMode().name().toLowerCase()));
+        ctx.setLocal("player-x",            FValue.of(p.getLocation().getX()));
+        ctx.setLocal("player-y",            FValue.of(p.getLocation().getY()));
+        ctx.setLocal("player-z",            FValue.of(p.getLocation().getZ()));
+        ctx.setLocal("player-yaw",          FValue.of((double) p.getLocation().getYaw()));
+        ctx.setLocal("player-pitch",        FValue.of((double) p.getLocation().getPitch()));
+    }
+}
@@ -0,0 +1,168 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.api.FlokEffect;
+import yaluv.flok.util.FLogger;
+import org.bukkit.Bukkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * One handler invocation running on a virtual thread (engine.virtual-threads).
+ *
+ * Script code and the server thread never run at the same time. The server
+ * thread hands control over in {@link #drive} and blocks until the script
+ * parks in {@code wait}, finishes, or needs the server thread. Anything that
+ * touches Bukkit is done by the server thread on the script's behalf:
+ * effects are queued and run as one batch at the next hop, player
+ * variables are read in a hop of their own. A parked script is just a parked
+ * virtual thread; {@link ScriptThreads} wakes it from a single tick task.
+ */
+public final class ScriptThread {
+
+    private static final ThreadLocal<ScriptThread> CURRENT = new ThreadLocal<>();
+
+    /** Unwinds a parked script when the engine shuts down. */
+    static final class Cancelled extends RuntimeException {
+        Cancelled() { super("script thread cancelled", null, false, false); }
+    }
+
+    private record QueuedEffect(FlokEffect handler, ExecutionContext ctx, List<FValue> args, int line) {}
+
+    private static final int MAX_BATCH = 64;
+
+    private final ScriptThreads     owner;
+    private final Semaphore         toScript = new Semaphore(0);
+    private final Semaphore         toMain   = new Semaphore(0);
+    private final List<QueuedEffect> batch   = new ArrayList<>();
+
+    // Handed across the two threads; the semaphores order every access.
+    private Runnable         request;
+    private RuntimeException failure;
+    private boolean          parked;
+    private boolean          cancelled;
+    long                     wakeTick;
+
+    ScriptThread(ScriptThreads owner) {
+        this.owner = owner;
+    }
+
+    /** The script thread running on this thread, or null on the server thread. */
+    static ScriptThread current() {
+        return Thread.currentThread().isVirtual() ? CURRENT.get() : null;
+    }
+
+    void start(String scriptName, Consumer<ScriptThread> body) {
+        Thread.ofVirtual().name("flok-" + scriptName).start(() -> {
+            CURRENT.set(this);
+            toScript.acquireUninterruptibly();
+            try {
+                if (!cancelled) body.accept(this);
+                if (!cancelled) flush();
+            } catch (Cancelled ignored) {
+                // engine shut down while this script was parked
+            } catch (ScriptException e) {
+                FLogger.scriptError(scriptName, e.getLine(), e.getMessage());
+            } catch (RuntimeException e) {
+                FLogger.error("[" + scriptName + "] Unexpected error: " + e.getMessage());
+                if (FLogger.isDebugMode()) e.printStackTrace();
+            } finally {
+                parked = false;
+                toMain.release();
+            }
+        });
+        drive();
+    }
+
+    public boolean isParked() { return parked; }
+
+
+    // ── Server-thread side ───────────────────────────────────────────────────
+
+    /** Run the script until it parks or finishes, doing any server-thread work it asks for. */
+    void drive() {
+        if (!Bukkit.isPrimaryThread()) throw new IllegalStateException("Script threads must be driven from the server thread");
+        parked = false;
+        while (true) {
+            toScript.release();
+            toMain.acquireUninterruptibly();
+            Runnable work = request;
+            if (work == null) return;
+            request = null;
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+        toScript.release();
+    }
+
+
+    // ── Script-thread side ───────────────────────────────────────────────────
+
+    /** Run {@code work} on the server thread and wait for it; its exception is rethrown here. */
+    void onMain(Runnable work) {
+        request = work;
+        handBack();
+        RuntimeException f = failure;
+        if (f != null) {
+            failure = null;
+            throw f;
+        }
+    }
+
+    /** Queue an effect for the next hop to the server thread. */
+    void effect(FlokEffect handler, ExecutionContext ctx, List<FValue> args, int line) {
+        batch.add(new QueuedEffect(handler, ctx, args, line));
+        if (batch.size() >= MAX_BATCH) flush();
+    }
+
+    /** Run every queued effect on the server thread, in order. */
+    public void flush() {
+        if (batch.isEmpty()) return;
+        List<QueuedEffect> run = new ArrayList<>(batch);
+        batch.clear();
+        onMain(() -> {
+            for (QueuedEffect e : run) {
+                try {
+                    e.handler().execute(e.ctx().getPlayer(), e.args(), e.ctx());
+                } catch (ScriptException ex) {
+                    if (ex.getLine() > 0) throw ex;
+                    throw new ScriptException(ex.getMessage(), e.line());
+                }
+            }
+        });
+    }
+
+    /** Park for {@code ticks} server ticks. Queued effects run first. */
+    void await(long ticks) {
+        flush();
+        wakeTick = owner.currentTick() + ticks;
+        parked   = true;
+        handBack();
+    }
+
+    private void handBack() {
+        toMain.release();
+        toScript.acquireUninterruptibly();
+        if (cancelled) throw new Cancelled();
+    }
+
+
+    // ── Entry points used by the executors ───────────────────────────────────
+
+    /** Run an effect now, or queue it when called from a script thread. */
+    static void execute(FlokEffect handler, ExecutionContext ctx, List<FValue> args, int line) {
+        ScriptThread t = current();
+        if (t != null) t.effect(handler, ctx, args, line);
+        else           handler.execute(ctx.getPlayer(), args, ctx);
+    }
+}
@@ -0,0 +1,58 @@
+package yaluv.flok.engine.runtime;
+
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Scheduler for {@link ScriptThread}s. Parked scripts wait in one queue ordered
+ * by wake-up tick and are resumed from a single per-tick task, so thousands of
+ * per-player timers cost one scheduler task instead of one each.
+ *
+ * Only one script thread runs at a time (the server thread blocks while it
+ * does), so the JVM's shared virtual thread scheduler is left as it is.
+ */
+public final class ScriptThreads {
+
+    private final PriorityQueue<ScriptThread> parked =
+            new PriorityQueue<>((a, b) -> Long.compare(a.wakeTick, b.wakeTick));
+    private final int maxParked;
+    private long      tick;
+
+    public ScriptThreads(int maxParked) {
+        this.maxParked = Math.max(1, maxParked);
+    }
+
+    /** False once {@code max-parked} scripts are waiting; callers then fall back to continuations. */
+    public boolean hasCapacity() { return parked.size() < maxParked; }
+
+    /** Number of scripts currently parked in a {@code wait}. */
+    public int parkedCount() { return parked.size(); }
+
+    long currentTick() { return tick; }
+
+    /**
+     * Start {@code body} on a new script thread and run it until it parks or
+     * finishes. Server thread only.
+     */
+    public ScriptThread start(String scriptName, Consumer<ScriptThread> body) {
+        ScriptThread t = new ScriptThread(this);
+        t.start(scriptName, body);
+        if (t.isParked()) parked.add(t);
+        return t;
+    }
+
+    /** Advance one tick and resume every script whose wait has elapsed. Server thread only. */
+    public void tick() {
+        tick++;
+        while (!parked.isEmpty() && parked.peek().wakeTick <= tick) {
+            ScriptThread t = parked.poll();
+            t.drive();
+            if (t.isParked()) parked.add(t);
+        }
+    }
+
+    /** Unwind every parked script; their remaining code never runs. */
+    public void shutdown() {
+        while (!parked.isEmpty()) parked.poll().cancel();
+    }
+}
@@ -0,0 +1,41 @@
+package yaluv.flok.engine.runtime;
+
+import java.util.ArrayDeque;
+
+/**
+ * Run queue for time-sliced scripts (engine.time-slicing). A run that used up
+ * its slice is queued here instead of being halted, and one per-tick task
+ * resumes queued runs in order until the tick's budget is spent. A run that
+ * yields again goes to the back, so long scripts take turns and the tick
+ * cost stays bounded however many of them there are.
+ */
+public final class SliceQueue {
+
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private final long                 budgetNanos;
+
+    public SliceQueue(long budgetNanos) {
+        this.budgetNanos = Math.max(0, budgetNanos);
+    }
+
+    public void add(Runnable run) { queue.add(run); }
+
+    /** Number of runs waiting for their next slice. */
+    public int size() { return queue.size(); }
+
+    /**
+     * Resume queued runs until the budget is spent. At least one runs every
+     * tick, and runs re-queued during this tick wait for the next one.
+     */
+    public void tick() {
+        int  n        = queue.size();
+        long deadline = System.nanoTime() + budgetNanos;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && System.nanoTime() >= deadline) break;
+            queue.poll().run();
+        }
+    }
+
+    /** Drop every queued run; their remaining code never runs. */
+    public void shutdown() { queue.clear(); }
+}
@@ -0,0 +1,531 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.api.FlokEffect;
+import yaluv.flok.engine.CompiledScript;
+import yaluv.flok.engine.bytecode.Chunk;
+import yaluv.flok.engine.bytecode.Opcode;
+import yaluv.flok.storage.PersistentStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes {@link Chunk} bytecode in a single dispatch loop.
+ *
+ * Each chunk invocation gets a {@link Frame} holding its program counter,
+ * register file and loop counters. Script function calls do not recurse on
+ * the Java stack: CALL links a new frame to its caller and the loop carries on
+ * in the callee; RETURN hands the result back and continues in the caller.
+ * The frame chain is therefore the whole continuation, and a {@code wait}
+ * suspends by saving the pc and returning — no exception, no copying. The
+ * suspended chain is picked up with {@link #suspended} and continued later
+ * with {@link #resume}, mid-loop and mid-call exactly where it stopped.
+ *
+ * The engine keeps one VirtualMachine per script. Everything that belongs to
+ * a single run (the continuation, the slice mark, JIT nesting) lives on the
+ * run's root {@link ExecutionContext}, so nested dispatches can share it.
+ *
+ * The op budget is charged per basic block, on chunk entry and after each
+ * branch, with the static costs computed by {@link Chunk}; resuming a wait
+ * costs one op.
+ * Calls and effects dispatch through the chunk's {@link Linkage}, resolved
+ * once at load time.
+ *
+ * Chunks that get hot are promoted to JVM bytecode by {@link JitCompiler};
+ * {@link #execute} and function calls then run the {@link JitCode} instead.
+ * Only chunks that can never reach a {@code wait} are promoted, so compiled
+ * code never has to suspend.
+ *
+ * With a time slice set ({@link #slice}) a run also suspends at a loop
+ * back-edge or call entry once it has used its share of ops, and is resumed
+ * from the engine's run queue on a later tick.
+ */
+public final class VirtualMachine {
+
+    private final CompiledScript    script;
+    private final PersistentStorage storage;
+
+    private long sliceOps;
+    private long yieldOps;
+
+    public VirtualMachine(CompiledScript script, PersistentStorage storage) {
+        this.script  = script;
+        this.storage = storage;
+    }
+
+    /**
+     * Suspended (or running) state of one chunk invocation. Each context keeps
+     * one frame and re-targets it at the next chunk it runs, so with pooled
+     * callee contexts a call allocates nothing.
+     */
+    static final class Frame {
+        final ExecutionContext ctx;
+        Chunk    chunk;
+        FValue[] regs     = NO_REGS;
+        long[]   counters = NO_COUNTERS;
+        int      pc;
+        Frame    caller;
+        int      resultReg;
+
+        private Frame(ExecutionContext ctx) {
+            this.ctx = ctx;
+        }
+
+        static Frame of(Chunk chunk, ExecutionContext ctx) {
+            Frame f = ctx.frame;
+            if (f == null) f = ctx.frame = new Frame(ctx);
+            f.chunk  = chunk;
+            f.pc     = 0;
+            f.caller = null;
+            if (f.regs.length < chunk.registerCount())    f.regs     = new FValue[chunk.registerCount()];
+            if (f.counters.length < chunk.counterCount()) f.counters = new long[chunk.counterCount()];
+            return f;
+        }
+    }
+
+    private static final FValue[] NO_REGS     = new FValue[0];
+    private static final long[]   NO_COUNTERS = new long[0];
+
+    /**
+     * Run a chunk to completion or to its first {@code wait}. In the latter
+     * case the result is null and {@link #suspended} holds the continuation.
+     */
+    public FValue execute(Chunk chunk, ExecutionContext ctx) {
+        ctx.tickOps(chunk.entryCost());
+        startSlice(ctx);
+        JitCode jit = tier(chunk);
+        return jit != null ? jit.run(ctx, this) : run(Frame.of(chunk, ctx));
+    }
+
+    /** Count an invocation and promote the chunk once it crosses the JIT threshold. */
+    private JitCode tier(Chunk chunk) {
+        JitCode jit = chunk.jitCode();
+        if (jit == null && chunk.countInvocation()) jit = JitCompiler.promote(chunk, script);
+        return jit;
+    }
+
+    /** Continue a suspended frame chain; it may suspend again. Resuming is a safepoint. */
+    public FValue resume(Continuation k) {
+        k.frame().ctx.tickOp();
+        startSlice(k.frame().ctx);
+        return run(k.frame());
+    }
+
+    /** The continuation left by the last {@code wait} of {@code ctx}'s run, or null if it finished. Clears it. */
+    public Continuation suspended(ExecutionContext ctx) {
+        ExecutionContext run = ctx.root();
+        Continuation k = run.suspended;
+        run.suspended = null;
+        return k;
+    }
+
+    /**
+     * Let this run use at most {@code ops} ops before it yields at a safepoint
+     * (engine.time-slicing); 0 runs to completion. The first yield adds
+     * {@code extraOps} to the run's budget.
+     */
+    public VirtualMachine slice(long ops, long extraOps) {
+        this.sliceOps = ops;
+        this.yieldOps = extraOps;
+        return this;
+    }
+
+    private void startSlice(ExecutionContext ctx) {
+        ExecutionContext run = ctx.root();
+        if (sliceOps > 0 && run.jitDepth == 0) run.yieldAt = ctx.opsRemaining() - sliceOps;
+    }
+
+    /**
+     * Safepoint check. Contexts of nested calls start from their caller's
+     * remaining ops and hand them back on return, so the count is global to
+     * the run. Runs nested under JIT code cannot suspend and never yield.
+     */
+    private boolean sliceUsed(ExecutionContext ctx) {
+        ExecutionContext run = ctx.root();
+        return ctx.opsRemaining() <= run.yieldAt && run.jitDepth == 0;
+    }
+
+    /**
+     * Out of slice: a script thread parks until the next tick and carries on;
+     * otherwise leave a continuation for the run queue and return true.
+     */
+    private boolean yieldSlice(Frame f, int pc) {
+        firstYield(f);
+        ScriptThread thread = ScriptThread.current();
+        if (thread != null) {
+            thread.await(1);
+            startSlice(f.ctx);
+            return false;
+        }
+        f.pc = pc;
+        f.ctx.root().suspended = Continuation.yielded(f);
+        return true;
+    }
+
+    /**
+     * A run is held to safety.max-ops until it first yields, and gets the
+     * rest of max-lifetime-ops from then on. Every context on the frame
+     * chain is raised alike, since a caller takes the lower count back when
+     * a call returns.
+     */
+    private void firstYield(Frame f) {
+        Frame outer = f;
+        while (outer.caller != null) outer = outer.caller;
+        if (!outer.ctx.markYielded()) return;
+        for (Frame g = f; g != null; g = g.caller) g.ctx.addOps(yieldOps);
+    }
+
+    /** Runs frames until the outermost one returns or any of them waits. */
+    private FValue run(Frame f) {
+        frames:
+        while (true) {
+            final Chunk            chunk    = f.chunk;
+            final int[]            code     = chunk.code();
+            final FValue[]         k        = chunk.constants();
+            final String[]         names    = chunk.names();
+            final FValue[]         r        = f.regs;
+            final long[]           counters = f.counters;
+            final ExecutionContext ctx      = f.ctx;
+            final FValue[]         slots    = ctx.slots();
+            final Linkage          link     = chunk.linkage();
+            final int[]            blocks   = chunk.blockCosts();
+            int pc = f.pc;
+
+            try {
+                while (true) {
+                    switch (code[pc]) {
+
+                        case Opcode.LOADK -> { r[code[pc + 1]] = k[code[pc + 2]]; pc += 3; }
+                        case Opcode.LOADK_LIST -> { r[code[pc + 1]] = copyList(k[code[pc + 2]]); pc += 3; }
+
+                        case Opcode.LOAD_SLOT   -> { r[code[pc + 1]] = slots[code[pc + 2]];         pc += 3; }
+                        case Opcode.STORE_SLOT  -> { slots[code[pc + 1]] = r[code[pc + 2]];         pc += 3; }
+                        case Opcode.LOAD_PLAYER -> { r[code[pc + 1]] = loadPlayer(ctx, code[pc + 2]); pc += 3; }
+
+                        case Opcode.LOAD_PERSIST -> {
+                            r[code[pc + 1]] = storage.get(r[code[pc + 2]].asString());
+                            pc += 3;
+                        }
+
+                        case Opcode.STORE_PERSIST -> {
+                            storage.set(r[code[pc + 1]].asString(), r[code[pc + 2]]);
+                            pc += 3;
+                        }
+
+                        case Opcode.PERSIST_INCR -> {
+                            storage.increment(r[code[pc + 1]].asString(), r[code[pc + 2]].asNumber());
+                            pc += 3;
+                        }
+
+                        case Opcode.MOVE -> { r[code[pc + 1]] = r[code[pc + 2]]; pc += 3; }
+
+                        case Opcode.ADD -> { r[code[pc + 1]] = r[code[pc + 2]].add(r[code[pc + 3]]);      pc += 4; }
+                        case Opcode.SUB -> { r[code[pc + 1]] = r[code[pc + 2]].subtract(r[code[pc + 3]]); pc += 4; }
+                        case Opcode.MUL -> { r[code[pc + 1]] = r[code[pc + 2]].multiply(r[code[pc + 3]]); pc += 4; }
+                        case Opcode.DIV -> { r[code[pc + 1]] = r[code[pc + 2]].divide(r[code[pc + 3]]);   pc += 4; }
+                        case Opcode.MOD -> { r[code[pc + 1]] = r[code[pc + 2]].modulo(r[code[pc + 3]]);   pc += 4; }
+                        case Opcode.POW -> { r[code[pc + 1]] = r[code[pc + 2]].power(r[code[pc + 3]]);    pc += 4; }
+
+                        case Opcode.EQ -> { r[code[pc + 1]] = FValue.of(r[code[pc + 2]].equalsValue(r[code[pc + 3]]));    pc += 4; }
+                        case Opcode.NE -> { r[code[pc + 1]] = FValue.of(!r[code[pc + 2]].equalsValue(r[code[pc + 3]]));   pc += 4; }
+                        case Opcode.LT -> { r[code[pc + 1]] = FValue.of(r[code[pc + 2]].compareTo(r[code[pc + 3]]) < 0);  pc += 4; }
+                        case Opcode.LE -> { r[code[pc + 1]] = FValue.of(r[code[pc + 2]].compareTo(r[code[pc + 3]]) <= 0); pc += 4; }
+                        case Opcode.GT -> { r[code[pc + 1]] = FValue.of(r[code[pc + 2]].compareTo(r[code[pc + 3]]) > 0);  pc += 4; }
+                        case Opcode.GE -> { r[code[pc + 1]] = FValue.of(r[code[pc + 2]].compareTo(r[code[pc + 3]]) >= 0); pc += 4; }
+
+                        case Opcode.CONTAINS -> { r[code[pc + 1]] = contains(r[code[pc + 2]], r[code[pc + 3]]); pc += 4; }
+
+                        case Opcode.NEG -> { r[code[pc + 1]] = r[code[pc + 2]].negate();                  pc += 3; }
+                        case Opcode.NOT -> { r[code[pc + 1]] = FValue.of(!r[code[pc + 2]].asBoolean());   pc += 3; }
+
+                        case Opcode.JMP -> {
+                            int target = code[pc + 1];
+                            ctx.tickOps(blocks[target]);
+                            if (target <= pc && sliceUsed(ctx) && yieldSlice(f, target)) return null;   // loop back-edge: safepoint
+                            pc = target;
+                        }
+                        case Opcode.JMP_FALSE -> {
+                            pc = r[code[pc + 1]].asBoolean() ? pc + 3 : code[pc + 2];
+                            ctx.tickOps(blocks[pc]);
+                        }
+                        case Opcode.JMP_TRUE -> {
+                            pc = r[code[pc + 1]].asBoolean() ? code[pc + 2] : pc + 3;
+                            ctx.tickOps(blocks[pc]);
+                        }
+
+                        case Opcode.CALL -> {
+                            int dst   = code[pc + 1];
+                            int fn    = code[pc + 2];
+                            int start = code[pc + 3];
+                            int argc  = code[pc + 4];
+                            pc += 5;
+                            Chunk callee = link.functions[fn];
+                            if (callee == null) {
+                                r[dst] = builtin(link.builtins[fn], names[fn], args(r, start, argc));
+                            } else {
+                                ExecutionContext child = enter(ctx, callee, r, start, argc);
+                                JitCode jit = tier(callee);
+                                if (jit != null) {
+                                    r[dst] = jit.run(child, this);
+                                    leave(ctx, child);
+                                } else {
+                                    f.pc = pc;
+                                    Frame next = Frame.of(callee, child);
+                                    next.caller    = f;
+                                    next.resultReg = dst;
+                                    f = next;
+                                    if (sliceUsed(child) && yieldSlice(f, 0)) return null;   // entry is a safepoint too
+                                    continue frames;
+                                }
+                            }
+                        }
+
+                        case Opcode.EFFECT -> {
+                            FlokEffect handler = link.effects[code[pc + 1]];
+                            if (handler == null) throw new ScriptException("Unknown effect: " + names[code[pc + 1]], chunk.lineAt(pc));
+                            ScriptThread.execute(handler, ctx, args(r, code[pc + 2], code[pc + 3]), chunk.lineAt(pc));
+                            pc += 4;
+                        }
+
+                        case Opcode.INDEX    -> { r[code[pc + 1]] = index(r[code[pc + 2]], r[code[pc + 3]]);        pc += 4; }
+                        case Opcode.PROPERTY -> { r[code[pc + 1]] = property(r[code[pc + 2]], names[code[pc + 3]]); pc += 4; }
+                        case Opcode.NEW_LIST -> { r[code[pc + 1]] = newList(r, code[pc + 2], code[pc + 3]);        pc += 4; }
+                        case Opcode.NEW_MAP  -> { r[code[pc + 1]] = newMap(r, code[pc + 2], code[pc + 3]);         pc += 4; }
+                        case Opcode.CONCAT   -> { r[code[pc + 1]] = concat(r, code[pc + 2], code[pc + 3]);         pc += 4; }
+
+                        case Opcode.ITER_INIT -> {
+                            r[code[pc + 1]] = iterable(r[code[pc + 2]]);
+                            counters[code[pc + 3]] = 0;
+                            pc += 4;
+                        }
+
+                        case Opcode.ITER_NEXT -> {
+                            List<FValue> items = r[code[pc + 2]].asList();
+                            int c = code[pc + 3];
+                            if (counters[c] >= items.size()) {
+                                pc = code[pc + 4];
+                            } else {
+                                r[code[pc + 1]] = items.get((int) counters[c]++);
+                                pc += 5;
+                            }
+                            ctx.tickOps(blocks[pc]);
+                        }
+
+                        case Opcode.REPEAT_INIT -> {
+                            counters[code[pc + 1]] = r[code[pc + 2]].asLong();
+                            pc += 3;
+                        }
+
+                        case Opcode.REPEAT_NEXT -> {
+                            int c = code[pc + 1];
+                            if (counters[c] <= 0) {
+                                pc = code[pc + 2];
+                            } else {
+                                counters[c]--;
+                                pc += 3;
+                            }
+                            ctx.tickOps(blocks[pc]);
+                        }
+
+                        case Opcode.WAIT -> {
+                            long ticks = Math.max(1L, r[code[pc + 1]].asLong());
+                            ScriptThread thread = ScriptThread.current();
+                            if (thread != null) {
+                                thread.await(ticks);    // parks this virtual thread; frames stay on the heap as-is
+                                pc += 2;
+                            } else {
+                                f.pc = pc + 2;
+                                f.ctx.root().suspended = new Continuation(f, ticks);
+                                return null;
+                            }
+                        }
+
+                        case Opcode.RETURN, Opcode.RETURN_NULL -> {
+                            FValue result = code[pc] == Opcode.RETURN ? r[code[pc + 1]] : FValue.NULL;
+                            Frame  caller = f.caller;
+                            if (caller == null) return result;
+                            leave(caller.ctx, ctx);
+                            caller.regs[f.resultReg] = result;
+                            f = caller;
+                            continue frames;
+                        }
+
+                        default -> throw new ScriptException("Bad opcode " + code[pc] + " in " + chunk.name(), chunk.lineAt(pc));
+                    }
+                }
+            } catch (ScriptException e) {
+                if (e.getLine() > 0) throw e;
+                throw new ScriptException(e.getMessage(), chunk.lineAt(pc));
+            }
+        }
+    }
+
+    /** Push a call and set up the callee's context with its params bound. */
+    private static ExecutionContext enter(ExecutionContext ctx, Chunk fn, FValue[] r, int start, int argc) {
+        ctx.pushCall();
+        ExecutionContext child = ctx.callee();
+        child.tickOps(fn.entryCost());
+        child.bindLayout(fn.layout());
+        int params = fn.params().length;
+        for (int i = 0; i < params && i < argc; i++) child.setSlot(i, r[start + i]);
+        return child;
+    }
+
+    private static void leave(ExecutionContext ctx, ExecutionContext child) {
+        ctx.popCall();
+        ctx.syncOpsFromChild(child.opsRemaining());
+    }
+
+    private static List<FValue> args(FValue[] r, int start, int count) {
+        List<FValue> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(r[start + i]);
+        return list;
+    }
+
+
+    // ── Entry points for JIT-compiled code ───────────────────────────────────
+    // Generated classes live in this package and call these directly. Anything
+    // that may throw a ScriptException takes the source line so errors still
+    // point at the right place.
+
+    private static FValue builtin(BuiltinFunctions.Builtin fn, String name, List<FValue> args) {
+        if (fn == null) throw new ScriptException("Unknown function: " + name + "()", 0);
+        return fn.apply(args);
+    }
+
+    /** First half of a call from JIT code: push it and hand back the callee's slots for the arguments. */
+    static FValue[] jitEnter(ExecutionContext ctx, Chunk fn) {
+        ctx.pushCall();
+        ExecutionContext child = ctx.callee();
+        child.bindLayout(fn.layout());
+        return child.slots();
+    }
+
+    /** Second half: run the callee set up by {@link #jitEnter}. */
+    FValue jitCall(ExecutionContext ctx, Chunk fn, int line) {
+        try {
+            ExecutionContext child = ctx.activeCallee();
+            // The JIT only compiles callers of wait-free functions, and nothing
+            // under JIT code yields, so this cannot suspend.
+            FValue result;
+            ExecutionContext run = ctx.root();
+            run.jitDepth++;
+            try {
+                result = execute(fn, child);
+            } finally {
+                run.jitDepth--;
+            }
+            leave(ctx, child);
+            return result;
+        } catch (ScriptException e) {
+            if (e.getLine() > 0) throw e;
+            throw new ScriptException(e.getMessage(), line);
+        }
+    }
+
+    static FValue jitBuiltin(BuiltinFunctions.Builtin fn, String name, FValue[] args, int line) {
+        try {
+            return builtin(fn, name, Arrays.asList(args));
+        } catch (ScriptException e) {
+            if (e.getLine() > 0) throw e;
+            throw new ScriptException(e.getMessage(), line);
+        }
+    }
+
+    static void jitEffect(FlokEffect handler, ExecutionContext ctx, String name, FValue[] args, int line) {
+        if (handler == null) throw new ScriptException("Unknown effect: " + name, line);
+        try {
+            ScriptThread.execute(handler, ctx, Arrays.asList(args), line);
+        } catch (ScriptException e) {
+            if (e.getLine() > 0) throw e;
+            throw new ScriptException(e.getMessage(), line);
+        }
+    }
+
+    /** A player-* variable: inject them all on first read, then it is a plain slot. */
+    static FValue loadPlayer(ExecutionContext ctx, int slot) {
+        FValue v = ctx.getSlot(slot);
+        if (v.isNull() && !ctx.isPlayerVarsInjected()) {
+            PlayerVariables.inject(ctx);
+            v = ctx.getSlot(slot);
+        }
+        return v;
+    }
+
+    FValue loadPersist(FValue key)               { return storage.get(key.asString()); }
+    void   storePersist(FValue key, FValue value) { storage.set(key.asString(), value); }
+    void   persistIncr(FValue key, FValue delta)  { storage.increment(key.asString(), delta.asNumber()); }
+
+    static FValue eq(FValue a, FValue b)  { return FValue.of(a.equalsValue(b)); }
+    static FValue ne(FValue a, FValue b)  { return FValue.of(!a.equalsValue(b)); }
+    static FValue lt(FValue a, FValue b)  { return FValue.of(a.compareTo(b) < 0); }
+    static FValue le(FValue a, FValue b)  { return FValue.of(a.compareTo(b) <= 0); }
+    static FValue gt(FValue a, FValue b)  { return FValue.of(a.compareTo(b) > 0); }
+    static FValue ge(FValue a, FValue b)  { return FValue.of(a.compareTo(b) >= 0); }
+    static FValue not(FValue a)           { return FValue.of(!a.asBoolean()); }
+
+    static boolean hasNext(FValue list, long i) { return i < list.asList().size(); }
+    static FValue  item(FValue list, long i)    { return list.asList().get((int) i); }
+
+
+    // ── Shared by the dispatch loop and JIT-compiled code ────────────────────
+
+    static FValue contains(FValue left, FValue right) {
+        return left.isList()
+                ? FValue.of(left.asList().contains(right))
+                : FValue.of(left.asString().contains(right.asString()));
+    }
+
+    public static FValue index(FValue target, FValue index) {
+        if (target.isList()) {
+            int i = index.asInt();
+            List<FValue> list = target.asList();
+            return i >= 0 && i < list.size() ? list.get(i) : FValue.NULL;
+        }
+        if (target.isMap()) return target.asMap().getOrDefault(index.asString(), FValue.NULL);
+        return FValue.NULL;
+    }
+
+    public static FValue property(FValue target, String name) {
+        return target.isMap() ? target.asMap().getOrDefault(name, FValue.NULL) : FValue.NULL;
+    }
+
+    /** List constants are mutable at run time (push/pop), so every load gets its own copy. */
+    static FValue copyList(FValue list) {
+        return FValue.ofList(new ArrayList<>(list.asList()));
+    }
+
+    static FValue newList(FValue[] r, int start, int count) {
+        return FValue.ofList(args(r, start, count));
+    }
+
+    static FValue newMap(FValue[] r, int start, int pairs) {
+        Map<String, FValue> map = new LinkedHashMap<>();
+        for (int i = 0; i < pairs; i++) {
+            map.put(r[start + 2 * i].asString(), r[start + 2 * i + 1]);
+        }
+        return FValue.ofMap(map);
+    }
+
+    static FValue concat(FValue[] r, int start, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(r[start + i].asString());
+        return FValue.of(sb.toString());
+    }
+
+    /** Normalise a for-each source the same way the tree-walker does. */
+    static FValue iterable(FValue v) {
+        if (v.isList()) return v;
+        List<FValue> items = new ArrayList<>();
+        if (v.isMap()) {
+            for (String key : v.asMap().keySet()) items.add(FValue.of(key));
+        } else {
+            for (char c : v.asString().toCharArray()) items.add(FValue.of(String.valueOf(c)));
+        }
+        return FValue.ofList(items);
+    }
+}
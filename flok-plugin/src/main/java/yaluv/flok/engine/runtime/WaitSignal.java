@@ -1,32 +1,39 @@
 package yaluv.flok.engine.runtime;
 
-import yaluv.flok.engine.ast.ASTNode;
-
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Thrown by the Interpreter when a {@code wait} statement is encountered.
  *
- * This isn't an error it is a control-flow signal. When caught by
- * ScriptEngine, it schedules a Bukkit task to resume execution after
- * the requested delay, passing the remaining statements as a continuation.
+ * This isn't an error it is a control-flow signal. As it unwinds, each
+ * block, loop, statement and function call it passes through adds a frame
+ * saying how to carry on from there, innermost first. When caught by
+ * ScriptEngine, it schedules a Bukkit task that hands the signal back to
+ * {@link Interpreter#resume}. Only tree and nodes mode use it; the VM
+ * suspends without throwing (see {@link Continuation}).
  *
  * Stack trace generation is disabled for performance (same trick as the one in ScriptException).
  */
 public final class WaitSignal extends RuntimeException {
 
-    private final long              delayTicks;
-    private final List<ASTNode>     remaining;
-    private final ExecutionContext  ctx;
+    private final long                    delayTicks;
+    private final ExecutionContext        ctx;
+    private final List<Interpreter.Frame> frames = new ArrayList<>();
 
-    public WaitSignal(long delayTicks, List<ASTNode> remaining, ExecutionContext ctx) {
+    public WaitSignal(long delayTicks, ExecutionContext ctx) {
         super("wait:" + delayTicks, null, true, false);
         this.delayTicks = delayTicks;
-        this.remaining  = remaining;
         this.ctx        = ctx;
     }
 
     public long             delayTicks() { return delayTicks; }
-    public List<ASTNode>    remaining()  { return remaining; }
-    public ExecutionContext  ctx()        { return ctx; }
-}
\ No newline at end of file
+    /** The context the wait ran in. */
+    public ExecutionContext ctx()        { return ctx; }
+
+    List<Interpreter.Frame> frames()     { return frames; }
+
+    void push(Interpreter.Frame frame) {
+        frames.add(frame);
+    }
+}
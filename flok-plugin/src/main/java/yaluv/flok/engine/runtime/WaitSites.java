@@ -0,0 +1,159 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.engine.ast.ASTNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Statements where a tree-mode run can stop in a wait reached through a
+ * script function call, found once per script.
+ *
+ * A function can wait if its body has a {@code wait} or calls a function
+ * that can. A statement is marked when its own expressions call such a
+ * function: every expression of a simple statement, only the condition,
+ * count or list of an if or loop. The interpreter keeps the values those
+ * statements evaluate, so it can finish them after the wait without
+ * evaluating anything twice.
+ */
+public final class WaitSites {
+
+    private static final WaitSites NONE = new WaitSites(Set.of());
+
+    private final Set<String>                   waiting;   // lowercase names of functions that can wait
+    private final Map<ASTNode.Block, boolean[]> marked = new IdentityHashMap<>();
+
+    private WaitSites(Set<String> waiting) {
+        this.waiting = waiting;
+    }
+
+    public static WaitSites compute(ASTNode.Program program) {
+        Map<String, ASTNode.FunctionDef> functions = new HashMap<>();
+        for (ASTNode node : program.children()) {
+            if (node instanceof ASTNode.FunctionDef fd) functions.put(fd.name().toLowerCase(), fd);
+        }
+        Set<String> waiting = new HashSet<>();
+        WaitSites sites = new WaitSites(waiting);
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (var e : functions.entrySet()) {
+                if (!waiting.contains(e.getKey()) && sites.reachesWait(e.getValue().body())) {
+                    waiting.add(e.getKey());
+                    grew = true;
+                }
+            }
+        }
+        if (waiting.isEmpty()) return NONE;
+
+        for (ASTNode node : program.children()) {
+            ASTNode.Block body = switch (node) {
+                case ASTNode.EventBlock   eb -> eb.body();
+                case ASTNode.CommandBlock cb -> cb.body();
+                case ASTNode.FunctionDef  fd -> fd.body();
+                default -> null;
+            };
+            if (body != null) sites.mark(body);
+        }
+        return sites;
+    }
+
+    /** Which statements of {@code block} are marked; null if none are. */
+    public boolean[] in(ASTNode.Block block) {
+        return waiting.isEmpty() ? null : marked.get(block);
+    }
+
+    /** True if evaluating {@code expr} can reach a wait. */
+    public boolean canWait(ASTNode expr) {
+        return !waiting.isEmpty() && calls(expr);
+    }
+
+    private void mark(ASTNode.Block block) {
+        List<ASTNode> stmts = block.statements();
+        boolean[] marks = new boolean[stmts.size()];
+        boolean any = false;
+        for (int i = 0; i < stmts.size(); i++) {
+            ASTNode stmt = stmts.get(i);
+            marks[i] = ownCalls(stmt);
+            any |= marks[i];
+            for (ASTNode.Block inner : blocks(stmt)) mark(inner);
+        }
+        if (any) marked.put(block, marks);
+    }
+
+    private boolean reachesWait(ASTNode.Block block) {
+        for (ASTNode stmt : block.statements()) {
+            if (stmt instanceof ASTNode.WaitStmt || ownCalls(stmt)) return true;
+            for (ASTNode.Block inner : blocks(stmt)) if (reachesWait(inner)) return true;
+        }
+        return false;
+    }
+
+    /** Whether the statement's own expressions, not those in its blocks, call a function that can wait. */
+    private boolean ownCalls(ASTNode stmt) {
+        return switch (stmt) {
+            case ASTNode.IfStmt is -> {
+                if (calls(is.condition())) yield true;
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) if (calls(br.condition())) yield true;
+                yield false;
+            }
+            case ASTNode.WhileStmt ws        -> calls(ws.condition());
+            case ASTNode.RepeatStmt rs       -> calls(rs.count());
+            case ASTNode.ForEachStmt fe      -> calls(fe.iterable());
+            case ASTNode.Block b             -> false;
+            case ASTNode.VarAssign va        -> calls(va.value());
+            case ASTNode.AugAssign aa        -> calls(aa.value());
+            case ASTNode.PersistAssign pa    -> calls(pa.keyExpr()) || calls(pa.value());
+            case ASTNode.PersistAugAssign pa -> calls(pa.keyExpr()) || calls(pa.value());
+            case ASTNode.EffectStmt es       -> any(es.args());
+            case ASTNode.ExprStmt es         -> calls(es.expr());
+            case ASTNode.ReturnStmt rs       -> calls(rs.value());
+            case ASTNode.WaitStmt ws         -> calls(ws.ticks());
+            default -> false;
+        };
+    }
+
+    private static List<ASTNode.Block> blocks(ASTNode stmt) {
+        return switch (stmt) {
+            case ASTNode.Block b -> List.of(b);
+            case ASTNode.IfStmt is -> {
+                List<ASTNode.Block> all = new ArrayList<>();
+                all.add(is.thenBlock());
+                for (ASTNode.IfStmt.ElseBranch br : is.elseBranches()) all.add(br.body());
+                if (is.elseBlock() != null) all.add(is.elseBlock());
+                yield all;
+            }
+            case ASTNode.WhileStmt ws   -> List.of(ws.body());
+            case ASTNode.RepeatStmt rs  -> List.of(rs.body());
+            case ASTNode.ForEachStmt fe -> List.of(fe.body());
+            default -> List.of();
+        };
+    }
+
+    private boolean calls(ASTNode node) {
+        if (node == null) return false;
+        return switch (node) {
+            case ASTNode.FunctionCall fc   -> waiting.contains(fc.name().toLowerCase()) || any(fc.args());
+            case ASTNode.PersistRef pr     -> calls(pr.keyExpr());
+            case ASTNode.BinaryOp bo       -> calls(bo.left()) || calls(bo.right());
+            case ASTNode.UnaryOp uo        -> calls(uo.operand());
+            case ASTNode.IndexAccess ia    -> calls(ia.target()) || calls(ia.index());
+            case ASTNode.PropertyAccess pa -> calls(pa.target());
+            case ASTNode.ListLiteral ll    -> any(ll.elements());
+            case ASTNode.Conditional c     -> calls(c.condition()) || calls(c.ifTrue()) || calls(c.ifFalse());
+            case ASTNode.MapLiteral ml     -> ml.entries().stream().anyMatch(e -> calls(e.getKey()) || calls(e.getValue()));
+            case ASTNode.StringTemplate st -> st.parts().stream().anyMatch(p -> p instanceof ASTNode n && calls(n));
+            default -> false;   // literals, variables
+        };
+    }
+
+    private boolean any(List<ASTNode> nodes) {
+        for (ASTNode node : nodes) if (calls(node)) return true;
+        return false;
+    }
+}
@@ -2,130 +2,285 @@ package yaluv.flok.events;
 
 import yaluv.flok.api.FValue;
 import yaluv.flok.engine.ScriptEngine;
+import yaluv.flok.util.FLogger;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
-import org.bukkit.event.EventHandler;
+import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.player.*;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Bridges Bukkit events into flok's script engine.
  *
+ * Listeners are registered per event type, and only while a loaded script
+ * has an {@code on} block for it: {@link #update} registers and unregisters
+ * them to match the dispatch index after every load or reload. Events no
+ * script handles never reach Flok at all. The one exception is player quit,
+ * which stays registered so the engine can drop the player's rate limit
+ * state once any quit handlers have run.
+ *
+ * Each handler also asks the engine whether any script handles the event
+ * and returns straight away if not. Params are passed as an
+ * {@link yaluv.flok.engine.runtime.EventParams} lambda over the Bukkit event,
+ * so only the params a handler actually refers to are ever computed.
+ * Material, game mode and world names are lowercased once and cached.
+ *
  * THROTTLING POLICY:
  * PlayerMoveEvent is registered but only forwarded to the engine if the player
  * has moved more than 0.5 blocks purely positional events (head rotations)
  * are discarded before they ever reach script dispatch. The engine then applies
- * its own 1-second per-player throttle on top.
+ * the per-player limit from limits.events on top (once a second by default).
+ * With events.coalesce-move, moves are instead batched by {@link MoveCoalescer}
+ * and fired once per player per interval, and the default limit is dropped.
  */
-public final class EventAdapter implements Listener {
+public final class EventAdapter {
+
+    /**
+     * One Bukkit event type bridged to one Flok event. The binding is its own
+     * Listener, so it can be unregistered without touching the others.
+     */
+    private static final class Binding<E extends Event> implements Listener {
+        final String        name;
+        final Class<E>      type;
+        final EventPriority priority;
+        final boolean       ignoreCancelled;
+        final Consumer<E>   handler;
+        final boolean       always;
+        boolean             registered;
+
+        Binding(String name, Class<E> type, EventPriority priority, boolean ignoreCancelled, Consumer<E> handler,
+                boolean always) {
+            this.name            = name;
+            this.type            = type;
+            this.priority        = priority;
+            this.ignoreCancelled = ignoreCancelled;
+            this.handler         = handler;
+            this.always          = always;
+        }
+
+        void register(org.bukkit.plugin.Plugin plugin) {
+            // The same check Bukkit's generated @EventHandler executors make.
+            plugin.getServer().getPluginManager().registerEvent(type, this, priority,
+                    (listener, event) -> { if (type.isInstance(event)) handler.accept(type.cast(event)); },
+                    plugin, ignoreCancelled);
+            registered = true;
+        }
+
+        void unregister() {
+            HandlerList.unregisterAll(this);
+            registered = false;
+        }
+    }
 
     private final ScriptEngine engine;
     private final org.bukkit.plugin.Plugin plugin;
+    private final List<Binding<?>> bindings = new ArrayList<>();
+    private final MoveCoalescer    moves;   // null unless events.coalesce-move is enabled
+
+    // Only touched from the server thread.
+    private final Map<Material, FValue> materialNames = new EnumMap<>(Material.class);
+    private final Map<GameMode, FValue> gameModeNames = new EnumMap<>(GameMode.class);
+    private final Map<String, FValue>   worldNames    = new HashMap<>();
 
     public EventAdapter(ScriptEngine engine, org.bukkit.plugin.Plugin plugin) {
         this.engine = engine;
         this.plugin = plugin;
+
+        ConfigurationSection coalesce = plugin.getConfig().getConfigurationSection("events.coalesce-move");
+        if (coalesce != null && coalesce.getBoolean("enabled", false)) {
+            long interval = Math.max(1, coalesce.getInt("interval-ticks", 1));
+            this.moves = new MoveCoalescer(engine);
+            plugin.getServer().getScheduler().runTaskTimer(plugin, moves::flush, interval, interval);
+        } else {
+            this.moves = null;
+        }
+
+        bind("player-join",            PlayerJoinEvent.class,              EventPriority.MONITOR, true,  this::onJoin);
+        bindAlways("player-quit",      PlayerQuitEvent.class,              EventPriority.MONITOR, false, this::onQuit);
+        bind("player-death",           PlayerDeathEvent.class,             EventPriority.MONITOR, true,  this::onDeath);
+        bind("player-respawn",         PlayerRespawnEvent.class,           EventPriority.MONITOR, false, this::onRespawn);
+        bind("player-chat",            AsyncPlayerChatEvent.class,         EventPriority.HIGH,    true,  this::onChat);
+        bind("player-command",         PlayerCommandPreprocessEvent.class, EventPriority.HIGH,    true,  this::onCommand);
+        bind("player-level-change",    PlayerLevelChangeEvent.class,       EventPriority.MONITOR, true,  this::onLevelChange);
+        bind("player-gamemode-change", PlayerGameModeChangeEvent.class,    EventPriority.MONITOR, true,  this::onGamemodeChange);
+        if (moves != null) {
+            // Only recorded, so it can watch the outcome like the other MONITOR listeners.
+            bind("player-move",        PlayerMoveEvent.class,              EventPriority.MONITOR, true,  this::onMoveCoalesced);
+        } else {
+            bind("player-move",        PlayerMoveEvent.class,              EventPriority.HIGH,    true,  this::onMove);
+        }
+        bind("block-break",            BlockBreakEvent.class,              EventPriority.HIGH,    true,  this::onBlockBreak);
+        bind("block-place",            BlockPlaceEvent.class,              EventPriority.HIGH,    true,  this::onBlockPlace);
+    }
+
+    private <E extends Event> void bind(String name, Class<E> type, EventPriority priority, boolean ignoreCancelled,
+                                        Consumer<E> handler) {
+        bindings.add(new Binding<>(name, type, priority, ignoreCancelled, handler, false));
+    }
+
+    /** A binding that stays registered whether or not a script handles it. */
+    private <E extends Event> void bindAlways(String name, Class<E> type, EventPriority priority, boolean ignoreCancelled,
+                                              Consumer<E> handler) {
+        bindings.add(new Binding<>(name, type, priority, ignoreCancelled, handler, true));
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onJoin(PlayerJoinEvent e) {
+    /**
+     * Register a listener for every event a loaded script now handles and
+     * drop the ones no script handles any more. Call on the server thread
+     * after each load or reload.
+     */
+    public void update() {
+        int registered = 0;
+        for (Binding<?> b : bindings) {
+            boolean wanted = b.always || engine.hasHandlers(b.name);
+            if (wanted && !b.registered)      b.register(plugin);
+            else if (!wanted && b.registered) b.unregister();
+            if (b.registered) registered++;
+        }
+        FLogger.debug("Listening for " + registered + " of " + bindings.size() + " event type(s).");
+    }
+
+    private void onJoin(PlayerJoinEvent e) {
+        if (!engine.hasHandlers("player-join")) return;
         Player p = e.getPlayer();
-        engine.dispatchEvent("player-join", p, Map.of(
-                "first-join", FValue.of(!p.hasPlayedBefore())
-        ));
+        engine.dispatchEvent("player-join", p, name -> switch (name) {
+            case "first-join" -> FValue.of(!p.hasPlayedBefore());
+            default -> null;
+        });
     }
 
-    @EventHandler(priority = EventPriority.MONITOR)
-    public void onQuit(PlayerQuitEvent e) {
-        engine.dispatchEvent("player-quit", e.getPlayer(), Map.of());
+    private void onQuit(PlayerQuitEvent e) {
+        if (engine.hasHandlers("player-quit")) engine.dispatchEvent("player-quit", e.getPlayer(), Map.of());
+        engine.getRateLimiter().prune(e.getPlayer().getUniqueId());
+        if (moves != null) moves.forget(e.getPlayer());
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onDeath(PlayerDeathEvent e) {
-        engine.dispatchEvent("player-death", e.getEntity(), Map.of(
-                "death-message", FValue.of(e.getDeathMessage() != null ? e.getDeathMessage() : "")
-        ));
+    private void onDeath(PlayerDeathEvent e) {
+        if (!engine.hasHandlers("player-death")) return;
+        engine.dispatchEvent("player-death", e.getEntity(), name -> switch (name) {
+            case "death-message" -> FValue.of(e.getDeathMessage() != null ? e.getDeathMessage() : "");
+            default -> null;
+        });
     }
 
-    @EventHandler(priority = EventPriority.MONITOR)
-    public void onRespawn(PlayerRespawnEvent e) {
+    private void onRespawn(PlayerRespawnEvent e) {
+        if (!engine.hasHandlers("player-respawn")) return;
         engine.dispatchEvent("player-respawn", e.getPlayer(), Map.of());
     }
 
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onChat(AsyncPlayerChatEvent e) {
+    private void onChat(AsyncPlayerChatEvent e) {
+        if (!engine.hasHandlers("player-chat")) return;
         final org.bukkit.entity.Player player = e.getPlayer();
-        final String message = e.getMessage();
+        final FValue message = FValue.of(e.getMessage());
         org.bukkit.Bukkit.getScheduler().runTask(plugin, () ->
-                engine.dispatchEvent("player-chat", player, Map.of(
-                        "message", FValue.of(message)
-                ), e)
+                engine.dispatchEvent("player-chat", player, name -> switch (name) {
+                    case "message" -> message;
+                    default -> null;
+                }, e)
         );
     }
 
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onCommand(PlayerCommandPreprocessEvent e) {
-        engine.dispatchEvent("player-command", e.getPlayer(), Map.of(
-                "command", FValue.of(e.getMessage())
-        ), e);
+    private void onCommand(PlayerCommandPreprocessEvent e) {
+        if (!engine.hasHandlers("player-command")) return;
+        engine.dispatchEvent("player-command", e.getPlayer(), name -> switch (name) {
+            case "command" -> FValue.of(e.getMessage());
+            default -> null;
+        }, e);
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onLevelChange(PlayerLevelChangeEvent e) {
-        engine.dispatchEvent("player-level-change", e.getPlayer(), Map.of(
-                "old-level", FValue.of(e.getOldLevel()),
-                "new-level", FValue.of(e.getNewLevel())
-        ));
+    private void onLevelChange(PlayerLevelChangeEvent e) {
+        if (!engine.hasHandlers("player-level-change")) return;
+        engine.dispatchEvent("player-level-change", e.getPlayer(), name -> switch (name) {
+            case "old-level" -> FValue.of(e.getOldLevel());
+            case "new-level" -> FValue.of(e.getNewLevel());
+            default -> null;
+        });
     }
 
-    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
-    public void onGamemodeChange(PlayerGameModeChangeEvent e) {
-        engine.dispatchEvent("player-gamemode-change", e.getPlayer(), Map.of(
-                "new-gamemode", FValue.of(e.getNewGameMode().name().toLowerCase())
-        ));
+    private void onGamemodeChange(PlayerGameModeChangeEvent e) {
+        if (!engine.hasHandlers("player-gamemode-change")) return;
+        engine.dispatchEvent("player-gamemode-change", e.getPlayer(), name -> switch (name) {
+            case "new-gamemode" -> gameModeName(e.getNewGameMode());
+            default -> null;
+        });
     }
 
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onMove(PlayerMoveEvent e) {
-        if (e.getFrom().getBlockX() == e.getTo().getBlockX()
-                && e.getFrom().getBlockY() == e.getTo().getBlockY()
-                && e.getFrom().getBlockZ() == e.getTo().getBlockZ()) {
+    private void onMove(PlayerMoveEvent e) {
+        if (!engine.hasHandlers("player-move")) return;
+        Location from = e.getFrom();
+        Location to   = e.getTo();
+        if (from.getBlockX() == to.getBlockX()
+                && from.getBlockY() == to.getBlockY()
+                && from.getBlockZ() == to.getBlockZ()) {
             return;
         }
-        engine.dispatchEvent("player-move", e.getPlayer(), Map.of(
-                "from-x", FValue.of(e.getFrom().getX()),
-                "from-y", FValue.of(e.getFrom().getY()),
-                "from-z", FValue.of(e.getFrom().getZ()),
-                "to-x",   FValue.of(e.getTo().getX()),
-                "to-y",   FValue.of(e.getTo().getY()),
-                "to-z",   FValue.of(e.getTo().getZ())
-        ), e);
-    }
-
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onBlockBreak(BlockBreakEvent e) {
-        engine.dispatchEvent("block-break", e.getPlayer(), Map.of(
-                "block-type",  FValue.of(e.getBlock().getType().name().toLowerCase()),
-                "block-x",     FValue.of(e.getBlock().getX()),
-                "block-y",     FValue.of(e.getBlock().getY()),
-                "block-z",     FValue.of(e.getBlock().getZ()),
-                "block-world", FValue.of(e.getBlock().getWorld().getName())
-        ), e);
-    }
-
-    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
-    public void onBlockPlace(BlockPlaceEvent e) {
-        engine.dispatchEvent("block-place", e.getPlayer(), Map.of(
-                "block-type",  FValue.of(e.getBlock().getType().name().toLowerCase()),
-                "block-x",     FValue.of(e.getBlock().getX()),
-                "block-y",     FValue.of(e.getBlock().getY()),
-                "block-z",     FValue.of(e.getBlock().getZ()),
-                "block-world", FValue.of(e.getBlock().getWorld().getName())
-        ), e);
-    }
-}
\ No newline at end of file
+        engine.dispatchEvent("player-move", e.getPlayer(), name -> switch (name) {
+            case "from-x" -> FValue.of(from.getX());
+            case "from-y" -> FValue.of(from.getY());
+            case "from-z" -> FValue.of(from.getZ());
+            case "to-x"   -> FValue.of(to.getX());
+            case "to-y"   -> FValue.of(to.getY());
+            case "to-z"   -> FValue.of(to.getZ());
+            default -> null;
+        }, e);
+    }
+
+    private void onMoveCoalesced(PlayerMoveEvent e) {
+        Location from = e.getFrom();
+        Location to   = e.getTo();
+        if (from.getX() == to.getX() && from.getY() == to.getY() && from.getZ() == to.getZ()) return;
+        moves.record(e.getPlayer(), from, to);
+    }
+
+    private void onBlockBreak(BlockBreakEvent e) {
+        if (!engine.hasHandlers("block-break")) return;
+        Block b = e.getBlock();
+        engine.dispatchEvent("block-break", e.getPlayer(), name -> blockParam(b, name), e);
+    }
+
+    private void onBlockPlace(BlockPlaceEvent e) {
+        if (!engine.hasHandlers("block-place")) return;
+        Block b = e.getBlock();
+        engine.dispatchEvent("block-place", e.getPlayer(), name -> blockParam(b, name), e);
+    }
+
+    private FValue blockParam(Block b, String name) {
+        return switch (name) {
+            case "block-type"  -> materialName(b.getType());
+            case "block-x"     -> FValue.of(b.getX());
+            case "block-y"     -> FValue.of(b.getY());
+            case "block-z"     -> FValue.of(b.getZ());
+            case "block-world" -> worldName(b.getWorld());
+            default -> null;
+        };
+    }
+
+    private FValue materialName(Material m) {
+        return materialNames.computeIfAbsent(m, x -> FValue.of(x.name().toLowerCase()));
+    }
+
+    private FValue gameModeName(GameMode g) {
+        return gameModeNames.computeIfAbsent(g, x -> FValue.of(x.name().toLowerCase()));
+    }
+
+    private FValue worldName(World w) {
+        return worldNames.computeIfAbsent(w.getName(), FValue::of);
+    }
+}
@@ -0,0 +1,155 @@
+package yaluv.flok.events;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ScriptEngine;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Batches player movement for events.coalesce-move. Each move only updates
+ * the player's row in a flat buffer; {@link #flush} then fires one
+ * {@code player-move} per player whose block changed over the interval,
+ * from where they were at its start to where they ended up.
+ *
+ * Moves are recorded into one batch while the other is dispatched, so a
+ * move made by a handler during a flush lands in the next interval instead
+ * of being lost. The two batches' arrays are reused from flush to flush;
+ * after a player's first move in an interval, recording another is a map
+ * lookup and a few stores.
+ *
+ * A row stays in one world: a move into another world ends the player's row
+ * where they left and starts a new one where they arrived, so no event
+ * spans two worlds. Everything here runs on the server thread.
+ */
+final class MoveCoalescer {
+
+    // Per row: from x, y, z, to x, y, z, distance walked.
+    private static final int STRIDE = 7;
+    private static final int FROM = 0, TO = 3, DISTANCE = 6;
+
+    /** One interval's rows, in the order players first moved. */
+    private static final class Batch {
+        Player[] players = new Player[16];
+        World[]  worlds  = new World[16];
+        int[]    moves   = new int[16];
+        double[] buffer  = new double[16 * STRIDE];
+        int      size;
+
+        void grow() {
+            int capacity = players.length * 2;
+            players = Arrays.copyOf(players, capacity);
+            worlds  = Arrays.copyOf(worlds, capacity);
+            moves   = Arrays.copyOf(moves, capacity);
+            buffer  = Arrays.copyOf(buffer, capacity * STRIDE);
+        }
+
+        /** Start a row for {@code player} at {@code start}; returns its offset into the buffer. */
+        int open(Player player, Location start) {
+            if (size == players.length) grow();
+            players[size] = player;
+            worlds[size]  = start.getWorld();
+            moves[size]   = 0;
+            int base = size++ * STRIDE;
+            buffer[base + FROM]     = start.getX();
+            buffer[base + FROM + 1] = start.getY();
+            buffer[base + FROM + 2] = start.getZ();
+            buffer[base + DISTANCE] = 0;
+            return base;
+        }
+
+        boolean sameBlock(int base) {
+            return (int) Math.floor(buffer[base + FROM])     == (int) Math.floor(buffer[base + TO])
+                && (int) Math.floor(buffer[base + FROM + 1]) == (int) Math.floor(buffer[base + TO + 1])
+                && (int) Math.floor(buffer[base + FROM + 2]) == (int) Math.floor(buffer[base + TO + 2]);
+        }
+    }
+
+    /** Where a player's moves go; kept across intervals, so recording allocates nothing. */
+    private static final class Mover {
+        int interval = -1; // the interval row belongs to
+        int row;           // in the recording batch, if interval is current
+    }
+
+    private final ScriptEngine     engine;
+    private final Map<UUID, Mover> movers   = new HashMap<>();
+    private int                    interval;                 // flushes so far
+    private Batch                  batch    = new Batch();   // recording
+    private Batch                  dispatch = new Batch();   // being flushed, else empty
+
+    MoveCoalescer(ScriptEngine engine) {
+        this.engine = engine;
+    }
+
+    /** Note one move; the first since the last flush fixes the start position. */
+    void record(Player player, Location from, Location to) {
+        Batch b = batch;
+        Mover mover = movers.get(player.getUniqueId());
+        if (mover == null) movers.put(player.getUniqueId(), mover = new Mover());
+        int base;
+        if (mover.interval != interval || to.getWorld() != b.worlds[mover.row]) {
+            // Into another world: the old row ends where they left, the new one starts where they arrived.
+            if (from.getWorld() != to.getWorld()) from = to;
+            mover.interval = interval;
+            mover.row      = b.size;
+            base = b.open(player, from);
+        } else {
+            base = mover.row * STRIDE;
+        }
+        double[] buffer = b.buffer;
+        double dx = to.getX() - from.getX(), dy = to.getY() - from.getY(), dz = to.getZ() - from.getZ();
+        buffer[base + TO]       = to.getX();
+        buffer[base + TO + 1]   = to.getY();
+        buffer[base + TO + 2]   = to.getZ();
+        buffer[base + DISTANCE] += Math.sqrt(dx * dx + dy * dy + dz * dz);
+        b.moves[mover.row]++;
+    }
+
+    /** Drop a player who left; a row they still have in the batch is skipped as offline. */
+    void forget(Player player) {
+        movers.remove(player.getUniqueId());
+    }
+
+    /** Dispatch the batched moves; moves recorded meanwhile wait for the next flush. */
+    void flush() {
+        Batch b = batch;
+        int n = b.size;
+        if (n == 0) return;
+        // Swap first, so handlers record into the other batch and cannot touch a row still being read.
+        batch    = dispatch;
+        dispatch = b;
+        interval++;
+        try {
+            for (int i = 0; i < n; i++) {
+                Player player = b.players[i];
+                int base = i * STRIDE;
+                if (!player.isOnline() || b.sameBlock(base)) continue;
+                double[] buffer = b.buffer;
+                double fx = buffer[base + FROM], fy = buffer[base + FROM + 1], fz = buffer[base + FROM + 2];
+                double tx = buffer[base + TO],   ty = buffer[base + TO + 1],   tz = buffer[base + TO + 2];
+                double distance = buffer[base + DISTANCE];
+                int    count    = b.moves[i];
+                engine.dispatchEvent("player-move", player, name -> switch (name) {
+                    case "from-x"   -> FValue.of(fx);
+                    case "from-y"   -> FValue.of(fy);
+                    case "from-z"   -> FValue.of(fz);
+                    case "to-x"     -> FValue.of(tx);
+                    case "to-y"     -> FValue.of(ty);
+                    case "to-z"     -> FValue.of(tz);
+                    case "distance" -> FValue.of(distance);
+                    case "moves"    -> FValue.of(count);
+                    default -> null;
+                });
+            }
+        } finally {
+            Arrays.fill(b.players, 0, n, null);
+            Arrays.fill(b.worlds, 0, n, null);
+            b.size = 0;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package yaluv.flok.parser;
 
 import yaluv.flok.api.FValue;
 import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.util.Rate;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,6 +39,27 @@ public final class Parser {
         return new ASTNode.Program(children, 1);
     }
 
+    /**
+     * Parse only the top-level headers of a script; every body comes back
+     * empty. Body lines are blanked rather than dropped, so line numbers in
+     * errors and in the headers match a full parse.
+     */
+    public static ASTNode.Program parseHeaders(String source, String fileName) throws ParseException {
+        StringBuilder headers = new StringBuilder(source.length() / 4);
+        for (String line : source.split("\n", -1)) {
+            if (isHeader(line)) headers.append(line);
+            headers.append('\n');
+        }
+        return new Parser(new Lexer(headers.toString(), fileName).tokenize(), fileName).parse();
+    }
+
+    private static boolean isHeader(String line) {
+        int end = 0;
+        while (end < line.length() && Character.isLetter(line.charAt(end))) end++;
+        String word = line.substring(0, end).toLowerCase();
+        return word.equals("on") || word.equals("command") || word.equals("function");
+    }
+
     private ASTNode parseTopLevel() throws ParseException {
         return switch (peek().type()) {
             case KW_ON       -> parseEventBlock();
@@ -51,13 +73,77 @@ public final class Parser {
         int line = peek().line();
         consume(Lexer.TokenType.KW_ON);
         StringBuilder name = new StringBuilder();
+        List<ASTNode.EventBlock.Filter> filters = new ArrayList<>();
         while (!check(Lexer.TokenType.COLON) && !check(Lexer.TokenType.NEWLINE) && !check(Lexer.TokenType.EOF)) {
+            if (isHeaderField()) {
+                filters.add(parseEventFilter());
+                continue;
+            }
+            if (!filters.isEmpty()) {
+                Lexer.Token t = peek();
+                throw new ParseException("Expected a filter (type:, world:, permission: or limit:) but got '" + t.value() + "'", fileName, t.line());
+            }
             if (name.length() > 0) name.append(" ");
             name.append(advance().value());
         }
         if (check(Lexer.TokenType.COLON)) advance();
         skipNewlines();
-        return new ASTNode.EventBlock(name.toString().trim(), new ArrayList<>(), parseBlock(), line);
+        return new ASTNode.EventBlock(name.toString().trim(), new ArrayList<>(), filters, parseBlock(), line);
+    }
+
+    /** {@code key:} followed by a value on the same line; a colon at the end of the line ends the header instead. */
+    private boolean isHeaderField() {
+        Lexer.Token colon = peekAhead(1);
+        Lexer.Token value = peekAhead(2);
+        return peek().type() == Lexer.TokenType.IDENTIFIER
+            && colon != null && colon.type() == Lexer.TokenType.COLON
+            && value != null && value.type() != Lexer.TokenType.NEWLINE && value.type() != Lexer.TokenType.EOF;
+    }
+
+    /**
+     * {@code type: diamond_ore, emerald_ore}. Values run to the next filter
+     * or the header's colon; tokens within a value are joined as written, so
+     * {@code vip.mine} is one value.
+     */
+    private ASTNode.EventBlock.Filter parseEventFilter() throws ParseException {
+        Lexer.Token key = advance();
+        String k = key.value().toLowerCase();
+        if (!k.equals("type") && !k.equals("world") && !k.equals("permission") && !k.equals("limit")) {
+            throw new ParseException("Unknown event filter '" + key.value() + ":'; expected type:, world:, permission: or limit:", fileName, key.line());
+        }
+        consume(Lexer.TokenType.COLON);
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        while (!check(Lexer.TokenType.COLON) && !check(Lexer.TokenType.NEWLINE) && !check(Lexer.TokenType.EOF)
+                && !isHeaderField()) {
+            Lexer.Token t = advance();
+            if (t.type() == Lexer.TokenType.COMMA) {
+                if (value.length() > 0) values.add(value.toString().toLowerCase());
+                value.setLength(0);
+            } else {
+                value.append(t.value());
+            }
+        }
+        if (value.length() > 0) values.add(value.toString().toLowerCase());
+        if (values.isEmpty()) throw new ParseException("Event filter '" + k + ":' needs at least one value", fileName, key.line());
+        if (k.equals("permission") && values.size() > 1) {
+            throw new ParseException("An event can only require one permission", fileName, key.line());
+        }
+        if (k.equals("limit")) {
+            if (values.size() > 1) throw new ParseException("An event can only have one limit", fileName, key.line());
+            rate(values.get(0), key);
+        }
+        return new ASTNode.EventBlock.Filter(k, values);
+    }
+
+    /** Check a rate such as {@code 3/10s} given for {@code key:}; returns it with spaces removed. */
+    private String rate(String spec, Lexer.Token key) throws ParseException {
+        try {
+            Rate.parse(spec);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage() + " for '" + key.value() + ":'", fileName, key.line());
+        }
+        return spec.replaceAll("\\s+", "");
     }
 
     private ASTNode.CommandBlock parseCommandBlock() throws ParseException {
@@ -68,6 +154,7 @@ public final class Parser {
         List<String> aliases = new ArrayList<>();
         String permission = "";
         String description = "";
+        String cooldown = "";
 
         if (check(Lexer.TokenType.LPAREN)) {
             advance();
@@ -86,7 +173,8 @@ public final class Parser {
                 if (check(Lexer.TokenType.COLON)) {
                     advance();
                     StringBuilder val = new StringBuilder();
-                    while (!check(Lexer.TokenType.NEWLINE) && !check(Lexer.TokenType.COLON) && !check(Lexer.TokenType.EOF)) {
+                    while (!check(Lexer.TokenType.NEWLINE) && !check(Lexer.TokenType.COLON) && !check(Lexer.TokenType.EOF)
+                            && !isHeaderField()) {
                         if (val.length() > 0) val.append(" ");
                         val.append(advance().value());
                     }
@@ -94,6 +182,7 @@ public final class Parser {
                         case "permission"   -> permission   = val.toString().trim();
                         case "description"  -> description  = val.toString().trim();
                         case "aliases"      -> { for (String a : val.toString().split(",")) aliases.add(a.trim()); }
+                        case "cooldown"     -> cooldown     = rate(val.toString(), meta);
                     }
                 }
             } else {
@@ -103,7 +192,7 @@ public final class Parser {
 
         if (check(Lexer.TokenType.COLON)) advance();
         skipNewlines();
-        return new ASTNode.CommandBlock(commandName, aliases, permission, description, params, parseBlock(), line);
+        return new ASTNode.CommandBlock(commandName, aliases, permission, description, cooldown, params, parseBlock(), line);
     }
 
     private ASTNode.FunctionDef parseFunctionDef() throws ParseException {
@@ -0,0 +1,47 @@
+package yaluv.flok.util;
+
+/**
+ * {@code count} runs per {@code periodNanos}, as written in a {@code limit:}
+ * or {@code cooldown:} header or in limits.events.
+ */
+public record Rate(int count, long periodNanos) {
+
+    /**
+     * {@code 3/10s} is three per ten seconds; a bare duration such as
+     * {@code 5s} is once per that long. Units are ms, s, m and h, with s
+     * assumed if none is given, and the number before the unit may be
+     * left out: {@code 1/s}.
+     */
+    public static Rate parse(String spec) {
+        String s = spec.replaceAll("\\s+", "").toLowerCase();
+        int count = 1;
+        int slash = s.indexOf('/');
+        if (slash >= 0) {
+            try {
+                count = Integer.parseInt(s.substring(0, slash));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rate '" + spec + "': expected a count before '/'");
+            }
+            if (count < 1) throw new IllegalArgumentException("Invalid rate '" + spec + "': the count must be at least 1");
+            s = s.substring(slash + 1);
+        }
+        int unit = 0;
+        while (unit < s.length() && (Character.isDigit(s.charAt(unit)) || s.charAt(unit) == '.')) unit++;
+        long scale = switch (s.substring(unit)) {
+            case "ms"     -> 1_000_000L;
+            case "", "s"  -> 1_000_000_000L;
+            case "m"      -> 60_000_000_000L;
+            case "h"      -> 3_600_000_000_000L;
+            default -> throw new IllegalArgumentException("Invalid rate '" + spec + "': unknown unit '" + s.substring(unit) + "'");
+        };
+        double amount;
+        try {
+            amount = unit == 0 ? 1 : Double.parseDouble(s.substring(0, unit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate '" + spec + "': expected a duration such as 5s");
+        }
+        long period = (long) (amount * scale);
+        if (period <= 0) throw new IllegalArgumentException("Invalid rate '" + spec + "': the period must be positive");
+        return new Rate(count, period);
+    }
+}
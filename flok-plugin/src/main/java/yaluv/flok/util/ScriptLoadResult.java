@@ -5,7 +5,8 @@ package yaluv.flok.util;
  */
 public final class ScriptLoadResult {
 
-    public enum Status { OK, PARSE_ERROR, IO_ERROR, RUNTIME_ERROR }
+    /** DEFERRED: only the headers were parsed (engine.lazy-compile, or the whole file with parse-at-load); it compiles on first use. */
+    public enum Status { OK, DEFERRED, PARSE_ERROR, IO_ERROR, RUNTIME_ERROR }
 
     private final String fileName;
     private final Status status;
@@ -23,6 +24,10 @@ public final class ScriptLoadResult {
         return new ScriptLoadResult(fileName, Status.OK, null, -1);
     }
 
+    public static ScriptLoadResult deferred(String fileName) {
+        return new ScriptLoadResult(fileName, Status.DEFERRED, null, -1);
+    }
+
     public static ScriptLoadResult parseError(String fileName, String message, int line) {
         return new ScriptLoadResult(fileName, Status.PARSE_ERROR, message, line);
     }
@@ -35,7 +40,8 @@ public final class ScriptLoadResult {
         return new ScriptLoadResult(fileName, Status.RUNTIME_ERROR, message, -1);
     }
 
-    public boolean isOk()          { return status == Status.OK; }
+    public boolean isOk()          { return status == Status.OK || status == Status.DEFERRED; }
+    public boolean isDeferred()    { return status == Status.DEFERRED; }
     public boolean hasLine()       { return errorLine > 0; }
     public String  getFileName()   { return fileName; }
     public Status  getStatus()     { return status; }
@@ -0,0 +1,53 @@
+package yaluv.flok.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Handlers of an event run in file-name order, after a full load and after
+ * single files are reloaded or added.
+ */
+class DispatchOrderTest {
+
+    @TempDir Path dir;
+
+    private static String handler(String text) {
+        return "on ping:\n    record \"" + text + "\"\n";
+    }
+
+    private static void reload(ScriptEngine engine, Path scripts, String name, String source) throws IOException {
+        Files.writeString(scripts.resolve(name), source);
+        engine.apply(engine.rebuild(scripts.toFile(), List.of(name)));
+    }
+
+    @Test
+    void reloadingTheFirstFileKeepsItFirst() throws IOException {
+        EngineFixture fixture = new EngineFixture(dir);
+        ScriptEngine engine = fixture.load(Map.of("a.fk", handler("a"), "b.fk", handler("b")));
+        fixture.fire("ping");
+        assertEquals(List.of("a", "b"), fixture.output);
+
+        reload(engine, dir.resolve("scripts"), "a.fk", handler("a2"));
+        fixture.output.clear();
+        fixture.fire("ping");
+        assertEquals(List.of("a2", "b"), fixture.output);
+    }
+
+    @Test
+    void addedFileRunsInItsSortedPlace() throws IOException {
+        EngineFixture fixture = new EngineFixture(dir);
+        ScriptEngine engine = fixture.load(Map.of("a.fk", handler("a"), "c.fk", handler("c")));
+
+        reload(engine, dir.resolve("scripts"), "b.fk", handler("b"));
+        fixture.fire("ping");
+        assertEquals(List.of("a", "b", "c"), fixture.output);
+    }
+}
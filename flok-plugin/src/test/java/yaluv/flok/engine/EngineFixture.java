@@ -0,0 +1,158 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.effects.EffectRegistry;
+import yaluv.flok.storage.PersistentStorage;
+import yaluv.flok.util.ScriptLoadResult;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * A ScriptEngine on a mocked plugin, for tests.
+ *
+ * Scripts are written to a temporary scripts folder and loaded with
+ * {@link #load}, which keeps the load results in {@link #results}. The
+ * {@code record} effect and {@code send} to {@link #player} both append their
+ * text to {@link #output}; tasks scheduled with runTask and runTaskLater queue
+ * up until {@link #runTasks} is called, and timers run once per {@link #tick}.
+ * The parts tests outside this package need are public.
+ */
+public final class EngineFixture {
+
+    private static final Server PRIMARY = mock(Server.class);
+    private static volatile Thread offThread;
+    static {
+        when(PRIMARY.isPrimaryThread()).thenAnswer(inv -> Thread.currentThread() != offThread);
+        if (Bukkit.getServer() == null) Bukkit.setServer(PRIMARY);
+    }
+
+    final YamlConfiguration     config  = new YamlConfiguration();
+    public final EffectRegistry effects = new EffectRegistry();
+    public final List<String>   output  = new ArrayList<>();
+    final Deque<Runnable>       tasks   = new ArrayDeque<>();
+    final List<Runnable>        timers  = new ArrayList<>();
+    final Player                player  = mock(Player.class);
+    final JavaPlugin            plugin  = mock(JavaPlugin.class);
+    List<ScriptLoadResult>      results = List.of();
+    private final Path          folder;
+    private ScriptEngine        engine;
+
+    public EngineFixture(Path folder) {
+        this.folder = folder;
+        Server          server    = mock(Server.class);
+        BukkitScheduler scheduler = mock(BukkitScheduler.class);
+        when(server.getScheduler()).thenReturn(scheduler);
+        when(server.isPrimaryThread()).thenAnswer(inv -> Thread.currentThread() != offThread);
+        when(scheduler.runTask(any(), any(Runnable.class))).thenAnswer(inv -> queue(inv.getArgument(1)));
+        when(scheduler.runTaskLater(any(), any(Runnable.class), anyLong())).thenAnswer(inv -> queue(inv.getArgument(1)));
+        when(scheduler.runTaskTimer(any(), any(Runnable.class), anyLong(), anyLong())).thenAnswer(inv -> {
+            timers.add(inv.getArgument(1));
+            return mock(BukkitTask.class);
+        });
+
+        when(plugin.getConfig()).thenReturn(config);
+        when(plugin.getServer()).thenReturn(server);
+        when(plugin.getDataFolder()).thenReturn(folder.toFile());
+        when(plugin.getDescription()).thenReturn(new PluginDescriptionFile("Flok", "test", "yaluv.flok.FlokPlugin"));
+
+        config.set("engine.cache.enabled", false);
+
+        UUID id = UUID.randomUUID();
+        when(player.getUniqueId()).thenReturn(id);
+        when(player.getName()).thenReturn("tester");
+        when(player.isOnline()).thenReturn(true);
+        doAnswer(inv -> output.add(inv.getArgument(0))).when(player).sendMessage(anyString());
+
+        effects.register("record", (p, args, ctx) -> {
+            StringBuilder line = new StringBuilder();
+            for (FValue arg : args) line.append(line.isEmpty() ? "" : " ").append(arg.asString());
+            output.add(line.toString());
+        });
+    }
+
+    private BukkitTask queue(Runnable task) {
+        tasks.add(task);
+        return mock(BukkitTask.class);
+    }
+
+    EngineFixture mode(ExecutionMode mode) {
+        config.set("engine.mode", mode.name().toLowerCase());
+        return this;
+    }
+
+    public EngineFixture set(String path, Object value) {
+        config.set(path, value);
+        return this;
+    }
+
+    /** Write {@code name -> source} into the scripts folder and load them all. */
+    ScriptEngine load(Map<String, String> scripts) {
+        Path dir = folder.resolve("scripts");
+        try {
+            Files.createDirectories(dir);
+            for (var e : scripts.entrySet()) Files.writeString(dir.resolve(e.getKey()), e.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (engine == null) engine = new ScriptEngine(plugin, new PersistentStorage(plugin), effects);
+        results = engine.loadAll(dir.toFile());
+        return engine;
+    }
+
+    public ScriptEngine load(String name, String source) {
+        return load(Map.of(name, source));
+    }
+
+    /** Run queued tasks, and any they queue, until none are left or {@code limit} have run. */
+    int runTasks(int limit) {
+        int n = 0;
+        while (!tasks.isEmpty() && n < limit) {
+            tasks.poll().run();
+            n++;
+        }
+        return n;
+    }
+
+    /** Run every timer once, as one server tick would. */
+    void tick() {
+        for (Runnable timer : List.copyOf(timers)) timer.run();
+    }
+
+    /** Run {@code task} on a thread that is not the server thread and wait for it, as an async event would. */
+    void offThread(Runnable task) {
+        Thread thread = new Thread(task, "async-event");
+        offThread = thread;
+        try {
+            thread.start();
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            offThread = null;
+        }
+    }
+
+    void fire(String event) {
+        engine.dispatchEvent(event, player, Map.of());
+    }
+}
@@ -0,0 +1,112 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.util.ScriptLoadResult;
+import org.bukkit.World;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Header filters across two files: {@code type:} picks handlers through the
+ * dispatch table's type index, unfiltered handlers run for every type, and
+ * {@code world:} and {@code permission:} are checked per handler. Handlers
+ * run in load order, file by file.
+ */
+class EventFilterTest {
+
+    private static final Map<String, String> SCRIPTS = Map.of(
+            "a.fk", """
+                    on block-break type: diamond_ore, emerald_ore:
+                        record "a ore %block-type%"
+
+                    on block-break world: mining:
+                        record "a mining %block-type%"
+
+                    on block-break:
+                        record "a any %block-type%"
+                    """,
+            "b.fk", """
+                    on block-break type: diamond_ore permission: vip.mine:
+                        record "b vip %block-type%"
+
+                    on block-break type: stone world: nether:
+                        record "b nether stone"
+                    """);
+
+    @TempDir Path dir;
+
+    private EngineFixture fixture;
+    private ScriptEngine  engine;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new EngineFixture(dir);
+        World world = mock(World.class);
+        when(world.getName()).thenReturn("world");
+        when(fixture.player.getWorld()).thenReturn(world);
+    }
+
+    private List<String> breakBlock(String type, String world) {
+        fixture.output.clear();
+        engine.dispatchEvent("block-break", fixture.player,
+                Map.of("block-type", FValue.of(type), "block-world", FValue.of(world)));
+        return List.copyOf(fixture.output);
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void typeFilterSelectsHandlers(ExecutionMode mode) {
+        engine = fixture.mode(mode).load(SCRIPTS);
+
+        assertEquals(List.of("a ore diamond_ore", "a any diamond_ore"), breakBlock("diamond_ore", "world"));
+        assertEquals(List.of("a ore emerald_ore", "a any emerald_ore"), breakBlock("emerald_ore", "world"));
+        assertEquals(List.of("a any dirt"), breakBlock("dirt", "world"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void worldFilterUsesTheBlockWorld(ExecutionMode mode) {
+        engine = fixture.mode(mode).load(SCRIPTS);
+
+        assertEquals(List.of("a mining dirt", "a any dirt"), breakBlock("dirt", "mining"));
+        assertEquals(List.of("a any stone", "b nether stone"), breakBlock("stone", "nether"));
+        assertEquals(List.of("a any stone"), breakBlock("stone", "world"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void permissionFilterChecksThePlayer(ExecutionMode mode) {
+        engine = fixture.mode(mode).load(SCRIPTS);
+        assertEquals(List.of("a ore diamond_ore", "a any diamond_ore"), breakBlock("diamond_ore", "world"));
+
+        when(fixture.player.hasPermission("vip.mine")).thenReturn(true);
+        assertEquals(List.of("a ore diamond_ore", "a any diamond_ore", "b vip diamond_ore"),
+                breakBlock("diamond_ore", "world"));
+    }
+
+    @Test
+    void unknownFilterKeyIsAParseErrorWithItsLine() {
+        fixture.load("bad.fk", """
+                on join:
+                    record "hi"
+
+                on block-break biome: desert:
+                    record "never"
+                """);
+
+        ScriptLoadResult result = fixture.results.get(0);
+        assertEquals(ScriptLoadResult.Status.PARSE_ERROR, result.getStatus());
+        assertEquals(4, result.getErrorLine());
+        assertTrue(result.getErrorMessage().contains("biome"), result.getErrorMessage());
+    }
+}
@@ -0,0 +1,184 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.optimizer.ASTOptimizer;
+import yaluv.flok.engine.optimizer.ASTPrinter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Calls to script functions give the same output with engine.optimize on
+ * and off in every engine.mode, and the optimised handlers show which calls
+ * were substituted, hoisted in front of their statement, or kept as calls.
+ */
+class InliningTest {
+
+    static final String SCRIPT = """
+            function double(x):
+                return %x% * 2
+
+            function clamp(v, lo, hi):
+                if %v% < %lo%:
+                    return %lo%
+                if %v% > %hi%:
+                    return %hi%
+                return %v%
+
+            function tally(n):
+                if %n% > 1:
+                    %t% = "big"
+                return "%n%:%t%"
+
+            function fact(n):
+                if %n% <= 1:
+                    return 1
+                return %n% * fact(%n% - 1)
+
+            function logged(m):
+                record "log %m%"
+                return %m%
+
+            on substitute:
+                record double(%p%)
+
+            on hoist:
+                record clamp(%p% * 10, 0, 50)
+                %c% = clamp(%p%, 0, 3) + clamp(%p%, 5, 9)
+                record "%c%"
+
+            on loop:
+                for i in [2, 1, 3, 1]:
+                    record tally(%i%)
+
+            on lazy:
+                if %p% > 100 and clamp(%p% + 1, 0, 10) == 10:
+                    record "and"
+                if %p% > 0 or clamp(%p% + 1, 0, 10) == 10:
+                    record "or"
+                %i% = 0
+                while clamp(%i% + 1, 0, 3) > %i%:
+                    %i% += 1
+                record "%i%"
+
+            on calls:
+                record fact(%p%)
+                %x% = logged(%p%) + logged(%p% + 1)
+                record "%x%"
+            """;
+
+    @TempDir Path dir;
+
+    private EngineFixture fixture(String mode, boolean optimize) {
+        EngineFixture fixture = new EngineFixture(dir).set("engine.optimize", optimize);
+        if (mode.equals("jit")) {
+            fixture.set("engine.mode", "bytecode").set("engine.jit.scripts.inline", "always");
+        } else {
+            fixture.set("engine.mode", mode).set("engine.jit.enabled", false);
+        }
+        return fixture;
+    }
+
+    private List<String> run(String mode, boolean optimize, String event) {
+        EngineFixture fixture = fixture(mode, optimize);
+        ScriptEngine engine = fixture.load("inline.fk", SCRIPT);
+        assertEquals(mode.equals("jit"), engine.getJitCompiledCount() > 0);
+        engine.dispatchEvent(event, fixture.player, Map.of("p", FValue.of(7)));
+        return fixture.output;
+    }
+
+    /** The optimised handler of {@code event}, as ASTPrinter prints it. */
+    private String handler(String event) {
+        ScriptEngine engine = fixture("tree", true).load("inline.fk", SCRIPT);
+        ASTNode.EventBlock eb = engine.getScripts().iterator().next().getEvents(event).get(0);
+        return ASTPrinter.print(new ASTNode.Program(List.of(eb), eb.line()));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "substitute | 14",
+            "hoist      | 50,10",
+            "loop       | 2:big,1:,3:big,1:",
+            "lazy       | or,3",
+            "calls      | 5040,log 7,log 8,15",
+    })
+    void optimizedRunGivesTheSameOutput(String event, String expected) {
+        List<String> want = List.of(expected.split(","));
+        for (String mode : List.of("tree", "nodes", "bytecode", "jit")) {
+            assertEquals(want, run(mode, false, event), mode + " without optimize");
+            assertEquals(want, run(mode, true, event), mode + " with optimize");
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"double(", "double%"})
+    void singleReturnWithSimpleArgumentsIsSubstituted(String absent) {
+        String handler = handler("substitute");
+        assertTrue(handler.contains("(%p% * 2)"), handler);
+        assertFalse(handler.contains(absent), handler);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"hoist, clamp", "loop, tally"})
+    void longerBodyIsHoistedInFrontOfItsStatement(String event, String function) {
+        String handler = handler(event);
+        assertFalse(handler.contains(function + "("), handler);
+        assertTrue(handler.contains("%" + function + "%"), handler);
+    }
+
+    @Test
+    void localReadBeforeAssignmentIsResetEachIteration() {
+        // A real call starts %t% as null every time; the copy in the loop body resets it first.
+        String handler = handler("loop");
+        assertTrue(handler.matches("(?s).*for %i% in [^\\n]*\\n[^\\n]*%tally%\\d+\\.t% = \\n.*"), handler);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"and", "or", "while"})
+    void callUnderShortCircuitOrLoopConditionStaysACall(String where) {
+        String handler = handler("lazy");
+        assertFalse(handler.contains("clamp%"), handler);
+        String line = handler.lines().filter(l -> l.contains(where + " ")).findFirst().orElseThrow();
+        assertTrue(line.contains("clamp((%"), line);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"fact(", "logged(%p%)", "logged((%p% + 1))"})
+    void recursiveAndImpureFunctionsStayCalls(String call) {
+        String handler = handler("calls");
+        assertTrue(handler.contains(call), handler);
+        assertFalse(handler.contains("fact%") || handler.contains("logged%"), handler);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void callInAConditionalBranchStaysACall(boolean ifTrue) {
+        // The parser has no conditional expression; the optimiser can still meet one in a cached tree.
+        ASTNode call = new ASTNode.FunctionCall("clamp", List.of(
+                new ASTNode.BinaryOp("+", new ASTNode.VarRef("p", 9), new ASTNode.Literal(FValue.of(1), 9), 9),
+                new ASTNode.Literal(FValue.of(0), 9), new ASTNode.Literal(FValue.of(10), 9)), 9);
+        ASTNode other = new ASTNode.Literal(FValue.of(0), 9);
+        ASTNode cond  = new ASTNode.Conditional(new ASTNode.VarRef("q", 9), ifTrue ? call : other, ifTrue ? other : call, 9);
+        ASTNode.Program program = new ASTNode.Program(List.of(
+                functions().get(1),
+                new ASTNode.EventBlock("test", List.of(), List.of(),
+                        new ASTNode.Block(List.of(new ASTNode.EffectStmt("record", List.of(cond), 9)), 9), 8)), 1);
+
+        String printed = ASTPrinter.print(ASTOptimizer.optimize(program)).split("on test")[1];
+        assertTrue(printed.contains("clamp((%p% + 1)"), printed);
+        assertFalse(printed.contains("clamp%"), printed);
+    }
+
+    private List<ASTNode> functions() {
+        return fixture("tree", false).load("inline.fk", SCRIPT).getScripts().iterator().next().getAst().children();
+    }
+}
@@ -0,0 +1,107 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.util.ScriptLoadResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * engine.lazy-compile: only headers are parsed at load and scripts compile
+ * on first use. Body errors are reported then, or at load with parse-at-load.
+ */
+class LazyCompileTest {
+
+    @TempDir Path dir;
+
+    private EngineFixture fixture() {
+        return new EngineFixture(dir)
+                .set("engine.lazy-compile.enabled", true)
+                .set("engine.lazy-compile.background", false);
+    }
+
+    @Test
+    void scriptCompilesOnFirstUse() {
+        EngineFixture fixture = fixture();
+        ScriptEngine engine = fixture.load("ok.fk", """
+                on ping:
+                    record "pong"
+                """);
+        assertEquals(ScriptLoadResult.Status.DEFERRED, fixture.results.get(0).getStatus());
+        assertEquals(1, engine.getDeferredScriptCount());
+
+        fixture.fire("ping");
+        assertEquals(List.of("pong"), fixture.output);
+        assertEquals(0, engine.getDeferredScriptCount());
+    }
+
+    static final Map<String, String> BROKEN = Map.of(
+            "ok.fk", """
+                    on ping:
+                        record "pong"
+                    """,
+            "broken.fk", """
+                    on ping:
+                        record "broken"
+
+                    on pong:
+                        %x% = (1 +
+                    """);
+
+    @Test
+    void bodyErrorIsReportedOnFirstUse() {
+        EngineFixture fixture = fixture();
+        ScriptEngine engine = fixture.load(BROKEN);
+        assertTrue(fixture.results.stream().allMatch(ScriptLoadResult::isDeferred));
+        assertEquals(2, engine.getLoadedScriptCount());
+
+        fixture.fire("ping");
+
+        assertEquals(List.of("pong"), fixture.output);
+        assertEquals(1, engine.getLoadedScriptCount());
+        ScriptLoadResult broken = engine.getDeferredErrors().iterator().next();
+        assertEquals("broken.fk", broken.getFileName());
+        assertEquals(ScriptLoadResult.Status.PARSE_ERROR, broken.getStatus());
+        assertEquals(5, broken.getErrorLine());
+
+        fixture.load(Map.of("broken.fk", "on ping:\n    record \"fixed\"\n"));
+        assertTrue(engine.getDeferredErrors().isEmpty());
+    }
+
+    @Test
+    void parseAtLoadReportsBodyErrorsAtLoad() {
+        EngineFixture fixture = fixture().set("engine.lazy-compile.parse-at-load", true);
+        ScriptEngine engine = fixture.load(BROKEN);
+
+        ScriptLoadResult broken = fixture.results.stream()
+                .filter(r -> r.getFileName().equals("broken.fk")).findFirst().orElseThrow();
+        assertEquals(ScriptLoadResult.Status.PARSE_ERROR, broken.getStatus());
+        assertEquals(5, broken.getErrorLine());
+        assertEquals(1, engine.getLoadedScriptCount());
+
+        fixture.fire("ping");
+        assertEquals(List.of("pong"), fixture.output);
+        assertTrue(engine.getDeferredErrors().isEmpty());
+    }
+
+    @Test
+    void eventFromAnotherThreadIsLimitedOnce() {
+        EngineFixture fixture = fixture().set("limits.events.chat", "2/10s");
+        fixture.load("chat.fk", """
+                on chat:
+                    record "hi"
+                """);
+
+        // The first event is handed to the server thread to compile the script.
+        fixture.offThread(() -> fixture.fire("chat"));
+        assertEquals(1, fixture.runTasks(10));
+        fixture.offThread(() -> fixture.fire("chat"));
+        fixture.offThread(() -> fixture.fire("chat"));
+
+        assertEquals(List.of("hi", "hi"), fixture.output);
+    }
+}
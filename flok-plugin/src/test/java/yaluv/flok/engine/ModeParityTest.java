@@ -0,0 +1,122 @@
+package yaluv.flok.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The same script gives the same output in every engine.mode, and with its
+ * bytecode promoted to JVM classes up front.
+ */
+class ModeParityTest {
+
+    static final String SCRIPT = """
+            function fib(n):
+                if %n% < 2:
+                    return %n%
+                return fib(%n% - 1) + fib(%n% - 2)
+
+            function greet(who):
+                send "hi %who%"
+
+            function first-over(limit, items):
+                for item in %items%:
+                    if %item% > %limit%:
+                        return %item%
+                return -1
+
+            function got(a):
+                return "got %a%"
+
+            on test:
+                %x% = 60 * 20
+                send "x=%x%"
+                %l% = [1, 2, "three"]
+                for item in %l%:
+                    if %item% == 2:
+                        continue
+                    send "item %item%"
+                repeat 3 times:
+                    %x% += 1
+                send "%x%"
+                %i% = 0
+                while %i% < 10:
+                    %i% += 1
+                    if %i% > 4:
+                        break
+                send "i=%i%"
+                %m% = {"a": 1, "b": [5, 6]}
+                send str(%m%["b"][1]) + " " + str(%m%.a)
+                for k in %m%:
+                    send "key %k%"
+                send "fib=" + str(fib(15))
+                greet("bob")
+                send "over=" + str(first-over(3, [1, 5, 9])) + " " + str(first-over(10, [1, 5, 9]))
+                __coins__ += 5
+                __coins__ -= 2
+                send "coins __coins__"
+                send upper("abc") + str(length([1,2,3])) + str(not true) + str(-%x%)
+                %s% = %x% > 3 and "yes" or "no"
+                send %s%
+                for c in "ab":
+                    send %c%
+                send "%nothing%|" + str(10 / 4) + "|" + str(2 ^ 10) + "|" + str(7 % 3)
+                send "contains: " + str([1,2] contains 2) + str("hello" contains "ell")
+                %t% = 0
+                for a in range(0, 4):
+                    for b in range(0, 4):
+                        if %b% > %a%:
+                            break
+                        %t% += %a% * %b%
+                send "t=%t%"
+                send got("x", greet("extra"))
+                send got() + "|"
+            """;
+
+    static final List<String> EXPECTED = List.of(
+            "x=1200", "item 1", "item three", "1203", "i=5", "6 1", "key a", "key b",
+            "fib=610", "hi bob", "over=5 -1", "coins 3", "ABC3false-1203", "yes", "a", "b",
+            "|2.5|1024|1", "contains: truetrue", "t=25", "hi extra", "got x", "got |");
+
+    @TempDir Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tree", "nodes", "bytecode", "jit"})
+    void everyModeGivesTheSameOutput(String mode) {
+        EngineFixture fixture = new EngineFixture(dir);
+        if (mode.equals("jit")) {
+            fixture.set("engine.mode", "bytecode").set("engine.jit.scripts.parity", "always");
+        } else {
+            fixture.set("engine.mode", mode).set("engine.jit.enabled", false);
+        }
+        ScriptEngine engine = fixture.load("parity.fk", SCRIPT);
+        assertEquals(mode.equals("jit"), engine.getJitCompiledCount() > 0);
+
+        fixture.fire("test");
+
+        assertEquals(EXPECTED, fixture.output);
+    }
+
+    /** Chunks promoted part-way through a run, and on later runs, agree with the VM. */
+    @Test
+    void promotedChunksGiveTheSameOutputAsTheVm() {
+        EngineFixture fixture = new EngineFixture(dir)
+                .set("engine.mode", "bytecode").set("engine.jit.threshold", 3);
+        ScriptEngine engine = fixture.load("parity.fk", SCRIPT);
+        assertEquals(0, engine.getJitCompiledCount());
+
+        for (int run = 1; run <= 4; run++) {
+            fixture.output.clear();
+            fixture.fire("test");
+            String coins = "coins " + 3 * run;
+            assertEquals(EXPECTED.stream().map(l -> l.startsWith("coins") ? coins : l).toList(), fixture.output);
+        }
+        assertTrue(engine.getJitCompiledCount() > 1);
+    }
+}
@@ -0,0 +1,94 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.runtime.ContextPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A handler whose effect dispatches another event on the same thread, as a
+ * teleport firing PlayerTeleportEvent does. The inner run must get its own
+ * context: the outer handler's locals, loop state and return flag survive,
+ * and the pool is back at depth 0 afterwards.
+ */
+class NestedDispatchTest {
+
+    @TempDir Path dir;
+
+    private EngineFixture fixture;
+    private ScriptEngine  engine;
+    private final List<Integer> depths = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        fixture = new EngineFixture(dir);
+        // nest <event> [n]: dispatch <event> right now, with %n% as a param.
+        fixture.effects.register("nest", (p, args, ctx) -> {
+            depths.add(ContextPool.depth());
+            Map<String, FValue> params = args.size() > 1 ? Map.of("n", args.get(1)) : Map.of();
+            engine.dispatchEvent(args.get(0).asString(), p, params);
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void outerLocalsAndFlagsSurviveNestedDispatch(ExecutionMode mode) {
+        engine = fixture.mode(mode).load("nested.fk", """
+                on outer:
+                    %a% = "kept"
+                    %i% = 0
+                    while %i% < 3:
+                        %i% += 1
+                        nest "inner"
+                        record "outer %a% %i%"
+                    record "done %a%"
+
+                on inner:
+                    %a% = "clobbered"
+                    %i% = 100
+                    while true:
+                        break
+                    for x in [1, 2]:
+                        continue
+                    return
+                    record "unreachable"
+                """);
+
+        fixture.fire("outer");
+
+        assertEquals(List.of("outer kept 1", "outer kept 2", "outer kept 3", "done kept"), fixture.output);
+        assertEquals(List.of(1, 1, 1), depths);
+        assertEquals(0, ContextPool.depth());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void nestingPastThePoolDepthUnwindsCleanly(ExecutionMode mode) {
+        engine = fixture.mode(mode).load("deep.fk", """
+                on deep:
+                    %mine% = %n%
+                    if %n% < 40:
+                        nest "deep" %n% + 1
+                    record "deep %mine% %n%"
+                """);
+
+        engine.dispatchEvent("deep", fixture.player, Map.of("n", FValue.of(0)));
+
+        assertEquals(41, fixture.output.size());
+        for (int i = 0; i <= 40; i++) {
+            int n = 40 - i;
+            assertEquals("deep " + n + " " + n, fixture.output.get(i));
+        }
+        for (int i = 0; i < depths.size(); i++) assertEquals(i + 1, depths.get(i));
+        assertEquals(0, ContextPool.depth());
+    }
+}
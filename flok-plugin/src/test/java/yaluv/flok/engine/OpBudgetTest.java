@@ -0,0 +1,107 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * safety.max-ops is charged per straight-line block. A runaway loop still
+ * pays for its whole body every iteration, so it halts at the same limit;
+ * code a run never reaches, past an early return or in the branch not
+ * taken, costs nothing.
+ */
+class OpBudgetTest {
+
+    /** 150 statements of two or more ops each: over the limit of 300 on their own. */
+    static final String HEAVY = "    %x% += 1\n".repeat(150);
+
+    @TempDir Path dir;
+
+    private EngineFixture fixture(String mode, int maxOps) {
+        // Unoptimised, so HEAVY is not folded into one assignment.
+        EngineFixture fixture = new EngineFixture(dir).set("safety.max-ops", maxOps).set("engine.optimize", false);
+        if (mode.equals("jit")) {
+            fixture.set("engine.mode", "bytecode").set("engine.jit.scripts.budget", "always");
+        } else {
+            fixture.set("engine.mode", mode).set("engine.jit.enabled", false);
+        }
+        return fixture;
+    }
+
+    // Each iteration costs what it did when loops were charged at the back-edge
+    // (110 and 100 records); bytecode now charges the body before running it,
+    // so it stops one record sooner.
+    @ParameterizedTest
+    @CsvSource({"tree, 110", "nodes, 110", "bytecode, 99", "jit, 99"})
+    void runawayLoopHaltsAtTheLimit(String mode, int iterations) {
+        EngineFixture fixture = fixture(mode, 1000);
+        fixture.load("budget.fk", """
+                on spin:
+                    %n% = 0
+                    while true:
+                        %n% += 1
+                        record "%n%"
+                    record "unreachable"
+                """);
+
+        fixture.fire("spin");
+
+        assertEquals(iterations, fixture.output.size());
+        assertEquals(String.valueOf(iterations), fixture.output.get(iterations - 1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tree", "nodes", "bytecode", "jit"})
+    void codePastAnEarlyReturnIsNotCharged(String mode) {
+        EngineFixture fixture = fixture(mode, 300);
+        ScriptEngine engine = fixture.load("budget.fk", """
+                on early:
+                    %x% = 0
+                    record "start"
+                    if %skip%:
+                        record "skipped"
+                        return
+                """ + HEAVY + """
+                    record "end"
+                """);
+        assertEquals(mode.equals("jit"), engine.getJitCompiledCount() > 0);
+
+        engine.dispatchEvent("early", fixture.player, Map.of("skip", FValue.of(true)));
+        assertEquals(List.of("start", "skipped"), fixture.output);
+
+        fixture.output.clear();
+        engine.dispatchEvent("early", fixture.player, Map.of("skip", FValue.of(false)));
+        assertEquals(List.of("start"), fixture.output);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tree", "nodes", "bytecode", "jit"})
+    void onlyTheBranchTakenIsCharged(String mode) {
+        EngineFixture fixture = fixture(mode, 300);
+        ScriptEngine engine = fixture.load("budget.fk", """
+                on branch:
+                    %x% = 0
+                    if %heavy%:
+                """ + HEAVY.replace("    ", "        ") + """
+                        record "heavy"
+                    else:
+                        record "light"
+                    record "end"
+                """);
+
+        engine.dispatchEvent("branch", fixture.player, Map.of("heavy", FValue.of(false)));
+        assertEquals(List.of("light", "end"), fixture.output);
+
+        fixture.output.clear();
+        engine.dispatchEvent("branch", fixture.player, Map.of("heavy", FValue.of(true)));
+        assertEquals(List.of(), fixture.output);
+    }
+}
@@ -0,0 +1,138 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.parser.ParseException;
+import yaluv.flok.util.Rate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    static final long SECOND = 1_000_000_000L;
+    static final long T0     = 42 * SECOND;
+
+    private final RateLimiter limiter = new RateLimiter();
+    private final UUID        player  = UUID.randomUUID();
+
+    @Test
+    void fullBucketAllowsABurstOfCount() {
+        RateLimiter.Limit limit = limiter.limit("test.burst", Rate.parse("3/9s"));
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.acquire(player, limit, T0), "run " + i);
+        assertEquals(3 * SECOND, limiter.acquire(player, limit, T0));
+        assertEquals(SECOND, limiter.acquire(player, limit, T0 + 2 * SECOND));
+        assertEquals(0, limiter.acquire(UUID.randomUUID(), limit, T0), "another player has their own bucket");
+    }
+
+    @Test
+    void bucketRefillsOneRunPerInterval() {
+        RateLimiter.Limit limit = limiter.limit("test.refill", Rate.parse("3/9s"));
+        for (int i = 0; i < 3; i++) limiter.acquire(player, limit, T0);
+
+        long t = T0 + 3 * SECOND;
+        assertEquals(0, limiter.acquire(player, limit, t));
+        assertTrue(limiter.acquire(player, limit, t) > 0);
+
+        // Idle for the whole period: back to a full burst, and no more.
+        t += 9 * SECOND;
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.acquire(player, limit, t), "run " + i);
+        assertTrue(limiter.acquire(player, limit, t) > 0);
+    }
+
+    @Test
+    void limitsWithDifferentNamesDoNotShareABucket() {
+        RateLimiter.Limit a = limiter.limit("test.a", Rate.parse("10s"));
+        RateLimiter.Limit b = limiter.limit("test.b", Rate.parse("10s"));
+        assertEquals(0, limiter.acquire(player, a, T0));
+        assertEquals(0, limiter.acquire(player, b, T0));
+        assertTrue(limiter.acquire(player, a, T0) > 0);
+        assertTrue(limiter.acquire(player, limiter.limit("test.a", Rate.parse("10s")), T0) > 0,
+                "a limit read again under the same name keeps its bucket");
+    }
+
+    @Test
+    void pruneKeepsRunningCooldownsAndDropsRefilledBuckets() {
+        RateLimiter.Limit limit = limiter.limit("test.prune", Rate.parse("10s"));
+        UUID other = UUID.randomUUID();
+        limiter.acquire(player, limit, T0);
+        limiter.acquire(other, limit, T0 - 20 * SECOND);
+
+        limiter.prune(other, T0 + SECOND);
+        limiter.prune(player, T0 + SECOND);
+        assertEquals(1, limiter.size());
+        assertEquals(9 * SECOND, limiter.acquire(player, limit, T0 + SECOND), "the cooldown survives a rejoin");
+
+        limiter.prune(player, T0 + 10 * SECOND);
+        assertEquals(0, limiter.size());
+        assertEquals(0, limiter.acquire(player, limit, T0 + 10 * SECOND));
+    }
+
+    @Test
+    void pruneOnlyTouchesTheLeavingPlayer() {
+        RateLimiter.Limit limit = limiter.limit("test.leave", Rate.parse("10s"));
+        UUID other = UUID.randomUUID();
+        limiter.acquire(player, limit, T0);
+        limiter.acquire(other, limit, T0);
+
+        limiter.prune(player, T0 + 10 * SECOND);
+        assertEquals(1, limiter.size(), "the other player's refilled bucket waits for them to leave");
+    }
+
+    @Test
+    void releasedSlotIsReusedWithFullBuckets() {
+        RateLimiter.Limit old = limiter.limit("test.old", Rate.parse("10s"));
+        limiter.acquire(player, old, T0);
+        limiter.release(Set.of("test.old"));
+        assertEquals(0, limiter.limitCount());
+
+        RateLimiter.Limit next = limiter.limit("test.next", Rate.parse("10s"));
+        assertEquals(1, limiter.limitCount());
+        assertEquals(0, limiter.acquire(player, next, T0), "the new limit does not inherit the old bucket");
+    }
+
+    @TempDir Path dir;
+
+    private static final String LIMITED = """
+            on ping limit: 1/10s:
+                record "ping"
+
+            command warp cooldown: 5s:
+                record "warp"
+            """;
+
+    @Test
+    void reloadingAndUnloadingAScriptReleasesItsSlots() throws Exception {
+        EngineFixture fixture = new EngineFixture(dir);
+        ScriptEngine engine = fixture.load("a.fk", LIMITED);
+        RateLimiter limits = engine.getRateLimiter();
+        int loaded = limits.limitCount();
+
+        File scripts = dir.resolve("scripts").toFile();
+        for (int i = 0; i < 5; i++) {
+            Files.writeString(dir.resolve("scripts/a.fk"), LIMITED + "\n# reload " + i + "\n");
+            engine.apply(engine.rebuild(scripts, List.of("a.fk")));
+        }
+        assertEquals(loaded, limits.limitCount(), "a reload keeps its slots");
+
+        Files.delete(dir.resolve("scripts/a.fk"));
+        engine.apply(engine.rebuild(scripts, List.of("a.fk")));
+        assertEquals(loaded - 2, limits.limitCount(), "the script's limit and cooldown are freed");
+    }
+
+    @Test
+    void badRateInAnUncheckedTreeIsALoadError() {
+        ASTNode.Block body = new ASTNode.Block(List.of(), 2);
+        ASTNode.Program ast = new ASTNode.Program(List.of(
+                new ASTNode.CommandBlock("warp", List.of(), "", "", "5parsecs", List.of(), body, 2)), 1);
+        ParseException e = assertThrows(ParseException.class, () -> new CompiledScript("cached.fk", ast).parseRates());
+        assertEquals(2, e.getLine());
+    }
+}
@@ -0,0 +1,93 @@
+package yaluv.flok.engine;
+
+import yaluv.flok.api.FValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * engine.time-slicing: a run that yields continues on later ticks and may use
+ * up to max-lifetime-ops, while a run that has not yielded is still held to
+ * safety.max-ops.
+ */
+class TimeSlicingTest {
+
+    static final String SCRIPT = """
+            on count:
+                %i% = 0
+                while %i% < %n%:
+                    %i% += 1
+                record "done %i%"
+
+            on spin:
+                while true:
+                    record "spin"
+            """;
+
+    @TempDir Path dir;
+
+    private EngineFixture fixture;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new EngineFixture(dir)
+                .set("engine.mode", "bytecode")
+                .set("engine.jit.enabled", false)
+                .set("safety.max-ops", 1000)
+                .set("engine.time-slicing.enabled", true)
+                .set("engine.time-slicing.max-lifetime-ops", 20_000);
+    }
+
+    /** Tick until no run is queued; the number of ticks taken. */
+    private int drain(ScriptEngine engine) {
+        int ticks = 0;
+        while (engine.getSlicedScriptCount() > 0 && ticks < 1000) {
+            fixture.tick();
+            ticks++;
+        }
+        assertEquals(0, engine.getSlicedScriptCount());
+        return ticks;
+    }
+
+    @Test
+    void yieldedRunMayUseMoreThanMaxOps() {
+        ScriptEngine engine = fixture.set("engine.time-slicing.slice-ops", 200).load("slice.fk", SCRIPT);
+
+        engine.dispatchEvent("count", fixture.player, Map.of("n", FValue.of(500)));
+        assertEquals(List.of(), fixture.output);
+        assertEquals(1, engine.getSlicedScriptCount());
+
+        assertTrue(drain(engine) > 1);
+        assertEquals(List.of("done 500"), fixture.output);
+    }
+
+    @Test
+    void runThatHasNotYieldedIsHaltedAtMaxOps() {
+        ScriptEngine engine = fixture.set("engine.time-slicing.slice-ops", 5000).load("slice.fk", SCRIPT);
+
+        engine.dispatchEvent("count", fixture.player, Map.of("n", FValue.of(500)));
+
+        assertEquals(0, engine.getSlicedScriptCount());
+        assertEquals(List.of(), fixture.output);
+    }
+
+    @Test
+    void yieldedRunIsHaltedAtMaxLifetimeOps() {
+        ScriptEngine engine = fixture.set("engine.time-slicing.slice-ops", 200).load("slice.fk", SCRIPT);
+
+        fixture.fire("spin");
+        drain(engine);
+
+        // Each iteration costs several ops: far more than max-ops allows, but
+        // fewer than max-lifetime-ops.
+        int iterations = fixture.output.size();
+        assertTrue(iterations > 1000, "ran " + iterations);
+        assertTrue(iterations < 20_000 / 2, "ran " + iterations);
+    }
+}
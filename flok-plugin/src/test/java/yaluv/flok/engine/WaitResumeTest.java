@@ -0,0 +1,86 @@
+package yaluv.flok.engine;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A {@code wait} carries on where it stopped: inside ifs, loops and function
+ * calls, including a call in the middle of an expression or a loop condition,
+ * without evaluating anything twice.
+ */
+class WaitResumeTest {
+
+    static final String SCRIPT = """
+            function pause(n):
+                record "pause %n%"
+                wait 1 tick
+                return %n% * 2
+
+            function twice(n):
+                repeat 2 times:
+                    %n% = pause(%n%)
+                return %n%
+
+            function note(s):
+                record "note %s%"
+                return %s%
+
+            function below(i, limit):
+                wait 1 tick
+                return %i% < %limit%
+
+            on test:
+                if true:
+                    record "a"
+                    wait 1 tick
+                    record "b"
+                for i in [1, 2, 3]:
+                    if %i% == 2:
+                        continue
+                    wait 1 tick
+                    record "item %i%"
+                %j% = 0
+                while true:
+                    %j% += 1
+                    wait 1 tick
+                    if %j% == 3:
+                        break
+                record "j=%j%"
+                record "r=" + note("x") + str(pause(5)) + note("y")
+                record "twice=" + str(twice(1))
+                %k% = 0
+                while below(%k%, 2):
+                    %k% += 1
+                record "k=%k%"
+                for v in [pause(1), 7]:
+                    record "v=%v%"
+                wait pause(0) + 1 ticks
+                record "done"
+            """;
+
+    static final List<String> EXPECTED = List.of(
+            "a", "b", "item 1", "item 3", "j=3",
+            "note x", "pause 5", "note y", "r=x10y",
+            "pause 1", "pause 2", "twice=4", "k=2",
+            "pause 1", "v=2", "v=7", "pause 0", "done");
+
+    @TempDir Path dir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tree", "nodes", "bytecode"})
+    void waitsResumeWhereTheyStopped(String mode) {
+        EngineFixture fixture = new EngineFixture(dir).set("engine.mode", mode).set("engine.jit.enabled", false);
+        fixture.load("wait.fk", SCRIPT);
+
+        fixture.fire("test");
+        fixture.runTasks(100);
+
+        assertEquals(EXPECTED, fixture.output);
+    }
+}
@@ -0,0 +1,166 @@
+package yaluv.flok.engine.cache;
+
+import yaluv.flok.api.FValue;
+import yaluv.flok.engine.ast.ASTNode;
+import yaluv.flok.engine.ast.ASTNode.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScriptCacheTest {
+
+    static final String SOURCE = "on join:\n    send \"hi\"\n";
+
+    @TempDir Path dir;
+
+    /** A tree with every kind of node, null optional fields and every literal value type. */
+    static Program everyNode() {
+        Map<String, FValue> map = new LinkedHashMap<>();
+        map.put("a", FValue.of(1));
+        map.put("b", FValue.ofList(List.of(FValue.of("x"), FValue.NULL, FValue.of(true))));
+        ASTNode x = new VarRef("x", 3);
+        Block loopBody = new Block(List.of(new BreakStmt(5), new ContinueStmt(6)), 5);
+        Block body = new Block(List.of(
+                new VarAssign("x", new Literal(FValue.of(2.5), 3), 3),
+                new AugAssign("x", "+", new UnaryOp("-", x, 4), 4),
+                new PersistAssign(new Literal(FValue.of("k"), 4), new Literal(FValue.ofMap(map), 4), 4),
+                new PersistAugAssign(new PersistRef(new Literal(FValue.of("k"), 4), 4), "*", x, 4),
+                new IfStmt(new BinaryOp("and", x, new Literal(FValue.TRUE, 5), 5), loopBody,
+                        List.of(new IfStmt.ElseBranch(new Conditional(x, x, new Literal(FValue.NULL, 5), 5), loopBody)),
+                        null, 5),
+                new IfStmt(x, loopBody, List.of(), loopBody, 6),
+                new WhileStmt(x, loopBody, 7),
+                new ForEachStmt("i", new ListLiteral(List.of(x, new Literal(FValue.of(""), 8)), 8), loopBody, 8),
+                new RepeatStmt(new IndexAccess(x, new Literal(FValue.of(0), 9), 9), loopBody, 9),
+                new WaitStmt(new PropertyAccess(x, "size", 10), 10),
+                new EffectStmt("send", List.of(new ASTNode.StringTemplate(List.of("x is ", x, "!"), 11)), 11),
+                new ExprStmt(new FunctionCall("f", List.of(new MapLiteral(List.of(Map.entry(x, x)), 12)), 12), 12),
+                new Block(List.of(new ReturnStmt(null, 13)), 13),
+                new ReturnStmt(x, 14)), 2);
+        return new Program(List.of(
+                new EventBlock("join", List.of("player"), List.of(new EventBlock.Filter("world", List.of("nether", "end"))), body, 1),
+                new CommandBlock("spawn", List.of("s", "sp"), null, "Teleport to spawn", "3/10s", List.of("target"), body, 20),
+                new CommandBlock("home", List.of(), "flok.home", null, "", List.of(), new Block(List.of(), 31), 30),
+                new FunctionDef("f", List.of("a", "b"), body, 40)), 1);
+    }
+
+    /**
+     * Encoded form of a tree. List and map values compare by identity, so
+     * trees are compared by their encoding, which covers every field.
+     */
+    static byte[] encode(ASTNode node) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ASTCodec.write(node, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void collect(Object o, Set<Class<?>> seen) throws ReflectiveOperationException {
+        if (o instanceof List<?> list) {
+            for (Object item : list) collect(item, seen);
+        } else if (o instanceof Map.Entry<?, ?> e) {
+            collect(e.getKey(), seen);
+            collect(e.getValue(), seen);
+        } else if (o instanceof Record r) {
+            if (r instanceof ASTNode) seen.add(r.getClass());
+            for (var c : r.getClass().getRecordComponents()) collect(c.getAccessor().invoke(r), seen);
+        }
+    }
+
+    @Test
+    void everyNodeTypeRoundTrips() throws Exception {
+        Program program = everyNode();
+        Set<Class<?>> seen = new HashSet<>();
+        collect(program, seen);
+        assertEquals(Set.of(ASTNode.class.getPermittedSubclasses()), seen, "test tree is missing a node type");
+
+        byte[] bytes = encode(program);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        ASTNode read = ASTCodec.read(in);
+        assertFalse(in.hasRemaining());
+        assertEquals(program.toString(), read.toString());
+        assertArrayEquals(bytes, encode(read));
+    }
+
+    @Test
+    void storedTreeLoadsForTheSameSourceAndKey() throws IOException {
+        ScriptCache cache = new ScriptCache(dir.toFile(), "v1");
+        cache.store("join", SOURCE, everyNode());
+
+        assertArrayEquals(encode(everyNode()), encode(cache.load("join", SOURCE)));
+        assertArrayEquals(encode(everyNode()), encode(new ScriptCache(dir.toFile(), "v1").load("join", SOURCE)));
+        assertNull(cache.load("other", SOURCE));
+    }
+
+    @Test
+    void entryForAnotherKeyIsStale() {
+        new ScriptCache(dir.toFile(), "v1").store("join", SOURCE, everyNode());
+        assertNull(new ScriptCache(dir.toFile(), "v2").load("join", SOURCE));
+    }
+
+    @Test
+    void entryForChangedSourceIsStale() {
+        ScriptCache cache = new ScriptCache(dir.toFile(), "v1");
+        cache.store("join", SOURCE, everyNode());
+        assertNull(cache.load("join", SOURCE + " "));
+    }
+
+    @Test
+    void truncatedEntryIsIgnored() throws IOException {
+        ScriptCache cache = new ScriptCache(dir.toFile(), "v1");
+        cache.store("join", SOURCE, everyNode());
+        Path entry = dir.resolve("join.fkc");
+        byte[] full = Files.readAllBytes(entry);
+
+        for (int len = 0; len < full.length; len += 7) {
+            Files.write(entry, Arrays.copyOf(full, len));
+            assertNull(cache.load("join", SOURCE), "truncated to " + len);
+        }
+    }
+
+    @Test
+    void entryWithTrailingBytesIsIgnored() throws IOException {
+        ScriptCache cache = new ScriptCache(dir.toFile(), "v1");
+        cache.store("join", SOURCE, everyNode());
+        Path entry = dir.resolve("join.fkc");
+        byte[] full = Files.readAllBytes(entry);
+
+        Files.write(entry, Arrays.copyOf(full, full.length + 4));
+        assertNull(cache.load("join", SOURCE));
+    }
+
+    @Test
+    void countPastTheEndIsCorrupt() throws IOException {
+        // A program claiming Integer.MAX_VALUE children must fail, not allocate for them.
+        byte[] bytes = encode(new Program(List.of(), 1));
+        ByteBuffer.wrap(bytes).putInt(1, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> ASTCodec.read(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void retainDeletesEntriesOfRemovedScripts() {
+        ScriptCache cache = new ScriptCache(dir.toFile(), "v1");
+        cache.store("join", SOURCE, everyNode());
+        cache.store("quit", SOURCE, everyNode());
+
+        cache.retain(Set.of("join"));
+        assertNotNull(cache.load("join", SOURCE));
+        assertNull(cache.load("quit", SOURCE));
+        assertArrayEquals(new String[] {"join.fkc"}, dir.toFile().list());
+    }
+}
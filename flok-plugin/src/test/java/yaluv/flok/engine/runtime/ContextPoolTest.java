@@ -0,0 +1,120 @@
+package yaluv.flok.engine.runtime;
+
+import yaluv.flok.api.FValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextPoolTest {
+
+    /** Contexts this test still holds, innermost first, so a failed test leaves the pool empty. */
+    private final Deque<ExecutionContext> held = new ArrayDeque<>();
+
+    private ExecutionContext acquire() {
+        ExecutionContext ctx = ContextPool.acquire(null, 100);
+        held.push(ctx);
+        return ctx;
+    }
+
+    private void release(ExecutionContext ctx) {
+        assertSame(held.peek(), ctx);
+        ContextPool.release(held.pop());
+    }
+
+    @AfterEach
+    void drain() {
+        while (!held.isEmpty()) ContextPool.release(held.pop());
+        assertEquals(0, ContextPool.depth());
+    }
+
+    @Test
+    void nestedAcquireLeavesOuterContextAlone() {
+        ExecutionContext outer = acquire();
+        outer.setLocal("x", FValue.of(1));
+        outer.signalBreak();
+
+        ExecutionContext inner = acquire();
+        assertNotSame(outer, inner);
+        assertEquals(2, ContextPool.depth());
+        inner.setLocal("x", FValue.of(2));
+        inner.signalReturn(FValue.of(3));
+        release(inner);
+
+        assertEquals(1, ContextPool.depth());
+        assertEquals(1, outer.getLocal("x").asNumber());
+        assertTrue(outer.isBreakSet());
+        assertFalse(outer.isReturnSet());
+        release(outer);
+        assertEquals(0, ContextPool.depth());
+    }
+
+    @Test
+    void contextsAreReusedByDepth() {
+        ExecutionContext first = acquire();
+        release(first);
+        assertSame(first, acquire());
+    }
+
+    @Test
+    void depthReturnsToZeroPastMaxDepth() {
+        for (int i = 0; i < ContextPool.MAX_DEPTH * 2; i++) {
+            ExecutionContext ctx = acquire();
+            assertEquals(1, held.stream().filter(other -> other == ctx).count());
+            ctx.setLocal("depth", FValue.of(i));
+        }
+        assertEquals(ContextPool.MAX_DEPTH * 2, ContextPool.depth());
+        ExecutionContext bottom = held.peekLast();
+        for (int i = ContextPool.MAX_DEPTH * 2 - 1; i >= 0; i--) {
+            ExecutionContext ctx = held.peek();
+            assertEquals(i, ctx.getLocal("depth").asNumber());
+            release(ctx);
+        }
+        assertEquals(0, ContextPool.depth());
+
+        // The pooled ones are still there; the overflow ones were not kept.
+        assertSame(bottom, acquire());
+    }
+
+    @Test
+    void detachedContextIsNotHandedOutAgain() {
+        ExecutionContext ctx = acquire();
+        assertSame(ctx, ContextPool.detach(ctx));
+        release(ctx);
+        assertNotSame(ctx, acquire());
+    }
+
+    @Test
+    void releasingTheOuterContextFirstThrows() {
+        ExecutionContext outer = acquire();
+        ExecutionContext inner = acquire();
+
+        assertThrows(IllegalStateException.class, () -> ContextPool.release(outer));
+        assertEquals(2, ContextPool.depth());
+
+        release(inner);
+        release(outer);
+    }
+
+    @Test
+    void releasingPastTheBottomThrows() {
+        ExecutionContext ctx = acquire();
+        release(ctx);
+
+        assertThrows(IllegalStateException.class, () -> ContextPool.release(ctx));
+        assertThrows(IllegalStateException.class, () -> ContextPool.release(null));
+        assertEquals(0, ContextPool.depth());
+    }
+
+    @Test
+    void releasingAContextFromAnotherDepthPastMaxDepthThrows() {
+        for (int i = 0; i < ContextPool.MAX_DEPTH + 2; i++) acquire();
+        ExecutionContext stray = new ExecutionContext(null, 0);
+
+        assertThrows(IllegalStateException.class, () -> ContextPool.release(stray));
+        assertEquals(ContextPool.MAX_DEPTH + 2, ContextPool.depth());
+    }
+}
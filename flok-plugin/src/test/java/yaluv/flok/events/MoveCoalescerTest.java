@@ -0,0 +1,99 @@
+package yaluv.flok.events;
+
+import yaluv.flok.engine.EngineFixture;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MoveCoalescerTest {
+
+    @TempDir Path dir;
+
+    private final World        overworld = mock(World.class);
+    private final World        nether    = mock(World.class);
+    private final Player       steve     = player("steve");
+    private final Player       alex      = player("alex");
+    private List<String>       output;
+    private MoveCoalescer      moves;
+    private Runnable           onRecord  = () -> {};
+
+    private static Player player(String name) {
+        Player player = mock(Player.class);
+        UUID id = UUID.randomUUID();
+        when(player.getUniqueId()).thenReturn(id);
+        when(player.getName()).thenReturn(name);
+        when(player.isOnline()).thenReturn(true);
+        return player;
+    }
+
+    private Location at(double x) {
+        return at(overworld, x);
+    }
+
+    private static Location at(World world, double x) {
+        return new Location(world, x, 64, 0);
+    }
+
+    @BeforeEach
+    void setUp() {
+        EngineFixture fixture = new EngineFixture(dir).set("events.coalesce-move.enabled", true);
+        output = fixture.output;
+        fixture.effects.register("record", (p, args, ctx) -> {
+            output.add(p.getName() + " " + args.get(0).asString());
+            onRecord.run();
+        });
+        moves = new MoveCoalescer(fixture.load("move.fk", """
+                on player-move:
+                    record "%from-x%>%to-x% x%moves%"
+                """));
+    }
+
+    @Test
+    void firesOncePerPlayerWhoChangedBlock() {
+        moves.record(steve, at(0.5), at(1.5));
+        moves.record(alex,  at(0.1), at(0.9));
+        moves.record(steve, at(1.5), at(2.5));
+        moves.flush();
+        assertEquals(List.of("steve 0.5>2.5 x2"), output);
+
+        moves.flush();
+        assertEquals(1, output.size(), "an empty interval fires nothing");
+    }
+
+    @Test
+    void moveDuringFlushIsKeptForTheNextOne() {
+        // steve's handler moves both players, as a teleport would; both rows of the batch are still being read.
+        onRecord = () -> {
+            onRecord = () -> {};
+            moves.record(steve, at(2.5), at(7.5));
+            moves.record(alex,  at(3.5), at(4.5));
+        };
+        moves.record(steve, at(0.5), at(2.5));
+        moves.record(alex,  at(0.5), at(3.5));
+        moves.flush();
+        assertEquals(List.of("steve 0.5>2.5 x1", "alex 0.5>3.5 x1"), output);
+
+        output.clear();
+        moves.flush();
+        assertEquals(List.of("steve 2.5>7.5 x1", "alex 3.5>4.5 x1"), output);
+    }
+
+    @Test
+    void moveIntoAnotherWorldStartsANewRow() {
+        moves.record(steve, at(0.5), at(2.5));
+        moves.record(steve, at(2.5), at(nether, 0.5));
+        moves.record(steve, at(nether, 0.5), at(nether, 3.5));
+        moves.flush();
+        assertEquals(List.of("steve 0.5>2.5 x1", "steve 0.5>3.5 x2"), output);
+    }
+}
@@ -0,0 +1,30 @@
+package yaluv.flok.util;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "3/10s,   3, 10000",
+            "5s,      1, 5000",
+            "1/s,     1, 1000",
+            "2/500ms, 2, 500",
+            "1/1.5m,  1, 90000",
+            "' 4 / 1h', 4, 3600000",
+    })
+    void parsesRates(String spec, int count, long periodMillis) {
+        assertEquals(new Rate(count, periodMillis * 1_000_000L), Rate.parse(spec));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"x/1s", "0/1s", "-1/s", "/s", "5parsecs", "1/0s", "1..5s", "3/10s/2"})
+    void rejectsBadRates(String spec) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Rate.parse(spec));
+        assertTrue(e.getMessage().startsWith("Invalid rate '" + spec + "'"), e.getMessage());
+    }
+}